@@ -0,0 +1,279 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.evaluation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * This cache stores evaluation reports and neighborhood curves on the disk, so that they outlive
+ * the program. Each report or curve is stored in its own file. The name of the file is derived
+ * from the key of the report and from the fingerprint of the data model. Thus, a directory can be
+ * shared by several data models, and a modified data model never gets the reports of its previous
+ * version. The reports and the curves have their own files, thus they can share the same keys.
+ *
+ * <p>
+ * A report is written in a temporary file, then the file is renamed. Thus, an interrupted program
+ * never leaves a partial report. The cache can be used by several threads at the same time.
+ */
+public class EvaluationCache {
+
+  private static final String CURVE_FILE_EXTENSION = ".curve";
+  /**
+   * Version of the file format. A new version ignores the files of the previous ones. The version
+   * of the computation of the reports is part of the keys given by the callers.
+   */
+  private static final int FORMAT_VERSION = 3;
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+  private static final String KEY_SEPARATOR = "|";
+  private static final String REPORT_FILE_EXTENSION = ".report";
+  private static final String TEMPORARY_FILE_PREFIX = "report-";
+  private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+  /**
+   * Returns the fingerprint of the content of the given data model, i.e. the preferences of all
+   * users. The fingerprint does not depend on the order of the users and of the preferences.
+   */
+  public static String fingerprint(DataModel dataModel) throws TasteException {
+    List<HashCode> userHashes = new ArrayList<>(dataModel.getNumUsers());
+
+    LongPrimitiveIterator iterator = dataModel.getUserIDs();
+    while (iterator.hasNext()) {
+      long user = iterator.nextLong();
+      List<HashCode> preferenceHashes = new ArrayList<>();
+      for (Preference preference : dataModel.getPreferencesFromUser(user)) {
+        preferenceHashes.add(HASH_FUNCTION.newHasher().putLong(user)
+            .putLong(preference.getItemID()).putFloat(preference.getValue()).hash());
+      }
+      if (!preferenceHashes.isEmpty()) {
+        userHashes.add(Hashing.combineUnordered(preferenceHashes));
+      }
+    }
+
+    checkArgument(!userHashes.isEmpty(), "The data model must contain at least one preference.");
+
+    return Hashing.combineUnordered(userHashes).toString();
+  }
+
+  private static double[] readDoubles(DataInputStream input) throws IOException {
+    double[] result = new double[input.readInt()];
+    for (int index = 0; index < result.length; index++) {
+      result[index] = input.readDouble();
+    }
+    return result;
+  }
+
+  private static long[] readLongs(DataInputStream input) throws IOException {
+    long[] result = new long[input.readInt()];
+    for (int index = 0; index < result.length; index++) {
+      result[index] = input.readLong();
+    }
+    return result;
+  }
+
+  private static DescriptiveStatistics readValues(DataInputStream input) throws IOException {
+    DescriptiveStatistics result = new DescriptiveStatistics();
+    int size = input.readInt();
+    for (int index = 0; index < size; index++) {
+      result.addValue(input.readDouble());
+    }
+    return result;
+  }
+
+  private static void writeDoubles(DataOutputStream output, double[] values) throws IOException {
+    output.writeInt(values.length);
+    for (double value : values) {
+      output.writeDouble(value);
+    }
+  }
+
+  private static void writeLongs(DataOutputStream output, long[] values) throws IOException {
+    output.writeInt(values.length);
+    for (long value : values) {
+      output.writeLong(value);
+    }
+  }
+
+  private static void writeValues(DataOutputStream output, DescriptiveStatistics values)
+      throws IOException {
+    output.writeInt((int) values.getN());
+    for (double value : values.getValues()) {
+      output.writeDouble(value);
+    }
+  }
+
+  private final File directory;
+  private final String fingerprint;
+
+  /**
+   * Creates a cache for the given data model, stored in the given directory. The directory is
+   * created if necessary. The fingerprint of the data model is computed once, thus the data model
+   * must not be modified while the cache is used.
+   */
+  public EvaluationCache(File directory, DataModel dataModel) throws IOException, TasteException {
+    checkNotNull(directory);
+    checkNotNull(dataModel);
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create the cache directory " + directory + ".");
+    }
+
+    this.directory = directory;
+    fingerprint = fingerprint(dataModel);
+  }
+
+  /**
+   * Returns the report stored with the given key, or absent if there is none.
+   */
+  public Optional<EvaluationReport> get(String key) throws IOException {
+    Optional<DataInputStream> input = read(key, REPORT_FILE_EXTENSION);
+    if (!input.isPresent()) {
+      return Optional.absent();
+    }
+
+    long predictionRequestNumber = input.get().readLong();
+    long duration = input.get().readLong();
+    DescriptiveStatistics errors = readValues(input.get());
+    DescriptiveStatistics squaredErrors = readValues(input.get());
+
+    return Optional.of(new EvaluationReport(errors, squaredErrors, predictionRequestNumber,
+        duration));
+  }
+
+  /**
+   * Returns the neighborhood curve stored with the given key, or absent if there is none.
+   */
+  public Optional<NeighborhoodCurve> getCurve(String key) throws IOException {
+    Optional<DataInputStream> input = read(key, CURVE_FILE_EXTENSION);
+    if (!input.isPresent()) {
+      return Optional.absent();
+    }
+
+    long predictionRequestNumber = input.get().readLong();
+    double[] errorSums = readDoubles(input.get());
+    double[] squaredErrorSums = readDoubles(input.get());
+    long[] estimationNumbers = readLongs(input.get());
+
+    return Optional.of(new NeighborhoodCurve(errorSums, squaredErrorSums, estimationNumbers,
+        predictionRequestNumber));
+  }
+
+  private File getFile(String key, String extension) {
+    return new File(directory, Hashing.sha256().hashString(getFullKey(key), Charsets.UTF_8)
+        .toString() + extension);
+  }
+
+  private String getFullKey(String key) {
+    return FORMAT_VERSION + KEY_SEPARATOR + fingerprint + KEY_SEPARATOR + key;
+  }
+
+  /**
+   * Stores the given report with the given key. A report previously stored with the same key is
+   * replaced.
+   */
+  public void put(String key, EvaluationReport report) throws IOException {
+    checkNotNull(report);
+
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(content);
+    output.writeUTF(getFullKey(key));
+    output.writeLong(report.getPredictionRequestNumber());
+    output.writeLong(report.getDuration());
+    writeValues(output, report.getValues(MetricType.MEAN_ABSOLUTE_ERROR));
+    writeValues(output, report.getValues(MetricType.ROOT_MEAN_SQUARED_ERROR));
+
+    write(key, REPORT_FILE_EXTENSION, content.toByteArray());
+  }
+
+  /**
+   * Stores the given neighborhood curve with the given key. A curve previously stored with the same
+   * key is replaced.
+   */
+  public void putCurve(String key, NeighborhoodCurve curve) throws IOException {
+    checkNotNull(curve);
+
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(content);
+    output.writeUTF(getFullKey(key));
+    output.writeLong(curve.getPredictionRequestNumber());
+    writeDoubles(output, curve.getErrorSums());
+    writeDoubles(output, curve.getSquaredErrorSums());
+    writeLongs(output, curve.getEstimationNumbers());
+
+    write(key, CURVE_FILE_EXTENSION, content.toByteArray());
+  }
+
+  /**
+   * Returns the content of the file of the given key, after the stored key, or absent if there is
+   * no such file.
+   */
+  private Optional<DataInputStream> read(String key, String extension) throws IOException {
+    File file = getFile(key, extension);
+    if (!file.exists()) {
+      return Optional.absent();
+    }
+
+    DataInputStream result =
+        new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())));
+    // the complete key is stored, in case of a collision of the file names
+    if (!result.readUTF().equals(getFullKey(key))) {
+      return Optional.absent();
+    }
+
+    return Optional.of(result);
+  }
+
+  /**
+   * Writes the given content in the file of the given key. The content is written in a temporary
+   * file, then the file is renamed.
+   */
+  private void write(String key, String extension, byte[] content) throws IOException {
+    File temporaryFile =
+        File.createTempFile(TEMPORARY_FILE_PREFIX, TEMPORARY_FILE_SUFFIX, directory);
+    try {
+      Files.write(temporaryFile.toPath(), content);
+      Files.move(temporaryFile.toPath(), getFile(key, extension).toPath(),
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      // only exists if an error occurred
+      temporaryFile.delete();
+    }
+  }
+}
@@ -74,6 +74,13 @@ public class EvaluationReport {
     return predictionErrors.getStandardDeviation();
   }
 
+  /**
+   * Returns the number of prediction requests, fulfilled or not.
+   */
+  public long getPredictionRequestNumber() {
+    return predictionRequestNumber;
+  }
+
   /**
    * Returns the root mean squared error of the evaluation. The returned value can be NaN.
    */
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.evaluation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Optional;
+
+/**
+ * This class represents the errors of a user-based recommender for each neighborhood size, from 1
+ * neighbor to a maximum. It is produced by
+ * {@link PersonnalRecommenderEvaluator#evaluateNeighborhoods(UserSimilarityBuilder, int,
+ * org.apache.mahout.cf.taste.eval.DataModelBuilder, org.apache.mahout.cf.taste.model.DataModel,
+ * double, double) PersonnalRecommenderEvaluator.evaluateNeighborhoods(…)}, and can be stored in
+ * an {@link EvaluationCache}.
+ */
+public class NeighborhoodCurve {
+
+  /** Sum of the errors, by neighborhood size minus one. */
+  private final double[] errorSums;
+  /** Number of fulfilled prediction requests, by neighborhood size minus one. */
+  private final long[] estimationNumbers;
+  private final long predictionRequestNumber;
+  /** Sum of the squared errors, by neighborhood size minus one. */
+  private final double[] squaredErrorSums;
+
+  /**
+   * Creates a curve from the given sums. The value at the index <code>i</code> is the sum for a
+   * neighborhood of <code>i + 1</code> neighbors.
+   */
+  public NeighborhoodCurve(double[] errorSums, double[] squaredErrorSums,
+      long[] estimationNumbers, long predictionRequestNumber) {
+    checkArgument(errorSums.length == squaredErrorSums.length
+        && errorSums.length == estimationNumbers.length, "The arrays must have the same length.");
+    checkArgument(0 < errorSums.length, "The curve must contain at least one neighborhood size.");
+
+    this.errorSums = errorSums.clone();
+    this.estimationNumbers = estimationNumbers.clone();
+    this.predictionRequestNumber = predictionRequestNumber;
+    this.squaredErrorSums = squaredErrorSums.clone();
+  }
+
+  /**
+   * Checks the given neighborhood size, and returns its index in the arrays.
+   */
+  private int checkNeighbors(int neighbors) {
+    checkArgument(1 <= neighbors && neighbors <= getMaxNeighbors(), "The number of neighbors must"
+        + " be between 1 and the maximum number of neighbors.");
+    return neighbors - 1;
+  }
+
+  /**
+   * Returns the neighborhood size with the best value of the given metric, among the sizes that
+   * reach the given coverage. If several sizes have the best value, the smallest one is returned.
+   * Returns nothing if no size reaches the coverage.
+   */
+  public Optional<Integer> getBestNeighborNumber(MetricType metric, double minimumCoverage) {
+    checkNotNull(metric);
+
+    Optional<Integer> result = Optional.absent();
+    double bestValue = Double.MAX_VALUE;
+
+    for (int neighbors = 1; neighbors <= getMaxNeighbors(); neighbors++) {
+      double value = getValue(metric, neighbors);
+      if (minimumCoverage <= getCoverage(neighbors) && value < bestValue) {
+        bestValue = value;
+        result = Optional.of(neighbors);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the ratio between the number of fulfilled prediction requests and the total number of
+   * requests, for the given neighborhood size.
+   */
+  public double getCoverage(int neighbors) {
+    return estimationNumbers[checkNeighbors(neighbors)] / (double) predictionRequestNumber;
+  }
+
+  /**
+   * Returns the sums of the errors, by neighborhood size minus one. The array is not copied.
+   */
+  double[] getErrorSums() {
+    return errorSums;
+  }
+
+  /**
+   * Returns the numbers of fulfilled prediction requests, by neighborhood size minus one. The array
+   * is not copied.
+   */
+  long[] getEstimationNumbers() {
+    return estimationNumbers;
+  }
+
+  /**
+   * Returns the largest neighborhood size of the curve.
+   */
+  public int getMaxNeighbors() {
+    return errorSums.length;
+  }
+
+  long getPredictionRequestNumber() {
+    return predictionRequestNumber;
+  }
+
+  /**
+   * Returns the sums of the squared errors, by neighborhood size minus one. The array is not
+   * copied.
+   */
+  double[] getSquaredErrorSums() {
+    return squaredErrorSums;
+  }
+
+  /**
+   * Returns the value of the metric for the given neighborhood size. The returned value is NaN if
+   * no prediction request is fulfilled.
+   */
+  public double getValue(MetricType metric, int neighbors) {
+    checkNotNull(metric);
+
+    int index = checkNeighbors(neighbors);
+    double result;
+
+    switch (metric) {
+      case MEAN_ABSOLUTE_ERROR:
+        result = errorSums[index] / estimationNumbers[index];
+        break;
+
+      case ROOT_MEAN_SQUARED_ERROR:
+        result = Math.sqrt(squaredErrorSums[index] / estimationNumbers[index]);
+        break;
+
+      default:
+        throw new UnsupportedOperationException();
+    }
+
+    return result;
+  }
+}
@@ -16,12 +16,23 @@
  */
 package norbert.mynemo.core.evaluation;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.mahout.cf.taste.common.NoSuchItemException;
@@ -39,14 +50,201 @@ import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 import org.apache.mahout.common.RandomUtils;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 
 /**
  * This class provides an evaluation of a recommender in the point of view of only one user.
+ *
+ * <p>
+ * The test sets, also called folds, are independent: each one is evaluated with its own training
+ * model and its own recommender. Thus, the folds are evaluated in parallel by a pool of threads.
+ * All random choices are done before the folds are evaluated, and the errors of the folds are
+ * merged in the order of the folds. Hence, the result does not depend on the number of threads.
+ *
+ * <p>
+ * The folds are evaluated either by a pool created for each evaluation, or by an executor shared
+ * between several evaluators. A shared executor bounds the number of folds evaluated at the same
+ * time by all evaluators.
+ *
+ * <p>
+ * An evaluation can be restricted to the preferences of the target user on some items. Then, only
+ * the folds that contain at least one of these items are evaluated. The folds are built as usual, so
+ * the restricted evaluation is a sample of the complete one.
+ *
+ * <p>
+ * If a seed is given, the random generator is reset with the seed at the beginning of each
+ * evaluation. Thus, all evaluations of the same data use the same test sets, and their results are
+ * comparable, even if they are computed by different evaluators or different runs.
  */
 public class PersonnalRecommenderEvaluator implements RecommenderEvaluator {
+  /**
+   * This class evaluates one test set. It builds the training model and the recommender of the
+   * set, and keeps its own errors, so that several sets can be evaluated at the same time.
+   */
+  private class Fold implements Callable<Fold> {
+    private final FastByIDMap<PreferenceArray> baseTrainingPreferences;
+    private final DataModel dataModel;
+    private final DataModelBuilder dataModelBuilder;
+    private final List<Float> errors;
+    private long predictionRequestNumber;
+    private final RecommenderBuilder recommenderBuilder;
+    private final List<Preference> testSet;
+
+    public Fold(RecommenderBuilder recommenderBuilder, DataModelBuilder dataModelBuilder,
+        DataModel dataModel, FastByIDMap<PreferenceArray> baseTrainingPreferences,
+        List<Preference> testSet) {
+      this.baseTrainingPreferences = baseTrainingPreferences;
+      this.dataModel = dataModel;
+      this.dataModelBuilder = dataModelBuilder;
+      this.recommenderBuilder = recommenderBuilder;
+      this.testSet = testSet;
+      errors = new ArrayList<>(testSet.size());
+    }
+
+    @Override
+    public Fold call() throws TasteException {
+      DataModel trainingModel =
+          buildTrainingModel(dataModelBuilder, dataModel, baseTrainingPreferences, testSet);
+
+      Recommender recommender = recommenderBuilder.buildRecommender(trainingModel);
+
+      for (Preference preference : testSet) {
+        predictionRequestNumber++;
+        errors.add(getError(trainingModel, recommender, preference));
+      }
+
+      return this;
+    }
+  }
+
+  /**
+   * This class evaluates one test set for all neighborhood sizes of a user-based recommender. For
+   * each preference to estimate, the neighbors are walked from the most similar to the least
+   * similar. The estimation for <code>k</code> neighbors only changes when the <code>k</code>th
+   * neighbor has rated the item, thus the errors are kept as segments of neighborhood sizes that
+   * share the same error.
+   */
+  private class NeighborhoodFold implements Callable<NeighborhoodFold> {
+    private final FastByIDMap<PreferenceArray> baseTrainingPreferences;
+    private final DataModel dataModel;
+    private final DataModelBuilder dataModelBuilder;
+    /** Error of each segment, may be NaN. */
+    private final List<Float> errors;
+    /** First neighborhood size of each segment. */
+    private final List<Integer> firstSizes;
+    /** Last neighborhood size of each segment, inclusive. */
+    private final List<Integer> lastSizes;
+    private final int maxNeighbors;
+    private final UserSimilarityBuilder similarityBuilder;
+    private final List<Preference> testSet;
+
+    public NeighborhoodFold(UserSimilarityBuilder similarityBuilder, int maxNeighbors,
+        DataModelBuilder dataModelBuilder, DataModel dataModel,
+        FastByIDMap<PreferenceArray> baseTrainingPreferences, List<Preference> testSet) {
+      this.baseTrainingPreferences = baseTrainingPreferences;
+      this.dataModel = dataModel;
+      this.dataModelBuilder = dataModelBuilder;
+      this.maxNeighbors = maxNeighbors;
+      this.similarityBuilder = similarityBuilder;
+      this.testSet = testSet;
+      errors = new ArrayList<>();
+      firstSizes = new ArrayList<>();
+      lastSizes = new ArrayList<>();
+    }
+
+    private void addSegment(int firstSize, int lastSize, float error) {
+      if (firstSize <= lastSize) {
+        errors.add(error);
+        firstSizes.add(firstSize);
+        lastSizes.add(lastSize);
+      }
+    }
+
+    @Override
+    public NeighborhoodFold call() throws TasteException {
+      DataModel trainingModel =
+          buildTrainingModel(dataModelBuilder, dataModel, baseTrainingPreferences, testSet);
+      UserSimilarity similarity = similarityBuilder.buildUserSimilarity(trainingModel);
+
+      // rank the other users by decreasing similarity, like a nearest-N neighborhood does
+      List<Long> neighbors = new ArrayList<>();
+      final FastByIDMap<Double> similarities = new FastByIDMap<>();
+      LongPrimitiveIterator userIterator = trainingModel.getUserIDs();
+      while (userIterator.hasNext()) {
+        long user = userIterator.nextLong();
+        if (user != targetUser) {
+          double userSimilarity = similarity.userSimilarity(targetUser, user);
+          if (!Double.isNaN(userSimilarity)) {
+            neighbors.add(user);
+            similarities.put(user, userSimilarity);
+          }
+        }
+      }
+      Collections.sort(neighbors, new Comparator<Long>() {
+        @Override
+        public int compare(Long o1, Long o2) {
+          return Double.compare(similarities.get(o2), similarities.get(o1));
+        }
+      });
+      FastByIDMap<Integer> ranks = new FastByIDMap<>(neighbors.size());
+      for (int rank = 0; rank < neighbors.size(); rank++) {
+        ranks.put(neighbors.get(rank), rank);
+      }
+
+      for (Preference preference : testSet) {
+        // the raters of the item among the neighbors, by rank
+        List<Integer> raterRanks = new ArrayList<>();
+        FastByIDMap<Float> values = new FastByIDMap<>();
+        try {
+          PreferenceArray raters = trainingModel.getPreferencesForItem(preference.getItemID());
+          for (int index = 0; index < raters.length(); index++) {
+            Integer rank = ranks.get(raters.getUserID(index));
+            if (rank != null && rank < maxNeighbors) {
+              raterRanks.add(rank);
+              values.put(rank, raters.getValue(index));
+            }
+          }
+        } catch (NoSuchItemException e) {
+          // the item exists in the test data but not in the training data, nobody rated it
+        }
+        Collections.sort(raterRanks);
+
+        // same computation as the user-based recommender, for each neighborhood size
+        double weightedValues = 0;
+        double totalSimilarity = 0;
+        int count = 0;
+        int firstSize = 1;
+        float error = Float.NaN;
+        for (int rank : raterRanks) {
+          double neighborSimilarity = similarities.get(neighbors.get(rank));
+          weightedValues += neighborSimilarity * values.get(rank);
+          totalSimilarity += neighborSimilarity;
+          count++;
+
+          // the new estimation applies from the size that includes this neighbor
+          addSegment(firstSize, rank, error);
+          firstSize = rank + 1;
+          error = Float.NaN;
+          if (1 < count) {
+            float estimation =
+                capEstimatedPreference((float) (weightedValues / totalSimilarity), trainingModel);
+            error = Math.abs(estimation - preference.getValue());
+          }
+        }
+        addSegment(firstSize, maxNeighbors, error);
+      }
+
+      return this;
+    }
+  }
+
+  /** Default number of threads evaluating the folds: the number of available processors. */
+  public static final int DEFAULT_THREAD_NUMBER = Runtime.getRuntime().availableProcessors();
+
   private static float capEstimatedPreference(float estimate, DataModel dataModel) {
     if (dataModel.getMaxPreference() < estimate) {
       return dataModel.getMaxPreference();
@@ -105,14 +303,20 @@ public class PersonnalRecommenderEvaluator implements RecommenderEvaluator {
   private long duration;
   /** Accumulated error. */
   private final DescriptiveStatistics errorStats;
+  /** Executor shared between several evaluators, absent if a pool is created for each evaluation. */
+  private final Optional<ExecutorService> executor;
   private final boolean exhaustive;
   private final MetricType metric;
   private long predictionRequestNumber;
-  private final Random random;
+  private Random random;
+  /** Seed of the random generator for each evaluation, absent for a random seed. */
+  private final Optional<Long> seed;
   /** Accumulated error * error. */
   private final DescriptiveStatistics squaredErrorStats;
-
   private final long targetUser;
+  /** Items of the target user that are tested, absent if all items are tested. */
+  private final Optional<Set<Long>> testedItems;
+  private final int threadNumber;
 
   /**
    * Creates an evaluator for the given user.
@@ -126,12 +330,76 @@ public class PersonnalRecommenderEvaluator implements RecommenderEvaluator {
    * @param exhaustive return a metric based on all preferences
    */
   public PersonnalRecommenderEvaluator(long targetUser, MetricType metric, boolean exhaustive) {
+    this(targetUser, metric, exhaustive, DEFAULT_THREAD_NUMBER);
+  }
+
+  /**
+   * Creates an evaluator for the given user. The test sets are evaluated by at most the given
+   * number of threads.
+   *
+   * @param targetUser the user to evaluate.
+   * @param metric type of metric to return
+   * @param exhaustive return a metric based on all preferences
+   * @param threadNumber maximum number of test sets evaluated at the same time
+   */
+  public PersonnalRecommenderEvaluator(long targetUser, MetricType metric, boolean exhaustive,
+      int threadNumber) {
+    this(targetUser, metric, exhaustive, threadNumber, Optional.<ExecutorService>absent(), Optional
+        .<Set<Long>>absent(), Optional.<Long>absent());
+  }
+
+  /**
+   * Creates an evaluator for the given user. The test sets are evaluated by the given executor. The
+   * executor is not shut down by the evaluator, it can be shared by several evaluators.
+   *
+   * <p>
+   * The tasks submitted to the executor never wait for other tasks of the executor. Thus, the
+   * executor may be a bounded pool.
+   *
+   * @param targetUser the user to evaluate.
+   * @param metric type of metric to return
+   * @param exhaustive return a metric based on all preferences
+   * @param executor executor of the test sets
+   */
+  public PersonnalRecommenderEvaluator(long targetUser, MetricType metric, boolean exhaustive,
+      ExecutorService executor) {
+    this(targetUser, metric, exhaustive, 1, Optional.of(executor), Optional.<Set<Long>>absent(),
+        Optional.<Long>absent());
+  }
+
+  /**
+   * Creates an evaluator for the given user. The test sets are evaluated by the given executor,
+   * that is not shut down by the evaluator.
+   *
+   * @param targetUser the user to evaluate.
+   * @param metric type of metric to return
+   * @param exhaustive return a metric based on all preferences
+   * @param executor executor of the test sets
+   * @param testedItems items of the target user to test, absent to test all items
+   * @param seed seed of the random generator for each evaluation, absent for a random seed
+   */
+  public PersonnalRecommenderEvaluator(long targetUser, MetricType metric, boolean exhaustive,
+      ExecutorService executor, Optional<Set<Long>> testedItems, Optional<Long> seed) {
+    this(targetUser, metric, exhaustive, 1, Optional.of(executor), testedItems, seed);
+  }
+
+  private PersonnalRecommenderEvaluator(long targetUser, MetricType metric, boolean exhaustive,
+      int threadNumber, Optional<ExecutorService> executor, Optional<Set<Long>> testedItems,
+      Optional<Long> seed) {
+    checkNotNull(testedItems);
+    checkNotNull(seed);
+    checkArgument(0 < threadNumber, "The number of threads must be at least 1.");
+
     random = RandomUtils.getRandom();
     this.targetUser = targetUser;
     this.metric = metric;
     errorStats = new DescriptiveStatistics();
     squaredErrorStats = new DescriptiveStatistics();
     this.exhaustive = exhaustive;
+    this.executor = executor;
+    this.seed = seed;
+    this.testedItems = testedItems;
+    this.threadNumber = threadNumber;
   }
 
   /**
@@ -206,6 +474,9 @@ public class PersonnalRecommenderEvaluator implements RecommenderEvaluator {
    * <p>
    * If the evaluation is not exhaustive or if the given percentage is less than 0.5, then only one
    * set is build, that contains the given percentage of preference.
+   *
+   * <p>
+   * If the tested items are restricted, only the sets containing a tested item are returned.
    */
   private List<List<Preference>> buildTestSets(DataModel dataModel, double trainingPercentage)
       throws TasteException {
@@ -214,7 +485,8 @@ public class PersonnalRecommenderEvaluator implements RecommenderEvaluator {
 
     if (trainingPercentage < 0.5 || !exhaustive) {
       // create only one set, fill it, exit
-      return buildNonExhaustiveTestSet(targetUserPreferences, trainingPercentage);
+      return retainTestedItems(buildNonExhaustiveTestSet(targetUserPreferences,
+          trainingPercentage));
     }
 
     int numberOfPreferences = dataModel.getPreferencesFromUser(targetUser).length();
@@ -238,24 +510,83 @@ public class PersonnalRecommenderEvaluator implements RecommenderEvaluator {
       }
     }
 
-    return result;
+    return retainTestedItems(result);
   }
 
   /**
-   * Evaluates the given preferences according to the given recommender using the given training
-   * model.
-   *
-   * <p>
-   * The resulting errors are added to {@link #errorStats} and {@link #squaredErrorStats}.
+   * Returns a training model containing the given preferences and the preferences of the target
+   * user, except the given ones.
    */
-  private void evaluate(DataModel trainingModel, Recommender recommender,
-      List<Preference> preferencesToEvaluate) throws TasteException {
-    for (Preference preference : preferencesToEvaluate) {
-      float error = getError(trainingModel, recommender, preference);
-      if (!Float.isNaN(error)) {
-        errorStats.addValue(error);
-        squaredErrorStats.addValue(error * error);
+  private DataModel buildTrainingModel(DataModelBuilder dataModelBuilder, DataModel dataModel,
+      FastByIDMap<PreferenceArray> baseTrainingPreferences, List<Preference> testSet)
+      throws TasteException {
+    // add the preferences of the target user
+    FastByIDMap<PreferenceArray> trainingPreferences = baseTrainingPreferences.clone();
+    addUserPreferences(dataModel, trainingPreferences, testSet);
+
+    return (dataModelBuilder == null) ? new GenericDataModel(trainingPreferences)
+        : dataModelBuilder.buildDataModel(trainingPreferences);
+  }
+
+  /**
+   * Evaluates the given folds, and returns them in the same order. If there is a shared executor,
+   * the folds are evaluated by it. Otherwise, if there is more than one fold and more than one
+   * thread, the folds are evaluated in parallel by a new pool.
+   */
+  private <T> List<T> evaluate(List<? extends Callable<T>> folds) throws TasteException {
+    if (executor.isPresent()) {
+      return evaluate(folds, executor.get());
+    }
+
+    int poolSize = Math.min(threadNumber, folds.size());
+    if (poolSize <= 1) {
+      List<T> result = new ArrayList<>(folds.size());
+      for (Callable<T> fold : folds) {
+        try {
+          result.add(fold.call());
+        } catch (TasteException | RuntimeException e) {
+          throw e;
+        } catch (Exception e) {
+          throw new TasteException(e);
+        }
       }
+      return result;
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+    try {
+      return evaluate(folds, pool);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Evaluates the given folds with the given executor, and returns them in the same order.
+   */
+  private <T> List<T> evaluate(List<? extends Callable<T>> folds, ExecutorService executor)
+      throws TasteException {
+    try {
+      List<Future<T>> futures = executor.invokeAll(folds);
+      List<T> result = new ArrayList<>(futures.size());
+      for (Future<T> future : futures) {
+        result.add(future.get());
+      }
+      return result;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TasteException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof TasteException) {
+        throw (TasteException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new TasteException(e.getCause());
     }
   }
 
@@ -291,6 +622,7 @@ public class PersonnalRecommenderEvaluator implements RecommenderEvaluator {
     errorStats.clear();
     squaredErrorStats.clear();
     predictionRequestNumber = 0;
+    resetRandom();
 
     // all training preferences except the target user's one
     FastByIDMap<PreferenceArray> baseTrainingPreferences =
@@ -300,18 +632,21 @@ public class PersonnalRecommenderEvaluator implements RecommenderEvaluator {
 
     // the idea is to generate a recommendation for each preference of the
     // target user.
+    List<Fold> folds = new ArrayList<>(testSets.size());
     for (List<Preference> currentTestSet : testSets) {
-      // add the preferences of the target user
-      FastByIDMap<PreferenceArray> currentTrainingPreferences = baseTrainingPreferences.clone();
-      addUserPreferences(dataModel, currentTrainingPreferences, currentTestSet);
-
-      DataModel currentTrainingModel =
-          (dataModelBuilder == null) ? new GenericDataModel(currentTrainingPreferences)
-              : dataModelBuilder.buildDataModel(currentTrainingPreferences);
-
-      Recommender currentRecommender = recommenderBuilder.buildRecommender(currentTrainingModel);
+      folds.add(new Fold(recommenderBuilder, dataModelBuilder, dataModel,
+          baseTrainingPreferences, currentTestSet));
+    }
 
-      evaluate(currentTrainingModel, currentRecommender, currentTestSet);
+    // merge the errors in the order of the folds
+    for (Fold fold : evaluate(folds)) {
+      predictionRequestNumber += fold.predictionRequestNumber;
+      for (float error : fold.errors) {
+        if (!Float.isNaN(error)) {
+          errorStats.addValue(error);
+          squaredErrorStats.addValue(error * error);
+        }
+      }
     }
 
     duration = timer.stop().getDuration();
@@ -319,6 +654,75 @@ public class PersonnalRecommenderEvaluator implements RecommenderEvaluator {
     return getEvaluationSummary(metric);
   }
 
+  /**
+   * Evaluates a user-based recommender for all neighborhood sizes from 1 to the given maximum, and
+   * returns the errors for each size. The test sets are built exactly like the
+   * {@link #evaluate(RecommenderBuilder, DataModelBuilder, DataModel, double, double) evaluate}
+   * method does. Each test set is evaluated once, whatever the number of sizes, whereas the
+   * <code>evaluate</code> method must be called for each size.
+   *
+   * <p>
+   * The estimations are the ones of a generic user-based recommender with a nearest-N
+   * neighborhood, using the similarity provided by the given builder. The neighbors with the same
+   * similarity may be ranked in another order than the neighborhood does.
+   *
+   * <p>
+   * This method does not change the result of {@link #getEvaluationReport()}.
+   */
+  public NeighborhoodCurve evaluateNeighborhoods(UserSimilarityBuilder similarityBuilder,
+      int maxNeighbors, DataModelBuilder dataModelBuilder, DataModel dataModel,
+      double trainingPercentage, double evaluationPercentage) throws TasteException {
+    checkNotNull(similarityBuilder);
+    checkArgument(0 < maxNeighbors, "The maximum number of neighbors must be at least 1.");
+
+    resetRandom();
+
+    // all training preferences except the target user's one
+    FastByIDMap<PreferenceArray> baseTrainingPreferences =
+        buildBaseTrainingPreferences(dataModel, evaluationPercentage);
+
+    List<List<Preference>> testSets = buildTestSets(dataModel, trainingPercentage);
+
+    List<NeighborhoodFold> folds = new ArrayList<>(testSets.size());
+    for (List<Preference> currentTestSet : testSets) {
+      folds.add(new NeighborhoodFold(similarityBuilder, maxNeighbors, dataModelBuilder,
+          dataModel, baseTrainingPreferences, currentTestSet));
+    }
+
+    // merge the segments in the order of the folds: each segment adds its error to all sizes it
+    // covers, the differences are accumulated at the bounds of the segments
+    double[] errorSums = new double[maxNeighbors + 1];
+    double[] squaredErrorSums = new double[maxNeighbors + 1];
+    long[] estimationNumbers = new long[maxNeighbors + 1];
+    long requestNumber = 0;
+    for (NeighborhoodFold fold : evaluate(folds)) {
+      requestNumber += fold.testSet.size();
+      for (int index = 0; index < fold.errors.size(); index++) {
+        float error = fold.errors.get(index);
+        if (Float.isNaN(error)) {
+          continue;
+        }
+        int first = fold.firstSizes.get(index) - 1;
+        int end = fold.lastSizes.get(index);
+        errorSums[first] += error;
+        errorSums[end] -= error;
+        squaredErrorSums[first] += error * error;
+        squaredErrorSums[end] -= error * error;
+        estimationNumbers[first]++;
+        estimationNumbers[end]--;
+      }
+    }
+    for (int index = 1; index < maxNeighbors; index++) {
+      errorSums[index] += errorSums[index - 1];
+      squaredErrorSums[index] += squaredErrorSums[index - 1];
+      estimationNumbers[index] += estimationNumbers[index - 1];
+    }
+
+    return new NeighborhoodCurve(Arrays.copyOf(errorSums, maxNeighbors), Arrays.copyOf(
+        squaredErrorSums, maxNeighbors), Arrays.copyOf(estimationNumbers, maxNeighbors),
+        requestNumber);
+  }
+
   /**
    * Returns the absolute difference between the given preference and the estimated one. Depending
    * on the recommender, the returned float may be NaN.
@@ -326,7 +730,6 @@ public class PersonnalRecommenderEvaluator implements RecommenderEvaluator {
   private float getError(DataModel trainingModel, Recommender recommender, Preference preference)
       throws TasteException {
     float estimation = Float.NaN;
-    predictionRequestNumber++;
     try {
       // may return Float.NaN
       estimation =
@@ -379,6 +782,37 @@ public class PersonnalRecommenderEvaluator implements RecommenderEvaluator {
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * Resets the random generator with the seed, if any.
+   */
+  private void resetRandom() {
+    if (seed.isPresent()) {
+      random = RandomUtils.getRandom(seed.get());
+    }
+  }
+
+  /**
+   * Returns the given test sets that contain at least one tested item. The sets are not modified:
+   * the preferences of a set are hidden from its training model together.
+   */
+  private List<List<Preference>> retainTestedItems(List<List<Preference>> testSets) {
+    if (!testedItems.isPresent()) {
+      return testSets;
+    }
+
+    List<List<Preference>> result = new ArrayList<>();
+    for (List<Preference> testSet : testSets) {
+      for (Preference preference : testSet) {
+        if (testedItems.get().contains(preference.getItemID())) {
+          result.add(testSet);
+          break;
+        }
+      }
+    }
+
+    return result;
+  }
+
   @Override
   public void setMaxPreference(float maxPreference) {
     throw new UnsupportedOperationException();
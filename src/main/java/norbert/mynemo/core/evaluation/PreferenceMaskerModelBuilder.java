@@ -39,7 +39,10 @@ import org.apache.mahout.cf.taste.model.PreferenceArray;
  * The missing items are found by comparing the model given to the {link
  * {@link #buildDataModel(FastByIDMap)} to the delegate model. Once the missing preferences are
  * found, the data from the map is ignored, only the data from the model given to the constructor is
- * used. Thus, if this class is given to an instance of
+ * used. Each call of {@link #buildDataModel(FastByIDMap)} returns a new instance that masks the
+ * missing preferences, the builder itself is never modified. Thus, the builder can be used by
+ * several threads at the same time, whereas each returned model must be confined to one thread.
+ * Thus, if this class is given to an instance of
  * {@link RecommenderEvaluator#evaluate(org.apache.mahout.cf.taste.eval.RecommenderBuilder, DataModelBuilder, DataModel, double, double)
  * RecommenderEvaluator.evaluate(…)} , the <code>evaluationPercentage</code> must be 1.
  */
@@ -56,31 +59,40 @@ public class PreferenceMaskerModelBuilder implements DataModelBuilder, DataModel
    * Items that have only one preference: the target user one, and this preference is masked. These
    * items must be taken in account in the methods "getItemIDs" and "getNumItems".
    */
-  private FastIDSet maskedItems;
+  private final FastIDSet maskedItems;
   /**
    * Preferences to mask. Because the value of the preference is never used, this field contains
    * only the item id of the preference.
    */
-  private FastIDSet maskedPreferences;
+  private final FastIDSet maskedPreferences;
   private final long targetUser;
 
   public PreferenceMaskerModelBuilder(DataModel dataModel, long targetUserId) {
+    this(dataModel, targetUserId, new FastIDSet(), new FastIDSet());
+  }
+
+  /**
+   * Creates a model that masks the given preferences of the target user.
+   */
+  private PreferenceMaskerModelBuilder(DataModel dataModel, long targetUserId,
+      FastIDSet maskedPreferences, FastIDSet maskedItems) {
     this.dataModel = dataModel;
     this.targetUser = targetUserId;
+    this.maskedItems = maskedItems;
+    this.maskedPreferences = maskedPreferences;
     fakePreferencesForItem = new FastByIDMap<>();
-    maskedItems = new FastIDSet();
   }
 
+  /**
+   * Returns a new model that masks the preferences of the target user that are missing from the
+   * given training data.
+   */
   @Override
   public DataModel buildDataModel(FastByIDMap<PreferenceArray> trainingData) {
-    // reset data from the previous call
-    fakeUserPreferenceArray = null;
-    maskedPreferences = null;
-    fakePreferencesForItem.clear();
-    maskedItems.clear();
-
     // find the missing preferences
     PreferenceArray newPreferences = trainingData.get(targetUser);
+    FastIDSet maskedPreferences;
+    FastIDSet maskedItems = new FastIDSet();
 
     try {
       maskedPreferences = dataModel.getItemIDsFromUser(targetUser).clone();
@@ -105,7 +117,7 @@ public class PreferenceMaskerModelBuilder implements DataModelBuilder, DataModel
       }
     }
 
-    return this;
+    return new PreferenceMaskerModelBuilder(dataModel, targetUser, maskedPreferences, maskedItems);
   }
 
   @Override
@@ -264,9 +276,14 @@ public class PreferenceMaskerModelBuilder implements DataModelBuilder, DataModel
     return true;
   }
 
+  /**
+   * Does nothing. The masked model is a fixed view of the delegate model, whose caches would be
+   * invalidated by a refresh of the delegate. To take new preferences into account, new models must
+   * be built, see {@link norbert.mynemo.core.recommendation.recommender.ReloadingRecommender}.
+   */
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
-    throw new UnsupportedOperationException();
+    // nothing to refresh
   }
 
   @Override
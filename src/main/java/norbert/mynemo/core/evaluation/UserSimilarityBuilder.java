@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.evaluation;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+/**
+ * This builder creates the similarity used by a user-based recommender. It is the counterpart of
+ * the {@link RecommenderBuilder} for the similarities, so that an evaluator can use the similarity
+ * without the recommender.
+ */
+public interface UserSimilarityBuilder {
+
+  /**
+   * Returns the similarity between the users of the given data model.
+   */
+  UserSimilarity buildUserSimilarity(DataModel dataModel) throws TasteException;
+}
@@ -44,7 +44,8 @@ public enum RecommenderType {
   // basic, usually the worst
   RANDOM(RecommenderFamily.BASIC),
   // based on SVD
-  SVD_WITH_ALSWR_FACTORIZER(RecommenderFamily.SVD_BASED), SVD_WITH_PARALLEL_SGD_FACTORIZER(
+  SVD_WITH_ALSWR_FACTORIZER(RecommenderFamily.SVD_BASED), SVD_WITH_HOGWILD_SGD_FACTORIZER(
+      RecommenderFamily.SVD_BASED), SVD_WITH_PARALLEL_SGD_FACTORIZER(
       RecommenderFamily.SVD_BASED), SVD_WITH_RATING_SGD_FACTORIZER(RecommenderFamily.SVD_BASED), SVD_WITH_SVDPLUSPLUS_FACTORIZER(
       RecommenderFamily.SVD_BASED),
   // basic
@@ -90,7 +91,7 @@ public enum RecommenderType {
    * Returns the available algorithms that currently don't work as expected.
    */
   private static List<RecommenderType> getNotWorkingRecommenders() {
-    return newArrayList(SVD_WITH_SVDPLUSPLUS_FACTORIZER);
+    return newArrayList();
   }
 
   /**
@@ -103,9 +104,11 @@ public enum RecommenderType {
     putItLast(result, ITEM_AVERAGE);
     putItLast(result, USER_AVERAGE);
     putItLast(result, SVD_WITH_PARALLEL_SGD_FACTORIZER);
+    putItLast(result, SVD_WITH_HOGWILD_SGD_FACTORIZER);
     putItLast(result, USER_SIMILARITY_WITH_SPEARMAN_CORRELATION);
-    putItLast(result, SVD_WITH_RATING_SGD_FACTORIZER);
     putItLast(result, SVD_WITH_ALSWR_FACTORIZER);
+    putItLast(result, SVD_WITH_RATING_SGD_FACTORIZER);
+    putItLast(result, SVD_WITH_SVDPLUSPLUS_FACTORIZER);
 
     return result;
   }
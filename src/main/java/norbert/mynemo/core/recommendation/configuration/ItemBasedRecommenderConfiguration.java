@@ -17,21 +17,75 @@
 package norbert.mynemo.core.recommendation.configuration;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import norbert.mynemo.core.recommendation.RecommenderFamily;
 import norbert.mynemo.core.recommendation.RecommenderType;
 import norbert.mynemo.core.recommendation.recommender.ItemSimilarityRecommender;
+import norbert.mynemo.core.recommendation.similarity.ItemPairStatistics;
+
+import org.apache.mahout.cf.taste.eval.RecommenderEvaluator;
+import org.apache.mahout.cf.taste.model.DataModel;
 
 /**
  * This class represents a configuration for the {@link ItemSimilarityRecommender}.
  */
 public class ItemBasedRecommenderConfiguration implements RecommenderConfiguration {
 
+  private final ItemPairStatistics pairStatistics;
+  private final boolean reuseSimilarity;
   private final RecommenderType type;
 
+  /**
+   * Creates a configuration whose similarity is computed for each data model given to the builder.
+   */
   public ItemBasedRecommenderConfiguration(RecommenderType type) {
+    this(type, null, false);
+  }
+
+  /**
+   * Creates a configuration for the {@link ItemSimilarityRecommender}.
+   *
+   * <p>
+   * The <code>reuseSimilarity</code> parameter can improve the speed of a build recommender by
+   * avoiding to recompute some values. The similarities are computed from the statistics of the
+   * complete data model, updated for the masked preferences of the data model given to the builder.
+   * Thus, the data model given to the {@link ItemSimilarityRecommender#buildRecommender(DataModel)}
+   * method must be the complete data model without some preferences. Generally speaking, the
+   * similarity can be reuse only when the <code>evaluationPercentage</code> given to a subclasses
+   * of {@link RecommenderEvaluator} is <code>1</code>.
+   *
+   * @param type the type of similarity
+   * @param pairStatistics the statistics of the complete data model, only necessary if the
+   *        reuseSimilarity is <code>true</code>, may be null otherwise. They can be shared by the
+   *        configurations of all types.
+   * @param reuseSimilarity if <code>true</code>, do not recompute the similarities between two
+   *        creations of recommender
+   */
+  public ItemBasedRecommenderConfiguration(RecommenderType type,
+      ItemPairStatistics pairStatistics, boolean reuseSimilarity) {
     checkArgument(type.getFamily() == RecommenderFamily.ITEM_SIMILARITY_BASED);
+    checkArgument(!reuseSimilarity || pairStatistics != null, "The pair statistics must be"
+        + " provided if the similarities have to be reused.");
 
     this.type = type;
+    this.reuseSimilarity = reuseSimilarity;
+    // keep the statistics only if necessary
+    this.pairStatistics = reuseSimilarity ? pairStatistics : null;
+  }
+
+  public boolean allowCachedSimilarityReuse() {
+    return reuseSimilarity;
+  }
+
+  /**
+   * Returns the statistics of the complete data model.
+   *
+   * @throws IllegalStateException if the {@link #allowCachedSimilarityReuse()} method returns
+   *         <code>false</code>
+   */
+  public ItemPairStatistics getPairStatistics() {
+    checkState(allowCachedSimilarityReuse());
+    return pairStatistics;
   }
 
   @Override
@@ -16,10 +16,10 @@
  */
 package norbert.mynemo.core.recommendation.configuration;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import norbert.mynemo.core.recommendation.RecommenderType;
 import norbert.mynemo.core.recommendation.recommender.SvdBasedRecommender;
-import norbert.mynemo.core.recommendation.recommender.UserSimilarityRecommender;
 
 import org.apache.mahout.cf.taste.eval.RecommenderEvaluator;
 import org.apache.mahout.cf.taste.model.DataModel;
@@ -33,6 +33,7 @@ public class SvdBasedRecommenderConfiguration implements RecommenderConfiguratio
   private final int featureNumber;
   private final int iteractionNumber;
   private final boolean reuseFactorizer;
+  private final long targetUser;
   private final RecommenderType type;
 
   /**
@@ -40,27 +41,34 @@ public class SvdBasedRecommenderConfiguration implements RecommenderConfiguratio
    *
    * <p>
    * The <code>reuseFactorization</code> parameter can improve the speed of a build recommender by
-   * avoiding to recompute some values. The factorization will be based on the given data model, not
-   * the one given to the builder. Thus, the caller must be careful that only slightly mismatching
-   * {@link DataModel} will be given to the
-   * {@link UserSimilarityRecommender#buildRecommender(DataModel)} method. Generally speaking, the
-   * factorization can be reuse only when the <code>evaluationPercentage</code> given to a
-   * subclasses of {@link RecommenderEvaluator} is <code>1</code>.
+   * avoiding to recompute some values. The factorization will be based on the given data model
+   * without the target user, not the one given to the builder. Only the preferences of the target
+   * user are taken from the data model given to the builder. Thus, the caller must be careful that
+   * the {@link DataModel} given to the {@link SvdBasedRecommender#buildRecommender(DataModel)}
+   * method only differs from the given data model by the preferences of the target user. Generally
+   * speaking, the factorization can be reuse only when the <code>evaluationPercentage</code> given
+   * to a subclasses of {@link RecommenderEvaluator} is <code>1</code>.
    *
    * @param type type of the recommender
    * @param numberOfFeatures number of features
    * @param numberOfIterations number of iterations
    * @param dataModel data model, only necessary if <code>reuseFactorization</code> is
    *        <code>true</code>, may be <code>null</code> otherwise
+   * @param targetUser user whose preferences differ between the data models given to the builder,
+   *        only used if <code>reuseFactorization</code> is <code>true</code>
    * @param reuseFactorization if <code>true</code>, do not recompute the factorization between two
    *        creations of recommender
    */
   public SvdBasedRecommenderConfiguration(RecommenderType type, int numberOfFeatures,
-      int numberOfIterations, DataModel dataModel, boolean reuseFactorization) {
+      int numberOfIterations, DataModel dataModel, long targetUser, boolean reuseFactorization) {
+    checkArgument(!reuseFactorization || dataModel != null, "A data model must be provided if the"
+        + " factorization has to be reused.");
+
     this.type = type;
     this.featureNumber = numberOfFeatures;
     this.iteractionNumber = numberOfIterations;
     this.dataModel = dataModel;
+    this.targetUser = targetUser;
     this.reuseFactorizer = reuseFactorization;
   }
 
@@ -87,6 +95,17 @@ public class SvdBasedRecommenderConfiguration implements RecommenderConfiguratio
     return iteractionNumber;
   }
 
+  /**
+   * Returns the user folded into the shared factorization.
+   *
+   * @throws IllegalStateException if the {@link #allowCachedFactorizationReuse()} method returns
+   *         <code>false</code>
+   */
+  public long getTargetUser() {
+    checkState(allowCachedFactorizationReuse());
+    return targetUser;
+  }
+
   @Override
   public RecommenderType getType() {
     return type;
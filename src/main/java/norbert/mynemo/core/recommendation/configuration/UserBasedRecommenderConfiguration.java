@@ -45,7 +45,9 @@ public class UserBasedRecommenderConfiguration implements RecommenderConfigurati
    * mismatching {@link DataModel} won't be given to the
    * {@link UserSimilarityRecommender#buildRecommender(DataModel)} method. Generally speaking, the
    * similarity can be reuse only when the <code>evaluationPercentage</code> given to a subclasses
-   * of {@link RecommenderEvaluator} is <code>1</code>.
+   * of {@link RecommenderEvaluator} is <code>1</code>. For most similarities, the masked
+   * preferences of the given data model are taken into account, see
+   * {@link UserSimilarityRecommender#buildUserSimilarity(DataModel)}.
    *
    * @param type the type of similarity
    * @param neighborNumber the maximum number of neighbors for a user
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.recommender;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.recommender.svd.AbstractFactorizer;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorization;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.RandomUtils;
+
+import com.google.common.base.Optional;
+
+/**
+ * This factorizer trains a biased matrix factorization with a parallel stochastic gradient descent,
+ * without any lock, following the Hogwild! approach. The prediction of a rating is the global
+ * average, plus the bias of the user, plus the bias of the item, plus the dot product of the user
+ * and item factors.
+ *
+ * <p>
+ * The preferences are copied once into primitive arrays, indexed by the dense indexes of the users
+ * and items, then shuffled. During an epoch, each thread updates the parameters for its own part of
+ * the preferences. The threads do not synchronize their updates: the updates rarely touch the same
+ * parameters at the same time, and a lost update does not prevent the convergence. The factors are
+ * stored in flat float arrays, the factors of a user or of an item being contiguous. The learning
+ * rate is multiplied by the decay after each epoch.
+ *
+ * <p>
+ * The parts of an epoch run on the executor given to the factorizer, if any. Otherwise, each
+ * factorization creates its own pool of threads.
+ *
+ * <p>
+ * The vectors of the factorization hold the biases, thus the factorization has three more features
+ * than the number of factors: <code>(average, user bias, 1, user factors)</code> for a user and
+ * <code>(1, 1, item bias, item factors)</code> for an item. The factorization is provided after
+ * each epoch.
+ */
+class HogwildSgdFactorizer extends AbstractFactorizer implements SnapshotFactorizer {
+
+  /**
+   * This task performs the updates of a part of the preferences during an epoch.
+   */
+  private class EpochPart implements Callable<Void> {
+    private final int end;
+    private final float learningRate;
+    private final int start;
+
+    public EpochPart(int start, int end, float learningRate) {
+      this.start = start;
+      this.end = end;
+      this.learningRate = learningRate;
+    }
+
+    @Override
+    public Void call() {
+      for (int index = start; index < end; index++) {
+        update(users[index], items[index], values[index], learningRate);
+      }
+      return null;
+    }
+  }
+
+  /** Learning rate of the first epoch. */
+  static final double DEFAULT_LEARNING_RATE = 0.01;
+  /** Factor applied to the learning rate after each epoch. */
+  static final double DEFAULT_LEARNING_RATE_DECAY = 0.95;
+  static final double DEFAULT_REGULARIZATION = 0.05;
+  /** Number of features of the factorization that hold the average and the biases. */
+  private static final int FEATURE_OFFSET = 3;
+  private static final double RANDOM_NOISE = 0.01;
+
+  private final float average;
+  private final int epochNumber;
+  /** Executor of the epoch parts, absent if each factorization creates its own pool. */
+  private final Optional<ExecutorService> executor;
+  private final int factorNumber;
+  private final float[] itemBiases;
+  private final float[] itemFactors;
+  /** Item index of each preference. */
+  private final int[] items;
+  private final double learningRate;
+  private final double learningRateDecay;
+  private final float regularization;
+  /** Seed of the random choices of each factorization, absent for a random seed. */
+  private final Optional<Long> seed;
+  private final int threadNumber;
+  private final float[] userBiases;
+  private final float[] userFactors;
+  /** User index of each preference. */
+  private final int[] users;
+  /** Value of each preference. */
+  private final float[] values;
+
+  /**
+   * Creates a factorizer with the default learning rate, decay and regularization, that uses all
+   * processors.
+   */
+  public HogwildSgdFactorizer(DataModel dataModel, int factorNumber, int epochNumber)
+      throws TasteException {
+    this(dataModel, factorNumber, epochNumber, DEFAULT_LEARNING_RATE, DEFAULT_LEARNING_RATE_DECAY,
+        DEFAULT_REGULARIZATION, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a factorizer with the default learning rate, decay and regularization, whose epoch
+   * parts run on the given executor. The executor is never shut down by the factorizer. If a seed
+   * is given, each factorization shuffles the preferences and initializes the factors with this
+   * seed. The parts of an epoch still update the factors in an order that depends on the
+   * scheduling of the threads.
+   *
+   * @param threadNumber number of parts of an epoch, should be the number of threads of the
+   *        executor
+   * @param seed seed of the random choices of each factorization, absent for a random seed
+   */
+  public HogwildSgdFactorizer(DataModel dataModel, int factorNumber, int epochNumber,
+      ExecutorService executor, int threadNumber, Optional<Long> seed) throws TasteException {
+    this(dataModel, factorNumber, epochNumber, DEFAULT_LEARNING_RATE, DEFAULT_LEARNING_RATE_DECAY,
+        DEFAULT_REGULARIZATION, Optional.of(executor), threadNumber, seed);
+  }
+
+  /**
+   * Creates a factorizer. Each factorization creates its own pool of threads.
+   *
+   * @param dataModel data model to factorize
+   * @param factorNumber number of factors of the users and items
+   * @param epochNumber number of passes over the preferences
+   * @param learningRate learning rate of the first epoch
+   * @param learningRateDecay factor applied to the learning rate after each epoch
+   * @param regularization regularization factor of the factors and biases
+   * @param threadNumber number of threads updating the parameters
+   */
+  public HogwildSgdFactorizer(DataModel dataModel, int factorNumber, int epochNumber,
+      double learningRate, double learningRateDecay, double regularization, int threadNumber)
+      throws TasteException {
+    this(dataModel, factorNumber, epochNumber, learningRate, learningRateDecay, regularization,
+        Optional.<ExecutorService>absent(), threadNumber, Optional.<Long>absent());
+  }
+
+  private HogwildSgdFactorizer(DataModel dataModel, int factorNumber, int epochNumber,
+      double learningRate, double learningRateDecay, double regularization,
+      Optional<ExecutorService> executor, int threadNumber, Optional<Long> seed)
+      throws TasteException {
+    super(dataModel);
+
+    checkArgument(0 < factorNumber, "The number of factors must be positive.");
+    checkArgument(0 < epochNumber, "The number of epochs must be positive.");
+    checkArgument(0 < learningRate, "The learning rate must be positive.");
+    checkArgument(0 < learningRateDecay && learningRateDecay <= 1, "The learning rate decay must"
+        + " be between 0 excluded and 1.");
+    checkArgument(0 <= regularization, "The regularization must not be negative.");
+    checkArgument(executor != null, "The executor must not be null.");
+    checkArgument(0 < threadNumber, "The number of threads must be positive.");
+    checkArgument(seed != null, "The seed must not be null.");
+
+    this.executor = executor;
+    this.factorNumber = factorNumber;
+    this.epochNumber = epochNumber;
+    this.learningRate = learningRate;
+    this.learningRateDecay = learningRateDecay;
+    this.regularization = (float) regularization;
+    this.seed = seed;
+    this.threadNumber = threadNumber;
+
+    // copy the preferences into the arrays
+    int preferenceNumber = 0;
+    LongPrimitiveIterator iterator = dataModel.getUserIDs();
+    while (iterator.hasNext()) {
+      preferenceNumber += dataModel.getPreferencesFromUser(iterator.nextLong()).length();
+    }
+    users = new int[preferenceNumber];
+    items = new int[preferenceNumber];
+    values = new float[preferenceNumber];
+
+    double sum = 0;
+    int position = 0;
+    iterator = dataModel.getUserIDs();
+    while (iterator.hasNext()) {
+      long user = iterator.nextLong();
+      int userIndex = userIndex(user);
+      PreferenceArray preferences = dataModel.getPreferencesFromUser(user);
+      for (int index = 0; index < preferences.length(); index++) {
+        users[position] = userIndex;
+        items[position] = itemIndex(preferences.getItemID(index));
+        values[position] = preferences.getValue(index);
+        sum += values[position];
+        position++;
+      }
+    }
+    average = (preferenceNumber == 0) ? 0 : (float) (sum / preferenceNumber);
+
+    userBiases = new float[dataModel.getNumUsers()];
+    itemBiases = new float[dataModel.getNumItems()];
+    userFactors = new float[userBiases.length * factorNumber];
+    itemFactors = new float[itemBiases.length * factorNumber];
+  }
+
+  /**
+   * Returns the factorization of the current parameters.
+   */
+  private Factorization createFactorization() {
+    double[][] userVectors = new double[userBiases.length][factorNumber + FEATURE_OFFSET];
+    for (int user = 0; user < userVectors.length; user++) {
+      userVectors[user][0] = average;
+      userVectors[user][1] = userBiases[user];
+      userVectors[user][2] = 1;
+      for (int factor = 0; factor < factorNumber; factor++) {
+        userVectors[user][FEATURE_OFFSET + factor] = userFactors[user * factorNumber + factor];
+      }
+    }
+
+    double[][] itemVectors = new double[itemBiases.length][factorNumber + FEATURE_OFFSET];
+    for (int item = 0; item < itemVectors.length; item++) {
+      itemVectors[item][0] = 1;
+      itemVectors[item][1] = 1;
+      itemVectors[item][2] = itemBiases[item];
+      for (int factor = 0; factor < factorNumber; factor++) {
+        itemVectors[item][FEATURE_OFFSET + factor] = itemFactors[item * factorNumber + factor];
+      }
+    }
+
+    return createFactorization(userVectors, itemVectors);
+  }
+
+  @Override
+  public Factorization factorize() throws TasteException {
+    return factorize(new IterationListener<Factorization>() {
+      @Override
+      public boolean iterationDone(int iteration, Factorization result) {
+        return true;
+      }
+    });
+  }
+
+  /**
+   * Trains the factorization. A factorizer trains only one factorization at a time.
+   */
+  @Override
+  public synchronized Factorization factorize(IterationListener<Factorization> listener)
+      throws TasteException {
+    initialize();
+
+    Factorization result = null;
+    int poolSize = Math.max(1, Math.min(threadNumber, values.length));
+    ExecutorService currentExecutor =
+        executor.isPresent() ? executor.get() : Executors.newFixedThreadPool(poolSize);
+    try {
+      double currentLearningRate = learningRate;
+      for (int epoch = 1; epoch <= epochNumber; epoch++) {
+        List<EpochPart> parts = new ArrayList<>();
+        for (int part = 0; part < poolSize; part++) {
+          parts.add(new EpochPart((int) ((long) values.length * part / poolSize),
+              (int) ((long) values.length * (part + 1) / poolSize), (float) currentLearningRate));
+        }
+        // the end of the tasks makes their updates visible to this thread
+        for (Future<Void> future : currentExecutor.invokeAll(parts)) {
+          future.get();
+        }
+        currentLearningRate *= learningRateDecay;
+
+        result = createFactorization();
+        if (!listener.iterationDone(epoch, result)) {
+          break;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TasteException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new TasteException(e.getCause());
+    } finally {
+      if (!executor.isPresent()) {
+        currentExecutor.shutdownNow();
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Shuffles the preferences, resets the biases and sets the factors to small random values.
+   */
+  private void initialize() {
+    Random random = seed.isPresent() ? RandomUtils.getRandom(seed.get()) : RandomUtils.getRandom();
+
+    for (int index = values.length - 1; 0 < index; index--) {
+      int other = random.nextInt(index + 1);
+      int user = users[index];
+      users[index] = users[other];
+      users[other] = user;
+      int item = items[index];
+      items[index] = items[other];
+      items[other] = item;
+      float value = values[index];
+      values[index] = values[other];
+      values[other] = value;
+    }
+
+    for (int index = 0; index < userBiases.length; index++) {
+      userBiases[index] = 0;
+    }
+    for (int index = 0; index < itemBiases.length; index++) {
+      itemBiases[index] = 0;
+    }
+    for (int index = 0; index < userFactors.length; index++) {
+      userFactors[index] = (float) (random.nextGaussian() * RANDOM_NOISE);
+    }
+    for (int index = 0; index < itemFactors.length; index++) {
+      itemFactors[index] = (float) (random.nextGaussian() * RANDOM_NOISE);
+    }
+  }
+
+  /**
+   * Updates the parameters of the given user and item for the given rating.
+   */
+  private void update(int user, int item, float value, float currentLearningRate) {
+    int userOffset = user * factorNumber;
+    int itemOffset = item * factorNumber;
+
+    float prediction = average + userBiases[user] + itemBiases[item];
+    for (int factor = 0; factor < factorNumber; factor++) {
+      prediction += userFactors[userOffset + factor] * itemFactors[itemOffset + factor];
+    }
+    float error = value - prediction;
+
+    userBiases[user] += currentLearningRate * (error - regularization * userBiases[user]);
+    itemBiases[item] += currentLearningRate * (error - regularization * itemBiases[item]);
+    for (int factor = 0; factor < factorNumber; factor++) {
+      float userFactor = userFactors[userOffset + factor];
+      float itemFactor = itemFactors[itemOffset + factor];
+      userFactors[userOffset + factor] +=
+          currentLearningRate * (error * itemFactor - regularization * userFactor);
+      itemFactors[itemOffset + factor] +=
+          currentLearningRate * (error * userFactor - regularization * itemFactor);
+    }
+  }
+}
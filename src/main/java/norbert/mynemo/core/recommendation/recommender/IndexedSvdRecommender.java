@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.recommender;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorization;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorizer;
+import org.apache.mahout.cf.taste.impl.recommender.svd.PersistenceStrategy;
+import org.apache.mahout.cf.taste.impl.recommender.svd.SVDRecommender;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+
+/**
+ * This recommender is a Mahout <code>SVDRecommender</code> whose recommendations are found by a
+ * {@link TopItemsIndex}, instead of the scoring of all candidate items. The index is built at the
+ * first recommendation from the factorization of the SVD recommender, thus the estimations alone
+ * do not pay for it.
+ *
+ * <p>
+ * The candidate items are all items of the factorization, except the items known by the user if
+ * they are not included. The recommendations with a rescorer are provided by the SVD recommender,
+ * because a rescorer invalidates the bounds of the index.
+ */
+class IndexedSvdRecommender implements Recommender {
+
+  /**
+   * This strategy keeps the last factorization loaded or persisted by the SVD recommender, and
+   * delegates the persistence.
+   */
+  private class CapturingPersistenceStrategy implements PersistenceStrategy {
+    private final PersistenceStrategy delegate;
+
+    public CapturingPersistenceStrategy(PersistenceStrategy delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Factorization load() throws IOException {
+      Factorization result = delegate.load();
+      if (result != null) {
+        factorization = result;
+      }
+      return result;
+    }
+
+    @Override
+    public void maybePersist(Factorization factorization) throws IOException {
+      IndexedSvdRecommender.this.factorization = factorization;
+      delegate.maybePersist(factorization);
+    }
+  }
+
+  private final SVDRecommender delegate;
+  private volatile Factorization factorization;
+  private TopItemsIndex index;
+  private final boolean quantized;
+
+  /**
+   * Creates the recommender. The parameters of the SVD recommender are the first three ones.
+   *
+   * @param quantized <code>true</code> if the index must quantize the item vectors
+   */
+  public IndexedSvdRecommender(DataModel dataModel, Factorizer factorizer,
+      PersistenceStrategy persistenceStrategy, boolean quantized) throws TasteException {
+    checkNotNull(persistenceStrategy);
+
+    this.quantized = quantized;
+    // the SVD recommender loads or computes the factorization at its creation
+    delegate =
+        new SVDRecommender(dataModel, factorizer, new CapturingPersistenceStrategy(
+            persistenceStrategy));
+  }
+
+  @Override
+  public float estimatePreference(long userID, long itemID) throws TasteException {
+    return delegate.estimatePreference(userID, itemID);
+  }
+
+  @Override
+  public DataModel getDataModel() {
+    return delegate.getDataModel();
+  }
+
+  /**
+   * Returns the index of the current factorization. The index is rebuilt if the factorization has
+   * changed since the last call.
+   */
+  private synchronized TopItemsIndex getIndex() {
+    Factorization currentFactorization = factorization;
+    checkState(currentFactorization != null, "The factorization must be computed.");
+
+    if (index == null || index.getFactorization() != currentFactorization) {
+      index = new TopItemsIndex(currentFactorization, quantized);
+    }
+    return index;
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany) throws TasteException {
+    return recommend(userID, howMany, null, false);
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany, boolean includeKnownItems)
+      throws TasteException {
+    return recommend(userID, howMany, null, includeKnownItems);
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer)
+      throws TasteException {
+    return recommend(userID, howMany, rescorer, false);
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer,
+      boolean includeKnownItems) throws TasteException {
+    if (rescorer != null) {
+      return delegate.recommend(userID, howMany, rescorer, includeKnownItems);
+    }
+
+    TopItemsIndex currentIndex = getIndex();
+    FastIDSet excludedItems =
+        includeKnownItems ? new FastIDSet() : getDataModel().getItemIDsFromUser(userID);
+    return currentIndex.getTopItems(currentIndex.getFactorization().getUserFeatures(userID),
+        howMany, excludedItems);
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    delegate.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    delegate.removePreference(userID, itemID);
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    delegate.setPreference(userID, itemID, value);
+  }
+}
@@ -19,6 +19,7 @@ package norbert.mynemo.core.recommendation.recommender;
 import static com.google.common.base.Preconditions.checkArgument;
 import norbert.mynemo.core.recommendation.RecommenderType;
 import norbert.mynemo.core.recommendation.configuration.ItemBasedRecommenderConfiguration;
+import norbert.mynemo.core.recommendation.similarity.IncrementalItemSimilarity;
 
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.common.Weighting;
@@ -43,11 +44,14 @@ import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
 public class ItemSimilarityRecommender implements RecommenderBuilder {
   // 200 mega
   private static final int MAXIMUM_CACHE_SIZE = (int) (200 * Math.pow(2, 30));
+  private final ItemBasedRecommenderConfiguration configuration;
+  private IncrementalItemSimilarity incrementalSimilarity;
   private final RecommenderType selectedSimilarity;
 
   public ItemSimilarityRecommender(ItemBasedRecommenderConfiguration configuration) {
     checkArgument(configuration != null, "Recommender type must not be null.");
 
+    this.configuration = configuration;
     selectedSimilarity = configuration.getType();
   }
 
@@ -55,6 +59,22 @@ public class ItemSimilarityRecommender implements RecommenderBuilder {
   public Recommender buildRecommender(DataModel dataModel) throws TasteException {
     checkArgument(dataModel != null, "Data model type must not be null.");
 
+    return new GenericItemBasedRecommender(dataModel, buildItemSimilarity(dataModel));
+  }
+
+  /**
+   * Returns the similarity used by the recommender built for the given data model. If the
+   * configuration allows the reuse, the given data model must be the complete data model of the
+   * configuration without some preferences. Then, the returned similarity is computed from the
+   * statistics shared by all data models, see {@link IncrementalItemSimilarity}. Otherwise, a new
+   * similarity is created.
+   */
+  private ItemSimilarity buildItemSimilarity(DataModel dataModel) throws TasteException {
+    if (configuration.allowCachedSimilarityReuse()
+        && IncrementalItemSimilarity.supports(selectedSimilarity)) {
+      return getIncrementalSimilarity().forTrainingModel(dataModel);
+    }
+
     ItemSimilarity similarity = null;
     switch (selectedSimilarity) {
       case ITEM_SIMILARITY_WITH_CITY_BLOCK_DISTANCE:
@@ -89,8 +109,21 @@ public class ItemSimilarityRecommender implements RecommenderBuilder {
     }
 
     int cacheSize = Math.min(dataModel.getNumItems() * dataModel.getNumItems(), MAXIMUM_CACHE_SIZE);
-    similarity = new CachingItemSimilarity(similarity, cacheSize);
 
-    return new GenericItemBasedRecommender(dataModel, similarity);
+    return new CachingItemSimilarity(similarity, cacheSize);
+  }
+
+  /**
+   * Returns the incremental similarity shared by all recommenders. It is created at the first call.
+   * The evaluator may build several recommenders at the same time, thus the creation is
+   * synchronized.
+   */
+  private synchronized IncrementalItemSimilarity getIncrementalSimilarity() {
+    if (incrementalSimilarity == null) {
+      // lazy initialization
+      incrementalSimilarity =
+          new IncrementalItemSimilarity(selectedSimilarity, configuration.getPairStatistics());
+    }
+    return incrementalSimilarity;
   }
 }
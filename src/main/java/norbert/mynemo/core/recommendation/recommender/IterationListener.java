@@ -0,0 +1,34 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.recommender;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+
+/**
+ * This listener is notified after each iteration of an iterative process, like the training of a
+ * factorization.
+ *
+ * @param <T> type of the result of an iteration
+ */
+public interface IterationListener<T> {
+  /**
+   * Receives the result of the given iteration. The first iteration is the number <code>1</code>.
+   *
+   * @return <code>true</code> if the process must continue, <code>false</code> if it must stop
+   */
+  boolean iterationDone(int iteration, T result) throws TasteException;
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.recommender;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import norbert.mynemo.core.recommendation.configuration.SvdBasedRecommenderConfiguration;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorization;
+import org.apache.mahout.cf.taste.impl.recommender.svd.PersistenceStrategy;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * This class stores a factorization in a file, so that the factorization outlives the program. The
+ * name of the file is derived from the fingerprint of the data model and from the configuration of
+ * the recommender. Thus, a directory can be shared by several data models and configurations, and
+ * a modified data model never gets the factorization of its previous version.
+ *
+ * <p>
+ * The file contains a header, the ids of the users and of the items sorted by index, then the
+ * feature vectors of the users and of the items as flat arrays of floats. All numbers are little
+ * endian. The file is memory-mapped on load, and the vectors are copied into the arrays of the
+ * factorization.
+ *
+ * <p>
+ * A factorization is written in a temporary file, then the file is renamed. Thus, an interrupted
+ * program never leaves a partial factorization.
+ */
+public class MappedFilePersistenceStrategy implements PersistenceStrategy {
+
+  private static final String FILE_EXTENSION = ".factorization";
+  private static final String KEY_SEPARATOR = "|";
+  /** First bytes of a factorization file. */
+  private static final long MAGIC_NUMBER = 0x4D594E454D4F4631L;
+  private static final String TEMPORARY_FILE_PREFIX = "factorization-";
+  private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+  /** Version of the file format. A new version ignores the files of the previous ones. */
+  private static final int VERSION = 1;
+
+  /**
+   * Returns the ids of the given mappings, sorted by index.
+   */
+  private static long[] getIds(Iterable<Entry<Long, Integer>> mappings, int size) {
+    long[] result = new long[size];
+    for (Entry<Long, Integer> entry : mappings) {
+      result[entry.getValue()] = entry.getKey();
+    }
+    return result;
+  }
+
+  /**
+   * Returns the size in bytes of a factorization file.
+   */
+  private static long getFileSize(int keyLength, int featureNumber, int userNumber,
+      int itemNumber) {
+    return 8 + 4 + 4 + keyLength + 4 + 4 + 4 + (userNumber + itemNumber) * 8L
+        + (userNumber + itemNumber) * (long) featureNumber * 4;
+  }
+
+  private static void putFeatures(ByteBuffer buffer, double[][] features) {
+    for (double[] vector : features) {
+      for (double value : vector) {
+        buffer.putFloat((float) value);
+      }
+    }
+  }
+
+  private static void putIds(ByteBuffer buffer, long[] ids) {
+    for (long id : ids) {
+      buffer.putLong(id);
+    }
+  }
+
+  /**
+   * Returns the feature vectors read from the given buffer, and moves the position of the buffer
+   * after them.
+   */
+  private static double[][] readFeatures(ByteBuffer buffer, int size, int featureNumber) {
+    FloatBuffer floats = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    double[][] result = new double[size][featureNumber];
+    for (double[] vector : result) {
+      for (int feature = 0; feature < featureNumber; feature++) {
+        vector[feature] = floats.get();
+      }
+    }
+    buffer.position(buffer.position() + size * featureNumber * 4);
+    return result;
+  }
+
+  /**
+   * Returns the mapping from the ids to their indexes, read from the given buffer.
+   */
+  private static FastByIDMap<Integer> readIds(ByteBuffer buffer, int size) {
+    FastByIDMap<Integer> result = new FastByIDMap<>(size);
+    for (int index = 0; index < size; index++) {
+      result.put(buffer.getLong(), index);
+    }
+    return result;
+  }
+
+  private final File directory;
+  private final String key;
+
+  /**
+   * Creates a strategy that stores the factorization of the given data model and configuration in
+   * the given directory. The directory is created if necessary.
+   *
+   * @param directory directory of the files
+   * @param fingerprint fingerprint of the factorized data model
+   * @param configuration configuration of the recommender
+   */
+  public MappedFilePersistenceStrategy(File directory, String fingerprint,
+      SvdBasedRecommenderConfiguration configuration) throws IOException {
+    checkNotNull(directory);
+    checkNotNull(fingerprint);
+    checkNotNull(configuration);
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create the cache directory " + directory + ".");
+    }
+
+    this.directory = directory;
+    key =
+        VERSION + KEY_SEPARATOR + fingerprint + KEY_SEPARATOR + configuration.getType()
+            + KEY_SEPARATOR + configuration.getFeatureNumber() + KEY_SEPARATOR
+            + configuration.getIterationNumber();
+  }
+
+  private File getFile() {
+    return new File(directory, Hashing.sha256().hashString(key, Charsets.UTF_8).toString()
+        + FILE_EXTENSION);
+  }
+
+  /**
+   * Returns the stored factorization, or <code>null</code> if there is none. A truncated or
+   * corrupted file is ignored, like a missing file.
+   */
+  @Override
+  public Factorization load() throws IOException {
+    File file = getFile();
+    if (!file.exists()) {
+      return null;
+    }
+
+    MappedByteBuffer buffer;
+    try (RandomAccessFile input = new RandomAccessFile(file, "r");
+        FileChannel channel = input.getChannel()) {
+      if (Integer.MAX_VALUE < channel.size()) {
+        // never written by this class
+        return null;
+      }
+      buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    // header: each field is read only if the buffer contains it
+    if (buffer.remaining() < 8 + 4 + 4 || buffer.getLong() != MAGIC_NUMBER
+        || buffer.getInt() != VERSION) {
+      return null;
+    }
+    int keyLength = buffer.getInt();
+    if (keyLength < 0 || buffer.remaining() < keyLength + 4L + 4 + 4) {
+      return null;
+    }
+    byte[] storedKey = new byte[keyLength];
+    buffer.get(storedKey);
+    // the complete key is stored, in case of a collision of the file names
+    if (!Arrays.equals(storedKey, key.getBytes(Charsets.UTF_8))) {
+      return null;
+    }
+    int featureNumber = buffer.getInt();
+    int userNumber = buffer.getInt();
+    int itemNumber = buffer.getInt();
+    if (featureNumber < 0 || userNumber < 0 || itemNumber < 0
+        || buffer.capacity() != getFileSize(keyLength, featureNumber, userNumber, itemNumber)) {
+      // truncated or corrupted file
+      return null;
+    }
+
+    FastByIDMap<Integer> userMapping = readIds(buffer, userNumber);
+    FastByIDMap<Integer> itemMapping = readIds(buffer, itemNumber);
+    double[][] userFeatures = readFeatures(buffer, userNumber, featureNumber);
+    double[][] itemFeatures = readFeatures(buffer, itemNumber, featureNumber);
+
+    return new Factorization(userMapping, itemMapping, userFeatures, itemFeatures);
+  }
+
+  /**
+   * Stores the given factorization. A factorization previously stored for the same data model and
+   * configuration is replaced.
+   */
+  @Override
+  public void maybePersist(Factorization factorization) throws IOException {
+    checkNotNull(factorization);
+
+    byte[] keyBytes = key.getBytes(Charsets.UTF_8);
+    int featureNumber = factorization.numFeatures();
+    int userNumber = factorization.numUsers();
+    int itemNumber = factorization.numItems();
+    long size = getFileSize(keyBytes.length, featureNumber, userNumber, itemNumber);
+    checkArgument(size <= Integer.MAX_VALUE, "The factorization must be smaller than 2 GB.");
+
+    File temporaryFile =
+        File.createTempFile(TEMPORARY_FILE_PREFIX, TEMPORARY_FILE_SUFFIX, directory);
+    try {
+      try (RandomAccessFile output = new RandomAccessFile(temporaryFile, "rw");
+          FileChannel channel = output.getChannel()) {
+        MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putLong(MAGIC_NUMBER);
+        buffer.putInt(VERSION);
+        buffer.putInt(keyBytes.length);
+        buffer.put(keyBytes);
+        buffer.putInt(featureNumber);
+        buffer.putInt(userNumber);
+        buffer.putInt(itemNumber);
+        putIds(buffer, getIds(factorization.getUserIDMappings(), userNumber));
+        putIds(buffer, getIds(factorization.getItemIDMappings(), itemNumber));
+        putFeatures(buffer, factorization.allUserFeatures());
+        putFeatures(buffer, factorization.allItemFeatures());
+
+        buffer.force();
+      }
+
+      Files.move(temporaryFile.toPath(), getFile().toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      // only exists if an error occurred
+      temporaryFile.delete();
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.recommender;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Arrays;
+
+/**
+ * This class accumulates the normal equations of a regularized least-squares problem, then solves
+ * them:
+ *
+ * <pre>
+ * minimize sum((y_i - x.a_i)^2) + lambda * n * |x - p|^2
+ * </pre>
+ *
+ * where <code>a_i</code> and <code>y_i</code> are the added vectors and values, <code>n</code> the
+ * number of added values, and <code>p</code> a prior vector. This is the regularization of the
+ * ALS-WR factorizer.
+ *
+ * <p>
+ * The matrix of the equations is symmetric, thus only its upper triangle is accumulated. The
+ * equations are solved by a Cholesky decomposition into a scratch matrix. The instance can be
+ * reset and reused for another problem of the same dimension, without any allocation but the
+ * solution. This class is not thread-safe.
+ */
+final class NormalEquations {
+
+  /**
+   * Adds the outer product of the given vector with itself to the upper triangle of the given
+   * matrix.
+   */
+  static void addOuterProduct(double[] matrix, double[] features, double factor) {
+    int dimension = features.length;
+    for (int row = 0; row < dimension; row++) {
+      double rowValue = factor * features[row];
+      int offset = row * dimension;
+      for (int column = row; column < dimension; column++) {
+        matrix[offset + column] += rowValue * features[column];
+      }
+    }
+  }
+
+  private int count;
+  private final int dimension;
+  /** Lower triangle of the Cholesky decomposition, in row-major order. */
+  private final double[] factor;
+  /** Upper triangle of the matrix of the equations, in row-major order. */
+  private final double[] matrix;
+  private final double[] vector;
+
+  NormalEquations(int dimension) {
+    this.dimension = dimension;
+    matrix = new double[dimension * dimension];
+    factor = new double[dimension * dimension];
+    vector = new double[dimension];
+  }
+
+  /**
+   * Adds the given vector and its value to the problem.
+   */
+  void add(double[] features, double value) {
+    checkArgument(features.length == dimension, "The vector must have the dimension of the"
+        + " problem.");
+    addOuterProduct(matrix, features, 1);
+    addValue(features, value);
+  }
+
+  /**
+   * Adds the given value to the problem, the outer product of its vector being already in the
+   * matrix, see {@link #reset(double[])}.
+   */
+  void addValue(double[] features, double value) {
+    for (int row = 0; row < dimension; row++) {
+      vector[row] += value * features[row];
+    }
+    count++;
+  }
+
+  /**
+   * Removes the outer product of the given vector from the matrix. The vector must be in the
+   * matrix given to {@link #reset(double[])}, without any value added to the problem.
+   */
+  void removeOuterProduct(double[] features) {
+    addOuterProduct(matrix, features, -1);
+  }
+
+  /**
+   * Removes all vectors and values from the problem.
+   */
+  void reset() {
+    Arrays.fill(matrix, 0);
+    Arrays.fill(vector, 0);
+    count = 0;
+  }
+
+  /**
+   * Removes all values from the problem, and sets its matrix to the given upper triangle. Thus, the
+   * outer products of all vectors summed in the given matrix are in the problem, but no value.
+   */
+  void reset(double[] gramMatrix) {
+    checkArgument(gramMatrix.length == matrix.length, "The matrix must have the dimension of the"
+        + " problem.");
+    System.arraycopy(gramMatrix, 0, matrix, 0, matrix.length);
+    Arrays.fill(vector, 0);
+    count = 0;
+  }
+
+  /**
+   * Returns the solution of the problem with the given regularization factor and prior. If no value
+   * has been added, the solution is the prior.
+   */
+  double[] solve(double lambda, double[] prior) {
+    checkArgument(0 < lambda, "The regularization factor must be positive.");
+    checkArgument(prior.length == dimension, "The prior must have the dimension of the problem.");
+
+    if (count == 0) {
+      return prior.clone();
+    }
+
+    double regularization = lambda * count;
+
+    // Cholesky decomposition of the regularized matrix
+    for (int column = 0; column < dimension; column++) {
+      int columnOffset = column * dimension;
+      double diagonal = matrix[columnOffset + column] + regularization;
+      for (int index = 0; index < column; index++) {
+        diagonal -= factor[columnOffset + index] * factor[columnOffset + index];
+      }
+      checkState(0 < diagonal, "The matrix must be positive definite.");
+      diagonal = Math.sqrt(diagonal);
+      factor[columnOffset + column] = diagonal;
+
+      for (int row = column + 1; row < dimension; row++) {
+        int rowOffset = row * dimension;
+        double sum = matrix[columnOffset + row];
+        for (int index = 0; index < column; index++) {
+          sum -= factor[rowOffset + index] * factor[columnOffset + index];
+        }
+        factor[rowOffset + column] = sum / diagonal;
+      }
+    }
+
+    // forward substitution
+    double[] result = new double[dimension];
+    for (int row = 0; row < dimension; row++) {
+      int rowOffset = row * dimension;
+      double sum = vector[row] + regularization * prior[row];
+      for (int index = 0; index < row; index++) {
+        sum -= factor[rowOffset + index] * result[index];
+      }
+      result[row] = sum / factor[rowOffset + row];
+    }
+
+    // backward substitution
+    for (int row = dimension - 1; 0 <= row; row--) {
+      double sum = result[row];
+      for (int index = row + 1; index < dimension; index++) {
+        sum -= factor[index * dimension + row] * result[index];
+      }
+      result[row] = sum / factor[row * dimension + row];
+    }
+
+    return result;
+  }
+}
@@ -27,7 +27,7 @@ import org.apache.mahout.cf.taste.impl.recommender.svd.PersistenceStrategy;
  */
 class RamPersistenceStrategy implements PersistenceStrategy {
 
-  private Factorization factorization;
+  private volatile Factorization factorization;
 
   @Override
   public Factorization load() throws IOException {
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.recommender;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * This recommender answers from a recommender that can be replaced without pausing the requests.
+ * A reload creates a new recommender in a background thread, typically from a new data model, with
+ * new similarities or a new factorization. Meanwhile, the current recommender keeps answering. Then
+ * the new recommender replaces the current one at once. A request is answered by only one
+ * recommender, the one current when the request starts.
+ *
+ * <p>
+ * The current recommender is never refreshed in place: the {@link #refresh(Collection)} method
+ * starts a reload. The preferences set or removed are given to the current recommender, thus they
+ * are lost at the next reload if the factory does not take them into account. If a reload fails,
+ * the current recommender is kept. This class is thread-safe.
+ */
+public class ReloadingRecommender implements Recommender, Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReloadingRecommender.class);
+  private static final String RELOAD_THREAD_NAME = "recommender-reload";
+
+  private volatile Recommender current;
+  /** Executes the reloads and the checks of the file, one at a time. */
+  private final ScheduledExecutorService executor;
+  private final Callable<Recommender> factory;
+  private final AtomicBoolean reloadIsPending;
+
+  /**
+   * Creates a recommender answering from the recommenders created by the given factory. The first
+   * recommender is created before the constructor returns.
+   */
+  public ReloadingRecommender(Callable<Recommender> factory) throws TasteException {
+    checkNotNull(factory);
+
+    this.factory = factory;
+    current = create();
+    reloadIsPending = new AtomicBoolean();
+    executor =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat(RELOAD_THREAD_NAME).build());
+  }
+
+  /**
+   * Stops the reloads. A reload in progress is abandoned. The current recommender keeps answering.
+   */
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Returns a new recommender from the factory.
+   */
+  private Recommender create() throws TasteException {
+    Recommender result;
+    try {
+      result = factory.call();
+    } catch (TasteException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new TasteException(e);
+    }
+    checkNotNull(result, "The factory must not return null.");
+    return result;
+  }
+
+  @Override
+  public float estimatePreference(long userID, long itemID) throws TasteException {
+    return current.estimatePreference(userID, itemID);
+  }
+
+  @Override
+  public DataModel getDataModel() {
+    return current.getDataModel();
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany) throws TasteException {
+    return current.recommend(userID, howMany);
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany, boolean includeKnownItems)
+      throws TasteException {
+    return current.recommend(userID, howMany, includeKnownItems);
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer)
+      throws TasteException {
+    return current.recommend(userID, howMany, rescorer);
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer,
+      boolean includeKnownItems) throws TasteException {
+    return current.recommend(userID, howMany, rescorer, includeKnownItems);
+  }
+
+  /**
+   * Starts a reload, unless a reload is already pending.
+   */
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    reload();
+  }
+
+  /**
+   * Starts a reload in the background, unless a reload is already pending or the recommender is
+   * closed. Returns <code>true</code> if a reload is started.
+   */
+  public boolean reload() {
+    if (executor.isShutdown() || !reloadIsPending.compareAndSet(false, true)) {
+      return false;
+    }
+
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            // the reload is done, the next changes need another reload
+            reloadIsPending.set(false);
+            current = create();
+            LOGGER.info("The recommender is reloaded.");
+          } catch (TasteException | RuntimeException e) {
+            LOGGER.warn("Unable to reload the recommender, the previous one is kept.", e);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // closed meanwhile
+      reloadIsPending.set(false);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Checks periodically whether the given file has been modified, and reloads the recommender after
+   * each modification. The file is typically the one of the data model. The reload starts only
+   * when the file is unchanged between two checks, so that a file being written is not loaded.
+   *
+   * @param file file to watch
+   * @param period time between two checks
+   * @param unit unit of the period
+   */
+  public void reloadOnModification(final File file, long period, TimeUnit unit) {
+    checkNotNull(file);
+    checkArgument(0 < period, "The period must be positive.");
+
+    executor.scheduleWithFixedDelay(new Runnable() {
+      /** Last modification time and length of the loaded file. */
+      private long loadedLength = file.length();
+      private long loadedModified = file.lastModified();
+      /** Last modification time and length seen by the previous check. */
+      private long seenLength = loadedLength;
+      private long seenModified = loadedModified;
+
+      @Override
+      public void run() {
+        long length = file.length();
+        long modified = file.lastModified();
+
+        if (length != seenLength || modified != seenModified) {
+          // the file may still be written, wait for the next check
+          seenLength = length;
+          seenModified = modified;
+        } else if (length != loadedLength || modified != loadedModified) {
+          loadedLength = length;
+          loadedModified = modified;
+          reload();
+        }
+      }
+    }, period, period, unit);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    current.removePreference(userID, itemID);
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    current.setPreference(userID, itemID, value);
+  }
+}
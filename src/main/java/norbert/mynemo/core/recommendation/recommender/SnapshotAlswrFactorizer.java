@@ -0,0 +1,374 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.recommender;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.recommender.svd.AbstractFactorizer;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorization;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.RandomUtils;
+
+import com.google.common.base.Optional;
+
+/**
+ * This factorizer implements the ALS-WR algorithm, like the Mahout <code>ALSWRFactorizer</code>
+ * for explicit feedback. The first feature of an item is initialized to its average rating, the
+ * other features to small random values. Then, each iteration solves the user vectors with the
+ * item vectors fixed, then the item vectors with the user vectors fixed. Unlike the Mahout
+ * factorizer, the factorization is provided after each iteration.
+ *
+ * <p>
+ * The ratings are copied once into arrays indexed by the dense indexes of the users and items. The
+ * vectors of a side are solved in parallel, by blocks of consecutive rows claimed by the threads.
+ * Each thread reuses its own normal equations. The matrix of the normal equations of a row is the
+ * sum of the outer products of the fixed vectors of its ratings. If a row has ratings for more than
+ * half of the fixed vectors, its matrix is computed from the Gram matrix of all fixed vectors,
+ * computed once per sweep, minus the outer products of the vectors without rating.
+ *
+ * <p>
+ * The tasks run on the executor given to the factorizer, if any. Otherwise, each factorization
+ * creates its own pool of threads.
+ */
+class SnapshotAlswrFactorizer extends AbstractFactorizer implements SnapshotFactorizer {
+
+  /**
+   * This class holds the ratings of the users, or of the items, in compressed rows: the ratings of
+   * a row are stored between two consecutive offsets.
+   */
+  private static final class RatingRows {
+    /** Index of the other side of each rating, by row. */
+    final int[] columns;
+    /** True if a row has ratings for more than half of the other side. */
+    final boolean hasDenseRow;
+    final int[] offsets;
+    final int otherNumber;
+    final float[] values;
+
+    RatingRows(int[] offsets, int[] columns, float[] values, int otherNumber) {
+      this.offsets = offsets;
+      this.columns = columns;
+      this.values = values;
+      this.otherNumber = otherNumber;
+
+      boolean dense = false;
+      for (int row = 0; row < offsets.length - 1; row++) {
+        dense |= isDense(row);
+      }
+      hasDenseRow = dense;
+    }
+
+    boolean isDense(int row) {
+      return otherNumber < 2 * (offsets[row + 1] - offsets[row]);
+    }
+
+    int rowNumber() {
+      return offsets.length - 1;
+    }
+  }
+
+  /** Number of consecutive rows claimed at once by a thread. */
+  private static final int BLOCK_SIZE = 64;
+  private static final double RANDOM_FEATURE_RANGE = 0.1;
+
+  /**
+   * Returns the results of the given tasks, executed by the given executor.
+   */
+  private static <T> List<T> invokeAll(ExecutorService executor,
+      List<? extends Callable<T>> tasks) throws TasteException {
+    List<T> result = new ArrayList<>();
+    try {
+      for (Future<T> future : executor.invokeAll(tasks)) {
+        result.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TasteException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new TasteException(e.getCause());
+    }
+    return result;
+  }
+
+  /** Executor of the tasks, absent if each factorization creates its own pool. */
+  private final Optional<ExecutorService> executor;
+  private final int featureNumber;
+  private final RatingRows itemRows;
+  private final int iterationNumber;
+  private final double lambda;
+  /** Seed of the initial features of each factorization, absent for a random seed. */
+  private final Optional<Long> seed;
+  private final int threadNumber;
+  private final RatingRows userRows;
+
+  public SnapshotAlswrFactorizer(DataModel dataModel, int featureNumber, double lambda,
+      int iterationNumber) throws TasteException {
+    this(dataModel, featureNumber, lambda, iterationNumber, Runtime.getRuntime()
+        .availableProcessors());
+  }
+
+  public SnapshotAlswrFactorizer(DataModel dataModel, int featureNumber, double lambda,
+      int iterationNumber, int threadNumber) throws TasteException {
+    this(dataModel, featureNumber, lambda, iterationNumber, Optional.<ExecutorService>absent(),
+        threadNumber, Optional.<Long>absent());
+  }
+
+  /**
+   * Creates a factorizer whose tasks run on the given executor. The executor is never shut down by
+   * the factorizer. If a seed is given, each factorization initializes the features with this
+   * seed, thus the factorizations are identical.
+   *
+   * @param threadNumber number of tasks of each parallel step, should be the number of threads of
+   *        the executor
+   * @param seed seed of the initial features of each factorization, absent for a random seed
+   */
+  public SnapshotAlswrFactorizer(DataModel dataModel, int featureNumber, double lambda,
+      int iterationNumber, ExecutorService executor, int threadNumber, Optional<Long> seed)
+      throws TasteException {
+    this(dataModel, featureNumber, lambda, iterationNumber, Optional.of(executor), threadNumber,
+        seed);
+  }
+
+  private SnapshotAlswrFactorizer(DataModel dataModel, int featureNumber, double lambda,
+      int iterationNumber, Optional<ExecutorService> executor, int threadNumber,
+      Optional<Long> seed) throws TasteException {
+    super(dataModel);
+
+    checkArgument(0 < featureNumber, "The number of features must be positive.");
+    checkArgument(0 < iterationNumber, "The number of iterations must be positive.");
+    checkArgument(executor != null, "The executor must not be null.");
+    checkArgument(0 < threadNumber, "The number of threads must be positive.");
+    checkArgument(seed != null, "The seed must not be null.");
+
+    this.executor = executor;
+    this.featureNumber = featureNumber;
+    this.lambda = lambda;
+    this.iterationNumber = iterationNumber;
+    this.seed = seed;
+    this.threadNumber = threadNumber;
+
+    userRows = createRows(dataModel, true);
+    itemRows = createRows(dataModel, false);
+  }
+
+  /**
+   * Returns the Gram matrix of the given vectors, that is the sum of their outer products. Only the
+   * upper triangle is computed.
+   */
+  private double[] computeGramMatrix(ExecutorService executor, final double[][] features)
+      throws TasteException {
+    List<Callable<double[]>> tasks = new ArrayList<>();
+    for (int part = 0; part < threadNumber; part++) {
+      final int start = (int) ((long) features.length * part / threadNumber);
+      final int end = (int) ((long) features.length * (part + 1) / threadNumber);
+      tasks.add(new Callable<double[]>() {
+        @Override
+        public double[] call() {
+          double[] result = new double[featureNumber * featureNumber];
+          for (int index = start; index < end; index++) {
+            NormalEquations.addOuterProduct(result, features[index], 1);
+          }
+          return result;
+        }
+      });
+    }
+
+    double[] result = new double[featureNumber * featureNumber];
+    for (double[] partialSum : invokeAll(executor, tasks)) {
+      for (int index = 0; index < result.length; index++) {
+        result[index] += partialSum[index];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the ratings of the given data model, by user if <code>byUser</code> is
+   * <code>true</code>, by item otherwise.
+   */
+  private RatingRows createRows(DataModel dataModel, boolean byUser) throws TasteException {
+    int rowNumber = byUser ? dataModel.getNumUsers() : dataModel.getNumItems();
+    int[] offsets = new int[rowNumber + 1];
+    PreferenceArray[] preferences = new PreferenceArray[rowNumber];
+
+    LongPrimitiveIterator iterator = byUser ? dataModel.getUserIDs() : dataModel.getItemIDs();
+    while (iterator.hasNext()) {
+      long id = iterator.nextLong();
+      int row = byUser ? userIndex(id) : itemIndex(id);
+      preferences[row] =
+          byUser ? dataModel.getPreferencesFromUser(id) : dataModel.getPreferencesForItem(id);
+      offsets[row + 1] = preferences[row].length();
+    }
+    for (int row = 0; row < rowNumber; row++) {
+      offsets[row + 1] += offsets[row];
+    }
+
+    int[] columns = new int[offsets[rowNumber]];
+    float[] values = new float[offsets[rowNumber]];
+    for (int row = 0; row < rowNumber; row++) {
+      for (int index = 0; index < preferences[row].length(); index++) {
+        columns[offsets[row] + index] =
+            byUser ? itemIndex(preferences[row].getItemID(index)) : userIndex(preferences[row]
+                .getUserID(index));
+        values[offsets[row] + index] = preferences[row].getValue(index);
+      }
+    }
+
+    return new RatingRows(offsets, columns, values,
+        byUser ? dataModel.getNumItems() : dataModel.getNumUsers());
+  }
+
+  @Override
+  public Factorization factorize() throws TasteException {
+    return factorize(new IterationListener<Factorization>() {
+      @Override
+      public boolean iterationDone(int iteration, Factorization result) {
+        return true;
+      }
+    });
+  }
+
+  @Override
+  public Factorization factorize(IterationListener<Factorization> listener)
+      throws TasteException {
+    double[][] userFeatures = new double[userRows.rowNumber()][];
+    double[][] itemFeatures = initializeItemFeatures();
+    Factorization result = null;
+
+    ExecutorService currentExecutor =
+        executor.isPresent() ? executor.get() : Executors.newFixedThreadPool(threadNumber);
+    try {
+      for (int iteration = 1; iteration <= iterationNumber; iteration++) {
+        solveRows(currentExecutor, userRows, itemFeatures, userFeatures);
+        solveRows(currentExecutor, itemRows, userFeatures, itemFeatures);
+
+        // the rows are replaced by each iteration, never modified, thus a shallow copy is enough
+        result = createFactorization(userFeatures.clone(), itemFeatures.clone());
+        if (!listener.iterationDone(iteration, result)) {
+          break;
+        }
+      }
+    } finally {
+      if (!executor.isPresent()) {
+        currentExecutor.shutdownNow();
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the initial item vectors. The first feature is the average rating of the item, the
+   * others are small random values.
+   */
+  private double[][] initializeItemFeatures() {
+    Random random = seed.isPresent() ? RandomUtils.getRandom(seed.get()) : RandomUtils.getRandom();
+    double[][] result = new double[itemRows.rowNumber()][];
+
+    for (int item = 0; item < result.length; item++) {
+      double sum = 0;
+      for (int index = itemRows.offsets[item]; index < itemRows.offsets[item + 1]; index++) {
+        sum += itemRows.values[index];
+      }
+
+      double[] features = new double[featureNumber];
+      features[0] = sum / (itemRows.offsets[item + 1] - itemRows.offsets[item]);
+      for (int feature = 1; feature < featureNumber; feature++) {
+        features[feature] = random.nextDouble() * RANDOM_FEATURE_RANGE;
+      }
+      result[item] = features;
+    }
+
+    return result;
+  }
+
+  /**
+   * Replaces each vector of the result by the vector that best fits the ratings of its row, the
+   * vectors of the other side being fixed.
+   *
+   * @param rows ratings of the side to solve
+   * @param otherFeatures fixed vectors of the other side
+   * @param result vectors of the side to solve
+   */
+  private void solveRows(ExecutorService executor, final RatingRows rows,
+      final double[][] otherFeatures, final double[][] result) throws TasteException {
+    final double[] gramMatrix =
+        rows.hasDenseRow ? computeGramMatrix(executor, otherFeatures) : null;
+    final double[] zero = new double[featureNumber];
+    final AtomicInteger nextBlock = new AtomicInteger();
+
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (int task = 0; task < threadNumber; task++) {
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          NormalEquations equations = new NormalEquations(featureNumber);
+          boolean[] rated = new boolean[gramMatrix == null ? 0 : otherFeatures.length];
+
+          int start;
+          while ((start = nextBlock.getAndIncrement() * BLOCK_SIZE) < rows.rowNumber()) {
+            int end = Math.min(start + BLOCK_SIZE, rows.rowNumber());
+            for (int row = start; row < end; row++) {
+              if (gramMatrix != null && rows.isDense(row)) {
+                equations.reset(gramMatrix);
+                for (int index = rows.offsets[row]; index < rows.offsets[row + 1]; index++) {
+                  rated[rows.columns[index]] = true;
+                  equations.addValue(otherFeatures[rows.columns[index]], rows.values[index]);
+                }
+                for (int other = 0; other < rated.length; other++) {
+                  if (rated[other]) {
+                    rated[other] = false;
+                  } else {
+                    equations.removeOuterProduct(otherFeatures[other]);
+                  }
+                }
+              } else {
+                equations.reset();
+                for (int index = rows.offsets[row]; index < rows.offsets[row + 1]; index++) {
+                  equations.add(otherFeatures[rows.columns[index]], rows.values[index]);
+                }
+              }
+              result[row] = equations.solve(lambda, zero);
+            }
+          }
+          return null;
+        }
+      });
+    }
+
+    invokeAll(executor, tasks);
+  }
+}
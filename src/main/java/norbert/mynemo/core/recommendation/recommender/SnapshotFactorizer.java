@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.recommender;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorization;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorizer;
+
+/**
+ * This factorizer provides the factorization after each iteration of its training. Thus, a single
+ * training gives the factorizations of all numbers of iterations up to the number of the
+ * factorizer.
+ */
+interface SnapshotFactorizer extends Factorizer {
+  /**
+   * Trains the factorization, and gives to the listener a copy of the factorization after each
+   * iteration. The training stops when the listener returns <code>false</code>, or when the number
+   * of iterations of the factorizer is reached.
+   *
+   * @return the factorization of the last iteration
+   */
+  Factorization factorize(IterationListener<Factorization> listener) throws TasteException;
+}
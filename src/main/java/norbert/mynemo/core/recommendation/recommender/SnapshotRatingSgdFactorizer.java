@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.recommender;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorization;
+import org.apache.mahout.cf.taste.impl.recommender.svd.RatingSGDFactorizer;
+import org.apache.mahout.cf.taste.model.DataModel;
+
+/**
+ * This factorizer is the Mahout {@link RatingSGDFactorizer}, that also provides the factorization
+ * after each iteration. An iteration of the Mahout factorizer updates the parameters once for each
+ * preference of the data model. Thus, an iteration is done each time the number of updates reaches
+ * a multiple of the number of preferences.
+ *
+ * <p>
+ * Once the listener stops the training, the remaining updates of the Mahout factorizer are skipped.
+ * A factorizer trains only one factorization at a time.
+ */
+class SnapshotRatingSgdFactorizer extends RatingSGDFactorizer implements SnapshotFactorizer {
+
+  /**
+   * Returns a copy of the given vectors.
+   */
+  private static double[][] copy(double[][] vectors) {
+    double[][] result = new double[vectors.length][];
+    for (int index = 0; index < vectors.length; index++) {
+      result[index] = vectors[index].clone();
+    }
+    return result;
+  }
+
+  /** Exception thrown by the listener, rethrown at the end of the training. */
+  private TasteException failure;
+  private int iteration;
+  private Factorization lastFactorization;
+  private IterationListener<Factorization> listener;
+  private final long preferenceNumber;
+  private boolean stopped;
+  private long updateNumber;
+
+  public SnapshotRatingSgdFactorizer(DataModel dataModel, int featureNumber, int iterationNumber)
+      throws TasteException {
+    super(dataModel, featureNumber, iterationNumber);
+
+    long count = 0;
+    LongPrimitiveIterator iterator = dataModel.getUserIDs();
+    while (iterator.hasNext()) {
+      count += dataModel.getPreferencesFromUser(iterator.nextLong()).length();
+    }
+    preferenceNumber = count;
+  }
+
+  @Override
+  public synchronized Factorization factorize(IterationListener<Factorization> listener)
+      throws TasteException {
+    this.listener = listener;
+    failure = null;
+    iteration = 0;
+    lastFactorization = null;
+    stopped = false;
+    updateNumber = 0;
+
+    Factorization result;
+    try {
+      result = super.factorize();
+    } finally {
+      // the next trainings started by the Mahout method have no listener
+      this.listener = null;
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+    return stopped ? lastFactorization : result;
+  }
+
+  @Override
+  protected void updateParameters(long userID, long itemID, float rating,
+      double currentLearningRate) {
+    if (stopped) {
+      return;
+    }
+
+    super.updateParameters(userID, itemID, rating, currentLearningRate);
+
+    updateNumber++;
+    if (listener == null || updateNumber % preferenceNumber != 0) {
+      return;
+    }
+
+    iteration++;
+    lastFactorization = createFactorization(copy(userVectors), copy(itemVectors));
+    try {
+      stopped = !listener.iterationDone(iteration, lastFactorization);
+    } catch (TasteException e) {
+      // the Mahout method cannot throw the exception, it is kept until the end of the training
+      failure = e;
+      stopped = true;
+    }
+  }
+}
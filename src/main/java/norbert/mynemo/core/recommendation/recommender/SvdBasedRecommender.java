@@ -17,39 +17,139 @@
 package norbert.mynemo.core.recommendation.recommender;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
+import norbert.mynemo.core.recommendation.RecommenderType;
 import norbert.mynemo.core.recommendation.configuration.SvdBasedRecommenderConfiguration;
 
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
-import org.apache.mahout.cf.taste.impl.recommender.svd.ALSWRFactorizer;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorization;
 import org.apache.mahout.cf.taste.impl.recommender.svd.Factorizer;
+import org.apache.mahout.cf.taste.impl.recommender.svd.NoPersistenceStrategy;
 import org.apache.mahout.cf.taste.impl.recommender.svd.ParallelSGDFactorizer;
 import org.apache.mahout.cf.taste.impl.recommender.svd.PersistenceStrategy;
 import org.apache.mahout.cf.taste.impl.recommender.svd.RatingSGDFactorizer;
-import org.apache.mahout.cf.taste.impl.recommender.svd.SVDPlusPlusFactorizer;
-import org.apache.mahout.cf.taste.impl.recommender.svd.SVDRecommender;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 
+import com.google.common.base.Optional;
+
 /**
  * This class represents several recommender builders. The recommenders are based on the SVD method.
  * A builder is chosen via the {@link #SvdBasedRecommender(SvdBasedRecommenderConfiguration)
  * constructor}.
+ *
+ * <p>
+ * If the configuration allows the reuse of the factorization, the data model of the configuration
+ * is factorized once without the target user. Then, for each data model given to the builder, the
+ * preferences of the target user are folded into the factorization, see {@link UserFoldIn}. The
+ * factorizer reads a view of the data model that masks the target user, see
+ * {@link UserMaskerDataModel}, thus the data model is never copied.
+ *
+ * <p>
+ * The recommendations of the built recommenders are found by an index over the item vectors, see
+ * {@link IndexedSvdRecommender}.
+ *
+ * <p>
+ * The parallel factorizers run their tasks on the executor given to the builder, if any. Otherwise,
+ * each factorization creates its own pool, whose threads are as many as the processors.
  */
 public class SvdBasedRecommender implements RecommenderBuilder {
 
   private static final int DEFAULT_EPOCHS = 1;
   private static final double DEFAULT_LAMBDA = 0.065;
+  /** Minimum number of features for which the item vectors of the index are quantized. */
+  private static final int QUANTIZATION_MIN_FEATURES = 100;
+
+  /**
+   * Returns <code>true</code> if a single training of the given type provides the factorizations of
+   * all numbers of iterations. See {@link #trainIterations(IterationListener)}.
+   */
+  public static boolean supportsIterationSnapshots(RecommenderType type) {
+    boolean result;
+
+    switch (type) {
+      case SVD_WITH_ALSWR_FACTORIZER:
+      case SVD_WITH_HOGWILD_SGD_FACTORIZER:
+      case SVD_WITH_RATING_SGD_FACTORIZER:
+      case SVD_WITH_SVDPLUSPLUS_FACTORIZER:
+        result = true;
+        break;
+
+      default:
+        result = false;
+    }
+
+    return result;
+  }
+
   private Factorizer cachedFactorizer;
   private final SvdBasedRecommenderConfiguration configuration;
-  private PersistenceStrategy persistenceStrategy;
+  /** Executor shared by the parallel factorizers, absent if each factorization has its own pool. */
+  private final Optional<ExecutorService> executor;
+  private UserFoldIn foldIn;
+  /** Persistence of the factorizations, used if the factorization is not reused. */
+  private final PersistenceStrategy persistenceStrategy;
+  /** Seed of the random choices of the factorizers, absent for a random seed. */
+  private final Optional<Long> seed;
+  /** Number of tasks of each parallel step of the factorizers. */
+  private final int threadNumber;
 
   public SvdBasedRecommender(SvdBasedRecommenderConfiguration configuration) {
+    this(configuration, new NoPersistenceStrategy());
+  }
+
+  /**
+   * Creates a builder whose parallel factorizers run their tasks on the given executor, which is
+   * never shut down by the builder. The given number of threads should be the number of threads of
+   * the executor. If a seed is given, the factorizers of this project draw their random choices
+   * from this seed. The Mahout factorizers, and the order of the updates of the Hogwild factorizer,
+   * stay random.
+   */
+  public SvdBasedRecommender(SvdBasedRecommenderConfiguration configuration,
+      ExecutorService executor, int threadNumber, Optional<Long> seed) {
+    this(configuration, new NoPersistenceStrategy(), Optional.of(executor), threadNumber, seed);
+  }
+
+  /**
+   * Creates a builder whose factorizations are loaded from, or stored in, the given persistence
+   * strategy. The strategy is only used if the configuration does not allow the reuse of the
+   * factorization. Then, the factorization is not computed if the strategy provides it. The
+   * strategy must be specific to the data models given to the builder.
+   */
+  public SvdBasedRecommender(SvdBasedRecommenderConfiguration configuration,
+      PersistenceStrategy persistenceStrategy) {
+    this(configuration, persistenceStrategy, Optional.<ExecutorService>absent(), Runtime
+        .getRuntime().availableProcessors(), Optional.<Long>absent());
+  }
+
+  private SvdBasedRecommender(SvdBasedRecommenderConfiguration configuration,
+      PersistenceStrategy persistenceStrategy, Optional<ExecutorService> executor,
+      int threadNumber, Optional<Long> seed) {
     checkArgument(configuration != null, "The configuration must not be null.");
+    checkArgument(persistenceStrategy != null, "The persistence strategy must not be null.");
+    checkArgument(executor != null, "The executor must not be null.");
+    checkArgument(0 < threadNumber, "The number of threads must be positive.");
+    checkArgument(seed != null, "The seed must not be null.");
     this.configuration = configuration;
+    this.persistenceStrategy = persistenceStrategy;
+    this.executor = executor;
+    this.seed = seed;
+    this.threadNumber = threadNumber;
+  }
+
+  /**
+   * Creates a builder whose recommenders use the given shared factorizer and fold-in.
+   */
+  private SvdBasedRecommender(SvdBasedRecommenderConfiguration configuration,
+      Factorizer factorizer, UserFoldIn foldIn) {
+    this(configuration);
+    cachedFactorizer = factorizer;
+    this.foldIn = foldIn;
   }
 
   @Override
@@ -57,22 +157,41 @@ public class SvdBasedRecommender implements RecommenderBuilder {
     if (!configuration.allowCachedFactorizationReuse()) {
 
       // create a new factorizer each time
-      return new SVDRecommender(dataModel, createFactorizer(dataModel));
+      return new IndexedSvdRecommender(dataModel, createFactorizer(dataModel), persistenceStrategy,
+          isIndexQuantized());
 
     }
 
-    if (cachedFactorizer == null) {
-      // lazy initialization
-      cachedFactorizer = createFactorizer(configuration.getDataModel());
-      try {
-        persistenceStrategy = new RamPersistenceStrategy();
-        persistenceStrategy.maybePersist(cachedFactorizer.factorize());
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      }
+    initializeCache();
+
+    // the factorization of this data model is the shared one, plus the target user
+    PersistenceStrategy foldedStrategy = new RamPersistenceStrategy();
+    try {
+      foldedStrategy.maybePersist(foldIn.foldIn(dataModel));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
     }
 
-    return new SVDRecommender(dataModel, cachedFactorizer, persistenceStrategy);
+    return new IndexedSvdRecommender(dataModel, cachedFactorizer, foldedStrategy,
+        isIndexQuantized());
+  }
+
+  private SnapshotAlswrFactorizer createAlswrFactorizer(DataModel dataModel)
+      throws TasteException {
+    int featuresNumber = configuration.getFeatureNumber();
+    int iterationsNumber = configuration.getIterationNumber();
+    SnapshotAlswrFactorizer result;
+
+    if (executor.isPresent()) {
+      result =
+          new SnapshotAlswrFactorizer(dataModel, featuresNumber, DEFAULT_LAMBDA, iterationsNumber,
+              executor.get(), threadNumber, seed);
+    } else {
+      result =
+          new SnapshotAlswrFactorizer(dataModel, featuresNumber, DEFAULT_LAMBDA, iterationsNumber);
+    }
+
+    return result;
   }
 
   private Factorizer createFactorizer(DataModel dataModel) throws TasteException {
@@ -82,7 +201,11 @@ public class SvdBasedRecommender implements RecommenderBuilder {
 
     switch (configuration.getType()) {
       case SVD_WITH_ALSWR_FACTORIZER:
-        result = new ALSWRFactorizer(dataModel, featuresNumber, DEFAULT_LAMBDA, iterationsNumber);
+        result = createAlswrFactorizer(dataModel);
+        break;
+
+      case SVD_WITH_HOGWILD_SGD_FACTORIZER:
+        result = createHogwildFactorizer(dataModel);
         break;
 
       case SVD_WITH_PARALLEL_SGD_FACTORIZER:
@@ -95,7 +218,7 @@ public class SvdBasedRecommender implements RecommenderBuilder {
         break;
 
       case SVD_WITH_SVDPLUSPLUS_FACTORIZER:
-        result = new SVDPlusPlusFactorizer(dataModel, featuresNumber, iterationsNumber);
+        result = new SvdPlusPlusFactorizer(dataModel, featuresNumber, iterationsNumber, seed);
         break;
 
       default:
@@ -104,4 +227,114 @@ public class SvdBasedRecommender implements RecommenderBuilder {
 
     return result;
   }
+
+  private HogwildSgdFactorizer createHogwildFactorizer(DataModel dataModel) throws TasteException {
+    int featuresNumber = configuration.getFeatureNumber();
+    int iterationsNumber = configuration.getIterationNumber();
+    HogwildSgdFactorizer result;
+
+    if (executor.isPresent()) {
+      result =
+          new HogwildSgdFactorizer(dataModel, featuresNumber, iterationsNumber, executor.get(),
+              threadNumber, seed);
+    } else {
+      result = new HogwildSgdFactorizer(dataModel, featuresNumber, iterationsNumber);
+    }
+
+    return result;
+  }
+
+  private SnapshotFactorizer createSnapshotFactorizer(DataModel dataModel) throws TasteException {
+    int featuresNumber = configuration.getFeatureNumber();
+    int iterationsNumber = configuration.getIterationNumber();
+    SnapshotFactorizer result;
+
+    switch (configuration.getType()) {
+      case SVD_WITH_ALSWR_FACTORIZER:
+        result = createAlswrFactorizer(dataModel);
+        break;
+
+      case SVD_WITH_HOGWILD_SGD_FACTORIZER:
+        result = createHogwildFactorizer(dataModel);
+        break;
+
+      case SVD_WITH_RATING_SGD_FACTORIZER:
+        result = new SnapshotRatingSgdFactorizer(dataModel, featuresNumber, iterationsNumber);
+        break;
+
+      case SVD_WITH_SVDPLUSPLUS_FACTORIZER:
+        result = new SvdPlusPlusFactorizer(dataModel, featuresNumber, iterationsNumber, seed);
+        break;
+
+      default:
+        throw new UnsupportedOperationException();
+    }
+
+    return result;
+  }
+
+  public SvdBasedRecommenderConfiguration getConfiguration() {
+    return configuration;
+  }
+
+  /**
+   * Creates the factorizer and the factorization shared by all recommenders, if they are not
+   * created yet. The factorization is computed without the target user, thus none of the
+   * preferences of the target user masked by a training model is known by the factorization. The
+   * evaluator may build several recommenders at the same time, thus the creation is synchronized.
+   */
+  private synchronized void initializeCache() throws TasteException {
+    if (cachedFactorizer == null) {
+      // lazy initialization
+      long targetUser = configuration.getTargetUser();
+      cachedFactorizer =
+          createFactorizer(new UserMaskerDataModel(configuration.getDataModel(), targetUser));
+      foldIn = new UserFoldIn(cachedFactorizer.factorize(), targetUser, DEFAULT_LAMBDA);
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the index of the recommendations must quantize the item vectors.
+   * The quantization pays off only for the long vectors.
+   */
+  private boolean isIndexQuantized() {
+    return QUANTIZATION_MIN_FEATURES <= configuration.getFeatureNumber();
+  }
+
+  /**
+   * Trains the shared factorization once, and gives to the listener, after each iteration, a
+   * builder whose recommenders use the factorization of this iteration. The configuration of a
+   * given builder has the number of iterations done. The number of iterations of the configuration
+   * of this builder is the maximum, the listener can stop the training earlier.
+   *
+   * <p>
+   * Like the shared factorization of {@link #buildRecommender(DataModel)}, the factorization is
+   * trained without the target user, who is folded in for each data model. Thus, the configuration
+   * must allow the reuse of the factorization, and its type must support the snapshots, see
+   * {@link #supportsIterationSnapshots(RecommenderType)}.
+   */
+  public void trainIterations(final IterationListener<SvdBasedRecommender> listener)
+      throws TasteException {
+    checkState(configuration.allowCachedFactorizationReuse(), "The reuse of the factorization must"
+        + " be allowed.");
+    checkState(supportsIterationSnapshots(configuration.getType()), "The recommender type must"
+        + " support the snapshots.");
+
+    final long targetUser = configuration.getTargetUser();
+    final SnapshotFactorizer factorizer =
+        createSnapshotFactorizer(new UserMaskerDataModel(configuration.getDataModel(),
+            targetUser));
+
+    factorizer.factorize(new IterationListener<Factorization>() {
+      @Override
+      public boolean iterationDone(int iteration, Factorization result) throws TasteException {
+        SvdBasedRecommenderConfiguration iterationConfiguration =
+            new SvdBasedRecommenderConfiguration(configuration.getType(),
+                configuration.getFeatureNumber(), iteration, configuration.getDataModel(),
+                targetUser, true);
+        return listener.iterationDone(iteration, new SvdBasedRecommender(iterationConfiguration,
+            factorizer, new UserFoldIn(result, targetUser, DEFAULT_LAMBDA)));
+      }
+    });
+  }
 }
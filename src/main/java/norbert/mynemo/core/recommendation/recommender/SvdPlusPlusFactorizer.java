@@ -0,0 +1,353 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.recommender;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.recommender.svd.AbstractFactorizer;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorization;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.RandomUtils;
+
+import com.google.common.base.Optional;
+
+/**
+ * This factorizer trains the SVD++ model with a stochastic gradient descent. The prediction of a
+ * rating is the global average, plus the bias of the user, plus the bias of the item, plus the dot
+ * product of the item factors with the user factors added to the implicit factors of the user. The
+ * implicit factors of a user are the sum of the implicit vectors of the items rated by the user,
+ * divided by the square root of their number.
+ *
+ * <p>
+ * Unlike the Mahout <code>SVDPlusPlusFactorizer</code>, the implicit factors are not recomputed for
+ * each rating. The users are processed in a random order, and the ratings of a user form a batch.
+ * The implicit factors of the user are computed once at the start of the batch. The gradient of
+ * the implicit vectors is accumulated during the batch, then applied once to the implicit vectors
+ * of the rated items. Thus, an epoch costs about three passes over the ratings. The ratings are
+ * stored in primitive arrays, by user, and the factors in flat float arrays.
+ *
+ * <p>
+ * The vectors of the factorization hold the biases and the implicit factors, thus the
+ * factorization has three more features than the number of factors: <code>(average, user bias, 1,
+ * user factors + implicit factors)</code> for a user and <code>(1, 1, item bias, item
+ * factors)</code> for an item. The factorization is provided after each epoch.
+ */
+class SvdPlusPlusFactorizer extends AbstractFactorizer implements SnapshotFactorizer {
+
+  /** Learning rate of the first epoch. */
+  static final double DEFAULT_LEARNING_RATE = 0.007;
+  /** Factor applied to the learning rate after each epoch. */
+  static final double DEFAULT_LEARNING_RATE_DECAY = 0.9;
+  static final double DEFAULT_REGULARIZATION = 0.015;
+  /** Number of features of the factorization that hold the average and the biases. */
+  private static final int FEATURE_OFFSET = 3;
+  private static final double RANDOM_NOISE = 0.01;
+
+  /**
+   * Shuffles the given array.
+   */
+  private static void shuffle(int[] array, Random random) {
+    for (int index = array.length - 1; 0 < index; index--) {
+      int other = random.nextInt(index + 1);
+      int value = array[index];
+      array[index] = array[other];
+      array[other] = value;
+    }
+  }
+
+  private final float average;
+  private final int epochNumber;
+  private final int factorNumber;
+  private final float[] itemBiases;
+  private final float[] itemFactors;
+  /** Implicit vector of each item. */
+  private final float[] itemImplicitFactors;
+  /** Item index of each rating, by user. */
+  private final int[] items;
+  private final double learningRate;
+  private final double learningRateDecay;
+  /** Offsets of the ratings of each user in the rating arrays. */
+  private final int[] offsets;
+  private final float regularization;
+  /** Seed of the random choices of each factorization, absent for a random seed. */
+  private final Optional<Long> seed;
+  private final float[] userBiases;
+  private final float[] userFactors;
+  /** Value of each rating, by user. */
+  private final float[] values;
+
+  /**
+   * Creates a factorizer with the default learning rate, decay and regularization.
+   */
+  public SvdPlusPlusFactorizer(DataModel dataModel, int factorNumber, int epochNumber)
+      throws TasteException {
+    this(dataModel, factorNumber, epochNumber, Optional.<Long>absent());
+  }
+
+  /**
+   * Creates a factorizer with the default learning rate, decay and regularization. If a seed is
+   * given, each factorization initializes the factors and orders the users with this seed, thus the
+   * factorizations are identical.
+   */
+  public SvdPlusPlusFactorizer(DataModel dataModel, int factorNumber, int epochNumber,
+      Optional<Long> seed) throws TasteException {
+    this(dataModel, factorNumber, epochNumber, DEFAULT_LEARNING_RATE, DEFAULT_LEARNING_RATE_DECAY,
+        DEFAULT_REGULARIZATION, seed);
+  }
+
+  /**
+   * Creates a factorizer.
+   *
+   * @param dataModel data model to factorize
+   * @param factorNumber number of factors of the users and items
+   * @param epochNumber number of passes over the ratings
+   * @param learningRate learning rate of the first epoch
+   * @param learningRateDecay factor applied to the learning rate after each epoch
+   * @param regularization regularization factor of the factors and biases
+   * @param seed seed of the random choices of each factorization, absent for a random seed
+   */
+  public SvdPlusPlusFactorizer(DataModel dataModel, int factorNumber, int epochNumber,
+      double learningRate, double learningRateDecay, double regularization, Optional<Long> seed)
+      throws TasteException {
+    super(dataModel);
+
+    checkArgument(0 < factorNumber, "The number of factors must be positive.");
+    checkArgument(0 < epochNumber, "The number of epochs must be positive.");
+    checkArgument(0 < learningRate, "The learning rate must be positive.");
+    checkArgument(0 < learningRateDecay && learningRateDecay <= 1, "The learning rate decay must"
+        + " be between 0 excluded and 1.");
+    checkArgument(0 <= regularization, "The regularization must not be negative.");
+    checkArgument(seed != null, "The seed must not be null.");
+
+    this.factorNumber = factorNumber;
+    this.epochNumber = epochNumber;
+    this.learningRate = learningRate;
+    this.learningRateDecay = learningRateDecay;
+    this.regularization = (float) regularization;
+    this.seed = seed;
+
+    // copy the ratings into the arrays, by user index
+    int userNumber = dataModel.getNumUsers();
+    PreferenceArray[] preferences = new PreferenceArray[userNumber];
+    offsets = new int[userNumber + 1];
+    LongPrimitiveIterator iterator = dataModel.getUserIDs();
+    while (iterator.hasNext()) {
+      long user = iterator.nextLong();
+      int userIndex = userIndex(user);
+      preferences[userIndex] = dataModel.getPreferencesFromUser(user);
+      offsets[userIndex + 1] = preferences[userIndex].length();
+    }
+    for (int user = 0; user < userNumber; user++) {
+      offsets[user + 1] += offsets[user];
+    }
+
+    items = new int[offsets[userNumber]];
+    values = new float[offsets[userNumber]];
+    double sum = 0;
+    for (int user = 0; user < userNumber; user++) {
+      for (int index = 0; index < preferences[user].length(); index++) {
+        items[offsets[user] + index] = itemIndex(preferences[user].getItemID(index));
+        values[offsets[user] + index] = preferences[user].getValue(index);
+        sum += preferences[user].getValue(index);
+      }
+    }
+    average = (values.length == 0) ? 0 : (float) (sum / values.length);
+
+    userBiases = new float[userNumber];
+    itemBiases = new float[dataModel.getNumItems()];
+    userFactors = new float[userNumber * factorNumber];
+    itemFactors = new float[itemBiases.length * factorNumber];
+    itemImplicitFactors = new float[itemBiases.length * factorNumber];
+  }
+
+  /**
+   * Sets the given array to the implicit factors of the given user.
+   */
+  private void computeImplicitFactors(int user, float[] implicitFactors) {
+    for (int factor = 0; factor < factorNumber; factor++) {
+      implicitFactors[factor] = 0;
+    }
+    if (offsets[user] == offsets[user + 1]) {
+      return;
+    }
+
+    for (int index = offsets[user]; index < offsets[user + 1]; index++) {
+      int itemOffset = items[index] * factorNumber;
+      for (int factor = 0; factor < factorNumber; factor++) {
+        implicitFactors[factor] += itemImplicitFactors[itemOffset + factor];
+      }
+    }
+    float normalization = (float) (1 / Math.sqrt(offsets[user + 1] - offsets[user]));
+    for (int factor = 0; factor < factorNumber; factor++) {
+      implicitFactors[factor] *= normalization;
+    }
+  }
+
+  /**
+   * Returns the factorization of the current parameters.
+   */
+  private Factorization createFactorization() {
+    float[] implicitFactors = new float[factorNumber];
+
+    double[][] userVectors = new double[userBiases.length][factorNumber + FEATURE_OFFSET];
+    for (int user = 0; user < userVectors.length; user++) {
+      computeImplicitFactors(user, implicitFactors);
+      userVectors[user][0] = average;
+      userVectors[user][1] = userBiases[user];
+      userVectors[user][2] = 1;
+      for (int factor = 0; factor < factorNumber; factor++) {
+        userVectors[user][FEATURE_OFFSET + factor] =
+            userFactors[user * factorNumber + factor] + implicitFactors[factor];
+      }
+    }
+
+    double[][] itemVectors = new double[itemBiases.length][factorNumber + FEATURE_OFFSET];
+    for (int item = 0; item < itemVectors.length; item++) {
+      itemVectors[item][0] = 1;
+      itemVectors[item][1] = 1;
+      itemVectors[item][2] = itemBiases[item];
+      for (int factor = 0; factor < factorNumber; factor++) {
+        itemVectors[item][FEATURE_OFFSET + factor] = itemFactors[item * factorNumber + factor];
+      }
+    }
+
+    return createFactorization(userVectors, itemVectors);
+  }
+
+  @Override
+  public Factorization factorize() throws TasteException {
+    return factorize(new IterationListener<Factorization>() {
+      @Override
+      public boolean iterationDone(int iteration, Factorization result) {
+        return true;
+      }
+    });
+  }
+
+  /**
+   * Trains the factorization. A factorizer trains only one factorization at a time.
+   */
+  @Override
+  public synchronized Factorization factorize(IterationListener<Factorization> listener)
+      throws TasteException {
+    Random random = seed.isPresent() ? RandomUtils.getRandom(seed.get()) : RandomUtils.getRandom();
+    initialize(random);
+
+    int[] userOrder = new int[userBiases.length];
+    for (int user = 0; user < userOrder.length; user++) {
+      userOrder[user] = user;
+    }
+    float[] implicitFactors = new float[factorNumber];
+    float[] implicitGradient = new float[factorNumber];
+
+    Factorization result = null;
+    double currentLearningRate = learningRate;
+    for (int epoch = 1; epoch <= epochNumber; epoch++) {
+      shuffle(userOrder, random);
+      for (int user : userOrder) {
+        trainUser(user, (float) currentLearningRate, implicitFactors, implicitGradient);
+      }
+      currentLearningRate *= learningRateDecay;
+
+      result = createFactorization();
+      if (!listener.iterationDone(epoch, result)) {
+        break;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Resets the biases and sets the factors to small random values.
+   */
+  private void initialize(Random random) {
+    for (int index = 0; index < userBiases.length; index++) {
+      userBiases[index] = 0;
+    }
+    for (int index = 0; index < itemBiases.length; index++) {
+      itemBiases[index] = 0;
+    }
+    for (int index = 0; index < userFactors.length; index++) {
+      userFactors[index] = (float) (random.nextGaussian() * RANDOM_NOISE);
+    }
+    for (int index = 0; index < itemFactors.length; index++) {
+      itemFactors[index] = (float) (random.nextGaussian() * RANDOM_NOISE);
+      itemImplicitFactors[index] = (float) (random.nextGaussian() * RANDOM_NOISE);
+    }
+  }
+
+  /**
+   * Updates the parameters for the ratings of the given user. The given arrays are scratch arrays
+   * of the size of the number of factors.
+   */
+  private void trainUser(int user, float currentLearningRate, float[] implicitFactors,
+      float[] implicitGradient) {
+    if (offsets[user] == offsets[user + 1]) {
+      return;
+    }
+
+    computeImplicitFactors(user, implicitFactors);
+    for (int factor = 0; factor < factorNumber; factor++) {
+      implicitGradient[factor] = 0;
+    }
+
+    int userOffset = user * factorNumber;
+    for (int index = offsets[user]; index < offsets[user + 1]; index++) {
+      int item = items[index];
+      int itemOffset = item * factorNumber;
+
+      float prediction = average + userBiases[user] + itemBiases[item];
+      for (int factor = 0; factor < factorNumber; factor++) {
+        prediction +=
+            itemFactors[itemOffset + factor]
+                * (userFactors[userOffset + factor] + implicitFactors[factor]);
+      }
+      float error = values[index] - prediction;
+
+      userBiases[user] += currentLearningRate * (error - regularization * userBiases[user]);
+      itemBiases[item] += currentLearningRate * (error - regularization * itemBiases[item]);
+      for (int factor = 0; factor < factorNumber; factor++) {
+        float userFactor = userFactors[userOffset + factor];
+        float itemFactor = itemFactors[itemOffset + factor];
+        implicitGradient[factor] += error * itemFactor;
+        userFactors[userOffset + factor] +=
+            currentLearningRate * (error * itemFactor - regularization * userFactor);
+        itemFactors[itemOffset + factor] +=
+            currentLearningRate
+                * (error * (userFactor + implicitFactors[factor]) - regularization * itemFactor);
+      }
+    }
+
+    // the implicit vectors are updated once for the batch
+    float normalization = (float) (1 / Math.sqrt(offsets[user + 1] - offsets[user]));
+    for (int index = offsets[user]; index < offsets[user + 1]; index++) {
+      int itemOffset = items[index] * factorNumber;
+      for (int factor = 0; factor < factorNumber; factor++) {
+        float implicitFactor = itemImplicitFactors[itemOffset + factor];
+        itemImplicitFactors[itemOffset + factor] +=
+            currentLearningRate
+                * (normalization * implicitGradient[factor] - regularization * implicitFactor);
+      }
+    }
+  }
+}
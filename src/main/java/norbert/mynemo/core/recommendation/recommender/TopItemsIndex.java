@@ -0,0 +1,269 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.recommender;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.recommender.GenericRecommendedItem;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorization;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+
+/**
+ * This class finds the items with the greatest estimated preferences for a user, from the vectors
+ * of a factorization. The result is the one of the exhaustive scoring of all items, but most items
+ * are never scored.
+ *
+ * <p>
+ * The items are sorted by decreasing norm of their vectors, then grouped in blocks. By the
+ * Cauchy-Schwarz inequality, the product of the norm of the user vector and of the greatest norm of
+ * a block bounds the estimations of the block and of all following blocks. Thus, the search stops
+ * at the first block whose bound is not greater than the smallest of the best estimations found,
+ * like the threshold algorithm.
+ *
+ * <p>
+ * Optionally, the item vectors are also quantized to bytes. The estimation from the quantized
+ * vector, plus the maximum error of the quantization, bounds the exact estimation. The exact
+ * estimation of an item is computed only if this bound is greater than the smallest of the best
+ * estimations found. The quantized vectors use eight times less memory than the exact ones, thus
+ * the first pass reads less memory.
+ *
+ * <p>
+ * This class is immutable, thus thread-safe.
+ */
+final class TopItemsIndex {
+
+  /**
+   * This class holds an item and its estimated preference.
+   */
+  private static final class ScoredItem {
+    final long item;
+    final double score;
+
+    ScoredItem(long item, double score) {
+      this.item = item;
+      this.score = score;
+    }
+  }
+
+  private static final int BLOCK_SIZE = 64;
+  /** Order of the items by increasing score. */
+  private static final Comparator<ScoredItem> INCREASING_SCORE = new Comparator<ScoredItem>() {
+    @Override
+    public int compare(ScoredItem first, ScoredItem second) {
+      return Double.compare(first.score, second.score);
+    }
+  };
+  /** Greatest absolute value of a quantized feature. */
+  private static final int QUANTIZATION_LEVELS = 127;
+
+  private static double dotProduct(double[] first, double[] second) {
+    double result = 0;
+    for (int index = 0; index < first.length; index++) {
+      result += first[index] * second[index];
+    }
+    return result;
+  }
+
+  /** Greatest norm of the vectors of each block. */
+  private final double[] blockMaxNorms;
+  private final Factorization factorization;
+  private final int featureNumber;
+  private final double[][] itemFeatures;
+  private final long[] items;
+  private final double[] norms;
+  /** Quantized vectors of the items, or <code>null</code> if the vectors are not quantized. */
+  private final byte[] quantizedFeatures;
+  /** Value of one quantization level, by item. */
+  private final double[] quantizationSteps;
+
+  /**
+   * Creates the index of the items of the given factorization.
+   *
+   * @param factorization factorization of the items
+   * @param quantized <code>true</code> to compute the first estimations from quantized vectors
+   */
+  public TopItemsIndex(Factorization factorization, boolean quantized) {
+    checkNotNull(factorization);
+
+    this.factorization = factorization;
+    featureNumber = factorization.numFeatures();
+    double[][] allItemFeatures = factorization.allItemFeatures();
+
+    // sort the items by decreasing norm
+    final List<Entry<Long, Integer>> entries = new ArrayList<>();
+    final double[] allNorms = new double[allItemFeatures.length];
+    for (Entry<Long, Integer> entry : factorization.getItemIDMappings()) {
+      entries.add(entry);
+      double[] features = allItemFeatures[entry.getValue()];
+      allNorms[entry.getValue()] = Math.sqrt(dotProduct(features, features));
+    }
+    Collections.sort(entries, new Comparator<Entry<Long, Integer>>() {
+      @Override
+      public int compare(Entry<Long, Integer> first, Entry<Long, Integer> second) {
+        return Double.compare(allNorms[second.getValue()], allNorms[first.getValue()]);
+      }
+    });
+
+    int itemNumber = entries.size();
+    items = new long[itemNumber];
+    itemFeatures = new double[itemNumber][];
+    norms = new double[itemNumber];
+    for (int position = 0; position < itemNumber; position++) {
+      Entry<Long, Integer> entry = entries.get(position);
+      items[position] = entry.getKey();
+      itemFeatures[position] = allItemFeatures[entry.getValue()];
+      norms[position] = allNorms[entry.getValue()];
+    }
+
+    blockMaxNorms = new double[(itemNumber + BLOCK_SIZE - 1) / BLOCK_SIZE];
+    for (int block = 0; block < blockMaxNorms.length; block++) {
+      // the first item of a block has the greatest norm
+      blockMaxNorms[block] = norms[block * BLOCK_SIZE];
+    }
+
+    if (quantized) {
+      quantizedFeatures = new byte[itemNumber * featureNumber];
+      quantizationSteps = new double[itemNumber];
+      for (int position = 0; position < itemNumber; position++) {
+        quantize(position);
+      }
+    } else {
+      quantizedFeatures = null;
+      quantizationSteps = null;
+    }
+  }
+
+  /**
+   * Returns the indexed factorization.
+   */
+  public Factorization getFactorization() {
+    return factorization;
+  }
+
+  /**
+   * Returns the items with the greatest estimated preferences for the given user vector, sorted by
+   * decreasing estimation. The given items are ignored.
+   *
+   * @param userFeatures vector of the user
+   * @param howMany maximum number of items to return
+   * @param excludedItems items that can't be returned
+   */
+  public List<RecommendedItem> getTopItems(double[] userFeatures, int howMany,
+      FastIDSet excludedItems) {
+    checkArgument(userFeatures.length == featureNumber, "The user vector must have the number of"
+        + " features of the factorization.");
+    checkArgument(0 < howMany, "The number of items must be positive.");
+    checkNotNull(excludedItems);
+
+    double userNorm = Math.sqrt(dotProduct(userFeatures, userFeatures));
+    double userAbsoluteSum = 0;
+    for (double feature : userFeatures) {
+      userAbsoluteSum += Math.abs(feature);
+    }
+
+    // the number of items may be far lower than the requested number
+    PriorityQueue<ScoredItem> bestItems =
+        new PriorityQueue<>(Math.max(1, Math.min(howMany, items.length)), INCREASING_SCORE);
+    for (int block = 0; block < blockMaxNorms.length; block++) {
+      if (bestItems.size() == howMany
+          && userNorm * blockMaxNorms[block] <= bestItems.peek().score) {
+        // no item of this block and of the following ones can be better
+        break;
+      }
+
+      int end = Math.min((block + 1) * BLOCK_SIZE, items.length);
+      for (int position = block * BLOCK_SIZE; position < end; position++) {
+        if (excludedItems.contains(items[position])) {
+          continue;
+        }
+
+        boolean full = bestItems.size() == howMany;
+        if (full && quantizedFeatures != null) {
+          double threshold = bestItems.peek().score;
+          if (userNorm * norms[position] <= threshold) {
+            continue;
+          }
+          // the rounding error of each quantized feature is at most half a level
+          double maximumError = quantizationSteps[position] * userAbsoluteSum / 2;
+          if (quantizedDotProduct(position, userFeatures) + maximumError < threshold) {
+            continue;
+          }
+        }
+
+        double score = dotProduct(userFeatures, itemFeatures[position]);
+        if (!full) {
+          bestItems.add(new ScoredItem(items[position], score));
+        } else if (bestItems.peek().score < score) {
+          bestItems.poll();
+          bestItems.add(new ScoredItem(items[position], score));
+        }
+      }
+    }
+
+    RecommendedItem[] result = new RecommendedItem[bestItems.size()];
+    for (int index = result.length - 1; 0 <= index; index--) {
+      ScoredItem item = bestItems.poll();
+      result[index] = new GenericRecommendedItem(item.item, (float) item.score);
+    }
+    return Arrays.asList(result);
+  }
+
+  /**
+   * Quantizes the vector of the item at the given position.
+   */
+  private void quantize(int position) {
+    double[] features = itemFeatures[position];
+    double maximum = 0;
+    for (double feature : features) {
+      maximum = Math.max(maximum, Math.abs(feature));
+    }
+
+    double step = maximum / QUANTIZATION_LEVELS;
+    quantizationSteps[position] = step;
+    if (step == 0) {
+      // all features are zero, as the quantized features
+      return;
+    }
+
+    int offset = position * featureNumber;
+    for (int feature = 0; feature < featureNumber; feature++) {
+      quantizedFeatures[offset + feature] = (byte) Math.round(features[feature] / step);
+    }
+  }
+
+  /**
+   * Returns the estimation from the quantized vector of the item at the given position.
+   */
+  private double quantizedDotProduct(int position, double[] userFeatures) {
+    int offset = position * featureNumber;
+    double result = 0;
+    for (int feature = 0; feature < featureNumber; feature++) {
+      result += quantizedFeatures[offset + feature] * userFeatures[feature];
+    }
+    return result * quantizationSteps[position];
+  }
+}
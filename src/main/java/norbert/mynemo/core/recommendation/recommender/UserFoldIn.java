@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.recommender;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map.Entry;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorization;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * This class adds a user to a factorization that does not contain this user, without factorizing
+ * again. The item vectors are kept, and the feature vector of the user is the solution of a
+ * regularized least-squares problem on the preferences of the user:
+ *
+ * <pre>
+ * minimize sum((r_i - u.v_i)^2) + lambda * n * |u - m|^2
+ * </pre>
+ *
+ * where <code>r_i</code> is the value of the preference for the item <code>i</code>,
+ * <code>v_i</code> the vector of this item, <code>n</code> the number of preferences, and
+ * <code>m</code> the average of the user vectors of the factorization. The regularization is the
+ * one of the ALS-WR factorizer. Centering it on the average user keeps the components that hold the
+ * global average and the biases of the SGD factorizers close to their usual values. A user without
+ * preferences is the average user.
+ *
+ * <p>
+ * The cost of a fold-in is the solving of a linear system whose size is the number of features.
+ * Thus, an evaluator can fold in the training preferences of its target user for each test set,
+ * instead of factorizing each training model. This class is thread-safe.
+ */
+class UserFoldIn {
+
+  private final Factorization factorization;
+  private final FastByIDMap<Integer> itemMapping;
+  private final double lambda;
+  private final double[] meanUser;
+  private final long user;
+  /** Mapping of the factorization, plus the folded user at the last index. */
+  private final FastByIDMap<Integer> userMapping;
+
+  /**
+   * Creates a fold-in of the given user into the given factorization.
+   *
+   * @param factorization factorization that does not contain the user
+   * @param user user to fold in
+   * @param lambda regularization factor
+   */
+  public UserFoldIn(Factorization factorization, long user, double lambda) {
+    checkNotNull(factorization);
+
+    this.factorization = factorization;
+    this.user = user;
+    this.lambda = lambda;
+
+    itemMapping = new FastByIDMap<>(factorization.numItems());
+    for (Entry<Long, Integer> entry : factorization.getItemIDMappings()) {
+      itemMapping.put(entry.getKey(), entry.getValue());
+    }
+
+    userMapping = new FastByIDMap<>(factorization.numUsers() + 1);
+    for (Entry<Long, Integer> entry : factorization.getUserIDMappings()) {
+      checkArgument(entry.getKey() != user, "The factorization must not contain the user.");
+      userMapping.put(entry.getKey(), entry.getValue());
+    }
+    userMapping.put(user, factorization.numUsers());
+
+    meanUser = new double[factorization.numFeatures()];
+    double[][] userFeatures = factorization.allUserFeatures();
+    for (double[] features : userFeatures) {
+      for (int index = 0; index < meanUser.length; index++) {
+        meanUser[index] += features[index] / userFeatures.length;
+      }
+    }
+  }
+
+  /**
+   * Returns the factorization with the user folded in from the preferences of the given data model.
+   * The items of the preferences that are not in the factorization are ignored.
+   */
+  public Factorization foldIn(DataModel dataModel) throws TasteException {
+    double[][] userFeatures = factorization.allUserFeatures();
+    double[][] newUserFeatures = new double[userFeatures.length + 1][];
+    System.arraycopy(userFeatures, 0, newUserFeatures, 0, userFeatures.length);
+    newUserFeatures[userFeatures.length] = solve(dataModel.getPreferencesFromUser(user));
+
+    return new Factorization(userMapping, itemMapping, newUserFeatures,
+        factorization.allItemFeatures());
+  }
+
+  /**
+   * Returns the vector of the user that best fits the given preferences.
+   */
+  private double[] solve(PreferenceArray preferences) {
+    double[][] itemFeatures = factorization.allItemFeatures();
+    NormalEquations equations = new NormalEquations(meanUser.length);
+
+    for (int index = 0; index < preferences.length(); index++) {
+      Integer item = itemMapping.get(preferences.getItemID(index));
+      // the items unknown to the factorization are ignored
+      if (item != null) {
+        equations.add(itemFeatures[item], preferences.getValue(index));
+      }
+    }
+
+    return equations.solve(lambda, meanUser);
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.recommender;
+
+import java.util.Collection;
+
+import norbert.mynemo.core.evaluation.FilteringIterator;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * This class is a read-only {@link DataModel} that acts as a proxy for another data model, without
+ * a given user. The items rated only by the masked user are masked too. Nothing is copied, except
+ * the preferences of the items rated by the masked user, which are filtered at each request. Thus,
+ * the view costs almost no memory, and can be used by several threads at the same time if its
+ * delegate can.
+ */
+class UserMaskerDataModel implements DataModel {
+  private static final long serialVersionUID = 1L;
+
+  private final DataModel dataModel;
+  /** Items rated only by the masked user. */
+  private final FastIDSet maskedItems;
+  private final long maskedUser;
+  /** The masked user, or nothing if the delegate does not contain the user. */
+  private final FastIDSet maskedUsers;
+  /** Items rated by the masked user. */
+  private final FastIDSet userItems;
+
+  /**
+   * Creates a view of the given data model without the given user. The user may be absent from the
+   * data model, then the view provides the same data as the data model.
+   */
+  public UserMaskerDataModel(DataModel dataModel, long maskedUser) throws TasteException {
+    this.dataModel = dataModel;
+    this.maskedUser = maskedUser;
+    maskedItems = new FastIDSet();
+    maskedUsers = new FastIDSet();
+
+    FastIDSet items;
+    try {
+      items = dataModel.getItemIDsFromUser(maskedUser);
+      maskedUsers.add(maskedUser);
+    } catch (NoSuchUserException e) {
+      items = new FastIDSet();
+    }
+    userItems = items;
+
+    for (long item : userItems) {
+      if (dataModel.getNumUsersWithPreferenceFor(item) == 1) {
+        maskedItems.add(item);
+      }
+    }
+  }
+
+  /**
+   * Throws a {@link NoSuchUserException} if the given user is the masked one.
+   */
+  private void checkUser(long userID) throws NoSuchUserException {
+    if (userID == maskedUser) {
+      throw new NoSuchUserException(userID);
+    }
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() throws TasteException {
+    return new FilteringIterator(dataModel.getItemIDs(), maskedItems);
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    checkUser(userID);
+    return dataModel.getItemIDsFromUser(userID);
+  }
+
+  @Override
+  public float getMaxPreference() {
+    return dataModel.getMaxPreference();
+  }
+
+  @Override
+  public float getMinPreference() {
+    return dataModel.getMinPreference();
+  }
+
+  @Override
+  public int getNumItems() throws TasteException {
+    return dataModel.getNumItems() - maskedItems.size();
+  }
+
+  @Override
+  public int getNumUsers() throws TasteException {
+    return dataModel.getNumUsers() - maskedUsers.size();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) throws TasteException {
+    int result = dataModel.getNumUsersWithPreferenceFor(itemID);
+
+    if (userItems.contains(itemID)) {
+      result--;
+    }
+
+    return result;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) throws TasteException {
+    int result = dataModel.getNumUsersWithPreferenceFor(itemID1, itemID2);
+
+    if (userItems.contains(itemID1) && userItems.contains(itemID2)) {
+      result--;
+    }
+
+    return result;
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    if (maskedItems.contains(itemID)) {
+      throw new NoSuchItemException(itemID);
+    }
+
+    PreferenceArray preferences = dataModel.getPreferencesForItem(itemID);
+    if (!userItems.contains(itemID)) {
+      return preferences;
+    }
+
+    // the array is created at each call, so that no copy lives longer than the request
+    PreferenceArray result = new GenericItemPreferenceArray(preferences.length() - 1);
+    int resultIndex = 0;
+    for (int index = 0; index < preferences.length(); index++) {
+      Preference preference = preferences.get(index);
+      if (preference.getUserID() != maskedUser) {
+        result.set(resultIndex, preference);
+        resultIndex++;
+      }
+    }
+
+    return result;
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    checkUser(userID);
+    return dataModel.getPreferencesFromUser(userID);
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    checkUser(userID);
+    return dataModel.getPreferenceTime(userID, itemID);
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    checkUser(userID);
+    return dataModel.getPreferenceValue(userID, itemID);
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() throws TasteException {
+    return new FilteringIterator(dataModel.getUserIDs(), maskedUsers);
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return dataModel.hasPreferenceValues();
+  }
+
+  /**
+   * Does nothing. The view is read-only, the delegate model must be refreshed by its owner.
+   */
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // nothing to refresh
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    throw new UnsupportedOperationException();
+  }
+}
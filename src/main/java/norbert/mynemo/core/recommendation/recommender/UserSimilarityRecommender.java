@@ -16,7 +16,9 @@
  */
 package norbert.mynemo.core.recommendation.recommender;
 
+import norbert.mynemo.core.evaluation.UserSimilarityBuilder;
 import norbert.mynemo.core.recommendation.configuration.UserBasedRecommenderConfiguration;
+import norbert.mynemo.core.recommendation.similarity.IncrementalUserSimilarity;
 import norbert.mynemo.core.recommendation.similarity.OriginalSpearmanCorrelationSimilarity;
 
 import org.apache.mahout.cf.taste.common.TasteException;
@@ -43,12 +45,13 @@ import org.apache.mahout.cf.taste.similarity.UserSimilarity;
  * between the users. A builder is chosen via the
  * {@link #UserSimilarityRecommender(UserBasedRecommenderConfiguration) constructor}.
  */
-public class UserSimilarityRecommender implements RecommenderBuilder {
+public class UserSimilarityRecommender implements RecommenderBuilder, UserSimilarityBuilder {
   // 200 mega
   private static final int MAXIMUM_CACHE_SIZE = (int) (200 * Math.pow(2, 30));
 
   private UserSimilarity cachedSimilarity;
   private final UserBasedRecommenderConfiguration configuration;
+  private IncrementalUserSimilarity incrementalSimilarity;
 
   /**
    * Creates a recommender builder specialized in the user-similarity based algorithms.
@@ -62,17 +65,7 @@ public class UserSimilarityRecommender implements RecommenderBuilder {
 
   @Override
   public Recommender buildRecommender(DataModel dataModel) throws TasteException {
-    UserSimilarity currentSimilarity;
-    if (!configuration.allowCachedSimilarityReuse()) {
-      // create a new similarity each time
-      currentSimilarity = createSimilarity(dataModel);
-    } else {
-      if (cachedSimilarity == null) {
-        // lazy initialization
-        cachedSimilarity = createSimilarity(configuration.getDataModel());
-      }
-      currentSimilarity = cachedSimilarity;
-    }
+    UserSimilarity currentSimilarity = buildUserSimilarity(dataModel);
 
     UserNeighborhood neighborhood =
         new NearestNUserNeighborhood(configuration.getNeighborNumber(), currentSimilarity,
@@ -82,6 +75,29 @@ public class UserSimilarityRecommender implements RecommenderBuilder {
     return new GenericUserBasedRecommender(dataModel, neighborhood, currentSimilarity);
   }
 
+  /**
+   * Returns the similarity used by the recommenders built for the given data model. The similarity
+   * is created for the given data model, unless the configuration allows the reuse.
+   *
+   * <p>
+   * If the reuse is allowed, the given data model must be the data model of the configuration
+   * without some preferences of one user. If the similarity is supported by the
+   * {@link IncrementalUserSimilarity} class, the returned similarity is the one of the given data
+   * model, computed from statistics shared by all data models. Otherwise, the similarity of the
+   * data model of the configuration is returned, that still contains the missing preferences.
+   */
+  @Override
+  public UserSimilarity buildUserSimilarity(DataModel dataModel) throws TasteException {
+    if (!configuration.allowCachedSimilarityReuse()) {
+      // create a new similarity each time
+      return createSimilarity(dataModel);
+    }
+    if (IncrementalUserSimilarity.supports(configuration.getType())) {
+      return getIncrementalSimilarity().forTrainingModel(dataModel);
+    }
+    return getCachedSimilarity();
+  }
+
   private UserSimilarity createSimilarity(DataModel dataModel) throws TasteException {
     UserSimilarity selectedSimilarity;
 
@@ -138,4 +154,31 @@ public class UserSimilarityRecommender implements RecommenderBuilder {
 
     return new CachingUserSimilarity(selectedSimilarity, cacheSize);
   }
+
+  /**
+   * Returns the similarity shared by all recommenders. The similarity is created at the first call.
+   * The evaluator may build several recommenders at the same time, thus the creation is
+   * synchronized.
+   */
+  private synchronized UserSimilarity getCachedSimilarity() throws TasteException {
+    if (cachedSimilarity == null) {
+      // lazy initialization
+      cachedSimilarity = createSimilarity(configuration.getDataModel());
+    }
+    return cachedSimilarity;
+  }
+
+  /**
+   * Returns the incremental similarity shared by all recommenders. It is created at the first call,
+   * like the cached similarity.
+   */
+  private synchronized IncrementalUserSimilarity getIncrementalSimilarity() throws TasteException {
+    if (incrementalSimilarity == null) {
+      // lazy initialization
+      incrementalSimilarity =
+          new IncrementalUserSimilarity(configuration.getType(), configuration.getDataModel(),
+              getCachedSimilarity());
+    }
+    return incrementalSimilarity;
+  }
 }
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.similarity;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import norbert.mynemo.core.recommendation.RecommenderFamily;
+import norbert.mynemo.core.recommendation.RecommenderType;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+
+/**
+ * This class provides the item similarities of the training models of an evaluation. A training
+ * model is the complete data model without some masked preferences. Masking a preference only
+ * changes the similarities between the item of this preference and the other items.
+ *
+ * <p>
+ * The statistics of a pair of items in the complete data model are provided by an
+ * {@link ItemPairStatistics}, shared by all training models and all similarities. For each training
+ * model, the contribution of the masked preferences is subtracted from the statistics of the pairs
+ * that contain a masked item. Thus, the similarity of a pair is computed once for the whole
+ * evaluation, then updated in constant time for each masked preference.
+ *
+ * <p>
+ * The results are the ones of the Mahout similarities computed on the training model, up to the
+ * rounding errors. This class is thread-safe.
+ */
+public class IncrementalItemSimilarity {
+  /**
+   * This similarity answers for one training model.
+   */
+  private class TrainingSimilarity implements ItemSimilarity {
+    /** Masked preferences of the items, filled at the first request of each item. */
+    private final FastByIDMap<List<MaskedPreference>> maskedPreferences;
+    private final DataModel trainingModel;
+    private final int userNumber;
+
+    public TrainingSimilarity(DataModel trainingModel) throws TasteException {
+      this.trainingModel = trainingModel;
+      userNumber = trainingModel.getNumUsers();
+      maskedPreferences = new FastByIDMap<>();
+    }
+
+    /**
+     * Returns the items similar to the given item in the training model, like the Mahout
+     * similarities: all other items whose similarity is defined.
+     */
+    @Override
+    public long[] allSimilarItemIDs(long itemID) throws TasteException {
+      FastIDSet result = new FastIDSet();
+      LongPrimitiveIterator iterator = trainingModel.getItemIDs();
+      while (iterator.hasNext()) {
+        long otherItem = iterator.nextLong();
+        if (otherItem != itemID && !Double.isNaN(itemSimilarity(itemID, otherItem))) {
+          result.add(otherItem);
+        }
+      }
+      return result.toArray();
+    }
+
+    /**
+     * Returns the preferences for the given item that are in the complete data model, but not in
+     * the training model.
+     */
+    private synchronized List<MaskedPreference> getMaskedPreferences(long item)
+        throws TasteException {
+      List<MaskedPreference> result = maskedPreferences.get(item);
+      if (result != null) {
+        return result;
+      }
+
+      int trainingNumber = trainingModel.getNumUsersWithPreferenceFor(item);
+      int completeNumber = completeModel.getNumUsersWithPreferenceFor(item);
+      checkState(trainingNumber <= completeNumber, "The training model must be a part of the"
+          + " complete data model.");
+
+      if (trainingNumber == completeNumber) {
+        result = Collections.emptyList();
+      } else {
+        FastIDSet trainingUsers = new FastIDSet(trainingNumber);
+        if (trainingNumber != 0) {
+          trainingUsers.addAll(trainingModel.getPreferencesForItem(item).getIDs());
+        }
+        PreferenceArray completePreferences = completeModel.getPreferencesForItem(item);
+        result = new ArrayList<>();
+        for (int index = 0; index < completePreferences.length(); index++) {
+          long user = completePreferences.getUserID(index);
+          if (!trainingUsers.contains(user)) {
+            result.add(new MaskedPreference(completePreferences.getValue(index), completeModel
+                .getPreferencesFromUser(user)));
+          }
+        }
+      }
+
+      maskedPreferences.put(item, result);
+      return result;
+    }
+
+    @Override
+    public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
+      double[] result = new double[itemID2s.length];
+      for (int index = 0; index < itemID2s.length; index++) {
+        result[index] = itemSimilarity(itemID1, itemID2s[index]);
+      }
+      return result;
+    }
+
+    @Override
+    public double itemSimilarity(long itemID1, long itemID2) throws TasteException {
+      int size1 = trainingModel.getNumUsersWithPreferenceFor(itemID1);
+      int size2 = trainingModel.getNumUsersWithPreferenceFor(itemID2);
+      // an item whose preferences are all masked is missing from the training model
+      if (size1 == 0) {
+        throw new NoSuchItemException(itemID1);
+      }
+      if (size2 == 0) {
+        throw new NoSuchItemException(itemID2);
+      }
+
+      List<MaskedPreference> masked1 = getMaskedPreferences(itemID1);
+      List<MaskedPreference> masked2 = getMaskedPreferences(itemID2);
+
+      SufficientStatistics statistics;
+      if (masked1.isEmpty() && masked2.isEmpty()) {
+        // the statistics are the same as in the complete data model
+        statistics = pairStatistics.get(itemID1, itemID2);
+      } else if (masked2.isEmpty()) {
+        statistics = pairStatistics.get(itemID1, itemID2).unmask(masked1, itemID2);
+      } else if (masked1.isEmpty()) {
+        statistics = pairStatistics.get(itemID2, itemID1).unmask(masked2, itemID1).swap();
+      } else {
+        // both items have masked preferences, the statistics are not kept
+        statistics =
+            SufficientStatistics.compute(trainingModel.getPreferencesForItem(itemID1),
+                trainingModel.getPreferencesForItem(itemID2));
+      }
+
+      return formula.compute(statistics, size1, size2, userNumber);
+    }
+
+    @Override
+    public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      Collection<Refreshable> newAlreadyRefreshed = RefreshHelper.buildRefreshed(alreadyRefreshed);
+      RefreshHelper.maybeRefresh(newAlreadyRefreshed, trainingModel);
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the similarity of the given recommender type can be computed by
+   * this class.
+   */
+  public static boolean supports(RecommenderType type) {
+    return type.getFamily() == RecommenderFamily.ITEM_SIMILARITY_BASED
+        && SimilarityFormula.of(type).isPresent();
+  }
+
+  private final DataModel completeModel;
+  private final SimilarityFormula formula;
+  private final ItemPairStatistics pairStatistics;
+
+  /**
+   * Creates the similarities of the given type, for the complete data model of the given
+   * statistics.
+   */
+  public IncrementalItemSimilarity(RecommenderType type, ItemPairStatistics pairStatistics) {
+    checkArgument(supports(type), "The similarity of the recommender type must be supported.");
+    checkNotNull(pairStatistics);
+
+    formula = SimilarityFormula.of(type).get();
+    this.pairStatistics = pairStatistics;
+    completeModel = pairStatistics.getDataModel();
+  }
+
+  /**
+   * Returns the similarity for the given training model. The training model must contain the
+   * preferences of the complete data model, except some masked preferences.
+   */
+  public ItemSimilarity forTrainingModel(DataModel trainingModel) throws TasteException {
+    return new TrainingSimilarity(trainingModel);
+  }
+}
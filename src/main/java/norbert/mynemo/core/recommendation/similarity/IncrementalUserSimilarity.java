@@ -0,0 +1,236 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.similarity;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import norbert.mynemo.core.recommendation.RecommenderFamily;
+import norbert.mynemo.core.recommendation.RecommenderType;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+/**
+ * This class provides the user similarities of the training models of an evaluation. A training
+ * model is the complete data model without some preferences of one user, the masked preferences.
+ * Thus, only the similarities between this user and the other users differ from the complete data
+ * model.
+ *
+ * <p>
+ * For each user having masked preferences, the statistics of the items rated in common with every
+ * other user are computed once on the complete data model: the number of items, the sums of the
+ * values, of their squares, of their products and of their squared differences. Then, for each
+ * training model, the contribution of the masked preferences is subtracted from the statistics of a
+ * pair of users. With one masked preference, a similarity is computed in constant time, instead of
+ * a pass over the preferences of both users. The similarities between two users without masked
+ * preferences are provided by the similarity of the complete data model.
+ *
+ * <p>
+ * The results are the ones of the Mahout similarities computed on the training model, up to the
+ * rounding errors. The Spearman correlations are not supported, because they depend on the ranks of
+ * all values. This class is thread-safe.
+ */
+public class IncrementalUserSimilarity {
+  /**
+   * This similarity answers for one training model.
+   */
+  private class TrainingSimilarity implements UserSimilarity {
+    private final int itemNumber;
+    /** Masked preferences of the users, filled at the first request of each user. */
+    private final FastByIDMap<List<MaskedPreference>> maskedPreferences;
+    private final DataModel trainingModel;
+
+    public TrainingSimilarity(DataModel trainingModel) throws TasteException {
+      this.trainingModel = trainingModel;
+      itemNumber = trainingModel.getNumItems();
+      maskedPreferences = new FastByIDMap<>();
+    }
+
+    /**
+     * Returns the preferences of the given user that are in the complete data model, but not in
+     * the training model.
+     */
+    private synchronized List<MaskedPreference> getMaskedPreferences(long user)
+        throws TasteException {
+      List<MaskedPreference> result = maskedPreferences.get(user);
+      if (result != null) {
+        return result;
+      }
+
+      PreferenceArray trainingPreferences = trainingModel.getPreferencesFromUser(user);
+      PreferenceArray completePreferences = completeModel.getPreferencesFromUser(user);
+      checkState(trainingPreferences.length() <= completePreferences.length(), "The training"
+          + " model must be a part of the complete data model.");
+
+      if (trainingPreferences.length() == completePreferences.length()) {
+        result = Collections.emptyList();
+      } else {
+        FastIDSet trainingItems = new FastIDSet(trainingPreferences.getIDs());
+        result = new ArrayList<>();
+        for (int index = 0; index < completePreferences.length(); index++) {
+          long item = completePreferences.getItemID(index);
+          if (!trainingItems.contains(item)) {
+            result.add(new MaskedPreference(completePreferences.getValue(index), completeModel
+                .getPreferencesForItem(item)));
+          }
+        }
+      }
+
+      maskedPreferences.put(user, result);
+      return result;
+    }
+
+    @Override
+    public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      Collection<Refreshable> newAlreadyRefreshed = RefreshHelper.buildRefreshed(alreadyRefreshed);
+      RefreshHelper.maybeRefresh(newAlreadyRefreshed, trainingModel);
+    }
+
+    @Override
+    public void setPreferenceInferrer(PreferenceInferrer inferrer) {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns the statistics of the given users in the training model, from the statistics of the
+     * complete data model. The masked preferences belong to the first user.
+     */
+    private SufficientStatistics unmask(long user, long otherUser, List<MaskedPreference> masked)
+        throws TasteException {
+      SufficientStatistics completeStatistics = getStatistics(user).get(otherUser);
+      if (completeStatistics == null) {
+        completeStatistics = new SufficientStatistics();
+      }
+      return completeStatistics.unmask(masked, otherUser);
+    }
+
+    @Override
+    public double userSimilarity(long userID1, long userID2) throws TasteException {
+      List<MaskedPreference> masked1 = getMaskedPreferences(userID1);
+      List<MaskedPreference> masked2 = getMaskedPreferences(userID2);
+
+      if (masked1.isEmpty() && masked2.isEmpty()) {
+        // the similarity is the same as in the complete data model
+        return completeSimilarity.userSimilarity(userID1, userID2);
+      }
+
+      SufficientStatistics statistics;
+      if (masked2.isEmpty()) {
+        statistics = unmask(userID1, userID2, masked1);
+      } else if (masked1.isEmpty()) {
+        statistics = unmask(userID2, userID1, masked2).swap();
+      } else {
+        // both users have masked preferences, the statistics are not kept
+        statistics =
+            SufficientStatistics.compute(trainingModel.getPreferencesFromUser(userID1),
+                trainingModel.getPreferencesFromUser(userID2));
+      }
+
+      return formula.compute(statistics, trainingModel.getPreferencesFromUser(userID1).length(),
+          trainingModel.getPreferencesFromUser(userID2).length(), itemNumber);
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the similarity of the given recommender type can be computed by
+   * this class.
+   */
+  public static boolean supports(RecommenderType type) {
+    return type.getFamily() == RecommenderFamily.USER_SIMILARITY_BASED
+        && SimilarityFormula.of(type).isPresent();
+  }
+
+  private final DataModel completeModel;
+  private final UserSimilarity completeSimilarity;
+  private final SimilarityFormula formula;
+  /** Statistics of the users with masked preferences, by user, then by other user. */
+  private final FastByIDMap<FastByIDMap<SufficientStatistics>> statistics;
+
+  /**
+   * Creates the similarities for the given complete data model. The given similarity must be the
+   * similarity of the given type on the complete data model.
+   */
+  public IncrementalUserSimilarity(RecommenderType type, DataModel completeModel,
+      UserSimilarity completeSimilarity) {
+    checkArgument(supports(type), "The similarity of the recommender type must be supported.");
+    checkNotNull(completeModel);
+    checkNotNull(completeSimilarity);
+
+    formula = SimilarityFormula.of(type).get();
+    this.completeModel = completeModel;
+    this.completeSimilarity = completeSimilarity;
+    statistics = new FastByIDMap<>();
+  }
+
+  /**
+   * Returns the similarity for the given training model. The training model must contain the
+   * preferences of the complete data model, except some masked preferences.
+   */
+  public UserSimilarity forTrainingModel(DataModel trainingModel) throws TasteException {
+    return new TrainingSimilarity(trainingModel);
+  }
+
+  /**
+   * Returns the statistics between the given user and all other users, in the complete data model.
+   * The statistics are computed at the first call for the user, from the ratings of the items rated
+   * by the user.
+   */
+  private synchronized FastByIDMap<SufficientStatistics> getStatistics(long user)
+      throws TasteException {
+    FastByIDMap<SufficientStatistics> result = statistics.get(user);
+    if (result != null) {
+      return result;
+    }
+
+    result = new FastByIDMap<>();
+    PreferenceArray userPreferences = completeModel.getPreferencesFromUser(user);
+    for (int userIndex = 0; userIndex < userPreferences.length(); userIndex++) {
+      float x = userPreferences.getValue(userIndex);
+      PreferenceArray itemPreferences =
+          completeModel.getPreferencesForItem(userPreferences.getItemID(userIndex));
+      for (int itemIndex = 0; itemIndex < itemPreferences.length(); itemIndex++) {
+        long otherUser = itemPreferences.getUserID(itemIndex);
+        if (otherUser == user) {
+          continue;
+        }
+        SufficientStatistics otherStatistics = result.get(otherUser);
+        if (otherStatistics == null) {
+          otherStatistics = new SufficientStatistics();
+          result.put(otherUser, otherStatistics);
+        }
+        otherStatistics.add(x, itemPreferences.getValue(itemIndex));
+      }
+    }
+
+    statistics.put(user, result);
+    return result;
+  }
+}
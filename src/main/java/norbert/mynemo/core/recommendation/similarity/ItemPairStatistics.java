@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.similarity;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.model.DataModel;
+
+/**
+ * This class provides the statistics of the users that rated both items of a pair, in a complete
+ * data model. The statistics of a pair are computed at the first request, then kept. They do not
+ * depend on the similarity, thus a single instance can be shared by the
+ * {@link IncrementalItemSimilarity} of all item similarities, and by all training models of an
+ * evaluation. This class is thread-safe.
+ */
+public class ItemPairStatistics {
+
+  private final DataModel completeModel;
+  /** Statistics by smallest item, then by largest item. */
+  private final FastByIDMap<FastByIDMap<SufficientStatistics>> statistics;
+
+  public ItemPairStatistics(DataModel completeModel) {
+    checkNotNull(completeModel);
+
+    this.completeModel = completeModel;
+    statistics = new FastByIDMap<>();
+  }
+
+  /**
+   * Returns the statistics of the given items, X being the first item and Y the second one. The
+   * statistics are computed without holding the lock, thus two threads may compute the same pair,
+   * but only the first result is kept.
+   */
+  SufficientStatistics get(long itemX, long itemY) throws TasteException {
+    long smallest = Math.min(itemX, itemY);
+    long largest = Math.max(itemX, itemY);
+
+    SufficientStatistics result = lookUp(smallest, largest);
+    if (result == null) {
+      result =
+          store(smallest, largest, SufficientStatistics.compute(
+              completeModel.getPreferencesForItem(smallest),
+              completeModel.getPreferencesForItem(largest)));
+    }
+
+    return (itemX == smallest) ? result : result.swap();
+  }
+
+  public DataModel getDataModel() {
+    return completeModel;
+  }
+
+  private synchronized SufficientStatistics lookUp(long smallest, long largest) {
+    FastByIDMap<SufficientStatistics> row = statistics.get(smallest);
+    return (row == null) ? null : row.get(largest);
+  }
+
+  /**
+   * Stores the given statistics if the pair is not already stored, and returns the stored
+   * statistics.
+   */
+  private synchronized SufficientStatistics store(long smallest, long largest,
+      SufficientStatistics pairStatistics) {
+    FastByIDMap<SufficientStatistics> row = statistics.get(smallest);
+    if (row == null) {
+      row = new FastByIDMap<>();
+      statistics.put(smallest, row);
+    }
+
+    SufficientStatistics result = row.get(largest);
+    if (result == null) {
+      result = pairStatistics;
+      row.put(largest, result);
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.similarity;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * This class represents a preference of the complete data model that is missing from a training
+ * model. It contains the values of the other side of the preference: the values of the other users
+ * for the item of a masked user preference, or the values of the other items rated by the user of a
+ * masked item preference. Thus, the value of the other side of a pair is found in constant time.
+ */
+final class MaskedPreference {
+
+  private final FastByIDMap<Float> otherValues;
+  private final float value;
+
+  /**
+   * Creates a masked preference with the given value. The given array contains the values of the
+   * other side, identified by their ids.
+   */
+  MaskedPreference(float value, PreferenceArray otherPreferences) {
+    this.value = value;
+
+    long[] ids = otherPreferences.getIDs();
+    otherValues = new FastByIDMap<>(otherPreferences.length());
+    for (int index = 0; index < otherPreferences.length(); index++) {
+      otherValues.put(ids[index], otherPreferences.getValue(index));
+    }
+  }
+
+  /**
+   * Returns the value of the other side with the given id, or <code>null</code> if there is none.
+   */
+  Float getOtherValue(long id) {
+    return otherValues.get(id);
+  }
+
+  float getValue() {
+    return value;
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.similarity;
+
+import norbert.mynemo.core.recommendation.RecommenderType;
+
+import org.apache.mahout.math.stats.LogLikelihood;
+
+import com.google.common.base.Optional;
+
+/**
+ * This enumeration represents the Mahout similarities that can be computed from the
+ * {@link SufficientStatistics} of two vectors and from the number of preferences of each vector.
+ * The same formulas apply to the user similarities and to the item similarities.
+ */
+enum SimilarityFormula {
+  CITY_BLOCK, EUCLIDEAN, LOG_LIKELIHOOD, PEARSON, TANIMOTO, UNCENTERED_COSINE, WEIGHTED_EUCLIDEAN,
+  WEIGHTED_PEARSON, WEIGHTED_UNCENTERED_COSINE;
+
+  /**
+   * Returns the formula of the similarity of the given recommender type, or nothing if the
+   * similarity cannot be computed from the sufficient statistics.
+   */
+  static Optional<SimilarityFormula> of(RecommenderType type) {
+    SimilarityFormula result;
+
+    switch (type) {
+      case ITEM_SIMILARITY_WITH_CITY_BLOCK_DISTANCE:
+      case USER_SIMILARITY_WITH_CITY_BLOCK_DISTANCE:
+        result = CITY_BLOCK;
+        break;
+
+      case ITEM_SIMILARITY_WITH_EUCLIDEAN_DISTANCE:
+      case USER_SIMILARITY_WITH_EUCLIDEAN_DISTANCE:
+        result = EUCLIDEAN;
+        break;
+
+      case ITEM_SIMILARITY_WITH_LOG_LIKELIHOOD:
+      case USER_SIMILARITY_WITH_LOG_LIKELIHOOD:
+        result = LOG_LIKELIHOOD;
+        break;
+
+      case ITEM_SIMILARITY_WITH_PEARSON_CORRELATION:
+      case USER_SIMILARITY_WITH_PEARSON_CORRELATION:
+        result = PEARSON;
+        break;
+
+      case ITEM_SIMILARITY_WITH_TANIMOTO_COEFFICIENT:
+      case USER_SIMILARITY_WITH_TANIMOTO_COEFFICIENT:
+        result = TANIMOTO;
+        break;
+
+      case ITEM_SIMILARITY_WITH_UNCENTERED_COSINE:
+      case USER_SIMILARITY_WITH_UNCENTERED_COSINE:
+        result = UNCENTERED_COSINE;
+        break;
+
+      case ITEM_SIMILARITY_WITH_WEIGHTED_EUCLIDEAN_DISTANCE:
+      case USER_SIMILARITY_WITH_WEIGHTED_EUCLIDEAN_DISTANCE:
+        result = WEIGHTED_EUCLIDEAN;
+        break;
+
+      case ITEM_SIMILARITY_WITH_WEIGHTED_PEARSON_CORRELATION:
+      case USER_SIMILARITY_WITH_WEIGHTED_PEARSON_CORRELATION:
+        result = WEIGHTED_PEARSON;
+        break;
+
+      case ITEM_SIMILARITY_WITH_WEIGHTED_UNCENTERED_COSINE:
+      case USER_SIMILARITY_WITH_WEIGHTED_UNCENTERED_COSINE:
+        result = WEIGHTED_UNCENTERED_COSINE;
+        break;
+
+      default:
+        result = null;
+    }
+
+    return Optional.fromNullable(result);
+  }
+
+  /**
+   * Returns the given similarity normalized like the Mahout similarities: the weighting is applied
+   * if necessary, and the result is kept between -1 and 1.
+   */
+  private static double normalize(double similarity, int count, int dimension, boolean weighted) {
+    if (Double.isNaN(similarity)) {
+      return similarity;
+    }
+
+    double result = similarity;
+    if (weighted) {
+      double scaleFactor = 1.0 - (double) count / (double) (dimension + 1);
+      if (result < 0.0) {
+        result = -1.0 + scaleFactor * (1.0 + result);
+      } else {
+        result = 1.0 - scaleFactor * (1.0 - result);
+      }
+    }
+
+    return Math.max(-1.0, Math.min(1.0, result));
+  }
+
+  /**
+   * Returns the similarity between X and Y computed from the given statistics, like the Mahout
+   * similarity.
+   *
+   * @param statistics statistics of the preferences shared by X and Y
+   * @param xSize number of preferences of X
+   * @param ySize number of preferences of Y
+   * @param dimension number of items for the user similarities, number of users for the item
+   *        similarities
+   */
+  double compute(SufficientStatistics statistics, int xSize, int ySize, int dimension) {
+    int count = statistics.getCount();
+    double result;
+
+    switch (this) {
+      case CITY_BLOCK:
+        result = 1.0 / (1.0 + xSize + ySize - 2 * count);
+        break;
+
+      case EUCLIDEAN:
+        result = normalize(statistics.getEuclideanSimilarity(), count, dimension, false);
+        break;
+
+      case LOG_LIKELIHOOD:
+        if (count == 0) {
+          result = Double.NaN;
+        } else {
+          double logLikelihood =
+              LogLikelihood.logLikelihoodRatio(count, ySize - count, xSize - count, dimension
+                  - xSize - ySize + count);
+          result = 1.0 - 1.0 / (1.0 + logLikelihood);
+        }
+        break;
+
+      case PEARSON:
+        result = normalize(statistics.getCenteredCosine(), count, dimension, false);
+        break;
+
+      case TANIMOTO:
+        if (xSize == 0 && ySize == 0) {
+          result = Double.NaN;
+        } else if (xSize == 0 || ySize == 0) {
+          result = 0;
+        } else if (count == 0) {
+          result = Double.NaN;
+        } else {
+          result = count / (double) (xSize + ySize - count);
+        }
+        break;
+
+      case UNCENTERED_COSINE:
+        result = normalize(statistics.getCosine(), count, dimension, false);
+        break;
+
+      case WEIGHTED_EUCLIDEAN:
+        result = normalize(statistics.getEuclideanSimilarity(), count, dimension, true);
+        break;
+
+      case WEIGHTED_PEARSON:
+        result = normalize(statistics.getCenteredCosine(), count, dimension, true);
+        break;
+
+      case WEIGHTED_UNCENTERED_COSINE:
+        result = normalize(statistics.getCosine(), count, dimension, true);
+        break;
+
+      default:
+        throw new IllegalStateException();
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.similarity;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * This class contains the sufficient statistics of the preferences shared by two vectors X and Y.
+ * For example, X and Y are two users, and the shared preferences are the items rated by both. The
+ * statistics are the number of shared preferences, the sums of the values, of their squares, of
+ * their products and of their squared differences. The Mahout similarities based on the values are
+ * computed from these statistics.
+ */
+final class SufficientStatistics {
+
+  /**
+   * Returns the statistics of the given preference arrays. The shared preferences are the ones with
+   * the same id: the item for user preference arrays, the user for item preference arrays.
+   */
+  static SufficientStatistics compute(PreferenceArray xPreferences, PreferenceArray yPreferences) {
+    long[] xIds = xPreferences.getIDs();
+    FastByIDMap<Float> xValues = new FastByIDMap<>(xPreferences.length());
+    for (int index = 0; index < xPreferences.length(); index++) {
+      xValues.put(xIds[index], xPreferences.getValue(index));
+    }
+
+    SufficientStatistics result = new SufficientStatistics();
+    long[] yIds = yPreferences.getIDs();
+    for (int index = 0; index < yPreferences.length(); index++) {
+      Float x = xValues.get(yIds[index]);
+      if (x != null) {
+        result.add(x, yPreferences.getValue(index));
+      }
+    }
+
+    return result;
+  }
+
+  private int count;
+  private double sumX;
+  private double sumX2;
+  private double sumXY;
+  private double sumXYdiff2;
+  private double sumY;
+  private double sumY2;
+
+  SufficientStatistics() {}
+
+  SufficientStatistics(SufficientStatistics statistics) {
+    count = statistics.count;
+    sumX = statistics.sumX;
+    sumX2 = statistics.sumX2;
+    sumXY = statistics.sumXY;
+    sumXYdiff2 = statistics.sumXYdiff2;
+    sumY = statistics.sumY;
+    sumY2 = statistics.sumY2;
+  }
+
+  void add(double x, double y) {
+    count++;
+    sumX += x;
+    sumX2 += x * x;
+    sumXY += x * y;
+    sumXYdiff2 += (x - y) * (x - y);
+    sumY += y;
+    sumY2 += y * y;
+  }
+
+  /**
+   * Returns the Pearson correlation, computed like the Mahout implementation.
+   */
+  double getCenteredCosine() {
+    double meanX = sumX / count;
+    double meanY = sumY / count;
+    return getCosine(sumXY - meanY * sumX, sumX2 - meanX * sumX, sumY2 - meanY * sumY);
+  }
+
+  double getCosine() {
+    return getCosine(sumXY, sumX2, sumY2);
+  }
+
+  private double getCosine(double xy, double x2, double y2) {
+    double denominator = Math.sqrt(x2) * Math.sqrt(y2);
+    if (count == 0 || denominator == 0) {
+      return Double.NaN;
+    }
+    return xy / denominator;
+  }
+
+  int getCount() {
+    return count;
+  }
+
+  double getEuclideanSimilarity() {
+    if (count == 0) {
+      return Double.NaN;
+    }
+    return 1.0 / (1.0 + Math.sqrt(sumXYdiff2) / Math.sqrt(count));
+  }
+
+  void remove(double x, double y) {
+    count--;
+    sumX -= x;
+    sumX2 -= x * x;
+    sumXY -= x * y;
+    sumXYdiff2 -= (x - y) * (x - y);
+    sumY -= y;
+    sumY2 -= y * y;
+  }
+
+  /**
+   * Returns the statistics of Y and X.
+   */
+  SufficientStatistics swap() {
+    SufficientStatistics result = new SufficientStatistics(this);
+    result.sumX = sumY;
+    result.sumX2 = sumY2;
+    result.sumY = sumX;
+    result.sumY2 = sumX2;
+    return result;
+  }
+
+  /**
+   * Returns a copy of these statistics, without the contribution of the given masked preferences of
+   * X. The value of Y is the value of the given id in the masked preferences, if any.
+   */
+  SufficientStatistics unmask(Iterable<MaskedPreference> maskedPreferences, long yId) {
+    SufficientStatistics result = new SufficientStatistics(this);
+
+    for (MaskedPreference preference : maskedPreferences) {
+      Float y = preference.getOtherValue(yId);
+      if (y != null) {
+        result.remove(preference.getValue(), y);
+      }
+    }
+
+    return result;
+  }
+}
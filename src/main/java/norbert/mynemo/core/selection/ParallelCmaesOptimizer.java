@@ -0,0 +1,639 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.selection;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.math3.analysis.MultivariateFunction;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.optim.ConvergenceChecker;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * This optimizer minimizes a function with the CMA-ES algorithm, like the
+ * {@link org.apache.commons.math3.optim.nonlinear.scalar.noderiv.CMAESOptimizer CMAESOptimizer},
+ * but all candidates of a generation are evaluated at the same time. The evaluations done by the
+ * selectors are long and independent, thus a generation lasts about as long as its slowest
+ * candidate, instead of the sum of all candidates.
+ *
+ * <p>
+ * The search follows the Commons Math implementation: same default parameters, same active
+ * covariance update and diagonal-only first iterations if they are enabled, same handling of the
+ * bounds, and same stop criteria. The candidates sampled outside the bounds are evaluated on the
+ * closest point of the bounds, and their value is penalized by their distance to the bounds. The
+ * search stops after the maximum number of generations, when the best value is below the stop
+ * fitness, when the values or the steps become negligible (TolFun, TolHistFun, TolX), when the
+ * steps become huge (TolUpX), when the covariance matrix is ill-conditioned, or when the checker
+ * declares the convergence. The optimized function is called by several threads, thus it must be
+ * thread-safe.
+ *
+ * <p>
+ * The candidates are evaluated by the executor given to the optimizer, which is shared by all
+ * generations and never shut down by the optimizer.
+ */
+class ParallelCmaesOptimizer {
+
+  /**
+   * This class contains the state of one search. The fields and the steps have the names of the
+   * Commons Math implementation.
+   */
+  private class Search {
+    private RealMatrix b;
+    private RealMatrix bd;
+    private RealMatrix c;
+    private final double cc;
+    private final double ccov1;
+    private final double ccov1Sep;
+    private final double ccovmu;
+    private final double ccovmuSep;
+    private final double chiN;
+    private final double cs;
+    private final double damps;
+    private double[] diagC;
+    private double[] diagD;
+    /** Number of first iterations that only update the diagonal, 0 for none. */
+    private int diagonalOnly;
+    private final int dimension;
+    private final double[] fitnessHistory;
+    private final MultivariateFunction function;
+    private int iterations;
+    private final double[] lowerBounds;
+    private final int mu;
+    private final double mueff;
+    private double normps;
+    private double[] pc;
+    private double[] ps;
+    private double sigma;
+    private final double stopTolUpX;
+    private final double stopTolX;
+    private final double[] upperBounds;
+    private final double[] weights;
+    private double[] xmean;
+
+    public Search(MultivariateFunction function, double[] initialGuess, double[] inputSigma,
+        double[] lowerBounds, double[] upperBounds) {
+      this.function = function;
+      this.lowerBounds = lowerBounds;
+      this.upperBounds = upperBounds;
+      dimension = initialGuess.length;
+      diagonalOnly = ParallelCmaesOptimizer.this.diagonalOnly;
+
+      // initial step size and stop tolerances
+      sigma = 0;
+      for (double current : inputSigma) {
+        checkArgument(0 < current, "Each sigma must be positive.");
+        sigma = Math.max(sigma, current);
+      }
+      stopTolUpX = 1e3 * sigma;
+      stopTolX = 1e-11 * sigma;
+
+      // selection
+      mu = populationSize / 2;
+      weights = new double[mu];
+      double weightSum = 0;
+      for (int index = 0; index < mu; index++) {
+        weights[index] = Math.log(mu + 0.5) - Math.log(index + 1);
+        weightSum += weights[index];
+      }
+      double squaredWeightSum = 0;
+      for (int index = 0; index < mu; index++) {
+        weights[index] /= weightSum;
+        squaredWeightSum += weights[index] * weights[index];
+      }
+      mueff = 1 / squaredWeightSum;
+
+      // adaptation
+      cc = (4 + mueff / dimension) / (dimension + 4 + 2 * mueff / dimension);
+      cs = (mueff + 2) / (dimension + mueff + 3);
+      damps =
+          (1 + 2 * Math.max(0, Math.sqrt((mueff - 1) / (dimension + 1)) - 1))
+              * Math.max(0.3, 1 - dimension / (1e-6 + maxIterations)) + cs;
+      ccov1 = 2 / ((dimension + 1.3) * (dimension + 1.3) + mueff);
+      ccovmu =
+          Math.min(1 - ccov1, 2 * (mueff - 2 + 1 / mueff)
+              / ((dimension + 2) * (dimension + 2) + mueff));
+      ccov1Sep = Math.min(1, ccov1 * (dimension + 1.5) / 3);
+      ccovmuSep = Math.min(1 - ccov1, ccovmu * (dimension + 1.5) / 3);
+      chiN =
+          Math.sqrt(dimension)
+              * (1 - 1.0 / (4 * dimension) + 1.0 / (21 * dimension * dimension));
+
+      // initial distribution: the covariance scales the sigmas to the step size
+      xmean = clip(initialGuess, lowerBounds, upperBounds);
+      diagD = new double[dimension];
+      diagC = new double[dimension];
+      for (int index = 0; index < dimension; index++) {
+        diagD[index] = inputSigma[index] / sigma;
+        diagC[index] = diagD[index] * diagD[index];
+      }
+      pc = new double[dimension];
+      ps = new double[dimension];
+      normps = 0;
+      b = MatrixUtils.createRealIdentityMatrix(dimension);
+      bd = MatrixUtils.createRealDiagonalMatrix(diagD);
+      c = MatrixUtils.createRealDiagonalMatrix(diagC);
+
+      fitnessHistory = new double[10 + (int) (3 * 10 * dimension / (double) populationSize)];
+      Arrays.fill(fitnessHistory, Double.MAX_VALUE);
+    }
+
+    /**
+     * Runs the search, and returns the best point found.
+     */
+    public PointValuePair run() {
+      double bestValue = Double.MAX_VALUE;
+      PointValuePair optimum = null;
+      PointValuePair lastResult = null;
+
+      generationLoop:
+      for (iterations = 1; iterations <= maxIterations; iterations++) {
+
+        // sample the candidates
+        double[][] arz = new double[populationSize][];
+        double[][] arx = new double[populationSize][];
+        List<double[]> repaired = new ArrayList<>(populationSize);
+        for (int k = 0; k < populationSize; k++) {
+          arz[k] = new double[dimension];
+          for (int index = 0; index < dimension; index++) {
+            arz[k][index] = random.nextGaussian();
+          }
+          double[] step =
+              diagonalOnly <= 0 ? bd.operate(arz[k]) : times(diagD, arz[k]);
+          arx[k] = new double[dimension];
+          for (int index = 0; index < dimension; index++) {
+            arx[k][index] = xmean[index] + sigma * step[index];
+          }
+          repaired.add(clip(arx[k], lowerBounds, upperBounds));
+        }
+
+        // evaluate the candidates, the ones outside the bounds are penalized
+        double[] values = evaluate(function, repaired);
+        double valueRange = max(values) - min(values);
+        double[] fitness = new double[populationSize];
+        for (int k = 0; k < populationSize; k++) {
+          double penalty = 0;
+          for (int index = 0; index < dimension; index++) {
+            penalty += Math.abs(arx[k][index] - repaired.get(k)[index]);
+          }
+          fitness[k] = values[k] + penalty * valueRange;
+        }
+        int[] arindex = sortedIndices(fitness);
+
+        // recombination
+        double[] xold = xmean;
+        xmean = new double[dimension];
+        double[] zmean = new double[dimension];
+        double[][] bestArx = new double[mu][];
+        double[][] bestArz = new double[mu][];
+        for (int i = 0; i < mu; i++) {
+          bestArx[i] = arx[arindex[i]];
+          bestArz[i] = arz[arindex[i]];
+          for (int index = 0; index < dimension; index++) {
+            xmean[index] += weights[i] * bestArx[i][index];
+            zmean[index] += weights[i] * bestArz[i][index];
+          }
+        }
+
+        // adaptation
+        boolean hsig = updateEvolutionPaths(zmean, xold);
+        if (diagonalOnly <= 0) {
+          updateCovariance(hsig, bestArx, arz, arindex, xold);
+        } else {
+          updateCovarianceDiagonalOnly(hsig, bestArz);
+        }
+        sigma *= Math.exp(Math.min(1, (normps / chiN - 1) * cs / damps));
+        double bestFitness = fitness[arindex[0]];
+        double worstFitness = fitness[arindex[populationSize - 1]];
+        if (bestValue > bestFitness) {
+          bestValue = bestFitness;
+          lastResult = optimum;
+          optimum = new PointValuePair(clip(bestArx[0], lowerBounds, upperBounds), bestFitness);
+          if (lastResult != null && checker.converged(iterations, optimum, lastResult)) {
+            break generationLoop;
+          }
+        }
+
+        // stop criteria
+        if (stopFitness != 0 && bestFitness < stopFitness) {
+          break generationLoop;
+        }
+        // TolX: all steps are negligible
+        boolean negligibleSteps = true;
+        for (int index = 0; index < dimension; index++) {
+          if (sigma * Math.max(Math.abs(pc[index]), Math.sqrt(diagC[index])) > stopTolX) {
+            negligibleSteps = false;
+            break;
+          }
+        }
+        if (negligibleSteps) {
+          break generationLoop;
+        }
+        // TolUpX: a step is huge
+        for (int index = 0; index < dimension; index++) {
+          if (sigma * Math.sqrt(diagC[index]) > stopTolUpX) {
+            break generationLoop;
+          }
+        }
+        // TolFun and TolHistFun: the values are flat
+        double historyBest = min(fitnessHistory);
+        double historyWorst = max(fitnessHistory);
+        if (iterations > 2
+            && Math.max(historyWorst, worstFitness) - Math.min(historyBest, bestFitness)
+                < STOP_TOL_FUN) {
+          break generationLoop;
+        }
+        if (iterations > fitnessHistory.length && historyWorst - historyBest < STOP_TOL_HIST_FUN) {
+          break generationLoop;
+        }
+        // the condition number of the covariance matrix is too large
+        if (max(diagD) / min(diagD) > 1e7) {
+          break generationLoop;
+        }
+        // convergence declared by the checker
+        PointValuePair current =
+            new PointValuePair(clip(bestArx[0], lowerBounds, upperBounds), bestFitness);
+        if (lastResult != null && checker.converged(iterations, current, lastResult)) {
+          break generationLoop;
+        }
+        lastResult = current;
+
+        // increase the step size in case of flat fitness
+        if (bestValue == fitness[arindex[(int) (0.1 + populationSize / 4.)]]) {
+          sigma *= Math.exp(0.2 + cs / damps);
+        }
+        if (iterations > 2
+            && Math.max(historyWorst, bestFitness) - Math.min(historyBest, bestFitness) == 0) {
+          sigma *= Math.exp(0.2 + cs / damps);
+        }
+        // the newest value is the first one of the history
+        System.arraycopy(fitnessHistory, 0, fitnessHistory, 1, fitnessHistory.length - 1);
+        fitnessHistory[0] = bestFitness;
+      }
+
+      return optimum;
+    }
+
+    /**
+     * Updates the eigen decomposition of the covariance matrix, and keeps the matrix positive
+     * definite and well-conditioned.
+     */
+    private void updateBd() {
+      // enforce the symmetry
+      c = c.add(c.transpose()).scalarMultiply(0.5);
+      EigenDecomposition decomposition = new EigenDecomposition(c);
+      b = decomposition.getV();
+      diagD = decomposition.getRealEigenvalues().clone();
+
+      if (min(diagD) <= 0) {
+        for (int index = 0; index < dimension; index++) {
+          diagD[index] = Math.max(0, diagD[index]);
+        }
+        addToDiagonals(max(diagD) / 1e14);
+      }
+      if (max(diagD) > 1e14 * min(diagD)) {
+        addToDiagonals(max(diagD) / 1e14 - min(diagD));
+      }
+
+      for (int index = 0; index < dimension; index++) {
+        diagC[index] = c.getEntry(index, index);
+        diagD[index] = Math.sqrt(diagD[index]);
+      }
+      bd = b.multiply(MatrixUtils.createRealDiagonalMatrix(diagD));
+    }
+
+    /**
+     * Adds the given value to the diagonal of the covariance matrix, and to its eigenvalues.
+     */
+    private void addToDiagonals(double value) {
+      c = c.add(MatrixUtils.createRealIdentityMatrix(dimension).scalarMultiply(value));
+      for (int index = 0; index < dimension; index++) {
+        diagD[index] += value;
+      }
+    }
+
+    /**
+     * Updates the covariance matrix with the rank-one and rank-mu updates. If the active CMA is
+     * enabled, the worst candidates decrease the variance in their directions.
+     */
+    private void updateCovariance(boolean hsig, double[][] bestArx, double[][] arz,
+        int[] arindex, double[] xold) {
+      double negccov = 0;
+      if (ccov1 + ccovmu > 0) {
+        RealMatrix arpos = MatrixUtils.createRealMatrix(dimension, mu);
+        RealMatrix weightedArpos = MatrixUtils.createRealMatrix(dimension, mu);
+        for (int i = 0; i < mu; i++) {
+          for (int index = 0; index < dimension; index++) {
+            double entry = (bestArx[i][index] - xold[index]) / sigma;
+            arpos.setEntry(index, i, entry);
+            weightedArpos.setEntry(index, i, entry * weights[i]);
+          }
+        }
+        RealVector pcVector = MatrixUtils.createRealVector(pc);
+        RealMatrix roneu = pcVector.outerProduct(pcVector).scalarMultiply(ccov1);
+        RealMatrix rankMu = arpos.multiply(weightedArpos.transpose());
+        double oldFac = hsig ? 0 : ccov1 * cc * (2 - cc);
+        oldFac += 1 - ccov1 - ccovmu;
+
+        if (isActiveCma) {
+          negccov =
+              (1 - ccovmu) * 0.25 * mueff / (Math.pow(dimension + 2, 1.5) + 2 * mueff);
+          double negminresidualvariance = 0.66;
+          double negalphaold = 0.5;
+
+          // the worst candidates, their norms are reversed
+          double[][] arzneg = new double[mu][];
+          double[] arnorms = new double[mu];
+          for (int i = 0; i < mu; i++) {
+            arzneg[i] = arz[arindex[populationSize - 1 - i]];
+            arnorms[i] = MatrixUtils.createRealVector(arzneg[i]).getNorm();
+          }
+          int[] idxnorms = sortedIndices(arnorms);
+          double[] arnormsInv = new double[mu];
+          for (int rank = 0; rank < mu; rank++) {
+            arnormsInv[idxnorms[rank]] = arnorms[idxnorms[mu - 1 - rank]] / arnorms[idxnorms[rank]];
+          }
+          double squaredNormSum = 0;
+          for (int i = 0; i < mu; i++) {
+            squaredNormSum += arnormsInv[i] * arnormsInv[i] * weights[i];
+          }
+          double negcovMax = (1 - negminresidualvariance) / squaredNormSum;
+          if (negccov > negcovMax) {
+            negccov = negcovMax;
+          }
+
+          RealMatrix cneg = MatrixUtils.createRealMatrix(dimension, dimension);
+          for (int i = 0; i < mu; i++) {
+            RealVector artmp =
+                MatrixUtils.createRealVector(bd.operate(arzneg[i])).mapMultiply(arnormsInv[i]);
+            cneg = cneg.add(artmp.outerProduct(artmp).scalarMultiply(weights[i]));
+          }
+          oldFac += negalphaold * negccov;
+          c =
+              c.scalarMultiply(oldFac).add(roneu)
+                  .add(rankMu.scalarMultiply(ccovmu + (1 - negalphaold) * negccov))
+                  .subtract(cneg.scalarMultiply(negccov));
+        } else {
+          c = c.scalarMultiply(oldFac).add(roneu).add(rankMu.scalarMultiply(ccovmu));
+        }
+      }
+      if (ccov1 + ccovmu + negccov > 0) {
+        updateBd();
+      }
+    }
+
+    /**
+     * Updates only the diagonal of the covariance matrix. After the diagonal-only iterations, the
+     * full covariance matrix is used.
+     */
+    private void updateCovarianceDiagonalOnly(boolean hsig, double[][] bestArz) {
+      double oldFac = hsig ? 0 : ccov1Sep * cc * (2 - cc);
+      oldFac += 1 - ccov1Sep - ccovmuSep;
+      for (int index = 0; index < dimension; index++) {
+        double weightedSquares = 0;
+        for (int i = 0; i < mu; i++) {
+          weightedSquares += bestArz[i][index] * bestArz[i][index] * weights[i];
+        }
+        diagC[index] =
+            diagC[index] * oldFac + pc[index] * pc[index] * ccov1Sep + diagC[index]
+                * weightedSquares * ccovmuSep;
+        diagD[index] = Math.sqrt(diagC[index]);
+      }
+      if (diagonalOnly > 1 && iterations > diagonalOnly) {
+        // the full covariance matrix is used from now on
+        diagonalOnly = 0;
+        b = MatrixUtils.createRealIdentityMatrix(dimension);
+        bd = MatrixUtils.createRealDiagonalMatrix(diagD);
+        c = MatrixUtils.createRealDiagonalMatrix(diagC);
+      }
+    }
+
+    /**
+     * Updates the evolution paths, and returns <code>true</code> if the step size path is short,
+     * i.e. if the covariance path must be updated.
+     */
+    private boolean updateEvolutionPaths(double[] zmean, double[] xold) {
+      double[] bzmean = b.operate(zmean);
+      double psFactor = Math.sqrt(cs * (2 - cs) * mueff);
+      double squaredNorm = 0;
+      for (int index = 0; index < dimension; index++) {
+        ps[index] = ps[index] * (1 - cs) + bzmean[index] * psFactor;
+        squaredNorm += ps[index] * ps[index];
+      }
+      normps = Math.sqrt(squaredNorm);
+      boolean hsig =
+          normps / Math.sqrt(1 - Math.pow(1 - cs, 2 * iterations)) / chiN < 1.4 + 2.0
+              / (dimension + 1);
+      double pcFactor = Math.sqrt(cc * (2 - cc) * mueff) / sigma;
+      for (int index = 0; index < dimension; index++) {
+        pc[index] *= 1 - cc;
+        if (hsig) {
+          pc[index] += (xmean[index] - xold[index]) * pcFactor;
+        }
+      }
+      return hsig;
+    }
+  }
+
+  private static final double STOP_TOL_FUN = 1e-12;
+  private static final double STOP_TOL_HIST_FUN = 1e-13;
+
+  /**
+   * Returns the given point moved inside the given bounds.
+   */
+  private static double[] clip(double[] point, double[] lowerBounds, double[] upperBounds) {
+    double[] result = new double[point.length];
+    for (int index = 0; index < point.length; index++) {
+      result[index] = Math.min(upperBounds[index], Math.max(lowerBounds[index], point[index]));
+    }
+    return result;
+  }
+
+  private static double max(double[] values) {
+    double result = Double.NEGATIVE_INFINITY;
+    for (double value : values) {
+      result = Math.max(result, value);
+    }
+    return result;
+  }
+
+  private static double min(double[] values) {
+    double result = Double.POSITIVE_INFINITY;
+    for (double value : values) {
+      result = Math.min(result, value);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the indexes of the given values, sorted by increasing value.
+   */
+  private static int[] sortedIndices(final double[] values) {
+    Integer[] indexes = new Integer[values.length];
+    for (int index = 0; index < values.length; index++) {
+      indexes[index] = index;
+    }
+    Arrays.sort(indexes, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        return Double.compare(values[o1], values[o2]);
+      }
+    });
+
+    int[] result = new int[values.length];
+    for (int index = 0; index < values.length; index++) {
+      result[index] = indexes[index];
+    }
+    return result;
+  }
+
+  /**
+   * Returns the product of the given vectors, element by element.
+   */
+  private static double[] times(double[] first, double[] second) {
+    double[] result = new double[first.length];
+    for (int index = 0; index < first.length; index++) {
+      result[index] = first[index] * second[index];
+    }
+    return result;
+  }
+
+  private final ConvergenceChecker<PointValuePair> checker;
+  private final int diagonalOnly;
+  private final ExecutorService executor;
+  private final boolean isActiveCma;
+  private final int maxIterations;
+  private final int populationSize;
+  private final RandomGenerator random;
+  private final double stopFitness;
+
+  /**
+   * Creates an optimizer. The parameters have the meaning of the parameters of the
+   * {@link org.apache.commons.math3.optim.nonlinear.scalar.noderiv.CMAESOptimizer CMAESOptimizer}.
+   *
+   * @param maxIterations maximum number of generations
+   * @param stopFitness the search stops when a value is below this one, 0 to disable
+   * @param isActiveCma <code>true</code> to decrease the variance in the directions of the worst
+   *        candidates
+   * @param diagonalOnly number of first generations that only update the diagonal of the
+   *        covariance matrix, 0 for none, a negative value for all generations
+   * @param populationSize number of candidates of each generation, at least 2
+   * @param random generator used to sample the candidates
+   * @param checker checker of the convergence, called with the best points found
+   * @param executor executor of the evaluations of the candidates, its tasks must not wait for
+   *        the tasks of the executor itself
+   */
+  public ParallelCmaesOptimizer(int maxIterations, double stopFitness, boolean isActiveCma,
+      int diagonalOnly, int populationSize, RandomGenerator random,
+      ConvergenceChecker<PointValuePair> checker, ExecutorService executor) {
+    checkArgument(0 < maxIterations, "The maximum number of iterations must be at least 1.");
+    checkArgument(2 <= populationSize, "The population size must be at least 2.");
+    checkNotNull(random);
+    checkNotNull(checker);
+    checkNotNull(executor);
+
+    this.checker = checker;
+    this.diagonalOnly = diagonalOnly;
+    this.executor = executor;
+    this.isActiveCma = isActiveCma;
+    this.maxIterations = maxIterations;
+    this.populationSize = populationSize;
+    this.random = random;
+    this.stopFitness = stopFitness;
+  }
+
+  /**
+   * Returns the values of the given function at the given points, in the same order. The points
+   * are evaluated at the same time, by the executor of the optimizer.
+   */
+  public double[] evaluate(final MultivariateFunction function, List<double[]> points) {
+    checkNotNull(function);
+    checkNotNull(points);
+
+    double[] result = new double[points.size()];
+    if (points.size() <= 1) {
+      for (int index = 0; index < points.size(); index++) {
+        result[index] = function.value(points.get(index));
+      }
+      return result;
+    }
+
+    List<Callable<Double>> tasks = new ArrayList<>(points.size());
+    for (final double[] point : points) {
+      tasks.add(new Callable<Double>() {
+        @Override
+        public Double call() {
+          return function.value(point);
+        }
+      });
+    }
+
+    try {
+      List<Future<Double>> futures = executor.invokeAll(tasks);
+      for (int index = 0; index < futures.size(); index++) {
+        result[index] = futures.get(index).get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+
+    return result;
+  }
+
+  /**
+   * Searches the minimum of the given function, and returns the best point found.
+   *
+   * @param function function to minimize, called by several threads
+   * @param initialGuess mean of the first generation
+   * @param sigma initial standard deviation of each coordinate, each one must be positive
+   * @param lowerBounds lower bound of each coordinate
+   * @param upperBounds upper bound of each coordinate
+   */
+  public PointValuePair optimize(MultivariateFunction function, double[] initialGuess,
+      double[] sigma, double[] lowerBounds, double[] upperBounds) {
+    checkNotNull(function);
+    checkArgument(0 < initialGuess.length, "The initial guess must have at least one"
+        + " coordinate.");
+    checkArgument(sigma.length == initialGuess.length
+        && lowerBounds.length == initialGuess.length && upperBounds.length == initialGuess.length,
+        "The sigma and the bounds must have the dimension of the initial guess.");
+
+    return new Search(function, initialGuess, sigma, lowerBounds, upperBounds).run();
+  }
+}
@@ -18,14 +18,28 @@ package norbert.mynemo.core.selection;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
 /**
  * This function provides a convenient method to compute a value from the coverage of an evaluation.
  * This is useful when an evaluation does not reach the minimum acceptable coverage. Then, the
  * returned value must be worst than any other value that can be returned by an evaluation with an
  * acceptable coverage.
+ *
+ * <p>
+ * This function also provides a thread-safe cache of the evaluation results. The optimizers
+ * evaluate several points at the same time, and several points often lead to the same parameters.
+ * The cache ensures that each parameters are evaluated only once, even when they are requested by
+ * several threads at the same time.
  */
 abstract class RecommenderEvalFunction {
 
+  /** Results of the evaluations, finished or running, by parameter key. */
+  private final ConcurrentMap<Long, FutureTask<Double>> cache;
   private final double minimumCoverage;
 
   RecommenderEvalFunction(double minimumCoverage) {
@@ -33,6 +47,52 @@ abstract class RecommenderEvalFunction {
         + "between 0 and 1.");
 
     this.minimumCoverage = minimumCoverage;
+    cache = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Returns the result of the evaluation of the given key. If the key has never been requested, the
+   * given evaluation is run by the calling thread. If the evaluation of the key is running in
+   * another thread, waits for its result.
+   */
+  protected double cachedValue(Long key, Callable<Double> evaluation) {
+    FutureTask<Double> task = new FutureTask<>(evaluation);
+    FutureTask<Double> existingTask = cache.putIfAbsent(key, task);
+    if (existingTask == null) {
+      existingTask = task;
+      task.run();
+    }
+
+    try {
+      return existingTask.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Stores the given value as the result of the given key, unless the key has already been
+   * requested. This is useful when an evaluation also provides the results of other keys.
+   */
+  protected void cacheValue(Long key, final double value) {
+    FutureTask<Double> task = new FutureTask<>(new Callable<Double>() {
+      @Override
+      public Double call() {
+        return value;
+      }
+    });
+    if (cache.putIfAbsent(key, task) == null) {
+      task.run();
+    }
   }
 
   /**
@@ -23,9 +23,20 @@ import static com.google.common.collect.Lists.newArrayList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import norbert.mynemo.core.evaluation.EvaluationCache;
 import norbert.mynemo.core.evaluation.MetricType;
 import norbert.mynemo.core.evaluation.PersonnalRecommenderEvaluator;
 import norbert.mynemo.core.evaluation.PreferenceMaskerModelBuilder;
@@ -43,8 +54,11 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.eval.DataModelBuilder;
 import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.common.RandomUtils;
 
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * This class selects the best recommender for a given user.
@@ -63,6 +77,9 @@ public class RecommenderSelector {
    * <li><code>very_slow</code>: 20× slower, provides an extremely accurate result</li>
    * <li><code>extremely_slow</code>: way more slower, provides an exact and deterministic (if
    * possible) result</li>
+   * <li><code>successive_halving</code>: evaluates the algorithms on samples of the preferences,
+   * and only the best ones on larger samples, provides the result of <code>extremely_slow</code> in
+   * most cases, several times faster</li>
    * </ul>
    *
    * <p>
@@ -70,33 +87,79 @@ public class RecommenderSelector {
    * <code>speed=EXTREMELY_SLOW</code>.
    */
   public enum SpeedOption {
-    EXTREMELY_SLOW(1, true), FAST(0.5, true), NORMAL(0.8, true), SLOW(0.9, true), VERY_FAST(0.7,
-        false), VERY_SLOW(0.95, true);
+    EXTREMELY_SLOW(1, true, false), FAST(0.5, true, false), NORMAL(0.8, true, false), SLOW(0.9,
+        true, false), SUCCESSIVE_HALVING(1, true, true), VERY_FAST(0.7, false, false), VERY_SLOW(
+        0.95, true, false);
     private final boolean exhaustive;
+    private final boolean successiveHalving;
     private final double trainingPercentage;
 
-    private SpeedOption(double trainingPercentage, boolean exhaustive) {
+    private SpeedOption(double trainingPercentage, boolean exhaustive, boolean successiveHalving) {
       this.trainingPercentage = trainingPercentage;
       this.exhaustive = exhaustive;
+      this.successiveHalving = successiveHalving;
     }
 
     public double getTrainingPercentage() {
       return trainingPercentage;
     }
+
+    public boolean isExhaustive() {
+      return exhaustive;
+    }
+
+    public boolean isSuccessiveHalving() {
+      return successiveHalving;
+    }
   }
 
   public static final double DEFAULT_EVALUATION_PERCENTAGE = 1;
   public static final MetricType DEFAULT_METRIC = MetricType.ROOT_MEAN_SQUARED_ERROR;
   public static final double DEFAULT_MINIMUM_COVERAGE = 0.5;
+  /**
+   * For the successive halving, factor between the numbers of tested preferences of two
+   * consecutive rounds. The number of candidates is divided by the same factor.
+   */
+  private static final int HALVING_RATE = 2;
+  /** Number of seconds before an idle evaluation thread is stopped. */
+  private static final long IDLE_THREAD_TIMEOUT = 10;
+  /** For the successive halving, minimum number of preferences tested by the first round. */
+  private static final int MIN_TESTED_PREFERENCES = 20;
   /** If false, prevent any optimization based on reusing data between evaluations. */
   private static final boolean DEFAULT_REUSE_STATE = true;
   public static final SpeedOption DEFAULT_SPEED = SpeedOption.EXTREMELY_SLOW;
+  public static final int DEFAULT_THREAD_NUMBER =
+      PersonnalRecommenderEvaluator.DEFAULT_THREAD_NUMBER;
   /**
    * The significance level is the maximum allowed for a p-value to consider a difference relevant.
    * If this level is lowered, more evaluation will be considered similar. On the contrary, if this
    * level is set higher, less evaluations will be considered similar.
    */
   private static final double SIGNIFICANCE_LEVEL = 0.05;
+  private static final String ALGORITHM_THREAD_NAME = "mynemo-algorithm-%d";
+  private static final String CANDIDATE_THREAD_NAME = "mynemo-candidate-%d";
+  private static final String FACTORIZATION_THREAD_NAME = "mynemo-factorization-%d";
+  private static final String TEST_SET_THREAD_NAME = "mynemo-evaluation-%d";
+
+  /**
+   * Returns a pool of the given number of threads, shared by all evaluations. The threads are
+   * daemons and are stopped when they are idle, thus the pool does not need to be shut down.
+   */
+  private static ExecutorService createSharedExecutor(int threadNumber, String threadName) {
+    ThreadPoolExecutor result =
+        new ThreadPoolExecutor(threadNumber, threadNumber, IDLE_THREAD_TIMEOUT, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat(threadName).build());
+    result.allowCoreThreadTimeOut(true);
+    return result;
+  }
+
+  /**
+   * Returns the given number divided by the halving rate, rounded up.
+   */
+  private static int divideByRate(int number) {
+    return (number + HALVING_RATE - 1) / HALVING_RATE;
+  }
 
   /**
    * Removes from the given collection the evaluations with a coverage lower than the given minimum.
@@ -112,12 +175,11 @@ public class RecommenderSelector {
     }
   }
 
-  private final PersonnalRecommenderEvaluator evaluator;
+  /** Executor of the evaluations of the algorithms, shared by all calls of evaluateAll. */
+  private final ExecutorService algorithmExecutor;
   private final MetricType metric;
   private final SelectorConfiguration selectorConfiguration;
-  private final SvdRecommenderSelector svdRecommenderSelector;
   private final long targetUser;
-  private final UserRecommenderSelector userRecommenderSelector;
 
   /**
    * Builds a selector for the given user.
@@ -131,9 +193,49 @@ public class RecommenderSelector {
    */
   public RecommenderSelector(DataModel model, long user, MetricType metric, SpeedOption speed,
       double evaluationPercentage) throws TasteException {
+    this(model, user, metric, speed, evaluationPercentage, DEFAULT_THREAD_NUMBER);
+  }
+
+  /**
+   * Builds a selector for the given user. The selector will try to optimize the given metric. The
+   * given number of threads bounds each stage of the evaluations, see
+   * {@link #RecommenderSelector(DataModel, long, MetricType, SpeedOption, double, int, Optional,
+   * Optional)}.
+   */
+  public RecommenderSelector(DataModel model, long user, MetricType metric, SpeedOption speed,
+      double evaluationPercentage, int threadNumber) throws TasteException {
+    this(model, user, metric, speed, evaluationPercentage, threadNumber, Optional
+        .<EvaluationCache>absent(), Optional.<Long>absent());
+  }
+
+  /**
+   * Builds a selector for the given user. The selector will try to optimize the given metric.
+   *
+   * <p>
+   * The evaluations are split in four stages, each one run by its own pool of the given number of
+   * threads: the algorithms, the candidates of the optimizers, the test sets, and the tasks of the
+   * parallel factorizers. A task only waits for the tasks of the next stages, thus the pools never
+   * deadlock. The threads of the first two stages mostly wait, so up to about twice the given
+   * number of threads compute at the same time. The Mahout parallel SGD factorizer is not bounded
+   * by these pools: each of its factorizations creates a pool of as many threads as processors.
+   *
+   * <p>
+   * If a seed is given, the test sets of the evaluations, the candidates of the optimizers and the
+   * random choices of the factorizers of this project are drawn with this seed. Thus a selection is
+   * reproducible, except for the SVD recommenders based on the Mahout SGD factorizers or on the
+   * Hogwild factorizer, whose trainings stay random. If a cache is given, the evaluations already
+   * in the cache are not done again, and the new ones are stored in the cache. A seed must be given
+   * with a cache, so that the cached reports are based on the same test sets as the new ones.
+   */
+  public RecommenderSelector(DataModel model, long user, MetricType metric, SpeedOption speed,
+      double evaluationPercentage, int threadNumber, Optional<EvaluationCache> cache,
+      Optional<Long> seed) throws TasteException {
+    checkArgument(0 < threadNumber, "The number of threads must be at least 1.");
+    checkArgument(!cache.isPresent() || seed.isPresent(), "A seed must be given with a cache.");
+
     targetUser = user;
     this.metric = metric;
-    evaluator = new PersonnalRecommenderEvaluator(targetUser, metric, speed.exhaustive);
+    algorithmExecutor = createSharedExecutor(threadNumber, ALGORITHM_THREAD_NAME);
 
     DataModelBuilder dataModelBuilder = null;
     if (evaluationPercentage == 1) {
@@ -146,65 +248,134 @@ public class RecommenderSelector {
     boolean reuseIsAllowed =
         DEFAULT_REUSE_STATE && evaluationPercentage == 1 && speed.trainingPercentage == 1;
     selectorConfiguration =
-        new SelectorConfiguration(model, user, evaluator, evaluationPercentage, reuseIsAllowed,
-            speed, dataModelBuilder);
-    userRecommenderSelector = new UserRecommenderSelector(selectorConfiguration);
-    svdRecommenderSelector = new SvdRecommenderSelector(selectorConfiguration);
+        new SelectorConfiguration(model, user, metric, evaluationPercentage, reuseIsAllowed, speed,
+            dataModelBuilder, createSharedExecutor(threadNumber, CANDIDATE_THREAD_NAME),
+            createSharedExecutor(threadNumber, TEST_SET_THREAD_NAME), createSharedExecutor(
+                threadNumber, FACTORIZATION_THREAD_NAME), threadNumber, cache, seed);
   }
 
+  /**
+   * Returns <code>true</code> if the given evaluations are significantly different. The
+   * evaluations with less than two values are never significantly different.
+   */
   private boolean areSignificantlyDifferent(RecommenderEvaluation evalA, RecommenderEvaluation evalB) {
     DescriptiveStatistics valuesA = evalA.getEvaluationReport().getValues(DEFAULT_METRIC);
     DescriptiveStatistics valuesB = evalB.getEvaluationReport().getValues(DEFAULT_METRIC);
+    if (valuesA.getN() < 2 || valuesB.getN() < 2) {
+      return false;
+    }
     return new TTest().tTest(valuesA, valuesB, SIGNIFICANCE_LEVEL);
   }
 
   /**
-   * Runs the evaluator with the given builder, and generates an evaluation based on the given
-   * configuration.
+   * Evaluates the given builder with the given selector configuration, and generates an evaluation
+   * based on the given recommender configuration.
    */
   private RecommenderEvaluation evaluate(RecommenderConfiguration recommenderConfiguration,
-      RecommenderBuilder recommenderBuilder) throws TasteException {
+      RecommenderBuilder recommenderBuilder, SelectorConfiguration evaluationConfiguration)
+      throws TasteException {
 
-    DataModelBuilder modelBuilder = selectorConfiguration.getDataModelBuilder();
+    return new RecommenderEvaluation(recommenderConfiguration, evaluationConfiguration.evaluate(
+        recommenderConfiguration, recommenderBuilder));
+  }
 
-    evaluator.evaluate(recommenderBuilder, modelBuilder, selectorConfiguration.getDataModel(),
-        selectorConfiguration.getSpeed().trainingPercentage,
-        selectorConfiguration.getEvaluationPercentage());
+  /**
+   * Evaluates the given algorithm with the given selector configuration, and returns the
+   * evaluations. An algorithm may be evaluated with different parameter values.
+   */
+  private Collection<RecommenderEvaluation> evaluate(RecommenderType type, double minimumCoverage,
+      SelectorConfiguration evaluationConfiguration) throws TasteException {
+    Collection<RecommenderEvaluation> result;
+
+    switch (type.getFamily()) {
+      case BASIC:
+        result = Collections.singletonList(evaluateBasic(type, evaluationConfiguration));
+        break;
+
+      case ITEM_SIMILARITY_BASED:
+        result = Collections.singletonList(evaluateItemBased(type, evaluationConfiguration));
+        break;
+
+      case SVD_BASED:
+        result =
+            new SvdRecommenderSelector(evaluationConfiguration).select(type, minimumCoverage);
+        break;
+
+      case USER_SIMILARITY_BASED:
+        result =
+            new UserRecommenderSelector(evaluationConfiguration).select(type, minimumCoverage);
+        break;
+
+      default:
+        throw new IllegalStateException();
+    }
 
-    return new RecommenderEvaluation(recommenderConfiguration, evaluator.getEvaluationReport());
+    return result;
   }
 
   /**
    * Evaluates all given algorithms, and returns an unsorted list of evaluations. An algorithm may
    * be evaluated with different parameter values, thus the number of evaluations is usually greater
    * than the number of given algorithms.
+   *
+   * <p>
+   * The algorithms are evaluated at the same time, each one by its own task and its own evaluator.
+   * The data model is only read. The number of algorithms evaluated at the same time, and the
+   * number of test sets evaluated at the same time, are both bounded by the number of threads of
+   * the selector.
    */
   public List<RecommenderEvaluation> evaluateAll(Collection<RecommenderType> recommenderTypes,
       double minimumCoverage) throws TasteException {
+    return evaluateAll(recommenderTypes, minimumCoverage, selectorConfiguration);
+  }
 
-    List<RecommenderEvaluation> result = new ArrayList<>();
-
-    for (RecommenderType current : recommenderTypes) {
-      switch (current.getFamily()) {
-        case BASIC:
-          result.add(evaluateBasic(current));
-          break;
-
-        case ITEM_SIMILARITY_BASED:
-          result.add(evaluateItemBased(current));
-          break;
-
-        case SVD_BASED:
-          result.addAll(svdRecommenderSelector.select(current, minimumCoverage));
-          break;
+  /**
+   * Evaluates all given algorithms with the given selector configuration, and returns an unsorted
+   * list of evaluations.
+   */
+  private List<RecommenderEvaluation> evaluateAll(Collection<RecommenderType> recommenderTypes,
+      final double minimumCoverage, final SelectorConfiguration evaluationConfiguration)
+      throws TasteException {
+
+    List<Callable<Collection<RecommenderEvaluation>>> tasks = new ArrayList<>();
+    for (final RecommenderType current : recommenderTypes) {
+      tasks.add(new Callable<Collection<RecommenderEvaluation>>() {
+        @Override
+        public Collection<RecommenderEvaluation> call() throws TasteException {
+          return evaluate(current, minimumCoverage, evaluationConfiguration);
+        }
+      });
+    }
 
-        case USER_SIMILARITY_BASED:
-          result.addAll(userRecommenderSelector.select(current, minimumCoverage));
-          break;
+    List<RecommenderEvaluation> result = new ArrayList<>();
+    int parallelism = Math.min(selectorConfiguration.getThreadNumber(), tasks.size());
+    if (parallelism <= 1) {
+      for (RecommenderType current : recommenderTypes) {
+        result.addAll(evaluate(current, minimumCoverage, evaluationConfiguration));
+      }
+      return result;
+    }
 
-        default:
-          throw new IllegalStateException();
+    // the tasks only wait for the candidates and the test sets, that are evaluated by other pools:
+    // no deadlock
+    try {
+      for (Future<Collection<RecommenderEvaluation>> future : algorithmExecutor.invokeAll(tasks)) {
+        result.addAll(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TasteException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof TasteException) {
+        throw (TasteException) e.getCause();
       }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new TasteException(e.getCause());
     }
 
     return result;
@@ -214,24 +385,79 @@ public class RecommenderSelector {
    * Evaluates the given recommender. The given recommender must be part of the item-similarity
    * based family.
    */
-  private RecommenderEvaluation evaluateBasic(RecommenderType type) throws TasteException {
+  private RecommenderEvaluation evaluateBasic(RecommenderType type,
+      SelectorConfiguration evaluationConfiguration) throws TasteException {
     checkArgument(type.getFamily() == RecommenderFamily.BASIC);
 
     BasicRecommenderConfiguration configuration = new BasicRecommenderConfiguration(type);
 
-    return evaluate(configuration, new BasicRecommender(configuration));
+    return evaluate(configuration, new BasicRecommender(configuration), evaluationConfiguration);
+  }
+
+  /**
+   * Evaluates the given algorithms by successive halving, and returns the evaluations of the last
+   * round. The first round evaluates all algorithms on a small random sample of the preferences of
+   * the target user. Each next round evaluates the best algorithms of the previous round on a
+   * sample twice larger, that contains the previous one. The last round is a complete evaluation.
+   *
+   * <p>
+   * After each round, the algorithms that are significantly worse than the best one, according to
+   * the same test as the final selection, are eliminated. Then, only the best half of the
+   * algorithms are kept.
+   */
+  private List<RecommenderEvaluation> evaluateBySuccessiveHalving(List<RecommenderType> types,
+      double minimumCoverage) throws TasteException {
+
+    // the samples are the first items of a random order, thus each sample contains the previous
+    // ones
+    List<Long> items = new ArrayList<>();
+    for (Preference preference : selectorConfiguration.getDataModel().getPreferencesFromUser(
+        targetUser)) {
+      items.add(preference.getItemID());
+    }
+    Optional<Long> seed = selectorConfiguration.getSeed();
+    Collections.shuffle(items, seed.isPresent() ? RandomUtils.getRandom(seed.get()) : RandomUtils
+        .getRandom());
+
+    // the first sample is divided by the rate as many times as the candidates can be divided
+    int testedNumber = items.size();
+    for (int candidateNumber = types.size(); 1 < candidateNumber; candidateNumber =
+        divideByRate(candidateNumber)) {
+      testedNumber /= HALVING_RATE;
+    }
+    testedNumber = Math.max(MIN_TESTED_PREFERENCES, testedNumber);
+
+    List<RecommenderType> candidates = types;
+    while (testedNumber < items.size() && 1 < candidates.size()) {
+      SelectorConfiguration roundConfiguration =
+          selectorConfiguration.restrictTestedItems(new HashSet<>(items.subList(0, testedNumber)));
+
+      List<RecommenderEvaluation> evaluations =
+          evaluateAll(candidates, minimumCoverage, roundConfiguration);
+      candidates =
+          retainBestTypes(evaluations, minimumCoverage, divideByRate(candidates.size()));
+
+      testedNumber *= HALVING_RATE;
+    }
+
+    // the last round is a complete evaluation
+    return evaluateAll(candidates, minimumCoverage, selectorConfiguration);
   }
 
   /**
    * Evaluates the given recommender. The recommender type must be part of the item-similarity based
    * family.
    */
-  private RecommenderEvaluation evaluateItemBased(RecommenderType type) throws TasteException {
+  private RecommenderEvaluation evaluateItemBased(RecommenderType type,
+      SelectorConfiguration evaluationConfiguration) throws TasteException {
     checkArgument(type.getFamily() == RecommenderFamily.ITEM_SIMILARITY_BASED);
 
-    ItemBasedRecommenderConfiguration configuration = new ItemBasedRecommenderConfiguration(type);
+    ItemBasedRecommenderConfiguration configuration =
+        new ItemBasedRecommenderConfiguration(type, evaluationConfiguration
+            .getItemPairStatistics().orNull(), evaluationConfiguration.reuseIsAllowed());
 
-    return evaluate(configuration, new ItemSimilarityRecommender(configuration));
+    return evaluate(configuration, new ItemSimilarityRecommender(configuration),
+        evaluationConfiguration);
   }
 
   /**
@@ -255,6 +481,41 @@ public class RecommenderSelector {
     evaluations.removeAll(rejectedEvaluations);
   }
 
+  /**
+   * Returns the recommender types of the best evaluations, at most the given number, from the best
+   * to the worst. The evaluations with a coverage lower than the given minimum are ignored. A type
+   * is ranked by its best evaluation. The types that are significantly worse than the best type are
+   * not returned.
+   */
+  private List<RecommenderType> retainBestTypes(List<RecommenderEvaluation> evaluations,
+      double minimumCoverage, int maxTypes) {
+    removeUnallowedCoverage(evaluations, minimumCoverage);
+    EvaluationComparator comparator = new EvaluationComparator(metric);
+
+    // keep the best evaluation of each type
+    Map<RecommenderType, RecommenderEvaluation> bestEvaluations = new LinkedHashMap<>();
+    for (RecommenderEvaluation evaluation : evaluations) {
+      RecommenderType type = evaluation.getRecommenderConfiguration().getType();
+      RecommenderEvaluation best = bestEvaluations.get(type);
+      if (best == null || comparator.compare(evaluation, best) < 0) {
+        bestEvaluations.put(type, evaluation);
+      }
+    }
+
+    List<RecommenderEvaluation> ranking = new ArrayList<>(bestEvaluations.values());
+    Collections.sort(ranking, comparator);
+
+    List<RecommenderType> result = new ArrayList<>();
+    for (RecommenderEvaluation evaluation : ranking) {
+      if (maxTypes <= result.size() || areSignificantlyDifferent(ranking.get(0), evaluation)) {
+        break;
+      }
+      result.add(evaluation.getRecommenderConfiguration().getType());
+    }
+
+    return result;
+  }
+
   /**
    * Returns the best recommender for the target user among available recommenders.
    */
@@ -271,6 +532,10 @@ public class RecommenderSelector {
    * <p>
    * The evaluations are compared with the given metric. The evaluations with a coverage lower than
    * the given one are ignored.
+   *
+   * <p>
+   * With the successive halving speed, the algorithms are first evaluated on samples of the
+   * preferences of the target user, and only the best ones are completely evaluated.
    */
   public Optional<RecommenderEvaluation> selectAmong(List<RecommenderType> types,
       double minimumCoverage) throws TasteException {
@@ -279,7 +544,12 @@ public class RecommenderSelector {
     checkArgument(0 <= minimumCoverage && minimumCoverage <= 1, "The minimum coverage must not be"
         + " lesser than 0 or greater than 1.");
 
-    List<RecommenderEvaluation> evaluations = evaluateAll(types, minimumCoverage);
+    List<RecommenderEvaluation> evaluations;
+    if (selectorConfiguration.getSpeed().isSuccessiveHalving()) {
+      evaluations = evaluateBySuccessiveHalving(types, minimumCoverage);
+    } else {
+      evaluations = evaluateAll(types, minimumCoverage);
+    }
     removeUnallowedCoverage(evaluations, minimumCoverage);
     retainBestEvaluations(evaluations);
 
@@ -16,37 +16,223 @@
  */
 package norbert.mynemo.core.selection;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+
+import norbert.mynemo.core.evaluation.EvaluationCache;
+import norbert.mynemo.core.evaluation.EvaluationReport;
+import norbert.mynemo.core.evaluation.MetricType;
+import norbert.mynemo.core.evaluation.NeighborhoodCurve;
 import norbert.mynemo.core.evaluation.PersonnalRecommenderEvaluator;
+import norbert.mynemo.core.evaluation.UserSimilarityBuilder;
+import norbert.mynemo.core.recommendation.configuration.RecommenderConfiguration;
+import norbert.mynemo.core.recommendation.similarity.ItemPairStatistics;
 import norbert.mynemo.core.selection.RecommenderSelector.SpeedOption;
 
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.eval.DataModelBuilder;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
 import org.apache.mahout.cf.taste.model.DataModel;
 
+import com.google.common.base.Optional;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
 /**
  * This class encapsulates the information shared between the different selectors. Instances of this
  * class are immutable.
+ *
+ * <p>
+ * The evaluators are not shared, because they keep the result of their last evaluation. Each
+ * evaluation task creates its own evaluator via {@link #createEvaluator()}. All evaluators share the
+ * same executor to evaluate their test sets, so that the number of test sets evaluated at the same
+ * time is bounded, whatever the number of evaluation tasks. Likewise, the candidates of the
+ * optimizers are evaluated by a shared executor, and the parallel factorizers of all evaluations
+ * share another executor. A task only waits for the tasks of the next executors: a candidate waits
+ * for test sets and factorizations, a test set waits for factorizations. Thus, the executors are
+ * distinct, and bounded without deadlock.
+ *
+ * <p>
+ * The evaluations can be restricted to some items of the target user, to evaluate the recommenders
+ * on a sample of the preferences. See {@link #restrictTestedItems(Set)}.
+ *
+ * <p>
+ * If a cache is given, the reports of the evaluations done by
+ * {@link #evaluate(RecommenderConfiguration, RecommenderBuilder)} and the curves computed by
+ * {@link #evaluateNeighborhoods(RecommenderConfiguration, UserSimilarityBuilder, int)} are stored
+ * in the cache, and an evaluation already in the cache is not done again. A seed must be given with
+ * a cache, so that the stored reports are based on the same test sets as the new ones.
  */
 class SelectorConfiguration {
 
+  /**
+   * Version of the computation of the evaluation reports, part of the keys of the cache. Each
+   * change that modifies the reports of the same evaluation, like a new factorizer, a new way to
+   * reuse the similarities or a new test set, must increase this version. Thus, the reports
+   * computed by the previous versions are never served.
+   */
+  private static final int EVALUATION_VERSION = 1;
+
+  /** Optional cache of the evaluation reports. */
+  private final Optional<EvaluationCache> cache;
+  /** Executor of the evaluations of the candidates of the optimizers. */
+  private final ExecutorService candidateExecutor;
   private final DataModel dataModel;
   private final DataModelBuilder dataModelBuilder;
   private final double evaluationPercentage;
-  private final PersonnalRecommenderEvaluator evaluator;
+  /** Executor of the tasks of the parallel factorizers. */
+  private final ExecutorService factorizationExecutor;
+  /** Statistics of the item pairs shared by the item-based evaluations, absent without reuse. */
+  private final Optional<ItemPairStatistics> itemPairStatistics;
+  private final MetricType metric;
   private final boolean reuseIsAllowed;
+  /** Seed of the evaluators, absent for a random seed. */
+  private final Optional<Long> seed;
   private final SpeedOption speed;
   private final long targetUser;
+  /** Items of the target user that are tested, absent if all items are tested. */
+  private final Optional<Set<Long>> testedItems;
+  private final ExecutorService testSetExecutor;
+  private final int threadNumber;
+
+  SelectorConfiguration(DataModel dataModel, long targetUser, MetricType metric,
+      double evaluationPercentage, boolean reuseIsAllowed, SpeedOption speed,
+      DataModelBuilder dataModelBuilder, ExecutorService candidateExecutor,
+      ExecutorService testSetExecutor, ExecutorService factorizationExecutor, int threadNumber,
+      Optional<EvaluationCache> cache, Optional<Long> seed) {
+    this(dataModel, targetUser, metric, evaluationPercentage, reuseIsAllowed, speed,
+        dataModelBuilder, candidateExecutor, testSetExecutor, factorizationExecutor,
+        threadNumber, cache, seed,
+        reuseIsAllowed ? Optional.of(new ItemPairStatistics(dataModel)) : Optional
+            .<ItemPairStatistics>absent(), Optional.<Set<Long>>absent());
+  }
+
+  private SelectorConfiguration(DataModel dataModel, long targetUser, MetricType metric,
+      double evaluationPercentage, boolean reuseIsAllowed, SpeedOption speed,
+      DataModelBuilder dataModelBuilder, ExecutorService candidateExecutor,
+      ExecutorService testSetExecutor, ExecutorService factorizationExecutor, int threadNumber,
+      Optional<EvaluationCache> cache, Optional<Long> seed,
+      Optional<ItemPairStatistics> itemPairStatistics, Optional<Set<Long>> testedItems) {
+    checkArgument(!cache.isPresent() || seed.isPresent(), "A seed must be given with a cache.");
 
-  SelectorConfiguration(DataModel dataModel, long targetUser,
-      PersonnalRecommenderEvaluator evaluator, double evaluationPercentage, boolean reuseIsAllowed,
-      SpeedOption speed, DataModelBuilder dataModelBuilder) throws TasteException {
+    this.cache = cache;
+    this.candidateExecutor = candidateExecutor;
     this.dataModel = dataModel;
     this.dataModelBuilder = dataModelBuilder;
-    this.evaluator = evaluator;
+    this.metric = metric;
     this.targetUser = targetUser;
     this.evaluationPercentage = evaluationPercentage;
+    this.factorizationExecutor = factorizationExecutor;
+    this.itemPairStatistics = itemPairStatistics;
     this.reuseIsAllowed = reuseIsAllowed;
+    this.seed = seed;
     this.speed = speed;
+    this.testedItems = testedItems;
+    this.testSetExecutor = testSetExecutor;
+    this.threadNumber = threadNumber;
+  }
+
+  /**
+   * Returns a new evaluator for the target user. The evaluator must be used by only one thread.
+   */
+  public PersonnalRecommenderEvaluator createEvaluator() {
+    return new PersonnalRecommenderEvaluator(targetUser, metric, speed.isExhaustive(),
+        testSetExecutor, testedItems, seed);
+  }
+
+  /**
+   * Evaluates the given recommender with a new evaluator, and returns the report. If the cache
+   * contains the report of the same evaluation, this report is returned without evaluating.
+   * Otherwise, the new report is stored in the cache.
+   */
+  public EvaluationReport evaluate(RecommenderConfiguration recommenderConfiguration,
+      RecommenderBuilder recommenderBuilder) throws TasteException {
+    String key = getCacheKey(recommenderConfiguration);
+
+    try {
+      if (cache.isPresent()) {
+        Optional<EvaluationReport> cachedReport = cache.get().get(key);
+        if (cachedReport.isPresent()) {
+          return cachedReport.get();
+        }
+      }
+
+      PersonnalRecommenderEvaluator evaluator = createEvaluator();
+      evaluator.evaluate(recommenderBuilder, dataModelBuilder, dataModel,
+          speed.getTrainingPercentage(), evaluationPercentage);
+      EvaluationReport result = evaluator.getEvaluationReport();
+
+      if (cache.isPresent()) {
+        cache.get().put(key, result);
+      }
+
+      return result;
+    } catch (IOException e) {
+      throw new TasteException(e);
+    }
+  }
+
+  /**
+   * Evaluates the given user-based recommender for all neighborhood sizes from 1 to the given
+   * maximum with a new evaluator, and returns the curve. The given configuration identifies the
+   * curve in the cache. If the cache contains the same curve, this curve is returned without
+   * evaluating. Otherwise, the new curve is stored in the cache.
+   */
+  public NeighborhoodCurve evaluateNeighborhoods(RecommenderConfiguration recommenderConfiguration,
+      UserSimilarityBuilder similarityBuilder, int maxNeighbors) throws TasteException {
+    String key = getCacheKey(recommenderConfiguration);
+
+    try {
+      if (cache.isPresent()) {
+        Optional<NeighborhoodCurve> cachedCurve = cache.get().getCurve(key);
+        if (cachedCurve.isPresent()) {
+          return cachedCurve.get();
+        }
+      }
+
+      NeighborhoodCurve result =
+          createEvaluator().evaluateNeighborhoods(similarityBuilder, maxNeighbors,
+              dataModelBuilder, dataModel, speed.getTrainingPercentage(), evaluationPercentage);
+
+      if (cache.isPresent()) {
+        cache.get().putCurve(key, result);
+      }
+
+      return result;
+    } catch (IOException e) {
+      throw new TasteException(e);
+    }
+  }
+
+  /**
+   * Returns the key of the evaluation of the given recommender in the cache. The key contains all
+   * parameters that change the report, including the version of the evaluation algorithms. The
+   * data model is identified by the cache itself.
+   */
+  private String getCacheKey(RecommenderConfiguration recommenderConfiguration) {
+    String tested = "all";
+    if (testedItems.isPresent()) {
+      Hasher hasher = Hashing.murmur3_128().newHasher();
+      for (long item : new TreeSet<>(testedItems.get())) {
+        hasher.putLong(item);
+      }
+      tested = hasher.hash().toString();
+    }
+
+    return "version=" + EVALUATION_VERSION + " user=" + targetUser + " speed=" + speed.name()
+        + " evaluation=" + evaluationPercentage + " seed=" + seed.orNull() + " tested=" + tested
+        + " recommender=" + recommenderConfiguration;
+  }
+
+  /**
+   * Returns the executor shared by the optimizers to evaluate their candidates.
+   */
+  public ExecutorService getCandidateExecutor() {
+    return candidateExecutor;
   }
 
   public DataModel getDataModel() {
@@ -61,18 +247,55 @@ class SelectorConfiguration {
     return evaluationPercentage;
   }
 
-  public PersonnalRecommenderEvaluator getEvaluator() {
-    return evaluator;
+  /**
+   * Returns the executor shared by the parallel factorizers. Its tasks never wait for other tasks.
+   */
+  public ExecutorService getFactorizationExecutor() {
+    return factorizationExecutor;
+  }
+
+  public MetricType getMetric() {
+    return metric;
+  }
+
+  public Optional<Long> getSeed() {
+    return seed;
   }
 
   public SpeedOption getSpeed() {
     return speed;
   }
 
+  /**
+   * Returns the statistics of the item pairs of the data model, shared by the item-based
+   * evaluations. The statistics are present only if the reuse is allowed.
+   */
+  public Optional<ItemPairStatistics> getItemPairStatistics() {
+    return itemPairStatistics;
+  }
+
   public long getTargetUser() {
     return targetUser;
   }
 
+  /**
+   * Returns the number of threads of each shared executor. It bounds each stage of the evaluations,
+   * not the total number of threads.
+   */
+  public int getThreadNumber() {
+    return threadNumber;
+  }
+
+  /**
+   * Returns a copy of this configuration whose evaluators only test the preferences of the target
+   * user on the given items.
+   */
+  public SelectorConfiguration restrictTestedItems(Set<Long> items) {
+    return new SelectorConfiguration(dataModel, targetUser, metric, evaluationPercentage,
+        reuseIsAllowed, speed, dataModelBuilder, candidateExecutor, testSetExecutor,
+        factorizationExecutor, threadNumber, cache, seed, itemPairStatistics, Optional.of(items));
+  }
+
   public boolean reuseIsAllowed() {
     return reuseIsAllowed;
   }
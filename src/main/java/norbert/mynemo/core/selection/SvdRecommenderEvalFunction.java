@@ -18,22 +18,23 @@ package norbert.mynemo.core.selection;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
 
-import norbert.mynemo.core.evaluation.PersonnalRecommenderEvaluator;
+import norbert.mynemo.core.evaluation.EvaluationReport;
 import norbert.mynemo.core.recommendation.RecommenderFamily;
 import norbert.mynemo.core.recommendation.RecommenderType;
 import norbert.mynemo.core.recommendation.configuration.SvdBasedRecommenderConfiguration;
+import norbert.mynemo.core.recommendation.recommender.IterationListener;
 import norbert.mynemo.core.recommendation.recommender.SvdBasedRecommender;
 
 import org.apache.commons.math3.analysis.MultivariateFunction;
 import org.apache.mahout.cf.taste.common.TasteException;
-import org.apache.mahout.cf.taste.eval.DataModelBuilder;
 import org.apache.mahout.cf.taste.model.DataModel;
 
 /**
@@ -47,6 +48,16 @@ import org.apache.mahout.cf.taste.model.DataModel;
  * minimum coverage produces a worst value than an evaluation with an acceptable coverage.
  *
  * <p>
+ * This function is thread-safe: each evaluation uses its own evaluator, and the results are
+ * cached by the {@link RecommenderEvalFunction#cachedValue(Long, Callable)} method.
+ *
+ * <p>
+ * If the reuse is allowed and the factorizer of the type provides a snapshot after each iteration,
+ * a single training evaluates all smaller numbers of iterations, and their results are also cached.
+ * Only the measured values are cached: the training goes up to the requested number of
+ * iterations.
+ *
+ * <p>
  * Because this class implements the {@link MultivariateFunction}, it can be used by a
  * {@link org.apache.commons.math3.optim.nonlinear.scalar.MultivariateOptimizer
  * MultivariateOptimizer}.
@@ -61,14 +72,10 @@ class SvdRecommenderEvalFunction extends RecommenderEvalFunction implements Mult
     return (((long) numFeatures) << 32) | numIterations;
   }
 
-  private final Map<Long, Double> cache;
   private final DataModel dataModel;
-  private final DataModelBuilder dataModelBuilder;
-  private final double evaluationPercentage;
   private final List<RecommenderEvaluation> evaluations;
-  private final PersonnalRecommenderEvaluator evaluator;
   private final boolean reuseIsAllowed;
-  private final double trainingPercentage;
+  private final SelectorConfiguration selectorConfiguration;
   private final RecommenderType type;
 
   /**
@@ -82,65 +89,108 @@ class SvdRecommenderEvalFunction extends RecommenderEvalFunction implements Mult
     checkArgument(type.getFamily() == RecommenderFamily.SVD_BASED);
 
     this.type = type;
+    selectorConfiguration = configuration;
 
     // extract the necessary data from the configuration
     dataModel = configuration.getDataModel();
-    dataModelBuilder = configuration.getDataModelBuilder();
-    evaluationPercentage = configuration.getEvaluationPercentage();
-    evaluator = configuration.getEvaluator();
     reuseIsAllowed = configuration.reuseIsAllowed();
-    trainingPercentage = configuration.getSpeed().getTrainingPercentage();
 
-    evaluations = new ArrayList<>();
-    cache = new HashMap<>();
+    evaluations = Collections.synchronizedList(new ArrayList<RecommenderEvaluation>());
   }
 
   /**
-   * Returns all evaluations performed.
+   * Evaluates the given recommender, and returns the value of the metric, or a value depending on
+   * the coverage if the minimum coverage is not reached.
    */
-  public Collection<RecommenderEvaluation> getEvaluations() {
-    return evaluations;
-  }
+  private double evaluate(SvdBasedRecommenderConfiguration configuration,
+      SvdBasedRecommender recommenderBuilder) throws TasteException {
+    // run the evaluation
+    EvaluationReport report = selectorConfiguration.evaluate(configuration, recommenderBuilder);
 
-  @Override
-  public double value(double[] point) {
-    int numFeatures = (int) Math.round(point[0]);
-    int numIterations = (int) Math.round(point[1]);
-    Long cacheKey = generateUniqueKey(numFeatures, numIterations);
+    // save the evaluation and prepare the result
+    evaluations.add(new RecommenderEvaluation(configuration, report));
 
-    // check the cache
-    if (cache.containsKey(cacheKey)) {
-      return cache.get(cacheKey);
+    double result = report.getValue(selectorConfiguration.getMetric());
+    double coverage = report.getCoverage();
+    if (coverage < getMinimumCoverage()) {
+      // if the minimum coverage is not reached, the return value depends on the coverage instead
+      // of the number of neighbors
+      result = valueFromCoverage(coverage);
     }
 
+    return result;
+  }
+
+  /**
+   * Evaluates the recommender with the given numbers of features and iterations.
+   */
+  private double evaluate(int numFeatures, int numIterations) {
     // initialize the data for the evaluation
     SvdBasedRecommenderConfiguration configuration =
         new SvdBasedRecommenderConfiguration(type, numFeatures, numIterations, dataModel,
-            reuseIsAllowed);
-    SvdBasedRecommender recommenderBuilder = new SvdBasedRecommender(configuration);
+            selectorConfiguration.getTargetUser(), reuseIsAllowed);
+    SvdBasedRecommender recommenderBuilder =
+        new SvdBasedRecommender(configuration, selectorConfiguration.getFactorizationExecutor(),
+            selectorConfiguration.getThreadNumber(), selectorConfiguration.getSeed());
 
-    // run the evaluation
-    double result = 0;
     try {
-      result =
-          evaluator.evaluate(recommenderBuilder, dataModelBuilder, dataModel, trainingPercentage,
-              evaluationPercentage);
+      if (reuseIsAllowed && SvdBasedRecommender.supportsIterationSnapshots(type)) {
+        return evaluateIterations(recommenderBuilder);
+      }
+      return evaluate(configuration, recommenderBuilder);
     } catch (TasteException e) {
       throw new RuntimeException(e);
     }
+  }
 
-    // save the evaluation and prepare the result
-    evaluations.add(new RecommenderEvaluation(configuration, evaluator.getEvaluationReport()));
-
-    double coverage = evaluator.getEvaluationReport().getCoverage();
-    if (coverage < getMinimumCoverage()) {
-      // if the minimum coverage is not reached, the return value depends on the coverage instead
-      // of the number of neighbors
-      result = valueFromCoverage(coverage);
+  /**
+   * Evaluates the given recommender for all numbers of iterations up to the number of its
+   * configuration, from a single training. The values of the smaller numbers of iterations are
+   * cached, and the value of the number of the configuration is returned.
+   *
+   * <p>
+   * The training is never stopped before the number of iterations of the configuration, even if
+   * the value gets worse. Thus, each cached value has really been measured.
+   */
+  private double evaluateIterations(SvdBasedRecommender recommenderBuilder) throws TasteException {
+    final List<Double> values = new ArrayList<>();
+
+    recommenderBuilder.trainIterations(new IterationListener<SvdBasedRecommender>() {
+      @Override
+      public boolean iterationDone(int iteration, SvdBasedRecommender result)
+          throws TasteException {
+        values.add(evaluate(result.getConfiguration(), result));
+        return true;
+      }
+    });
+
+    int numFeatures = recommenderBuilder.getConfiguration().getFeatureNumber();
+    int numIterations = recommenderBuilder.getConfiguration().getIterationNumber();
+    checkState(values.size() == numIterations, "The training must provide all iterations.");
+    for (int iterations = 1; iterations < numIterations; iterations++) {
+      cacheValue(generateUniqueKey(numFeatures, iterations), values.get(iterations - 1));
     }
 
-    cache.put(cacheKey, result);
+    return values.get(numIterations - 1);
+  }
 
-    return result;
+  /**
+   * Returns all evaluations performed.
+   */
+  public Collection<RecommenderEvaluation> getEvaluations() {
+    return evaluations;
+  }
+
+  @Override
+  public double value(double[] point) {
+    final int numFeatures = (int) Math.round(point[0]);
+    final int numIterations = (int) Math.round(point[1]);
+
+    return cachedValue(generateUniqueKey(numFeatures, numIterations), new Callable<Double>() {
+      @Override
+      public Double call() {
+        return evaluate(numFeatures, numIterations);
+      }
+    });
   }
 }
@@ -24,13 +24,7 @@ import norbert.mynemo.core.recommendation.RecommenderFamily;
 import norbert.mynemo.core.recommendation.RecommenderType;
 
 import org.apache.commons.math3.optim.ConvergenceChecker;
-import org.apache.commons.math3.optim.InitialGuess;
-import org.apache.commons.math3.optim.MaxEval;
 import org.apache.commons.math3.optim.PointValuePair;
-import org.apache.commons.math3.optim.SimpleBounds;
-import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
-import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
-import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.CMAESOptimizer;
 import org.apache.commons.math3.random.JDKRandomGenerator;
 import org.apache.mahout.cf.taste.common.TasteException;
 
@@ -39,9 +33,13 @@ import org.apache.mahout.cf.taste.common.TasteException;
  * features and iterations are tested.
  */
 class SvdRecommenderSelector {
+  private static final boolean CMAES_ACTIVE = true;
+  private static final int CMAES_DIAGONAL_ONLY = 2;
   private static final int CMAES_MAX_ITERATIONS = 40;
+  private static final int CMAES_POPULATION_SIZE = 16;
   private static final int CMAES_SIGMA_FEATURE = 350;
   private static final int CMAES_SIGMA_ITERATION = 1;
+  private static final double CMAES_STOP_FITNESS = 1.0;
   private static final int INITIAL_GUESS_FEATURES = 400;
   private static final int INITIAL_GUESS_ITERATIONS = 2;
   private static final int MAX_SVD_FEATURES = 800;
@@ -59,7 +57,8 @@ class SvdRecommenderSelector {
    * Evaluates the given recommender type for several configurations. The number of iterations and
    * the number of features for each evaluation is chosen via an optimizer. The number of evaluation
    * performed depends of the number of steps necessary for the evaluation results to converge. The
-   * number of evaluations performed is also bounded by an internal maximum.
+   * number of evaluations performed is also bounded by an internal maximum. The configurations of
+   * a generation of the optimizer are evaluated at the same time.
    *
    * <p>
    * The given recommender type must be part of the SVD based family.
@@ -74,25 +73,23 @@ class SvdRecommenderSelector {
         new MaxIterationChecker<PointValuePair>(CMAES_MAX_ITERATIONS);
     SvdRecommenderEvalFunction function =
         new SvdRecommenderEvalFunction(configuration, type, minimumCoverage);
-    ObjectiveFunction objectiveFunction = new ObjectiveFunction(function);
-    CMAESOptimizer optimizer =
-        new CMAESOptimizer(CMAES_MAX_ITERATIONS, 1.0, true, 2, 0, new JDKRandomGenerator(), false,
-            checker);
+    // the candidates are drawn from the seed of the selection, if any
+    JDKRandomGenerator random = new JDKRandomGenerator();
+    if (configuration.getSeed().isPresent()) {
+      random.setSeed(configuration.getSeed().get());
+    }
+    ParallelCmaesOptimizer optimizer =
+        new ParallelCmaesOptimizer(CMAES_MAX_ITERATIONS, CMAES_STOP_FITNESS, CMAES_ACTIVE,
+            CMAES_DIAGONAL_ONLY, CMAES_POPULATION_SIZE, random, checker,
+            configuration.getCandidateExecutor());
 
-    MaxEval maxEval = MaxEval.unlimited();
-    GoalType goalType = GoalType.MINIMIZE;
-    SimpleBounds bounds =
-        new SimpleBounds(new double[] {MIN_SVD_FEATURES, MIN_SVD_ITERATIONS}, new double[] {
-            MAX_SVD_FEATURES, MAX_SVD_ITERATIONS});
-    InitialGuess initialGuess =
-        new InitialGuess(new double[] {INITIAL_GUESS_FEATURES, INITIAL_GUESS_ITERATIONS});
-    CMAESOptimizer.PopulationSize populationSize = new CMAESOptimizer.PopulationSize(16);
-    CMAESOptimizer.Sigma sigma =
-        new CMAESOptimizer.Sigma(new double[] {CMAES_SIGMA_FEATURE, CMAES_SIGMA_ITERATION});
+    double[] lowerBounds = new double[] {MIN_SVD_FEATURES, MIN_SVD_ITERATIONS};
+    double[] upperBounds = new double[] {MAX_SVD_FEATURES, MAX_SVD_ITERATIONS};
+    double[] initialGuess = new double[] {INITIAL_GUESS_FEATURES, INITIAL_GUESS_ITERATIONS};
+    double[] sigma = new double[] {CMAES_SIGMA_FEATURE, CMAES_SIGMA_ITERATION};
 
     // run the optimizer
-    optimizer.optimize(objectiveFunction, goalType, initialGuess, populationSize, sigma, bounds,
-        maxEval);
+    optimizer.optimize(function, initialGuess, sigma, lowerBounds, upperBounds);
 
     return function.getEvaluations();
   }
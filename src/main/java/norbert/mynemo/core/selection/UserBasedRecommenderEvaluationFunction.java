@@ -21,11 +21,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
 
-import norbert.mynemo.core.evaluation.PersonnalRecommenderEvaluator;
+import norbert.mynemo.core.evaluation.EvaluationReport;
 import norbert.mynemo.core.recommendation.RecommenderFamily;
 import norbert.mynemo.core.recommendation.RecommenderType;
 import norbert.mynemo.core.recommendation.configuration.UserBasedRecommenderConfiguration;
@@ -34,7 +34,6 @@ import norbert.mynemo.core.recommendation.recommender.UserSimilarityRecommender;
 import org.apache.commons.math3.analysis.MultivariateFunction;
 import org.apache.commons.math3.analysis.UnivariateFunction;
 import org.apache.mahout.cf.taste.common.TasteException;
-import org.apache.mahout.cf.taste.eval.DataModelBuilder;
 import org.apache.mahout.cf.taste.model.DataModel;
 
 /**
@@ -49,20 +48,20 @@ import org.apache.mahout.cf.taste.model.DataModel;
  * minimum coverage produces the value {code Double.MAX_VALUE}.
  *
  * <p>
+ * This function is thread-safe: each evaluation uses its own evaluator, and the results are
+ * cached by the {@link RecommenderEvalFunction#cachedValue(Long, Callable)} method.
+ *
+ * <p>
  * Because this class implements the {@link UnivariateFunction}, it can be used by a
  * {@link org.apache.commons.math3.optim.univariate.UnivariateOptimizer UnivariateOptimizer}.
  */
 class UserBasedRecommenderEvaluationFunction extends RecommenderEvalFunction implements
     UnivariateFunction, MultivariateFunction {
 
-  private final Map<Integer, Double> cachedResults;
   private final DataModel dataModel;
-  private final DataModelBuilder dataModelBuilder;
-  private final double evaluationPercentage;
   private final List<RecommenderEvaluation> evaluations;
-  private final PersonnalRecommenderEvaluator evaluator;
   private final boolean reuseIsAllowed;
-  private final double trainingPercentage;
+  private final SelectorConfiguration selectorConfiguration;
   private final RecommenderType type;
 
   /**
@@ -76,62 +75,63 @@ class UserBasedRecommenderEvaluationFunction extends RecommenderEvalFunction imp
     checkArgument(type.getFamily() == RecommenderFamily.USER_SIMILARITY_BASED);
 
     this.type = type;
+    selectorConfiguration = configuration;
 
     // extract the necessary data from the configuration
     dataModel = configuration.getDataModel();
-    dataModelBuilder = configuration.getDataModelBuilder();
-    evaluationPercentage = configuration.getEvaluationPercentage();
-    evaluator = configuration.getEvaluator();
     reuseIsAllowed = configuration.reuseIsAllowed();
-    trainingPercentage = configuration.getSpeed().getTrainingPercentage();
 
-    cachedResults = new HashMap<>();
-    evaluations = new ArrayList<>();
+    evaluations = Collections.synchronizedList(new ArrayList<RecommenderEvaluation>());
   }
 
-  public Collection<RecommenderEvaluation> getEvaluations() {
-    return evaluations;
-  }
-
-  @Override
-  public double value(double doubleNumNeighbors) {
-
-    int numNeighbors = (int) Math.round(doubleNumNeighbors);
-
-    if (cachedResults.containsKey(numNeighbors)) {
-      return cachedResults.get(numNeighbors);
-    }
-
+  /**
+   * Evaluates the recommender with the given number of neighbors.
+   */
+  private double evaluate(int numNeighbors) {
     // initialize the data for the evaluation
     UserBasedRecommenderConfiguration configuration =
         new UserBasedRecommenderConfiguration(type, numNeighbors, dataModel, reuseIsAllowed);
     UserSimilarityRecommender recommenderBuilder = new UserSimilarityRecommender(configuration);
 
     // run the evaluation
-    double result = 0;
+    EvaluationReport report;
     try {
-      result =
-          evaluator.evaluate(recommenderBuilder, dataModelBuilder, dataModel, trainingPercentage,
-              evaluationPercentage);
+      report = selectorConfiguration.evaluate(configuration, recommenderBuilder);
     } catch (TasteException e) {
       throw new RuntimeException(e);
     }
 
     // save the evaluation and prepare the result
-    evaluations.add(new RecommenderEvaluation(configuration, evaluator.getEvaluationReport()));
+    evaluations.add(new RecommenderEvaluation(configuration, report));
 
-    double coverage = evaluator.getEvaluationReport().getCoverage();
+    double result = report.getValue(selectorConfiguration.getMetric());
+    double coverage = report.getCoverage();
     if (coverage < getMinimumCoverage()) {
       // if the minimum coverage is not reached, the return value depends on the coverage instead
       // of the number of neighbors
       result = valueFromCoverage(coverage);
     }
 
-    cachedResults.put(numNeighbors, result);
-
     return result;
   }
 
+  public Collection<RecommenderEvaluation> getEvaluations() {
+    return evaluations;
+  }
+
+  @Override
+  public double value(double doubleNumNeighbors) {
+
+    final int numNeighbors = (int) Math.round(doubleNumNeighbors);
+
+    return cachedValue((long) numNeighbors, new Callable<Double>() {
+      @Override
+      public Double call() {
+        return evaluate(numNeighbors);
+      }
+    });
+  }
+
   @Override
   public double value(double[] point) {
     return value(point[0]);
@@ -20,18 +20,12 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 import java.util.Collection;
 
+import norbert.mynemo.core.evaluation.NeighborhoodCurve;
 import norbert.mynemo.core.recommendation.RecommenderFamily;
 import norbert.mynemo.core.recommendation.RecommenderType;
+import norbert.mynemo.core.recommendation.configuration.UserBasedRecommenderConfiguration;
+import norbert.mynemo.core.recommendation.recommender.UserSimilarityRecommender;
 
-import org.apache.commons.math3.optim.ConvergenceChecker;
-import org.apache.commons.math3.optim.InitialGuess;
-import org.apache.commons.math3.optim.MaxEval;
-import org.apache.commons.math3.optim.PointValuePair;
-import org.apache.commons.math3.optim.SimpleBounds;
-import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
-import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
-import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.CMAESOptimizer;
-import org.apache.commons.math3.random.JDKRandomGenerator;
 import org.apache.mahout.cf.taste.common.TasteException;
 
 /**
@@ -45,15 +39,17 @@ class UserRecommenderSelector {
   public UserRecommenderSelector(SelectorConfiguration configuration) throws TasteException {
     this.configuration = configuration;
     maxNeighbors =
-        (int) (configuration.getDataModel().getNumUsers() * configuration.getEvaluationPercentage() * configuration
-            .getSpeed().getTrainingPercentage());
+        Math.max(1, (int) (configuration.getDataModel().getNumUsers()
+            * configuration.getEvaluationPercentage() * configuration.getSpeed()
+            .getTrainingPercentage()));
   }
 
   /**
-   * Evaluates the given recommender type for several configurations. The number of neighbors for
-   * each evaluation is chosen via an optimizer. The number of evaluation performed depends of the
-   * number of steps necessary for the evaluation results to converge. The number of evaluations
-   * performed is also bounded by an internal maximum.
+   * Evaluates the given recommender type for the best number of neighbors. First, the errors for
+   * all numbers of neighbors are computed at once by the evaluator. Then, the number of neighbors
+   * with the best metric and an acceptable coverage is evaluated like any other recommender. If no
+   * number of neighbors reaches the minimum coverage, the largest number is evaluated, because it
+   * has the largest coverage.
    *
    * <p>
    * The given recommender type must be part of the user similarity based family.
@@ -65,57 +61,29 @@ class UserRecommenderSelector {
     checkArgument(0 <= minimumCoverage && minimumCoverage <= 1, "The minimum coverage must be"
         + "between 0 and 1.");
 
-    final UserBasedRecommenderEvaluationFunction function =
+    UserBasedRecommenderEvaluationFunction function =
         new UserBasedRecommenderEvaluationFunction(configuration, type, minimumCoverage);
 
-    // find a good initial guess: test 10%, 20%… 90% of maximum neighbors
-    double secondBestInitialValue = 1;
-    double bestInitialValue = 0;
-    double bestEvalResult = Integer.MAX_VALUE;
-    for (double factor = 0.1; factor <= 0.9; factor += 0.1) {
-      double currentNumNeighbors = maxNeighbors * factor;
-      double evalResult = function.value(currentNumNeighbors);
-      if (evalResult < bestEvalResult) {
-        bestEvalResult = evalResult;
-        secondBestInitialValue = bestInitialValue;
-        bestInitialValue = currentNumNeighbors;
-      }
-    }
-
-    // initialize the quality parameters of the CMAES optimizer
-    final double minNeighbors = 1;
-    final double initialGuessNeighbors = bestInitialValue;
-    final double sigmaNeighbors =
-        Math.min(Math.abs(bestInitialValue - secondBestInitialValue),
-            Math.min(maxNeighbors - bestInitialValue, bestInitialValue - 1));
-    // not sure about that
-    final int populationSize = (int) (Math.log10(maxNeighbors) / Math.log10(2));
-    // inhibit the exception throw if the maximum number of evaluation is reached
-    final int maxCmaesEvaluations = Integer.MAX_VALUE;
-    // not sure about that
-    final int maxCmaesIterations = (int) (Math.log10(maxNeighbors) / Math.log10(2));
+    // the number of neighbors of the configuration is not used by the similarity, but it identifies
+    // the curve in the cache
+    UserBasedRecommenderConfiguration curveConfiguration =
+        new UserBasedRecommenderConfiguration(type, maxNeighbors, configuration.getDataModel(),
+            configuration.reuseIsAllowed());
+    UserSimilarityRecommender similarityBuilder = new UserSimilarityRecommender(curveConfiguration);
 
-    // initialize the other parameters
-    final ConvergenceChecker<PointValuePair> checker = new MaxIterationChecker<PointValuePair>(20);
-    final ObjectiveFunction objectiveFunction = new ObjectiveFunction(function);
-    final CMAESOptimizer optimizer =
-        new CMAESOptimizer(maxCmaesIterations, 1.0, true, 0, 0, new JDKRandomGenerator(), false,
-            checker);
-
-    final MaxEval maxEval = new MaxEval(maxCmaesEvaluations);
-    final GoalType goalType = GoalType.MINIMIZE;
-    final SimpleBounds bounds =
-        new SimpleBounds(new double[] {minNeighbors, minNeighbors}, new double[] {maxNeighbors,
-            maxNeighbors});
-    final InitialGuess initialGuess =
-        new InitialGuess(new double[] {initialGuessNeighbors, initialGuessNeighbors});
-    final CMAESOptimizer.PopulationSize popSize =
-        new CMAESOptimizer.PopulationSize((populationSize));
-    final CMAESOptimizer.Sigma sigma =
-        new CMAESOptimizer.Sigma(new double[] {sigmaNeighbors, sigmaNeighbors});
+    // compute the errors for all numbers of neighbors
+    NeighborhoodCurve curve;
+    try {
+      curve =
+          configuration.evaluateNeighborhoods(curveConfiguration, similarityBuilder, maxNeighbors);
+    } catch (TasteException e) {
+      throw new RuntimeException(e);
+    }
 
-    // run the optimizer
-    optimizer.optimize(objectiveFunction, goalType, initialGuess, popSize, sigma, bounds, maxEval);
+    // evaluate the best number of neighbors
+    int bestNeighbors =
+        curve.getBestNeighborNumber(configuration.getMetric(), minimumCoverage).or(maxNeighbors);
+    function.value(bestNeighbors);
 
     return function.getEvaluations();
   }
@@ -0,0 +1,454 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.dataimport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.AbstractDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * This data model stores the preferences in primitive arrays. The users and the items are mapped
+ * to dense indexes, that are their positions in the sorted arrays of ids. The preferences are
+ * stored twice in the compressed sparse row format: by user and by item. The ids are only
+ * translated at the boundary of the {@link DataModel} interface.
+ *
+ * <p>
+ * The rows are sorted by index, thus the lookup of a preference is a binary search, and the
+ * intersection of two rows is a merge. The rows are also available to the classes of this package,
+ * like the {@link SnapshotWriter} that writes them without looking up each id.
+ *
+ * <p>
+ * This data model is read-only.
+ */
+public class CompactDataModel extends AbstractDataModel {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Returns a new data model containing the preferences of the given data model.
+   */
+  static CompactDataModel copyOf(DataModel dataModel) throws TasteException {
+    checkNotNull(dataModel);
+
+    int length = 0;
+    LongPrimitiveIterator iterator = dataModel.getUserIDs();
+    while (iterator.hasNext()) {
+      length += dataModel.getPreferencesFromUser(iterator.nextLong()).length();
+    }
+
+    long[] users = new long[length];
+    long[] items = new long[length];
+    float[] values = new float[length];
+    int index = 0;
+    iterator = dataModel.getUserIDs();
+    while (iterator.hasNext()) {
+      long user = iterator.nextLong();
+      PreferenceArray preferences = dataModel.getPreferencesFromUser(user);
+      for (int i = 0; i < preferences.length(); i++) {
+        users[index] = user;
+        items[index] = preferences.getItemID(i);
+        values[index] = preferences.getValue(i);
+        index++;
+      }
+    }
+
+    return new CompactDataModel(users, items, values, length);
+  }
+
+  /**
+   * Returns the sorted distinct values of the first elements of the given array.
+   */
+  private static long[] toSortedDistinct(long[] ids, int length) {
+    long[] sorted = Arrays.copyOf(ids, length);
+    Arrays.sort(sorted);
+
+    int size = 0;
+    for (int index = 0; index < length; index++) {
+      if (size == 0 || sorted[size - 1] != sorted[index]) {
+        sorted[size++] = sorted[index];
+      }
+    }
+
+    return Arrays.copyOf(sorted, size);
+  }
+
+  private final long[] itemIds;
+  private final int[] itemOffsets;
+  private final int[] itemUserIndexes;
+  private final float[] itemValues;
+  private final long[] userIds;
+  private final int[] userItemIndexes;
+  private final int[] userOffsets;
+  private final float[] userValues;
+
+  /**
+   * Builds a data model from the first <code>length</code> preferences of the given arrays. The
+   * i<sup>th</sup> preference is made of the i<sup>th</sup> element of each array. If several
+   * preferences have the same user and item, the last one is retained.
+   *
+   * @param users user ids of the preferences
+   * @param items item ids of the preferences
+   * @param values values of the preferences
+   * @param length number of preferences
+   */
+  public CompactDataModel(long[] users, long[] items, float[] values, int length) {
+    checkArgument(0 <= length && length <= users.length && length <= items.length
+        && length <= values.length, "The length must be a valid length of the arrays.");
+
+    userIds = toSortedDistinct(users, length);
+    itemIds = toSortedDistinct(items, length);
+
+    // the raw preferences are grouped by item, the input order is kept inside a group
+    int[] rawOffsets = new int[itemIds.length + 1];
+    int[] rawItemIndexes = new int[length];
+    for (int index = 0; index < length; index++) {
+      rawItemIndexes[index] = Arrays.binarySearch(itemIds, items[index]);
+      rawOffsets[rawItemIndexes[index] + 1]++;
+    }
+    for (int index = 0; index < itemIds.length; index++) {
+      rawOffsets[index + 1] += rawOffsets[index];
+    }
+    int[] rawOrder = new int[length];
+    int[] nextPositions = Arrays.copyOf(rawOffsets, itemIds.length);
+    for (int index = 0; index < length; index++) {
+      rawOrder[nextPositions[rawItemIndexes[index]]++] = index;
+    }
+
+    // the grouped preferences are dispatched by user, the rows are thus sorted by item
+    int[] rawUserOffsets = new int[userIds.length + 1];
+    int[] rawUserIndexes = new int[length];
+    for (int index = 0; index < length; index++) {
+      rawUserIndexes[index] = Arrays.binarySearch(userIds, users[index]);
+      rawUserOffsets[rawUserIndexes[index] + 1]++;
+    }
+    for (int index = 0; index < userIds.length; index++) {
+      rawUserOffsets[index + 1] += rawUserOffsets[index];
+    }
+    int[] rawUserItems = new int[length];
+    float[] rawUserValues = new float[length];
+    nextPositions = Arrays.copyOf(rawUserOffsets, userIds.length);
+    for (int rawIndex : rawOrder) {
+      int position = nextPositions[rawUserIndexes[rawIndex]]++;
+      rawUserItems[position] = rawItemIndexes[rawIndex];
+      rawUserValues[position] = values[rawIndex];
+    }
+
+    // the duplicates are adjacent in a row, only the last one is retained
+    userOffsets = new int[userIds.length + 1];
+    int size = 0;
+    for (int user = 0; user < userIds.length; user++) {
+      int end = rawUserOffsets[user + 1];
+      for (int index = rawUserOffsets[user]; index < end; index++) {
+        if (index + 1 < end && rawUserItems[index + 1] == rawUserItems[index]) {
+          continue;
+        }
+        rawUserItems[size] = rawUserItems[index];
+        rawUserValues[size] = rawUserValues[index];
+        size++;
+      }
+      userOffsets[user + 1] = size;
+    }
+    userItemIndexes = Arrays.copyOf(rawUserItems, size);
+    userValues = Arrays.copyOf(rawUserValues, size);
+
+    // the preferences by item are built from the preferences by user, the rows are sorted by user
+    itemOffsets = new int[itemIds.length + 1];
+    for (int index = 0; index < size; index++) {
+      itemOffsets[userItemIndexes[index] + 1]++;
+    }
+    for (int index = 0; index < itemIds.length; index++) {
+      itemOffsets[index + 1] += itemOffsets[index];
+    }
+    itemUserIndexes = new int[size];
+    itemValues = new float[size];
+    nextPositions = Arrays.copyOf(itemOffsets, itemIds.length);
+    for (int user = 0; user < userIds.length; user++) {
+      for (int index = userOffsets[user]; index < userOffsets[user + 1]; index++) {
+        int position = nextPositions[userItemIndexes[index]]++;
+        itemUserIndexes[position] = user;
+        itemValues[position] = userValues[index];
+      }
+    }
+
+    // extreme values
+    float min = Float.POSITIVE_INFINITY;
+    float max = Float.NEGATIVE_INFINITY;
+    for (float value : userValues) {
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+    }
+    setMinPreference(min);
+    setMaxPreference(max);
+  }
+
+  /**
+   * Returns the id of the item at the given index.
+   */
+  long getItemID(int itemIndex) {
+    return itemIds[itemIndex];
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    return new LongPrimitiveArrayIterator(itemIds);
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws NoSuchUserException {
+    int user = getUserIndex(userID);
+
+    FastIDSet result = new FastIDSet(userOffsets[user + 1] - userOffsets[user]);
+    for (int index = userOffsets[user]; index < userOffsets[user + 1]; index++) {
+      result.add(itemIds[userItemIndexes[index]]);
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the index of the given item. The index is between 0 inclusive and the number of items
+   * exclusive.
+   */
+  int getItemIndex(long itemID) throws NoSuchItemException {
+    int result = Arrays.binarySearch(itemIds, itemID);
+    if (result < 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the offsets of the rows of the preferences by item. The preferences of the item
+   * <code>i</code> are between <code>offsets[i]</code> inclusive and <code>offsets[i + 1]</code>
+   * exclusive. The returned array must not be modified.
+   */
+  int[] getItemOffsets() {
+    return itemOffsets;
+  }
+
+  /**
+   * Returns the user indexes of the preferences by item. The returned array must not be modified.
+   */
+  int[] getItemUserIndexes() {
+    return itemUserIndexes;
+  }
+
+  /**
+   * Returns the values of the preferences by item. The returned array must not be modified.
+   */
+  float[] getItemValues() {
+    return itemValues;
+  }
+
+  @Override
+  public int getNumItems() {
+    return itemIds.length;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return userIds.length;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    int item = Arrays.binarySearch(itemIds, itemID);
+    if (item < 0) {
+      return 0;
+    }
+    return itemOffsets[item + 1] - itemOffsets[item];
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+    int item1 = Arrays.binarySearch(itemIds, itemID1);
+    int item2 = Arrays.binarySearch(itemIds, itemID2);
+    if (item1 < 0 || item2 < 0) {
+      return 0;
+    }
+
+    int index1 = itemOffsets[item1];
+    int end1 = itemOffsets[item1 + 1];
+    int index2 = itemOffsets[item2];
+    int end2 = itemOffsets[item2 + 1];
+    int result = 0;
+
+    while (index1 < end1 && index2 < end2) {
+      int user1 = itemUserIndexes[index1];
+      int user2 = itemUserIndexes[index2];
+      if (user1 < user2) {
+        index1++;
+      } else if (user1 > user2) {
+        index2++;
+      } else {
+        result++;
+        index1++;
+        index2++;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the number of preferences.
+   */
+  int getNumPreferences() {
+    return userValues.length;
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws NoSuchItemException {
+    int item = getItemIndex(itemID);
+    int from = itemOffsets[item];
+    int to = itemOffsets[item + 1];
+
+    PreferenceArray result = new GenericItemPreferenceArray(to - from);
+    result.setItemID(0, itemID);
+    for (int index = from; index < to; index++) {
+      result.setUserID(index - from, userIds[itemUserIndexes[index]]);
+      result.setValue(index - from, itemValues[index]);
+    }
+
+    return result;
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws NoSuchUserException {
+    int user = getUserIndex(userID);
+    int from = userOffsets[user];
+    int to = userOffsets[user + 1];
+
+    PreferenceArray result = new GenericUserPreferenceArray(to - from);
+    result.setUserID(0, userID);
+    for (int index = from; index < to; index++) {
+      result.setItemID(index - from, itemIds[userItemIndexes[index]]);
+      result.setValue(index - from, userValues[index]);
+    }
+
+    return result;
+  }
+
+  /**
+   * Always returns <code>null</code>, this data model does not contain timestamps.
+   */
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) {
+    return null;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws NoSuchUserException {
+    int user = getUserIndex(userID);
+    int item = Arrays.binarySearch(itemIds, itemID);
+    if (item < 0) {
+      return null;
+    }
+
+    int index =
+        Arrays.binarySearch(userItemIndexes, userOffsets[user], userOffsets[user + 1], item);
+    if (index < 0) {
+      return null;
+    }
+    return userValues[index];
+  }
+
+  /**
+   * Returns the id of the user at the given index.
+   */
+  long getUserID(int userIndex) {
+    return userIds[userIndex];
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    return new LongPrimitiveArrayIterator(userIds);
+  }
+
+  /**
+   * Returns the index of the given user. The index is between 0 inclusive and the number of users
+   * exclusive.
+   */
+  int getUserIndex(long userID) throws NoSuchUserException {
+    int result = Arrays.binarySearch(userIds, userID);
+    if (result < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the item indexes of the preferences by user. The returned array must not be modified.
+   */
+  int[] getUserItemIndexes() {
+    return userItemIndexes;
+  }
+
+  /**
+   * Returns the offsets of the rows of the preferences by user. The preferences of the user
+   * <code>u</code> are between <code>offsets[u]</code> inclusive and <code>offsets[u + 1]</code>
+   * exclusive. The returned array must not be modified.
+   */
+  int[] getUserOffsets() {
+    return userOffsets;
+  }
+
+  /**
+   * Returns the values of the preferences by user. The returned array must not be modified.
+   */
+  float[] getUserValues() {
+    return userValues;
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return true;
+  }
+
+  /**
+   * Does nothing, this data model is immutable.
+   */
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // nothing to refresh
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+}
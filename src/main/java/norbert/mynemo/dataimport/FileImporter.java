@@ -21,9 +21,17 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import norbert.mynemo.dataimport.fileformat.MynemoRating;
+import norbert.mynemo.dataimport.fileformat.UserDictionary;
 import norbert.mynemo.dataimport.fileformat.input.CkRatingImporter;
 import norbert.mynemo.dataimport.fileformat.input.MovieLensRatingImporter;
 import norbert.mynemo.dataimport.fileformat.input.MynemoRatingImporter;
@@ -34,22 +42,126 @@ import norbert.mynemo.dataimport.fileformat.output.MaxNeighborUserFilter;
 import norbert.mynemo.dataimport.fileformat.output.MaxUserFilter;
 import norbert.mynemo.dataimport.fileformat.output.MinCommonRatingFilter;
 import norbert.mynemo.dataimport.fileformat.output.MinRatingByMovieFilter;
+import norbert.mynemo.dataimport.fileformat.output.OriginFilter;
 import norbert.mynemo.dataimport.fileformat.output.RatingFileWriter;
+import norbert.mynemo.dataimport.fileformat.output.RatingStatistics;
 import norbert.mynemo.dataimport.fileformat.output.RatingWriter;
 import norbert.mynemo.dataimport.fileformat.output.ScaleValueWriter;
 import norbert.mynemo.dataimport.fileformat.output.UnivalueRemover;
+import norbert.mynemo.dataimport.fileformat.output.UserGroupingStore;
 import norbert.mynemo.dataimport.fileformat.output.UserSimilarityType;
 
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+
 import com.google.common.base.Optional;
 
 /**
  * This importer can merge, convert and filter ratings from files. It produces one output file from
  * several input files. The format of the output file is the Mynemo file format. The format of an
  * input file is automatically detected. The ratings can be filtered.
+ *
+ * <p>
+ * The filters that need to know all ratings of a user or of a movie before writing the first one
+ * do not keep the ratings in memory. Instead, the input files are read several times: a first pass
+ * computes statistics on the ratings, a possible second pass counts the ratings of each movie that
+ * pass the filters on users, and a last pass writes the ratings.
+ *
+ * <p>
+ * During each pass, the input files are parsed at the same time by an {@link ImportPipeline}.
  */
 public class FileImporter {
 
+  /**
+   * This writer keeps the written ratings in memory, then builds a compact data model from them.
+   * The user ids of the data model are the ids given by a {@link StringUserDataModel} to the user
+   * names.
+   */
+  private static class CompactModelWriter implements RatingWriter {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] movies;
+    private int size;
+    private final UserDictionary users;
+    private int[] userIndexes;
+    private float[] values;
+
+    public CompactModelWriter(UserDictionary users) {
+      this.users = users;
+      movies = new long[INITIAL_CAPACITY];
+      userIndexes = new int[INITIAL_CAPACITY];
+      values = new float[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Does nothing, the ratings stay available.
+     */
+    @Override
+    public void close() {
+      // nothing to close
+    }
+
+    /**
+     * Returns a new data model containing the written ratings.
+     */
+    public CompactDataModel getDataModel() {
+      // each user name is hashed once
+      long[] userIds = new long[users.size()];
+      boolean[] hashed = new boolean[users.size()];
+      long[] ratingUsers = new long[size];
+      for (int index = 0; index < size; index++) {
+        int user = userIndexes[index];
+        if (!hashed[user]) {
+          userIds[user] = StringUserDataModel.convertUsername(users.getUser(user));
+          hashed[user] = true;
+        }
+        ratingUsers[index] = userIds[user];
+      }
+
+      return new CompactDataModel(ratingUsers, movies, values, size);
+    }
+
+    @Override
+    public void write(MynemoRating rating) {
+      if (size == movies.length) {
+        movies = Arrays.copyOf(movies, 2 * size);
+        userIndexes = Arrays.copyOf(userIndexes, 2 * size);
+        values = Arrays.copyOf(values, 2 * size);
+      }
+      movies[size] = rating.getMovie();
+      userIndexes[size] = rating.getUserIndex();
+      values[size] = rating.getValue();
+      size++;
+    }
+  }
+
+  /**
+   * This writer writes every rating into two writers.
+   */
+  private static class SplitWriter implements RatingWriter {
+    private final RatingWriter first;
+    private final RatingWriter second;
+
+    public SplitWriter(RatingWriter first, RatingWriter second) {
+      this.first = first;
+      this.second = second;
+    }
+
+    @Override
+    public void close() throws IOException {
+      first.close();
+      second.close();
+    }
+
+    @Override
+    public void write(MynemoRating rating) throws IOException {
+      first.write(rating);
+      second.write(rating);
+    }
+  }
+
   private static final String DEFAULT_USER_ID = Integer.toString(Integer.MAX_VALUE);
+  private static final String TEMPORARY_FILE_PREFIX = "ratings-";
+  private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
 
   /**
    * Converts the given rating files to the Mynemo format. Handles the files generated from
@@ -67,9 +179,16 @@ public class FileImporter {
    * already exists.
    *
    * <p>
-   * The output file must not exist. At least one existing rating file must be provided.
+   * An existing output file is replaced. The ratings are written to a temporary file in the
+   * directory of the output file, which is renamed once the conversion succeeded. Thus, a reader of
+   * the output file never sees a partial file. At least one existing rating file must be provided.
+   *
+   * <p>
+   * If a snapshot file is given, the written ratings are also kept in memory during the last pass,
+   * then written as a snapshot. An existing snapshot file is replaced the same way.
    *
    * @param outputFilepath the file where the imported ratings are written
+   * @param snapshotFilepath the file where the imported ratings are written as a snapshot
    * @param inputFilepaths the rating files to convert
    * @param movieFilepath the file containing the equivalences between ids
    * @param user the user id used for the input ratings without user
@@ -78,15 +197,28 @@ public class FileImporter {
    * @param minRatingsByMovie minimum ratings by movie, the output file won't contain movies that
    *        have less than this number of ratings
    * @param similarityType type of similarity used to find the nearest users of the target user
+   * @param memoryBudget maximum number of bytes of ratings kept in memory by each filter that
+   *        groups the ratings by user, the other ratings are temporarily written on disk
+   * @param ordered <code>true</code> to process the ratings in the order of the input files, as if
+   *        they were parsed one after the other, and to index the users in the order of their
+   *        names after the first pass, so that the output files are the same from a conversion to
+   *        another, <code>false</code> to process the ratings as soon as they are parsed; in the
+   *        latter case, the duplicate ratings and the users kept by <code>maxUsers</code> may
+   *        change from a conversion to another, but all passes of a conversion agree on them
    */
-  public static void convert(String outputFilepath, Collection<String> inputFilepaths,
-      Collection<String> movieFilepath, Optional<String> user, Optional<Integer> maxUsers,
-      Optional<Integer> minRatingsByMovie, Optional<Integer> minCommonRatings,
-      Optional<UserSimilarityType> similarityType) throws IOException {
+  public static void convert(String outputFilepath, Optional<String> snapshotFilepath,
+      Collection<String> inputFilepaths, Collection<String> movieFilepath, Optional<String> user,
+      Optional<Integer> maxUsers, Optional<Integer> minRatingsByMovie,
+      Optional<Integer> minCommonRatings, Optional<UserSimilarityType> similarityType,
+      Optional<Long> memoryBudget, boolean ordered) throws IOException {
     checkNotNull(outputFilepath);
     checkNotNull(inputFilepaths);
     checkArgument(!inputFilepaths.isEmpty(), "At least one input file must be given.");
-    checkArgument(!new File(outputFilepath).exists(), "The output file must not exist.");
+    File outputFile = new File(outputFilepath);
+    checkArgument(!outputFile.isDirectory(), "The output file must not be a directory.");
+    checkArgument(!snapshotFilepath.isPresent()
+        || !new File(snapshotFilepath.get()).isDirectory(),
+        "The snapshot file must not be a directory.");
     for (String filepath : inputFilepaths) {
       checkArgument(new File(filepath).exists(), "The input file must exist.");
     }
@@ -94,83 +226,148 @@ public class FileImporter {
       checkArgument(new File(filepath).exists(), "The movie file must exist.");
     }
 
-    RatingWriter writer =
-        createFilters(new RatingFileWriter(outputFilepath), maxUsers, minRatingsByMovie,
-            similarityType, minCommonRatings, user);
+    // the dictionary lives as long as the conversion
+    UserDictionary users = new UserDictionary();
 
+    List<RatingImporter> importers = new ArrayList<>();
     for (String ratingFilepath : inputFilepaths) {
-      RatingImporter importableFile = getFile(ratingFilepath, movieFilepath, user);
-      for (MynemoRating rating : importableFile) {
-        writer.write(rating);
-      }
+      importers.add(getFile(ratingFilepath, movieFilepath, user, users));
     }
 
-    writer.close();
+    // first pass: statistics on the input ratings, and on the ratings without duplicates
+    RatingStatistics inputStatistics = new RatingStatistics();
+    RatingStatistics uniqueStatistics = new RatingStatistics();
+    // the next passes remove the same duplicates and keep the same users as the first ones, even
+    // if the ratings come in another order
+    FastIDSet duplicateOrigins = new FastIDSet();
+    Set<Integer> selectedUsers = new HashSet<>();
+    writeAll(importers, users, ordered, new SplitWriter(inputStatistics, new DuplicateRemover(
+        uniqueStatistics, duplicateOrigins)));
+    if (ordered) {
+      // the parsing threads indexed the users in any order, and the filters grouping the ratings
+      // by user write them in the order of the indexes
+      int[] newIndexes = users.sortByName();
+      inputStatistics.renumberUsers(newIndexes);
+      uniqueStatistics.renumberUsers(newIndexes);
+    }
+
+    long budget = memoryBudget.or(UserGroupingStore.DEFAULT_MEMORY_BUDGET);
+    File temporaryFile =
+        File.createTempFile(TEMPORARY_FILE_PREFIX, TEMPORARY_FILE_SUFFIX, outputFile
+            .getAbsoluteFile().getParentFile());
+    try {
+      // the rating file writer refuses to overwrite a file
+      temporaryFile.delete();
+      RatingWriter lastWriter = new RatingFileWriter(temporaryFile.getPath());
+      CompactModelWriter modelWriter = new CompactModelWriter(users);
+      if (snapshotFilepath.isPresent()) {
+        lastWriter = new SplitWriter(lastWriter, modelWriter);
+      }
+
+      if (minRatingsByMovie.isPresent()) {
+        // second pass: number of ratings of each movie after the filters on users
+        RatingStatistics movieStatistics = new RatingStatistics();
+        writeAll(importers, users, ordered,
+            createFilters(movieStatistics, maxUsers, similarityType, minCommonRatings, user,
+                users, inputStatistics, uniqueStatistics, duplicateOrigins, selectedUsers, budget));
+        lastWriter =
+            new MinRatingByMovieFilter(lastWriter, minRatingsByMovie.get(), movieStatistics);
+      }
+
+      // last pass: the ratings are written
+      writeAll(importers, users, ordered,
+          createFilters(lastWriter, maxUsers, similarityType, minCommonRatings, user, users,
+              inputStatistics, uniqueStatistics, duplicateOrigins, selectedUsers, budget));
+
+      if (snapshotFilepath.isPresent()) {
+        SnapshotWriter.write(modelWriter.getDataModel(), new File(snapshotFilepath.get()));
+      }
+      Files.move(temporaryFile.toPath(), outputFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      // only exists if an error occurred
+      temporaryFile.delete();
+    }
   }
 
   /**
-   * Interposes the necessary filters before the last writer, according to the given parameters.
+   * Interposes the necessary filters on users before the last writer, according to the given
+   * parameters. The given statistics must have been computed on all input ratings, and on all
+   * input ratings without duplicates. The ratings coming from the given duplicate origins are
+   * removed. The users kept by the maximum number of users are shared through the given set. The
+   * filters grouping the ratings by user keep at most the given number of bytes of ratings in
+   * memory.
    */
   private static RatingWriter createFilters(RatingWriter lastWriter, Optional<Integer> maxUsers,
-      Optional<Integer> minRatingsByMovie, Optional<UserSimilarityType> similarityType,
-      Optional<Integer> minCommonRatings, Optional<String> targetUser) {
+      Optional<UserSimilarityType> similarityType, Optional<Integer> minCommonRatings,
+      Optional<String> targetUser, UserDictionary users, RatingStatistics inputStatistics,
+      RatingStatistics uniqueStatistics, FastIDSet duplicateOrigins, Set<Integer> selectedUsers,
+      long memoryBudget) {
 
     RatingWriter nextWriter = lastWriter;
 
-    if (minRatingsByMovie.isPresent()) {
-      nextWriter = new MinRatingByMovieFilter(nextWriter, minRatingsByMovie.get());
-    }
     if (maxUsers.isPresent()) {
       if (similarityType.isPresent()) {
         nextWriter =
-            new MaxNeighborUserFilter(nextWriter, targetUser.get(), maxUsers.get(),
-                similarityType.get());
+            new MaxNeighborUserFilter(nextWriter, users.getIndex(targetUser.get()),
+                maxUsers.get(), similarityType.get(), memoryBudget);
       } else {
-        nextWriter = new MaxUserFilter(nextWriter, maxUsers.get());
+        nextWriter = new MaxUserFilter(nextWriter, maxUsers.get(), selectedUsers);
       }
     }
     if (minCommonRatings.isPresent()) {
       checkArgument(targetUser.isPresent(), "The user parameter is missing.");
-      nextWriter = new MinCommonRatingFilter(nextWriter, targetUser.get(), minCommonRatings.get());
+      nextWriter =
+          new MinCommonRatingFilter(nextWriter, users.getIndex(targetUser.get()),
+              minCommonRatings.get(), memoryBudget);
     }
-    nextWriter = new ScaleValueWriter(nextWriter);
-    nextWriter = new DuplicateRemover(nextWriter);
-    nextWriter = new UnivalueRemover(nextWriter);
+    nextWriter = new ScaleValueWriter(nextWriter, uniqueStatistics);
+    nextWriter = new OriginFilter(nextWriter, duplicateOrigins);
+    nextWriter = new UnivalueRemover(nextWriter, inputStatistics);
 
     return nextWriter;
   }
 
   /**
-   * Returns a rating file that can parse the ratings contained in the given file.
+   * Returns a rating file that can parse the ratings contained in the given file. The users of the
+   * ratings are added to the given dictionary.
    *
    * @throws UnsupportedOperationException if the file cannot be parsed
    */
   private static RatingImporter getFile(String ratingFilepath, Collection<String> mappingFilepaths,
-      Optional<String> user) throws IOException {
+      Optional<String> user, UserDictionary users) throws IOException {
 
     for (String mappingFilepath : mappingFilepaths) {
       if (CkRatingImporter.canImport(ratingFilepath, mappingFilepath)) {
-        return new CkRatingImporter(ratingFilepath, mappingFilepath);
+        return new CkRatingImporter(ratingFilepath, mappingFilepath, users);
       }
       if (TenMillionRatingImporter.canImport(ratingFilepath, mappingFilepath)) {
-        return new TenMillionRatingImporter(ratingFilepath, mappingFilepath);
+        return new TenMillionRatingImporter(ratingFilepath, mappingFilepath, users);
       }
     }
 
     if (MovieLensRatingImporter.canImport(ratingFilepath)) {
-      return new MovieLensRatingImporter(ratingFilepath, user.or(DEFAULT_USER_ID));
+      return new MovieLensRatingImporter(ratingFilepath, user.or(DEFAULT_USER_ID), users);
     }
 
     // the Mynemo rating file must stay last because it does not use headers, so the parser can
     // parse several file formats.
     if (MynemoRatingImporter.canImport(ratingFilepath)) {
-      return new MynemoRatingImporter(ratingFilepath);
+      return new MynemoRatingImporter(ratingFilepath, users);
     }
 
     throw new UnsupportedOperationException("Unable to convert the file \"" + ratingFilepath
         + "\".");
   }
 
+  /**
+   * Writes all ratings of the given importers into the given writer, then closes the writer.
+   */
+  private static void writeAll(List<RatingImporter> importers, UserDictionary users,
+      boolean ordered, RatingWriter writer) throws IOException {
+    ImportPipeline.writeAll(importers, users, writer, ordered);
+    writer.close();
+  }
+
   /**
    * Instantiates a new object. Private to prevents instantiation.
    */
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.dataimport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import norbert.mynemo.dataimport.fileformat.MynemoRating;
+import norbert.mynemo.dataimport.fileformat.UserDictionary;
+import norbert.mynemo.dataimport.fileformat.input.RatingImporter;
+import norbert.mynemo.dataimport.fileformat.output.RatingWriter;
+
+/**
+ * This pipeline reads several importers at the same time, and writes their ratings into one
+ * writer. Each importer is iterated by its own worker thread. The workers copy the ratings into
+ * batches, and put the batches into bounded queues. The calling thread takes the batches from the
+ * queues and writes their ratings into the writer. When the queues are full, the workers wait: the
+ * memory used is bounded whatever the speed of the writer.
+ *
+ * <p>
+ * In the ordered mode, the ratings are written in the same order as a sequential iteration of the
+ * importers, one after the other. Each worker has its own queue, and the queues are drained one
+ * after the other. Otherwise, the workers share one queue, and the batches are written as soon as
+ * they are available.
+ *
+ * <p>
+ * In both modes, each written rating carries its origin: the index of its importer and its
+ * position in the importer. Thus, a filter can recognize a rating across several calls, even if
+ * the ratings are not written in the same order.
+ */
+public class ImportPipeline {
+
+  /**
+   * This class contains a copy of consecutive ratings of one importer.
+   */
+  private static class Batch {
+    /** Origin of the first rating, the next ratings have the next origins. */
+    private final long firstOrigin;
+    private final long[] movies;
+    private int size;
+    private final int[] users;
+    private final float[] values;
+
+    public Batch(int capacity, long firstOrigin) {
+      this.firstOrigin = firstOrigin;
+      movies = new long[capacity];
+      users = new int[capacity];
+      values = new float[capacity];
+    }
+
+    public void add(MynemoRating rating) {
+      movies[size] = rating.getMovie();
+      users[size] = rating.getUserIndex();
+      values[size] = rating.getValue();
+      size++;
+    }
+
+    public boolean isFull() {
+      return size == users.length;
+    }
+  }
+
+  /**
+   * This worker iterates over an importer, and puts the ratings into a queue. The last batch put by
+   * a worker is always the end batch, even if an error occurs.
+   */
+  private static class Worker implements Runnable {
+    /** Error thrown by the importer, or <code>null</code>. */
+    private volatile Throwable error;
+    private final RatingImporter importer;
+    /** Index of the importer, amongst the importers of the pipeline. */
+    private final int importerIndex;
+    private final BlockingQueue<Batch> queue;
+
+    public Worker(RatingImporter importer, int importerIndex, BlockingQueue<Batch> queue) {
+      this.importer = importer;
+      this.importerIndex = importerIndex;
+      this.queue = queue;
+    }
+
+    @Override
+    public void run() {
+      try {
+        long nextOrigin = (long) importerIndex << ORIGIN_POSITION_BITS;
+        Batch batch = new Batch(BATCH_SIZE, nextOrigin);
+        for (MynemoRating rating : importer) {
+          batch.add(rating);
+          nextOrigin++;
+          if (batch.isFull()) {
+            queue.put(batch);
+            batch = new Batch(BATCH_SIZE, nextOrigin);
+          }
+        }
+        if (batch.size != 0) {
+          queue.put(batch);
+        }
+      } catch (InterruptedException e) {
+        // the pipeline is stopped, nobody waits for the end batch
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Throwable e) {
+        error = e;
+      }
+
+      try {
+        queue.put(END_BATCH);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Number of ratings in a batch. */
+  private static final int BATCH_SIZE = 4096;
+  /** Batch put by a worker once its importer is exhausted. */
+  private static final Batch END_BATCH = new Batch(0, MynemoRating.UNKNOWN_ORIGIN);
+  /** Number of low bits of an origin containing the position of the rating in its importer. */
+  private static final int ORIGIN_POSITION_BITS = 40;
+  /** Maximum number of batches waiting in a queue, for each worker. */
+  private static final int QUEUE_CAPACITY = 16;
+
+  /**
+   * Writes the ratings of the given importers into the given writer. The writer is not closed. The
+   * given dictionary must be the dictionary of the ratings of all importers.
+   *
+   * @param importers the importers to read, each one is read by its own thread
+   * @param users the dictionary of the users of the ratings
+   * @param writer the writer receiving all ratings, only from the calling thread
+   * @param ordered <code>true</code> to write the ratings in the order of the importers
+   */
+  public static void writeAll(List<RatingImporter> importers, UserDictionary users,
+      RatingWriter writer, boolean ordered) throws IOException {
+    checkNotNull(importers);
+    checkNotNull(users);
+    checkNotNull(writer);
+    checkArgument(!importers.isEmpty(), "At least one importer must be given.");
+
+    // create the queues and the workers
+    List<BlockingQueue<Batch>> queues = new ArrayList<>();
+    List<Worker> workers = new ArrayList<>();
+    if (ordered) {
+      for (RatingImporter importer : importers) {
+        BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        queues.add(queue);
+        workers.add(new Worker(importer, workers.size(), queue));
+      }
+    } else {
+      BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY * importers.size());
+      queues.add(queue);
+      for (RatingImporter importer : importers) {
+        workers.add(new Worker(importer, workers.size(), queue));
+      }
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(workers.size());
+    try {
+      for (Worker worker : workers) {
+        executor.execute(worker);
+      }
+
+      // drain the queues
+      MynemoRating rating = new MynemoRating(users);
+      int remainingWorkers = workers.size();
+      int queueIndex = 0;
+      while (remainingWorkers != 0) {
+        Batch batch = queues.get(queueIndex).take();
+
+        if (batch == END_BATCH) {
+          remainingWorkers--;
+          if (ordered) {
+            queueIndex++;
+          }
+          continue;
+        }
+
+        for (int index = 0; index < batch.size; index++) {
+          writer.write(rating.set(batch.users[index], batch.movies[index], batch.values[index],
+              batch.firstOrigin + index));
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while importing the ratings.");
+    } finally {
+      // stops the workers that are still running, after an error of the writer
+      executor.shutdownNow();
+    }
+
+    // report the first error of the importers
+    for (Worker worker : workers) {
+      if (worker.error instanceof IOException) {
+        throw (IOException) worker.error;
+      }
+      if (worker.error instanceof RuntimeException) {
+        throw (RuntimeException) worker.error;
+      }
+      if (worker.error != null) {
+        throw new RuntimeException(worker.error);
+      }
+    }
+  }
+
+  /**
+   * Instantiates a new object. Private to prevents instantiation.
+   */
+  private ImportPipeline() {
+    throw new AssertionError();
+  }
+}
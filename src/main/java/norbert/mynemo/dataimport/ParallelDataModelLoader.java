@@ -0,0 +1,274 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.dataimport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static norbert.mynemo.dataimport.fileformat.ByteParser.indexOf;
+import static norbert.mynemo.dataimport.fileformat.ByteParser.parseFloat;
+import static norbert.mynemo.dataimport.fileformat.ByteParser.parseLong;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This loader reads a Mynemo rating file with several threads, and produces a
+ * {@link CompactDataModel}. The file is split into chunks that end on line boundaries. Each chunk
+ * is memory-mapped and parsed byte by byte into primitive arrays, without creating any string for
+ * the common lines. The chunks are then merged in the order of the file.
+ *
+ * <p>
+ * The loaded data model is equal to the one loaded by a {@link StringUserDataModel}: the user
+ * names are hashed the same way, empty lines and lines starting with <code>#</code> are ignored,
+ * and the last rating of a user for a movie is retained.
+ */
+public class ParallelDataModelLoader {
+
+  /**
+   * This class contains the ratings parsed from a chunk of the file.
+   */
+  private static class ParsedChunk {
+    private long[] items;
+    private int size;
+    private long[] users;
+    private float[] values;
+
+    public ParsedChunk(int capacity) {
+      items = new long[capacity];
+      users = new long[capacity];
+      values = new float[capacity];
+    }
+
+    public void add(long user, long item, float value) {
+      if (size == users.length) {
+        int newCapacity = Math.max(16, size + (size >> 1));
+        items = Arrays.copyOf(items, newCapacity);
+        users = Arrays.copyOf(users, newCapacity);
+        values = Arrays.copyOf(values, newCapacity);
+      }
+      items[size] = item;
+      users[size] = user;
+      values[size] = value;
+      size++;
+    }
+  }
+
+  /**
+   * This parser reads the ratings of one chunk of the file.
+   */
+  private static class ChunkParser implements Callable<ParsedChunk> {
+    private final File file;
+    private final long length;
+    private final long start;
+    /** Buffer where the bytes of the current user name are copied. */
+    private byte[] userBytes = new byte[64];
+
+    public ChunkParser(File file, long start, long length) {
+      this.file = file;
+      this.start = start;
+      this.length = length;
+    }
+
+    @Override
+    public ParsedChunk call() throws IOException {
+      MappedByteBuffer buffer;
+      try (RandomAccessFile input = new RandomAccessFile(file, "r");
+          FileChannel channel = input.getChannel()) {
+        buffer = channel.map(MapMode.READ_ONLY, start, length);
+      }
+
+      ParsedChunk result = new ParsedChunk((int) Math.min(length / ESTIMATED_LINE_LENGTH, 1 << 24));
+      int position = 0;
+      int limit = buffer.limit();
+
+      while (position < limit) {
+        int lineEnd = position;
+        while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+          lineEnd++;
+        }
+        int contentEnd = lineEnd;
+        if (position < contentEnd && buffer.get(contentEnd - 1) == '\r') {
+          contentEnd--;
+        }
+
+        if (position < contentEnd && buffer.get(position) != COMMENT_CHAR) {
+          parseLine(buffer, position, contentEnd, result);
+        }
+
+        position = lineEnd + 1;
+      }
+
+      return result;
+    }
+
+    /**
+     * Parses the line between the given positions, and adds the rating to the given chunk.
+     */
+    private void parseLine(MappedByteBuffer buffer, int from, int to, ParsedChunk chunk) {
+      int userEnd = indexOf(buffer, from, to, DELIMITER);
+      int movieEnd = indexOf(buffer, userEnd + 1, to, DELIMITER);
+      int valueEnd = indexOf(buffer, movieEnd + 1, to, DELIMITER);
+      if (userEnd == to || movieEnd == to) {
+        throw new IllegalArgumentException("The line at the offset " + (start + from)
+            + " of the file " + file + " does not contain three columns.");
+      }
+
+      // user
+      int userLength = userEnd - from;
+      if (userBytes.length < userLength) {
+        userBytes = new byte[Math.max(userLength, userBytes.length * 2)];
+      }
+      for (int index = 0; index < userLength; index++) {
+        userBytes[index] = buffer.get(from + index);
+      }
+      long user = StringUserDataModel.convertUsername(userBytes, 0, userLength);
+
+      // movie and value
+      long movie = parseLong(buffer, userEnd + 1, movieEnd);
+      float value = parseFloat(buffer, movieEnd + 1, valueEnd);
+
+      chunk.add(user, movie, value);
+    }
+  }
+
+  /** Lines starting with this character are ignored. */
+  private static final byte COMMENT_CHAR = '#';
+  /** Separator of the columns, defined by the Mynemo rating file format. */
+  private static final byte DELIMITER = '\t';
+  /** Estimation used to size the buffers of a chunk. */
+  private static final int ESTIMATED_LINE_LENGTH = 24;
+  /** Maximum size of a chunk. A chunk must be mappable in one buffer. */
+  private static final long MAX_CHUNK_SIZE = 1 << 28;
+
+  /**
+   * Returns the end positions of the chunks of the given file. Each chunk ends after a line
+   * separator, or at the end of the file.
+   */
+  private static long[] getChunkEnds(File file, int chunkCount) throws IOException {
+    List<Long> ends = new ArrayList<>();
+    long fileLength = file.length();
+    long approximateSize = fileLength / chunkCount + 1;
+
+    try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+      long end = 0;
+      while (end < fileLength) {
+        end = Math.min(end + approximateSize, fileLength);
+        input.seek(end);
+        // move to the end of the current line
+        int read = 0;
+        while (read != -1 && read != '\n') {
+          read = input.read();
+          if (read != -1) {
+            end++;
+          }
+        }
+        ends.add(end);
+      }
+    }
+
+    long[] result = new long[ends.size()];
+    for (int index = 0; index < result.length; index++) {
+      result[index] = ends.get(index);
+    }
+    return result;
+  }
+
+  /**
+   * Loads the given Mynemo rating file with as many threads as available processors.
+   */
+  public static CompactDataModel load(File file) throws IOException {
+    return load(file, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Loads the given Mynemo rating file with the given number of threads.
+   *
+   * @param file a Mynemo rating file
+   * @param threadCount number of threads parsing the file
+   * @return a data model containing the ratings of the file
+   */
+  public static CompactDataModel load(File file, int threadCount) throws IOException {
+    checkArgument(file.isFile(), "The file must exist.");
+    checkArgument(0 < threadCount, "The number of threads must be greater than 0.");
+
+    int chunkCount = (int) Math.max(threadCount, file.length() / MAX_CHUNK_SIZE + 1);
+    long[] chunkEnds = getChunkEnds(file, chunkCount);
+
+    // parse
+    List<ParsedChunk> chunks = new ArrayList<>();
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      List<Future<ParsedChunk>> futures = new ArrayList<>();
+      long start = 0;
+      for (long end : chunkEnds) {
+        futures.add(executor.submit(new ChunkParser(file, start, end - start)));
+        start = end;
+      }
+      for (Future<ParsedChunk> future : futures) {
+        chunks.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while loading the file " + file);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // merge in the order of the file
+    int size = 0;
+    for (ParsedChunk chunk : chunks) {
+      size += chunk.size;
+    }
+    long[] users = new long[size];
+    long[] items = new long[size];
+    float[] values = new float[size];
+    int position = 0;
+    for (ParsedChunk chunk : chunks) {
+      System.arraycopy(chunk.users, 0, users, position, chunk.size);
+      System.arraycopy(chunk.items, 0, items, position, chunk.size);
+      System.arraycopy(chunk.values, 0, values, position, chunk.size);
+      position += chunk.size;
+    }
+    chunks.clear();
+
+    return new CompactDataModel(users, items, values, size);
+  }
+
+  /**
+   * Instantiates a new object. Private to prevents instantiation.
+   */
+  private ParallelDataModelLoader() {
+    throw new AssertionError();
+  }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.dataimport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.AbstractDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * This data model reads the preferences from a snapshot file written by the {@link SnapshotWriter}.
+ * The file is memory-mapped, thus opening a snapshot does not parse anything, and several
+ * processes reading the same snapshot share the page cache.
+ *
+ * <p>
+ * The snapshot contains a header, followed by the preferences stored twice: sorted by user, then
+ * sorted by item. Each part contains the sorted ids, the offsets of the first preference of each
+ * id, the ids of the other side of the preferences and the values. All ids are sorted, thus every
+ * lookup is a binary search.
+ *
+ * <p>
+ * Each part of the file is mapped in its own buffer. Thus, the file can be larger than 2 GB, as
+ * long as the ids of the preferences hold in 2 GB, see {@link #MAX_PREFERENCES}.
+ *
+ * <p>
+ * This data model is read-only.
+ */
+public class SnapshotDataModel extends AbstractDataModel {
+
+  /**
+   * This iterator returns the ids contained in a buffer.
+   */
+  private static class BufferIterator implements LongPrimitiveIterator {
+    private final LongBuffer ids;
+    private int position;
+
+    public BufferIterator(LongBuffer ids) {
+      this.ids = ids;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return position < ids.limit();
+    }
+
+    @Override
+    public Long next() {
+      return nextLong();
+    }
+
+    @Override
+    public long nextLong() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return ids.get(position++);
+    }
+
+    @Override
+    public long peek() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return ids.get(position);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void skip(int n) {
+      position = Math.min(position + n, ids.limit());
+    }
+  }
+
+  /** Number of bytes of the header. */
+  static final int HEADER_SIZE = 32;
+  /** First bytes of a snapshot file. */
+  static final long MAGIC_NUMBER = 0x4D594E454D4F5331L;
+  /** Maximum number of preferences, such that the largest part of the file is a valid buffer. */
+  static final int MAX_PREFERENCES = Integer.MAX_VALUE / 8;
+  private static final long serialVersionUID = 1L;
+  /** Version of the snapshot format. */
+  static final int VERSION = 1;
+
+  /**
+   * Returns the index of the given id in the given range of the buffer, or -1 if the id is not
+   * found. The ids of the range must be sorted.
+   */
+  private static int indexOf(LongBuffer ids, int from, int to, long id) {
+    int low = from;
+    int high = to - 1;
+
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      long middleId = ids.get(middle);
+
+      if (middleId < id) {
+        low = middle + 1;
+      } else if (middleId > id) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Returns <code>true</code> if the given file starts like a snapshot file, <code>false</code>
+   * otherwise.
+   */
+  public static boolean isSnapshot(File file) throws IOException {
+    if (!file.isFile() || file.length() < HEADER_SIZE) {
+      return false;
+    }
+    try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+      return input.readLong() == MAGIC_NUMBER;
+    }
+  }
+
+  /** Maps the given part of the file. */
+  private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+    return channel.map(MapMode.READ_ONLY, position, size);
+  }
+
+  private final LongBuffer itemIds;
+  private final IntBuffer itemOffsets;
+  private final LongBuffer itemUserIds;
+  private final FloatBuffer itemValues;
+  private final LongBuffer userIds;
+  private final LongBuffer userItemIds;
+  private final IntBuffer userOffsets;
+  private final FloatBuffer userValues;
+
+  /**
+   * Maps the given snapshot file.
+   *
+   * @param snapshotFile file written by a {@link SnapshotWriter}
+   */
+  public SnapshotDataModel(File snapshotFile) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "r");
+        FileChannel channel = file.getChannel()) {
+      checkArgument(HEADER_SIZE <= channel.size(), "The file must be a snapshot.");
+
+      // header
+      ByteBuffer header = map(channel, 0, HEADER_SIZE);
+      checkArgument(header.getLong() == MAGIC_NUMBER, "The file must be a snapshot.");
+      checkArgument(header.getInt() == VERSION, "The version of the snapshot is not supported.");
+      int userCount = header.getInt();
+      int itemCount = header.getInt();
+      int preferenceCount = header.getInt();
+      setMinPreference(header.getFloat());
+      setMaxPreference(header.getFloat());
+      checkArgument(0 <= userCount && 0 <= itemCount && 0 <= preferenceCount
+          && preferenceCount <= MAX_PREFERENCES && channel.size() == HEADER_SIZE
+          + getSnapshotBodySize(userCount, itemCount, preferenceCount), "The snapshot file is"
+          + " truncated or corrupted.");
+
+      // preferences by user
+      long position = HEADER_SIZE;
+      userIds = map(channel, position, userCount * 8L).asLongBuffer();
+      position += userCount * 8L;
+      userOffsets = map(channel, position, (userCount + 1) * 4L).asIntBuffer();
+      position += (userCount + 1) * 4L;
+      userItemIds = map(channel, position, preferenceCount * 8L).asLongBuffer();
+      position += preferenceCount * 8L;
+      userValues = map(channel, position, preferenceCount * 4L).asFloatBuffer();
+      position += preferenceCount * 4L;
+
+      // preferences by item
+      itemIds = map(channel, position, itemCount * 8L).asLongBuffer();
+      position += itemCount * 8L;
+      itemOffsets = map(channel, position, (itemCount + 1) * 4L).asIntBuffer();
+      position += (itemCount + 1) * 4L;
+      itemUserIds = map(channel, position, preferenceCount * 8L).asLongBuffer();
+      position += preferenceCount * 8L;
+      itemValues = map(channel, position, preferenceCount * 4L).asFloatBuffer();
+    }
+  }
+
+  /**
+   * Returns the size in bytes of a snapshot file without its header.
+   */
+  static long getSnapshotBodySize(int userCount, int itemCount, int preferenceCount) {
+    return (userCount * 8L) + ((userCount + 1) * 4L) + (preferenceCount * 12L) + (itemCount * 8L)
+        + ((itemCount + 1) * 4L) + (preferenceCount * 12L);
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    return new BufferIterator(itemIds);
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws NoSuchUserException {
+    int index = getUserIndex(userID);
+    int from = userOffsets.get(index);
+    int to = userOffsets.get(index + 1);
+
+    FastIDSet result = new FastIDSet(to - from);
+    for (int i = from; i < to; i++) {
+      result.add(userItemIds.get(i));
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the index of the given item.
+   */
+  private int getItemIndex(long itemID) throws NoSuchItemException {
+    int result = indexOf(itemIds, 0, itemIds.limit(), itemID);
+    if (result < 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    return result;
+  }
+
+  @Override
+  public int getNumItems() {
+    return itemIds.limit();
+  }
+
+  @Override
+  public int getNumUsers() {
+    return userIds.limit();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    int index = indexOf(itemIds, 0, itemIds.limit(), itemID);
+    if (index < 0) {
+      return 0;
+    }
+    return itemOffsets.get(index + 1) - itemOffsets.get(index);
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+    int index1 = indexOf(itemIds, 0, itemIds.limit(), itemID1);
+    int index2 = indexOf(itemIds, 0, itemIds.limit(), itemID2);
+    if (index1 < 0 || index2 < 0) {
+      return 0;
+    }
+
+    // the users of an item are sorted, thus the intersection is a merge
+    int i1 = itemOffsets.get(index1);
+    int end1 = itemOffsets.get(index1 + 1);
+    int i2 = itemOffsets.get(index2);
+    int end2 = itemOffsets.get(index2 + 1);
+    int result = 0;
+
+    while (i1 < end1 && i2 < end2) {
+      long user1 = itemUserIds.get(i1);
+      long user2 = itemUserIds.get(i2);
+      if (user1 < user2) {
+        i1++;
+      } else if (user1 > user2) {
+        i2++;
+      } else {
+        result++;
+        i1++;
+        i2++;
+      }
+    }
+
+    return result;
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws NoSuchItemException {
+    int index = getItemIndex(itemID);
+    int from = itemOffsets.get(index);
+    int to = itemOffsets.get(index + 1);
+
+    PreferenceArray result = new GenericItemPreferenceArray(to - from);
+    result.setItemID(0, itemID);
+    for (int i = from; i < to; i++) {
+      result.setUserID(i - from, itemUserIds.get(i));
+      result.setValue(i - from, itemValues.get(i));
+    }
+
+    return result;
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws NoSuchUserException {
+    int index = getUserIndex(userID);
+    int from = userOffsets.get(index);
+    int to = userOffsets.get(index + 1);
+
+    PreferenceArray result = new GenericUserPreferenceArray(to - from);
+    result.setUserID(0, userID);
+    for (int i = from; i < to; i++) {
+      result.setItemID(i - from, userItemIds.get(i));
+      result.setValue(i - from, userValues.get(i));
+    }
+
+    return result;
+  }
+
+  /**
+   * Always returns <code>null</code>, the snapshot does not contain timestamps.
+   */
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) {
+    return null;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws NoSuchUserException {
+    int index = getUserIndex(userID);
+    int itemIndex =
+        indexOf(userItemIds, userOffsets.get(index), userOffsets.get(index + 1), itemID);
+    if (itemIndex < 0) {
+      return null;
+    }
+    return userValues.get(itemIndex);
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    return new BufferIterator(userIds);
+  }
+
+  /**
+   * Returns the index of the given user.
+   */
+  private int getUserIndex(long userID) throws NoSuchUserException {
+    int result = indexOf(userIds, 0, userIds.limit(), userID);
+    if (result < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    return result;
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return true;
+  }
+
+  /**
+   * Does nothing, the snapshot is immutable.
+   */
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // nothing to refresh
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+}
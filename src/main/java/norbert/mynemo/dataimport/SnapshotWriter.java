@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.dataimport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.model.DataModel;
+
+/**
+ * This writer saves a data model into a snapshot file. The snapshot can then be loaded by a
+ * {@link SnapshotDataModel}. The format is described in the documentation of the latter.
+ *
+ * <p>
+ * The snapshot is written from the rows of a {@link CompactDataModel}, that are already in the
+ * order of the snapshot. Another data model is copied into a compact data model first.
+ *
+ * <p>
+ * The snapshot is written into a temporary file of the same directory, then the file is renamed.
+ * Thus, an existing snapshot is replaced at once: a {@link SnapshotDataModel} that maps the
+ * previous file keeps reading it, and a new one never reads a partial file.
+ */
+public class SnapshotWriter {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final String TEMPORARY_FILE_PREFIX = "snapshot-";
+  private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+  /**
+   * Writes the preferences of the given data model into the given file. An existing file is
+   * replaced.
+   *
+   * @param dataModel the preferences to write
+   * @param snapshotFile the output file
+   */
+  public static void write(CompactDataModel dataModel, File snapshotFile) throws IOException {
+    checkNotNull(dataModel);
+    checkArgument(!snapshotFile.isDirectory(), "The snapshot file must not be a directory.");
+
+    int userCount = dataModel.getNumUsers();
+    int itemCount = dataModel.getNumItems();
+    int preferenceCount = dataModel.getNumPreferences();
+    checkArgument(preferenceCount <= SnapshotDataModel.MAX_PREFERENCES, "The data model has "
+        + preferenceCount + " preferences, a snapshot cannot contain more than "
+        + SnapshotDataModel.MAX_PREFERENCES + " preferences.");
+
+    File temporaryFile =
+        File.createTempFile(TEMPORARY_FILE_PREFIX, TEMPORARY_FILE_SUFFIX, snapshotFile
+            .getAbsoluteFile().getParentFile());
+    try {
+      try (DataOutputStream output =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile),
+              BUFFER_SIZE))) {
+        // header
+        output.writeLong(SnapshotDataModel.MAGIC_NUMBER);
+        output.writeInt(SnapshotDataModel.VERSION);
+        output.writeInt(userCount);
+        output.writeInt(itemCount);
+        output.writeInt(preferenceCount);
+        output.writeFloat(dataModel.getMinPreference());
+        output.writeFloat(dataModel.getMaxPreference());
+
+        // preferences by user, the rows are sorted by item
+        for (int user = 0; user < userCount; user++) {
+          output.writeLong(dataModel.getUserID(user));
+        }
+        writeInts(output, dataModel.getUserOffsets());
+        for (int item : dataModel.getUserItemIndexes()) {
+          output.writeLong(dataModel.getItemID(item));
+        }
+        writeFloats(output, dataModel.getUserValues());
+
+        // preferences by item, the rows are sorted by user
+        for (int item = 0; item < itemCount; item++) {
+          output.writeLong(dataModel.getItemID(item));
+        }
+        writeInts(output, dataModel.getItemOffsets());
+        for (int user : dataModel.getItemUserIndexes()) {
+          output.writeLong(dataModel.getUserID(user));
+        }
+        writeFloats(output, dataModel.getItemValues());
+      }
+
+      Files.move(temporaryFile.toPath(), snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      // only exists if an error occurred
+      temporaryFile.delete();
+    }
+  }
+
+  /**
+   * Writes the preferences of the given data model into the given file. An existing file is
+   * replaced.
+   *
+   * @param dataModel the preferences to write
+   * @param snapshotFile the output file
+   */
+  public static void write(DataModel dataModel, File snapshotFile) throws IOException,
+      TasteException {
+    checkNotNull(dataModel);
+
+    if (dataModel instanceof CompactDataModel) {
+      write((CompactDataModel) dataModel, snapshotFile);
+    } else {
+      write(CompactDataModel.copyOf(dataModel), snapshotFile);
+    }
+  }
+
+  private static void writeFloats(DataOutputStream output, float[] values) throws IOException {
+    for (float value : values) {
+      output.writeFloat(value);
+    }
+  }
+
+  private static void writeInts(DataOutputStream output, int[] values) throws IOException {
+    for (int value : values) {
+      output.writeInt(value);
+    }
+  }
+
+  /**
+   * Instantiates a new object. Private to prevents instantiation.
+   */
+  private SnapshotWriter() {
+    throw new AssertionError();
+  }
+}
@@ -45,6 +45,20 @@ public class StringUserDataModel extends FileDataModel {
     return hashFonction.newHasher().putString(name, Charsets.UTF_8).hash().asLong();
   }
 
+  /**
+   * Returns the hash of the user name encoded in UTF-8 in the given bytes. The result is equal to
+   * the result of {@link #convertUsername(String)} called with the decoded user name.
+   *
+   * @param bytes array containing the encoded user name
+   * @param offset index of the first byte of the user name
+   * @param length number of bytes of the user name
+   * @return the hash of the user name
+   */
+  public static long convertUsername(byte[] bytes, int offset, int length) {
+    HashFunction hashFonction = Hashing.murmur3_128();
+    return hashFonction.newHasher().putBytes(bytes, offset, length).hash().asLong();
+  }
+
   public StringUserDataModel(File dataFile) throws IOException {
     super(dataFile, false, NEW_DEFAULT_MIN_RELOAD_INTERVAL_MS);
   }
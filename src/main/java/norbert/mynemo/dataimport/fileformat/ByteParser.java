@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.dataimport.fileformat;
+
+import java.nio.ByteBuffer;
+
+import com.google.common.base.Charsets;
+
+/**
+ * This parser reads numbers and strings directly from the bytes of a buffer, typically a
+ * memory-mapped file. The common numbers are parsed without creating any string. The positions are
+ * absolute positions in the buffer, the position of the buffer is not modified.
+ */
+public class ByteParser {
+
+  /** Powers of ten exactly represented by a float. */
+  private static final float[] EXACT_POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f,
+      1e7f, 1e8f, 1e9f, 1e10f};
+  /** Largest integer such that it and all smaller integers are exactly represented by a float. */
+  private static final long MAX_EXACT_MANTISSA = 1 << 24;
+
+  /**
+   * Returns the position of the first given byte between the given positions, or <code>to</code>
+   * if the byte is not found.
+   */
+  public static int indexOf(ByteBuffer buffer, int from, int to, byte searched) {
+    int result = from;
+    while (result < to && buffer.get(result) != searched) {
+      result++;
+    }
+    return result;
+  }
+
+  /**
+   * Parses the decimal number between the given positions. Falls back to
+   * {@link Float#parseFloat(String)} for the numbers that are not simple decimals. The result is
+   * always the result of {@link Float#parseFloat(String)}: a simple decimal has a mantissa and a
+   * power of ten that are exact floats, thus their quotient is correctly rounded.
+   *
+   * @throws NumberFormatException if the bytes do not represent a number
+   */
+  public static float parseFloat(ByteBuffer buffer, int from, int to) {
+    long mantissa = 0;
+    int decimals = -1;
+    boolean hasDigit = false;
+    boolean simple = from < to;
+
+    for (int index = from; index < to && simple; index++) {
+      byte current = buffer.get(index);
+      if ('0' <= current && current <= '9') {
+        hasDigit = true;
+        mantissa = mantissa * 10 + (current - '0');
+        if (decimals >= 0) {
+          decimals++;
+        }
+        simple = mantissa <= MAX_EXACT_MANTISSA && decimals < EXACT_POWERS_OF_TEN.length;
+      } else if (current == '.' && decimals < 0) {
+        decimals = 0;
+      } else {
+        simple = false;
+      }
+    }
+
+    if (simple) {
+      if (!hasDigit) {
+        throw new NumberFormatException("The number has no digit: '" + toString(buffer, from, to)
+            + "'.");
+      }
+      return mantissa / EXACT_POWERS_OF_TEN[Math.max(decimals, 0)];
+    }
+    return Float.parseFloat(toString(buffer, from, to));
+  }
+
+  /**
+   * Parses the integer between the given positions.
+   *
+   * @throws NumberFormatException if the bytes do not represent an integer
+   */
+  public static int parseInt(ByteBuffer buffer, int from, int to) {
+    long result = parseLong(buffer, from, to);
+    if (result < Integer.MIN_VALUE || Integer.MAX_VALUE < result) {
+      throw new NumberFormatException("The integer is too large: " + result);
+    }
+    return (int) result;
+  }
+
+  /**
+   * Parses the integer between the given positions.
+   *
+   * @throws NumberFormatException if the bytes do not represent an integer
+   */
+  public static long parseLong(ByteBuffer buffer, int from, int to) {
+    long result = 0;
+    boolean simple = from < to && to - from < 19;
+
+    for (int index = from; index < to && simple; index++) {
+      byte current = buffer.get(index);
+      if ('0' <= current && current <= '9') {
+        result = result * 10 + (current - '0');
+      } else {
+        simple = false;
+      }
+    }
+
+    if (simple) {
+      return result;
+    }
+    return Long.parseLong(toString(buffer, from, to));
+  }
+
+  /**
+   * Returns the UTF-8 string between the given positions.
+   */
+  public static String toString(ByteBuffer buffer, int from, int to) {
+    byte[] bytes = new byte[to - from];
+    for (int index = from; index < to; index++) {
+      bytes[index - from] = buffer.get(index);
+    }
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  /**
+   * Instantiates a new object. Private to prevents instantiation.
+   */
+  private ByteParser() {
+    throw new AssertionError();
+  }
+}
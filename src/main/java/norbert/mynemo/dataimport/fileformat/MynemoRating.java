@@ -17,6 +17,8 @@
 package norbert.mynemo.dataimport.fileformat;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -24,8 +26,6 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
@@ -38,6 +38,16 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  * rating.
  *
  * <p>
+ * The rating is stored in primitive fields: the user is an index in a {@link UserDictionary}, the
+ * movie is the numeric part of its IMDb id. A rating is mutable, so a single instance can be reused
+ * for every rating read from a file. A rating must be copied to be kept, see {@link #copy()}.
+ *
+ * <p>
+ * A rating may carry its origin: a number identifying the position of the rating amongst the
+ * imported files. The origin of a rating is the same each time the files are read, whatever the
+ * order the files are read in.
+ *
+ * <p>
  * A list of ratings can be persisted in a tab-separated value file, where each line represents a
  * rating. The columns are:
  * <ul>
@@ -51,10 +61,6 @@ public class MynemoRating {
    * Format of the CSV entries. That defines the Mynemo rating file format.
    */
   private static final CSVFormat CSV_FORMAT = CSVFormat.MYSQL;
-  /**
-   * Set containing all different movie, user and rating ids built by this class.
-   */
-  private static final Map<String, String> ID_CACHE = new HashMap<String, String>();
   /**
    * Rating value superior to this maximum is invalid.
    */
@@ -67,6 +73,10 @@ public class MynemoRating {
    * The movie index in a rating record. That defines the Mynemo rating file format.
    */
   private static final int MOVIE_INDEX = 1;
+  /** Origin of a rating whose position in the imported files is unknown. */
+  public static final long UNKNOWN_ORIGIN = -1;
+  /** Index of the user of a rating that is not set. */
+  private static final int UNSET_USER = -1;
   /**
    * The user index in a rating record. That defines the Mynemo rating file format.
    */
@@ -100,22 +110,21 @@ public class MynemoRating {
   }
 
   /**
-   * Creates a rating from a record. The record was usually created from a parser created by the
-   * {@link #createParser(String)} method.
+   * Returns the given value as a string. An integer value is written without decimal part.
    */
-  public static MynemoRating createRating(CSVRecord record) {
-    return new MynemoRating(record.get(USER_INDEX), record.get(MOVIE_INDEX),
-        record.get(VALUE_INDEX));
+  private static String formatValue(float value) {
+    if (value == Math.rint(value)) {
+      return Long.toString((long) value);
+    }
+    return Float.toString(value);
   }
 
   /**
-   * Puts the given id in the cache, and returns it, or an equal cached id.
+   * Returns <code>true</code> if the given value is in the accepted range, <code>false</code>
+   * otherwise.
    */
-  private static String getCacheId(String id) {
-    if (!ID_CACHE.containsKey(id)) {
-      ID_CACHE.put(id, id);
-    }
-    return ID_CACHE.get(id);
+  private static boolean isValid(float value) {
+    return MINIMUM_RATING_VALUE <= value && value <= MAXIMUM_RATING_VALUE;
   }
 
   /**
@@ -140,20 +149,37 @@ public class MynemoRating {
     return MINIMUM_RATING_VALUE <= numericValue && numericValue <= MAXIMUM_RATING_VALUE;
   }
 
-  private final String movie;
-  private final String user;
-  private final String value;
+  private long movie;
+  private long origin;
+  private int user;
+  private final UserDictionary users;
+  private float value;
+
+  /**
+   * Creates a rating given by a user of the given dictionary. The rating must be set by a
+   * <code>set</code> method before being used.
+   */
+  public MynemoRating(UserDictionary users) {
+    checkNotNull(users);
+
+    this.users = users;
+    user = UNSET_USER;
+    origin = UNKNOWN_ORIGIN;
+  }
 
   /**
-   * Creates a rating with the given value by the given user to the given movie.
+   * Returns a new rating equal to this rating. The copy is not affected by the later changes of
+   * this rating.
    */
-  public MynemoRating(String user, String movie, String value) {
-    checkArgument(isValid(user, movie, value), "Unable to create the Mynemo rating with from the"
-        + " user '" + user + "' on the movie '" + movie + "' with the value '" + value + "'.");
+  public MynemoRating copy() {
+    checkState(user != UNSET_USER, "The rating must be set.");
 
-    this.user = getCacheId(user);
-    this.movie = getCacheId(movie);
-    this.value = getCacheId(value);
+    MynemoRating result = new MynemoRating(users);
+    result.movie = movie;
+    result.origin = origin;
+    result.user = user;
+    result.value = value;
+    return result;
   }
 
   @Override
@@ -162,32 +188,45 @@ public class MynemoRating {
       return false;
     }
     MynemoRating r = (MynemoRating) o;
-    return movie.equals(r.movie) && user.equals(r.user) && value.equals(r.value);
+    return movie == r.movie && user == r.user && value == r.value && users == r.users;
   }
 
   /**
-   * Returns the value as <code>float</code> data type.
+   * Returns the numeric IMDb id of the movie.
    */
-  public float getFloatValue() {
-    return Float.parseFloat(value);
+  public long getMovie() {
+    return movie;
   }
 
   /**
-   * Returns the movie id as <code>long</code> data type.
+   * Returns the origin of the rating, or {@link #UNKNOWN_ORIGIN} if the origin is unknown.
    */
-  public long getLongMovie() {
-    return Long.parseLong(movie);
+  public long getOrigin() {
+    return origin;
   }
 
-  public String getMovie() {
-    return movie;
+  /**
+   * Returns the name of the user.
+   */
+  public String getUser() {
+    return users.getUser(user);
   }
 
-  public String getUser() {
+  /**
+   * Returns the dictionary containing the user.
+   */
+  public UserDictionary getUserDictionary() {
+    return users;
+  }
+
+  /**
+   * Returns the index of the user in its dictionary.
+   */
+  public int getUserIndex() {
     return user;
   }
 
-  public String getValue() {
+  public float getValue() {
     return value;
   }
 
@@ -201,11 +240,67 @@ public class MynemoRating {
    * {@link #createPrinter(String)} method.
    */
   public void printOn(CSVPrinter printer) throws IOException {
+    checkState(user != UNSET_USER, "The rating must be set.");
+
     // the write order depends on the *_INDEX values
-    printer.print(user);
-    printer.print(movie);
-    printer.print(value);
+    printer.print(getUser());
+    printer.print(Long.toString(movie));
+    printer.print(formatValue(value));
     // end of the record
     printer.println();
   }
+
+  /**
+   * Sets the rating from a record, and returns itself. The record was usually created from a parser
+   * created by the {@link #createParser(String)} method.
+   */
+  public MynemoRating set(CSVRecord record) {
+    return set(record.get(USER_INDEX), record.get(MOVIE_INDEX), record.get(VALUE_INDEX));
+  }
+
+  /**
+   * Sets the rating to the given value by the given user to the given movie, and returns itself.
+   * The user must be in the dictionary of this rating. The origin is unknown.
+   */
+  public MynemoRating set(int user, long movie, float value) {
+    return set(user, movie, value, UNKNOWN_ORIGIN);
+  }
+
+  /**
+   * Sets the rating to the given value by the given user to the given movie, coming from the given
+   * origin, and returns itself. The user must be in the dictionary of this rating.
+   */
+  public MynemoRating set(int user, long movie, float value, long origin) {
+    checkArgument(0 <= user && user < users.size(), "The user must be in the dictionary.");
+    checkArgument(isValid(value), "The value of the rating must be between "
+        + MINIMUM_RATING_VALUE + " and " + MAXIMUM_RATING_VALUE + ".");
+
+    this.user = user;
+    this.movie = movie;
+    this.origin = origin;
+    this.value = value;
+
+    return this;
+  }
+
+  /**
+   * Sets the rating to the given value by the given user to the given movie, and returns itself.
+   * The user is added to the dictionary if necessary.
+   */
+  public MynemoRating set(String user, String movie, String value) {
+    long numericMovie;
+    float numericValue;
+
+    try {
+      checkArgument(user != null && movie != null && value != null);
+      numericMovie = Long.parseLong(movie);
+      numericValue = Float.parseFloat(value);
+      checkArgument(isValid(numericValue));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unable to create the Mynemo rating with from the user '"
+          + user + "' on the movie '" + movie + "' with the value '" + value + "'.", e);
+    }
+
+    return set(users.getIndex(user), numericMovie, numericValue);
+  }
 }
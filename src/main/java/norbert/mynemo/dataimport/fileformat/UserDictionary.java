@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.dataimport.fileformat;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This dictionary maps the user names to dense indexes. The first user gets the index 0, the next
+ * new user gets the index 1, and so on. A dictionary is meant to live as long as the ratings it
+ * indexes, typically the time of an import. Thus, its size is bounded by the number of users of
+ * the imported files. The indexes can be assigned again in the order of the user names, see
+ * {@link #sortByName()}.
+ *
+ * <p>
+ * A dictionary is thread-safe: several importers can add their users at the same time. The index
+ * of a known user is retrieved without locking.
+ */
+public class UserDictionary {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /** A key is a user name, its value is the index of the user. */
+  private final ConcurrentMap<String, Integer> indexes;
+  /** Lock held while adding a user. */
+  private final Object lock;
+  /**
+   * User names by index. The array is replaced by a larger copy when it is full. Only the first
+   * {@link #size} entries are published.
+   */
+  private volatile String[] names;
+  /** Number of known users. Written only while holding the lock. */
+  private volatile int size;
+
+  public UserDictionary() {
+    indexes = new ConcurrentHashMap<>();
+    lock = new Object();
+    names = new String[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Returns the index of the given user. If the user is unknown, a new index is created.
+   */
+  public int getIndex(String user) {
+    checkNotNull(user);
+
+    Integer result = indexes.get(user);
+    if (result != null) {
+      return result;
+    }
+
+    synchronized (lock) {
+      result = indexes.get(user);
+      if (result == null) {
+        result = size;
+        if (result == names.length) {
+          names = Arrays.copyOf(names, 2 * result);
+        }
+        names[result] = user;
+        // the index is published only once the name and the size are published, thus a reader
+        // of the index always sees a size greater than the index
+        size = result + 1;
+        indexes.put(user, result);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the name of the user with the given index. The name is read without locking.
+   */
+  public String getUser(int index) {
+    // the size is read before the array: the names below the size are visible
+    checkArgument(0 <= index && index < size, "The index must be a known index.");
+    return names[index];
+  }
+
+  /**
+   * Assigns the indexes again, in the order of the user names, and returns the new index of each
+   * previous index. The first user name gets the index 0, and so on. Thus, the indexes no longer
+   * depend on the order in which the users were added. The dictionary must not be used by another
+   * thread during the call, and the previous indexes must be translated with the returned array.
+   */
+  public int[] sortByName() {
+    synchronized (lock) {
+      String[] sortedNames = Arrays.copyOf(names, size);
+      Arrays.sort(sortedNames);
+
+      int[] result = new int[size];
+      for (int index = 0; index < size; index++) {
+        // the previous index is replaced by the new one
+        result[indexes.put(sortedNames[index], index)] = index;
+      }
+      names = Arrays.copyOf(sortedNames, names.length);
+
+      return result;
+    }
+  }
+
+  /**
+   * Returns the number of known users.
+   */
+  public int size() {
+    return size;
+  }
+}
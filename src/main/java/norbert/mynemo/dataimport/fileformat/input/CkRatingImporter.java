@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.util.Iterator;
 
 import norbert.mynemo.dataimport.fileformat.MynemoRating;
+import norbert.mynemo.dataimport.fileformat.UserDictionary;
 import norbert.mynemo.dataimport.scraping.CkRating;
 import norbert.mynemo.dataimport.scraping.input.CkMappingFile;
 import norbert.mynemo.dataimport.scraping.input.CkRatingFile;
@@ -42,27 +43,17 @@ public class CkRatingImporter implements RatingImporter {
   private class ConverterIterator extends UnmodifiableIterator<MynemoRating> {
 
     private final Iterator<CkRating> delegate;
+    /** Rating returned by each call to the {@link #next()} method. */
+    private final MynemoRating nextRating;
 
     public ConverterIterator(Iterator<CkRating> delegateIterator) {
       delegate = delegateIterator;
-    }
-
-    /**
-     * Clears the converter.
-     */
-    private void close() {
-      idConverter.clear();
+      nextRating = new MynemoRating(users);
     }
 
     @Override
     public boolean hasNext() {
-      boolean result = delegate.hasNext();
-
-      if (!result) {
-        close();
-      }
-
-      return result;
+      return delegate.hasNext();
     }
 
     @Override
@@ -70,13 +61,9 @@ public class CkRatingImporter implements RatingImporter {
       // retrieve the rating
       CkRating rating = delegate.next();
 
-      // create the rating
-      MynemoRating nextRating;
-      nextRating =
-          new MynemoRating(rating.getUser(), idConverter.convert(rating.getMovie()),
-              rating.getValue());
-
-      return nextRating;
+      // update the rating
+      return nextRating.set(rating.getUser(), idConverter.convert(rating.getMovie()),
+          rating.getValue());
     }
   }
 
@@ -96,12 +83,20 @@ public class CkRatingImporter implements RatingImporter {
 
   private final CkIdConverter idConverter;
   private final String ratingFilepath;
+  private final UserDictionary users;
 
-  public CkRatingImporter(String ratingFilepath, String mappingFilepath) throws IOException {
+  /**
+   * Creates an importer of the given files. The users of the ratings are added to the given
+   * dictionary.
+   */
+  public CkRatingImporter(String ratingFilepath, String mappingFilepath, UserDictionary users)
+      throws IOException {
     checkNotNull(ratingFilepath);
     checkNotNull(mappingFilepath);
+    checkNotNull(users);
 
     this.ratingFilepath = ratingFilepath;
+    this.users = users;
     idConverter = new CkIdConverter(mappingFilepath);
   }
 
@@ -22,8 +22,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
@@ -32,16 +31,23 @@ import org.apache.commons.csv.CSVRecord;
 /**
  * This class provides a conversion from the MovieLens ids of movies to the IMDb ids. This
  * information is extracted from a file that can be exported from the MovieLens web site.
+ *
+ * <p>
+ * The ids are kept as primitives: the MovieLens ids in a sorted array, and the IMDb ids in a
+ * parallel array. A conversion is a binary search, without any object creation.
  */
 class MovieLensIdConverter {
 
   private static final int IMDB_MOVIE_ID_INDEX = 3;
   private static final int MOVIELENS_MOVIE_ID_INDEX = 0;
+  private static final int INITIAL_CAPACITY = 1024;
   private static final int RECORD_SIZE = 5;
-  /**
-   * A map containing a MovieLens id as key, and its corresponding IMDb id as value.
-   */
-  private final Map<String, String> mappings;
+  /** IMDb ids, at the same index as their corresponding MovieLens id. */
+  private final long[] imdbIds;
+  /** Sorted MovieLens ids. */
+  private final int[] movielensIds;
+  /** Number of mappings. */
+  private final int size;
 
   /**
    * Loads the mapping file.
@@ -65,7 +71,11 @@ class MovieLensIdConverter {
         new CSVParser(new CleanRatingsReader(new BufferedReader(new FileReader(mappingFilepath))),
             CSVFormat.MYSQL);
 
-    mappings = new HashMap<>();
+    // packed mappings: the MovieLens id in the high bits, the index of the IMDb id in the low bits
+    long[] keys = new long[INITIAL_CAPACITY];
+    long[] unsortedImdbIds = new long[INITIAL_CAPACITY];
+    int size = 0;
+
     for (CSVRecord record : parser) {
       if (record.size() != RECORD_SIZE) {
         parser.close();
@@ -73,10 +83,45 @@ class MovieLensIdConverter {
             + mappingFilepath + "\". A list of five tab separated values is expected. Approximate"
             + " line number: " + record.getRecordNumber());
       }
-      mappings.put(record.get(MOVIELENS_MOVIE_ID_INDEX), record.get(IMDB_MOVIE_ID_INDEX));
+
+      int movielensId;
+      long imdbId;
+      try {
+        movielensId = Integer.parseInt(record.get(MOVIELENS_MOVIE_ID_INDEX));
+        imdbId = Long.parseLong(record.get(IMDB_MOVIE_ID_INDEX));
+      } catch (NumberFormatException e) {
+        parser.close();
+        throw new IllegalStateException("Error: unable to parse the movie file \""
+            + mappingFilepath + "\". The ids must be integers. Approximate line number: "
+            + record.getRecordNumber(), e);
+      }
+
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        unsortedImdbIds = Arrays.copyOf(unsortedImdbIds, size * 2);
+      }
+      keys[size] = (long) movielensId << 32 | size;
+      unsortedImdbIds[size] = imdbId;
+      size++;
     }
 
     parser.close();
+
+    // sort by MovieLens id, the last mapping of an id is retained
+    Arrays.sort(keys, 0, size);
+    int distinctSize = 0;
+    movielensIds = new int[size];
+    imdbIds = new long[size];
+    for (int index = 0; index < size; index++) {
+      int movielensId = (int) (keys[index] >> 32);
+      if (distinctSize != 0 && movielensIds[distinctSize - 1] == movielensId) {
+        distinctSize--;
+      }
+      movielensIds[distinctSize] = movielensId;
+      imdbIds[distinctSize] = unsortedImdbIds[(int) keys[index]];
+      distinctSize++;
+    }
+    this.size = distinctSize;
   }
 
   /**
@@ -85,16 +130,8 @@ class MovieLensIdConverter {
    *
    * @param movielensId an id of a movie from MovieLens
    */
-  public boolean canConvert(String movielensId) {
-    return mappings.containsKey(movielensId);
-  }
-
-  /**
-   * Removes all known mappings. The converter won't be able to convert any id after this call
-   * returns.
-   */
-  public void clear() {
-    mappings.clear();
+  public boolean canConvert(int movielensId) {
+    return 0 <= Arrays.binarySearch(movielensIds, 0, size, movielensId);
   }
 
   /**
@@ -104,10 +141,10 @@ class MovieLensIdConverter {
    * @return the corresponding IMDb id
    * @throws IllegalArgumentException if {@code movielensId} has no corresponding IMDb id.
    */
-  public String convert(String movielensId) {
-    checkArgument(mappings.containsKey(movielensId), "The MovieLens id of a movie must have a"
-        + " corresponding imdb id.");
+  public long convert(int movielensId) {
+    int index = Arrays.binarySearch(movielensIds, 0, size, movielensId);
+    checkArgument(0 <= index, "The MovieLens id of a movie must have a corresponding imdb id.");
 
-    return mappings.get(movielensId);
+    return imdbIds[index];
   }
 }
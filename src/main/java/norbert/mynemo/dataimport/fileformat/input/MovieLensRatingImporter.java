@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.util.Iterator;
 
 import norbert.mynemo.dataimport.fileformat.MynemoRating;
+import norbert.mynemo.dataimport.fileformat.UserDictionary;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
@@ -52,7 +53,15 @@ public class MovieLensRatingImporter implements RatingImporter {
    * Iterator over a MovieLens rating file that converts the CSV records to Mynemo ratings.
    */
   private final class RatingIterator extends UnmodifiableIterator<MynemoRating> {
-    private Iterator<CSVRecord> iterator = parser.iterator();
+    private final Iterator<CSVRecord> iterator;
+    /** Rating returned by each call to the {@link #next()} method. */
+    private final MynemoRating nextRating = new MynemoRating(users);
+    private final CSVParser parser;
+
+    public RatingIterator(CSVParser parser) {
+      this.parser = parser;
+      iterator = parser.iterator();
+    }
 
     /**
      * Closes the parser.
@@ -79,7 +88,7 @@ public class MovieLensRatingImporter implements RatingImporter {
     @Override
     public MynemoRating next() {
       CSVRecord record = iterator.next();
-      return new MynemoRating(user, record.get(MOVIE_INDEX), record.get(VALUE_INDEX));
+      return nextRating.set(user, record.get(MOVIE_INDEX), record.get(VALUE_INDEX));
     }
   }
 
@@ -115,23 +124,35 @@ public class MovieLensRatingImporter implements RatingImporter {
         CSVFormat.MYSQL);
   }
 
-  private final CSVParser parser;
+  private final String filepath;
   private final String user;
+  private final UserDictionary users;
 
-  public MovieLensRatingImporter(String filepath, String user) throws IOException {
+  /**
+   * Creates an importer of the given file. The given user is the user of all ratings, it is added
+   * to the given dictionary.
+   */
+  public MovieLensRatingImporter(String filepath, String user, UserDictionary users)
+      throws IOException {
     checkNotNull(filepath);
     checkNotNull(user);
+    checkNotNull(users);
     checkArgument(new File(filepath).exists(), "The file must exist.");
 
+    this.filepath = filepath;
     this.user = user;
-    parser = createParser(filepath);
+    this.users = users;
   }
 
   /**
-   * Returns an iterator on the ratings.
+   * Returns an iterator on the ratings. Each call opens the file again.
    */
   @Override
   public Iterator<MynemoRating> iterator() {
-    return new RatingIterator();
+    try {
+      return new RatingIterator(createParser(filepath));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 }
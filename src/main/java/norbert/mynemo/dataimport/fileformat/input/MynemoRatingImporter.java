@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.Iterator;
 
 import norbert.mynemo.dataimport.fileformat.MynemoRating;
+import norbert.mynemo.dataimport.fileformat.UserDictionary;
 
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
@@ -36,7 +37,15 @@ import com.google.common.collect.UnmodifiableIterator;
 public class MynemoRatingImporter implements RatingImporter {
 
   private final class RatingIterator extends UnmodifiableIterator<MynemoRating> {
-    private Iterator<CSVRecord> iterator = parser.iterator();
+    private final Iterator<CSVRecord> iterator;
+    /** Rating returned by each call to the {@link #next()} method. */
+    private final MynemoRating nextRating = new MynemoRating(users);
+    private final CSVParser parser;
+
+    public RatingIterator(CSVParser parser) {
+      this.parser = parser;
+      iterator = parser.iterator();
+    }
 
     @Override
     public boolean hasNext() {
@@ -54,7 +63,7 @@ public class MynemoRatingImporter implements RatingImporter {
 
     @Override
     public MynemoRating next() {
-      return MynemoRating.createRating(iterator.next());
+      return nextRating.set(iterator.next());
     }
   }
 
@@ -70,24 +79,38 @@ public class MynemoRatingImporter implements RatingImporter {
         // the file contains zero rating, but is nonetheless parsable
         return true;
       }
-      MynemoRating.createRating(iterator.next());
+      new MynemoRating(new UserDictionary()).set(iterator.next());
     } catch (Exception e) {
       return false;
     }
     return true;
   }
 
-  private final CSVParser parser;
+  private final String filepath;
+  private final UserDictionary users;
 
-  public MynemoRatingImporter(String filepath) throws IOException {
+  /**
+   * Creates an importer of the given file. The users of the ratings are added to the given
+   * dictionary.
+   */
+  public MynemoRatingImporter(String filepath, UserDictionary users) throws IOException {
     checkArgument(filepath != null, "The rating filepath must be not null.");
+    checkArgument(users != null, "The user dictionary must be not null.");
     checkArgument(new File(filepath).exists(), "The file must exist.");
 
-    parser = MynemoRating.createParser(filepath);
+    this.filepath = filepath;
+    this.users = users;
   }
 
+  /**
+   * Returns an iterator on the ratings. Each call opens the file again.
+   */
   @Override
   public Iterator<MynemoRating> iterator() {
-    return new RatingIterator();
+    try {
+      return new RatingIterator(MynemoRating.createParser(filepath));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 }
@@ -20,6 +20,14 @@ import norbert.mynemo.dataimport.fileformat.MynemoRating;
 
 /**
  * This class represents a importer that can parse a file containing ratings.
+ *
+ * <p>
+ * The iterators of an importer may return the same rating instance on every call, updated with the
+ * next rating. A rating must be copied to be kept after the next call.
+ *
+ * <p>
+ * An importer can be iterated several times. Each iteration returns the same ratings in the same
+ * order.
  */
 public interface RatingImporter extends Iterable<MynemoRating> {
 }
@@ -17,19 +17,23 @@
 package norbert.mynemo.dataimport.fileformat.input;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static norbert.mynemo.dataimport.fileformat.ByteParser.indexOf;
+import static norbert.mynemo.dataimport.fileformat.ByteParser.parseFloat;
+import static norbert.mynemo.dataimport.fileformat.ByteParser.parseInt;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.Iterator;
-import java.util.regex.Pattern;
+import java.util.NoSuchElementException;
 
 import norbert.mynemo.dataimport.fileformat.MynemoRating;
+import norbert.mynemo.dataimport.fileformat.UserDictionary;
 
-import org.apache.commons.io.LineIterator;
-
-import com.google.common.base.Predicate;
-import com.google.common.collect.Iterators;
 import com.google.common.collect.UnmodifiableIterator;
 
 /**
@@ -47,81 +51,176 @@ import com.google.common.collect.UnmodifiableIterator;
  * <p>
  * If a rating is on a movie with a MovieLens id that do not have a corresponding IMDb id, then this
  * rating is ignored.
+ *
+ * <p>
+ * The file is memory-mapped by windows, and each line is parsed byte by byte. The ids are parsed as
+ * integers, and the movie id is converted before the rest of the line is parsed. Thus, the ignored
+ * ratings are skipped without creating any object.
  */
 public class TenMillionRatingImporter implements RatingImporter {
   /**
-   * This iterator converts each given line from the 10 million rating file into a Mynemo rating.
+   * This iterator parses the lines of the 10 million rating file, and converts them into Mynemo
+   * ratings.
    */
   private class ConverterIterator extends UnmodifiableIterator<MynemoRating> {
 
-    private final Iterator<String> delegate;
+    private final FileChannel channel;
+    private final long fileLength;
+    /** MovieLens id of the user of the last parsed rating. */
+    private int lastMovielensUser;
+    /** Index in the user dictionary of the user of the last parsed rating. */
+    private int lastUser;
+    /** <code>true</code> if the {@link #nextRating} field contains a rating not returned yet. */
+    private boolean nextAvailable;
+    /** Rating returned by each call to the {@link #next()} method. */
+    private final MynemoRating nextRating;
+    /** Position of the next line in the window. */
+    private int position;
+    /** Mapped part of the file. */
+    private MappedByteBuffer window;
+    /** Position of the window in the file. */
+    private long windowStart;
 
-    public ConverterIterator(Iterator<String> delegateIterator) {
-      delegate = delegateIterator;
+    public ConverterIterator(RandomAccessFile file) throws IOException {
+      channel = file.getChannel();
+      fileLength = channel.size();
+      lastUser = UNKNOWN_USER;
+      nextRating = new MynemoRating(users);
+      map(0);
     }
 
     /**
-     * Closes the line iterator, that closes the file. Clears the converter.
+     * Closes the file.
      */
     private void close() {
-      idConverter.clear();
-      lineIterator.close();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    /**
+     * Returns the index in the user dictionary of the given MovieLens user. The ratings of a user
+     * are consecutive in the file, thus the user is almost always the user of the last rating.
+     */
+    private int getUser(int movielensUser) {
+      if (lastUser == UNKNOWN_USER || lastMovielensUser != movielensUser) {
+        lastMovielensUser = movielensUser;
+        lastUser = users.getIndex(USER_PREFIX + movielensUser);
+      }
+      return lastUser;
     }
 
     @Override
     public boolean hasNext() {
-      boolean result = delegate.hasNext();
+      if (nextAvailable) {
+        return true;
+      }
+
+      try {
+        while (!nextAvailable && windowStart + position < fileLength) {
+          readLine();
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
 
-      if (!result) {
+      if (!nextAvailable) {
         close();
       }
 
-      return result;
+      return nextAvailable;
+    }
+
+    /**
+     * Maps the part of the file starting at the given position.
+     */
+    private void map(long start) throws IOException {
+      windowStart = start;
+      position = 0;
+      window = channel.map(MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, fileLength - start));
     }
 
     @Override
     public MynemoRating next() {
-      // convert the line into a rating
-      String line = delegate.next();
-
-      // parse the line
-      String[] values = PATTERN.split(line);
-      // retrieve data from the current line
-      String movielensId = values[MOVIE_INDEX];
-      String imdbId = idConverter.convert(movielensId);
-      String user = USER_PREFIX + values[USER_INDEX];
-      String value = values[VALUE_INDEX];
-
-      // create the rating
-      return new MynemoRating(user, imdbId, value);
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      nextAvailable = false;
+      return nextRating;
     }
-  }
 
-  /**
-   * This predicate is true only if the given line from the 10 million rating file is a rating on a
-   * movie that has an IMDb id.
-   */
-  private class HasCorrespondingImdbId implements Predicate<String> {
-    @Override
-    public boolean apply(String input) {
-      // parse the line
-      String[] values = PATTERN.split(input);
-      String movielensId = values[MOVIE_INDEX];
-      return idConverter.canConvert(movielensId);
+    /**
+     * Parses the line between the given positions. If the movie has an IMDb id, updates the
+     * {@link #nextRating} field.
+     */
+    private void parseLine(int from, int to) {
+      int userEnd = indexOf(window, from, to, SEPARATOR_BYTE);
+      int movieEnd = indexOf(window, userEnd + SEPARATOR_LENGTH, to, SEPARATOR_BYTE);
+      int valueEnd = indexOf(window, movieEnd + SEPARATOR_LENGTH, to, SEPARATOR_BYTE);
+      if (to <= movieEnd) {
+        throw new IllegalArgumentException("The line at the offset " + (windowStart + from)
+            + " of the 10 million rating file cannot be parsed.");
+      }
+
+      // movie, the other columns are parsed only if the movie can be converted
+      int movielensMovie = parseInt(window, userEnd + SEPARATOR_LENGTH, movieEnd);
+      if (!idConverter.canConvert(movielensMovie)) {
+        return;
+      }
+
+      int movielensUser = parseInt(window, from, userEnd);
+      float value = parseFloat(window, movieEnd + SEPARATOR_LENGTH, valueEnd);
+
+      nextRating.set(getUser(movielensUser), idConverter.convert(movielensMovie), value);
+      nextAvailable = true;
+    }
+
+    /**
+     * Reads the line at the current position. If the line is not complete in the window, maps the
+     * next part of the file instead.
+     */
+    private void readLine() throws IOException {
+      int limit = window.limit();
+      int lineEnd = indexOf(window, position, limit, LINE_SEPARATOR);
+
+      if (lineEnd == limit && windowStart + limit < fileLength) {
+        if (position == 0) {
+          throw new IllegalArgumentException("The line at the offset " + windowStart
+              + " of the 10 million rating file is too long.");
+        }
+        map(windowStart + position);
+        return;
+      }
+
+      int contentEnd = lineEnd;
+      if (position < contentEnd && window.get(contentEnd - 1) == CARRIAGE_RETURN) {
+        contentEnd--;
+      }
+      if (position < contentEnd) {
+        parseLine(position, contentEnd);
+      }
+
+      position = lineEnd + 1;
     }
   }
 
-  /** Prefix to add to each user id. */
-  private static final String USER_PREFIX = "ml";
+  private static final byte CARRIAGE_RETURN = '\r';
   private static final String KNOWN_LINE1_OF_10M_FILE = "1::122::5::838985046";
   private static final String KNOWN_LINE1_OF_MAPPING_FILE = "<text>";
   private static final String KNOWN_LINE2_OF_MAPPING_FILE =
       "MovieId\tRating\tAverage\tImdbId\tTitle";
-  private static final int MOVIE_INDEX = 1;
-  private static final String MOVIELENS_VALUE_SEPARATOR = "::";
-  private static final Pattern PATTERN = Pattern.compile(MOVIELENS_VALUE_SEPARATOR);
-  private static final int USER_INDEX = 0;
-  private static final int VALUE_INDEX = 2;
+  private static final byte LINE_SEPARATOR = '\n';
+  /** First byte of the separator of the columns. */
+  private static final byte SEPARATOR_BYTE = ':';
+  /** Length of the separator of the columns: <code>::</code>. */
+  private static final int SEPARATOR_LENGTH = 2;
+  private static final int UNKNOWN_USER = -1;
+  /** Prefix to add to each user id. */
+  private static final String USER_PREFIX = "ml";
+  /** Maximum size of the mapped part of the file. */
+  private static final long WINDOW_SIZE = 1 << 27;
 
   /**
    * Returns <code>true</code> if the given file can be parsed and the other given file contains
@@ -143,21 +242,33 @@ public class TenMillionRatingImporter implements RatingImporter {
   }
 
   private final MovieLensIdConverter idConverter;
-  private final LineIterator lineIterator;
+  private final String ratingFilepath;
+  private final UserDictionary users;
 
-  public TenMillionRatingImporter(String ratingFilepath, String mappingFilepath) throws IOException {
+  /**
+   * Creates an importer of the given files. The users of the ratings are added to the given
+   * dictionary.
+   */
+  public TenMillionRatingImporter(String ratingFilepath, String mappingFilepath,
+      UserDictionary users) throws IOException {
     checkNotNull(ratingFilepath);
     checkNotNull(mappingFilepath);
+    checkNotNull(users);
 
+    this.ratingFilepath = ratingFilepath;
+    this.users = users;
     idConverter = new MovieLensIdConverter(mappingFilepath);
-    lineIterator = new LineIterator(new BufferedReader(new FileReader(ratingFilepath)));
   }
 
   /**
-   * Returns an iterator on the ratings.
+   * Returns an iterator on the ratings. Each call opens the file again.
    */
   @Override
   public Iterator<MynemoRating> iterator() {
-    return new ConverterIterator(Iterators.filter(lineIterator, new HasCorrespondingImdbId()));
+    try {
+      return new ConverterIterator(new RandomAccessFile(ratingFilepath, "r"));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 }
@@ -16,36 +16,70 @@
  */
 package norbert.mynemo.dataimport.fileformat.output;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.IOException;
 
 import norbert.mynemo.dataimport.fileformat.MynemoRating;
-import norbert.mynemo.dataimport.scraping.input.CkScraper;
 
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
-
 /**
  * This filter writes all ratings except the ratings already written. Two ratings are considered
  * equal if their users are equal and their movies are equals. The values are not taken in account.
+ *
+ * <p>
+ * A written rating is remembered as a single primitive key, packing the user index and the movie.
+ *
+ * <p>
+ * The origins of the removed ratings can be recorded. Then, an {@link OriginFilter} removes the
+ * same ratings from a later reading of the same files, even if the ratings are read in another
+ * order.
  */
 public class DuplicateRemover implements RatingWriter {
 
-  private static final Logger LOGGER = LoggerFactory.getLogger(CkScraper.class);
+  private static final Logger LOGGER = LoggerFactory.getLogger(DuplicateRemover.class);
+  /** Greatest movie that can be packed into a key. */
+  private static final long MAX_MOVIE = 0xFFFFFFFFL;
+
+  /**
+   * Returns the key of the rating of the given user on the given movie. The user index is stored
+   * in the high bits, the movie in the low bits.
+   */
+  private static long packKey(int user, long movie) {
+    checkArgument(0 <= movie && movie <= MAX_MOVIE, "The movie must be between 0 and "
+        + MAX_MOVIE + ".");
+    return (long) user << Integer.SIZE | movie;
+  }
 
   private final RatingWriter nextWriter;
-  /** Ratings already written. A key is a user, a value is one of its rated movie. */
-  private final Multimap<String, String> unwritableRatings;
+  /** Origins of the removed ratings, or <code>null</code> if they are not recorded. */
+  private final FastIDSet removedOrigins;
+  /** Keys of the ratings already written, see {@link #packKey(int, long)}. */
+  private final FastIDSet unwritableRatings;
 
   public DuplicateRemover(final RatingWriter nextWriter) {
     checkNotNull(nextWriter);
 
     this.nextWriter = nextWriter;
-    unwritableRatings = HashMultimap.create();
+    removedOrigins = null;
+    unwritableRatings = new FastIDSet();
+  }
+
+  /**
+   * Creates a filter that adds the origins of the removed ratings to the given set. The ratings
+   * must have a known origin.
+   */
+  public DuplicateRemover(final RatingWriter nextWriter, final FastIDSet removedOrigins) {
+    checkNotNull(nextWriter);
+    checkNotNull(removedOrigins);
+
+    this.nextWriter = nextWriter;
+    this.removedOrigins = removedOrigins;
+    unwritableRatings = new FastIDSet();
   }
 
   @Override
@@ -58,14 +92,18 @@ public class DuplicateRemover implements RatingWriter {
   public void write(final MynemoRating rating) throws IOException {
     checkNotNull(rating);
 
-    final String user = rating.getUser();
-    final String movie = rating.getMovie();
+    final long movie = rating.getMovie();
 
-    if (!unwritableRatings.containsEntry(user, movie)) {
-      unwritableRatings.put(user, movie);
+    if (unwritableRatings.add(packKey(rating.getUserIndex(), movie))) {
       nextWriter.write(rating);
     } else {
-      LOGGER.warn("A duplicate rating is detected: {} has rated {} more than once.", user, movie);
+      if (removedOrigins != null) {
+        checkArgument(rating.getOrigin() != MynemoRating.UNKNOWN_ORIGIN,
+            "The origin of the rating must be known.");
+        removedOrigins.add(rating.getOrigin());
+      }
+      LOGGER.warn("A duplicate rating is detected: {} has rated {} more than once.",
+          rating.getUser(), movie);
     }
   }
 }
@@ -19,24 +19,20 @@ package norbert.mynemo.dataimport.fileformat.output;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
-import static com.google.common.collect.Lists.newArrayList;
 
 import java.io.IOException;
-import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Queue;
 
 import norbert.mynemo.core.recommendation.similarity.OriginalSpearmanCorrelationSimilarity;
 import norbert.mynemo.dataimport.fileformat.MynemoRating;
+import norbert.mynemo.dataimport.fileformat.output.UserGroupingStore.UserRatings;
 
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.common.Weighting;
-import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
-import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
-import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.similarity.CityBlockSimilarity;
 import org.apache.mahout.cf.taste.impl.similarity.EuclideanDistanceSimilarity;
 import org.apache.mahout.cf.taste.impl.similarity.LogLikelihoodSimilarity;
@@ -48,16 +44,17 @@ import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 
-import com.google.common.base.Charsets;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.MinMaxPriorityQueue;
-import com.google.common.collect.Multimap;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
 
 /**
  * This filter writes only the ratings of a given number of users. Only the nearest neighbors of the
  * given user are written.
+ *
+ * <p>
+ * The ratings are kept in a {@link UserGroupingStore}, they are written only when the
+ * {@link #close()} method is called. The similarities are computed on a data model containing only
+ * the target user and the current neighbor, thus the ratings of all users are never loaded at
+ * once.
  */
 public class MaxNeighborUserFilter implements RatingWriter {
   /**
@@ -67,9 +64,9 @@ public class MaxNeighborUserFilter implements RatingWriter {
   private class ComparableUser implements Comparable<ComparableUser> {
 
     private final double similarity;
-    private final String user;
+    private final int user;
 
-    public ComparableUser(String user, double similarity) {
+    public ComparableUser(int user, double similarity) {
       this.user = user;
       this.similarity = similarity;
     }
@@ -96,7 +93,7 @@ public class MaxNeighborUserFilter implements RatingWriter {
       return similarity == ((ComparableUser) o).similarity;
     }
 
-    public String getUser() {
+    public int getUser() {
       return user;
     }
 
@@ -106,31 +103,23 @@ public class MaxNeighborUserFilter implements RatingWriter {
     }
   }
 
-  private static final HashFunction HASH_FUNCTION = Hashing.goodFastHash(64);
-
-  /**
-   * Returns a <code>long</code> hash from the given string.
-   *
-   * @param string a string
-   * @return the hash of the string
-   */
-  private static long encode(String string) {
-    return HASH_FUNCTION.newHasher().putString(string, Charsets.UTF_8).hash().asLong();
-  }
-
-  /**
-   * All ratings. A key is a user, its value is the user's ratings.
-   */
-  private final Multimap<String, MynemoRating> allRatings;
   private final int maxUsers;
+  /** Movies of all ratings. */
+  private final FastIDSet movies;
   private final RatingWriter nextWriter;
   private final UserSimilarityType similarityType;
-  private final String targetUser;
+  /** Copies of all ratings, grouped by user index. */
+  private final UserGroupingStore store;
+  private final int targetUser;
 
-  public MaxNeighborUserFilter(RatingWriter nextWriter, String user, int maxUsers,
-      UserSimilarityType similarityType) {
+  /**
+   * Creates a writer that writes into the given writer. The target user is an index in the user
+   * dictionary of the ratings. At most the given number of bytes of ratings are kept in memory.
+   */
+  public MaxNeighborUserFilter(RatingWriter nextWriter, int user, int maxUsers,
+      UserSimilarityType similarityType, long memoryBudget) {
     checkNotNull(nextWriter);
-    checkNotNull(user);
+    checkArgument(0 <= user, "The index of the target user must be positive.");
     checkArgument(1 <= maxUsers, "The maximum number of users must be at least 1.");
 
     this.maxUsers = maxUsers;
@@ -138,66 +127,57 @@ public class MaxNeighborUserFilter implements RatingWriter {
     this.similarityType = similarityType;
     this.targetUser = user;
 
-    allRatings = HashMultimap.create();
+    movies = new FastIDSet();
+    store = new UserGroupingStore(memoryBudget);
   }
 
   @Override
   public void close() throws IOException {
     try {
-      HashSet<String> similarUsers = getMostSimilarUsers(createUserSimilarity());
+      HashSet<Integer> similarUsers = getMostSimilarUsers();
 
-      for (String user : allRatings.keySet()) {
-        if (similarUsers.contains(user)) {
-          writeAll(allRatings.get(user));
+      for (UserRatings ratings : store) {
+        if (similarUsers.contains(ratings.getUser())) {
+          ratings.writeTo(nextWriter);
         }
       }
     } catch (TasteException e) {
       throw new RuntimeException(e);
-    };
+    } finally {
+      store.close();
+    }
 
-    allRatings.clear();
+    movies.clear();
 
     nextWriter.close();
   }
 
   /**
-   * Creates a data model from the {@link #allRatings} field.
+   * Creates a data model containing the ratings of the target user. The user indexes are used as
+   * user ids.
    */
-  private DataModel createDataModel() {
-    FastByIDMap<PreferenceArray> map = new FastByIDMap<>(allRatings.keySet().size());
-
-    for (String user : allRatings.keySet()) {
-      long longUser = encode(user);
-      List<MynemoRating> ratings = newArrayList(allRatings.get(user));
-
-      PreferenceArray newPreferences = new GenericUserPreferenceArray(ratings.size());
-
-      // set the user
-      newPreferences.setUserID(0, longUser);
-
-      // add its preferences
-      for (int index = 0; index < newPreferences.length(); index++) {
-        MynemoRating rating = ratings.get(index);
-
-        newPreferences.setItemID(index, rating.getLongMovie());
-        newPreferences.setValue(index, rating.getFloatValue());
+  private NeighborDataModel createDataModel() {
+    PreferenceArray targetPreferences = null;
+    int numUsers = 0;
+
+    for (UserRatings ratings : store) {
+      numUsers++;
+      if (ratings.getUser() == targetUser) {
+        targetPreferences = ratings.getPreferences();
       }
-
-      map.put(longUser, newPreferences);
     }
 
-    checkState(map.containsKey(encode(targetUser)), "The target user of the similarity must have"
+    checkState(targetPreferences != null, "The target user of the similarity must have"
         + " at least one rating.");
 
-    return new GenericDataModel(map);
+    return new NeighborDataModel(targetPreferences, numUsers, movies.size());
   }
 
   /**
-   * Creates and returns a user similarity according to the {@link #similarityType} field.
+   * Creates and returns a user similarity on the given data model, according to the
+   * {@link #similarityType} field.
    */
-  private UserSimilarity createUserSimilarity() throws TasteException {
-    DataModel dataModel = createDataModel();
-
+  private UserSimilarity createUserSimilarity(DataModel dataModel) throws TasteException {
     UserSimilarity result;
 
     switch (similarityType) {
@@ -253,20 +233,24 @@ public class MaxNeighborUserFilter implements RatingWriter {
   }
 
   /**
-   * Returns the most similar users according to the given similarity and the {@link #allUsers}
+   * Returns the most similar users of the target user, according to the {@link #similarityType}
    * field. The target user is included in the returned collection.
    */
-  private HashSet<String> getMostSimilarUsers(UserSimilarity similarity) throws TasteException {
+  private HashSet<Integer> getMostSimilarUsers() throws TasteException {
+    NeighborDataModel dataModel = createDataModel();
+    UserSimilarity similarity = createUserSimilarity(dataModel);
     Queue<ComparableUser> mostSimilarUsers = MinMaxPriorityQueue.maximumSize(maxUsers).create();
-    // cache the value of encoding to speed up
-    long longUser = encode(targetUser);
 
-    for (String currentUser : allRatings.keySet()) {
-      mostSimilarUsers.add(new ComparableUser(currentUser, similarity.userSimilarity(longUser,
-          encode(currentUser))));
+    for (UserRatings ratings : store) {
+      int currentUser = ratings.getUser();
+      if (currentUser != targetUser) {
+        dataModel.setNeighbor(ratings.getPreferences());
+      }
+      mostSimilarUsers.add(new ComparableUser(currentUser, similarity.userSimilarity(targetUser,
+          currentUser)));
     }
 
-    HashSet<String> result = new HashSet<String>();
+    HashSet<Integer> result = new HashSet<Integer>();
     for (ComparableUser currentUser : mostSimilarUsers) {
       result.add(currentUser.getUser());
     }
@@ -274,7 +258,7 @@ public class MaxNeighborUserFilter implements RatingWriter {
     // ensure that the target user is included
     if (!result.contains(targetUser)) {
       // remove a user, then add the target user
-      Iterator<String> iterator = result.iterator();
+      Iterator<Integer> iterator = result.iterator();
       iterator.next();
       iterator.remove();
       result.add(targetUser);
@@ -286,15 +270,7 @@ public class MaxNeighborUserFilter implements RatingWriter {
   @Override
   public void write(MynemoRating rating) throws IOException {
     checkNotNull(rating);
-    allRatings.put(rating.getUser(), rating);
-  }
-
-  /**
-   * Writes the given ratings into the next writer.
-   */
-  private void writeAll(Collection<MynemoRating> ratings) throws IOException {
-    for (MynemoRating rating : ratings) {
-      nextWriter.write(rating);
-    }
+    movies.add(rating.getMovie());
+    store.add(rating);
   }
 }
@@ -32,26 +32,41 @@ import norbert.mynemo.dataimport.fileformat.MynemoRating;
  * <li>a rating of an unknown user is not written
  * <li>a rating of a known user is written
  * </ul>
+ *
+ * <p>
+ * The selected users can be shared by several filters. Then, the first filter selects the users,
+ * and the next filters write only the ratings of these users. That keeps the same users when the
+ * same ratings are written several times in different orders.
  */
 public class MaxUserFilter implements RatingWriter {
 
   private final int maxUsers;
   private final RatingWriter nextWriter;
-  private final Set<String> writableUsers;
+  private final Set<Integer> writableUsers;
 
   public MaxUserFilter(RatingWriter nextWriter, int maxUsers) {
+    this(nextWriter, maxUsers, new HashSet<Integer>());
+  }
+
+  /**
+   * Creates a filter that shares the given selected users. The users written by this filter are
+   * added to the given set while it contains less than the maximum number of users.
+   */
+  public MaxUserFilter(RatingWriter nextWriter, int maxUsers, Set<Integer> writableUsers) {
     checkNotNull(nextWriter);
+    checkNotNull(writableUsers);
     checkArgument(1 <= maxUsers, "The maximum number of users must be at least 1.");
 
     this.maxUsers = maxUsers;
     this.nextWriter = nextWriter;
-
-    writableUsers = new HashSet<>();
+    this.writableUsers = writableUsers;
   }
 
+  /**
+   * Closes the next writer. The selected users are kept, they may be shared with other filters.
+   */
   @Override
   public void close() throws IOException {
-    writableUsers.clear();
     nextWriter.close();
   }
 
@@ -59,7 +74,7 @@ public class MaxUserFilter implements RatingWriter {
   public void write(MynemoRating rating) throws IOException {
     checkNotNull(rating);
 
-    String user = rating.getUser();
+    int user = rating.getUserIndex();
 
     if (writableUsers.size() < maxUsers) {
       writableUsers.add(user);
@@ -20,55 +20,52 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.IOException;
-import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
 import norbert.mynemo.dataimport.fileformat.MynemoRating;
-
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
+import norbert.mynemo.dataimport.fileformat.output.UserGroupingStore.UserRatings;
 
 /**
  * This filter writes only the ratings of a user if it have at least a minimum number of ratings in
  * common with a target user. Two ratings are common if there movies are equal.
  *
  * <p>
- * The ratings are kept in memory, they are written only when the {@link #clone()} method is called.
+ * The ratings are kept in a {@link UserGroupingStore}, they are written only when the
+ * {@link #close()} method is called.
  */
 public class MinCommonRatingFilter implements RatingWriter {
 
   /**
-   * Returns the number of ratings in common between the two given collections.
+   * Returns the number of ratings of the given user on the given movies.
    */
-  private static int numCommonRatings(final Collection<MynemoRating> ratings1,
-      final Collection<MynemoRating> ratings2) {
-
-    final Set<String> movieSet = new HashSet<>();
+  private static int numCommonRatings(final UserRatings ratings, final Set<Long> movies) {
+    int result = 0;
 
-    // fill the set
-    for (MynemoRating rating : ratings1) {
-      movieSet.add(rating.getMovie());
-    }
-    for (MynemoRating rating : ratings2) {
-      movieSet.add(rating.getMovie());
+    for (int index = 0; index < ratings.size(); index++) {
+      if (movies.contains(ratings.getMovie(index))) {
+        result++;
+      }
     }
 
-    return ratings1.size() + ratings2.size() - movieSet.size();
+    return result;
   }
 
-  /** Every rating given to the 'write' method is kept in this map. */
-  private final Multimap<String, MynemoRating> allRatings;
   private final int minCommonRatings;
   private final RatingWriter nextWriter;
-  private final String targetUser;
+  /** A copy of every rating given to the 'write' method is kept in this store, by user index. */
+  private final UserGroupingStore store;
+  private final int targetUser;
 
   /**
-   * Creates a writer that writes into the given writer. The given minimum must be at least 1.
+   * Creates a writer that writes into the given writer. The target user is an index in the user
+   * dictionary of the ratings. The given minimum must be at least 1. At most the given number of
+   * bytes of ratings are kept in memory.
    */
-  public MinCommonRatingFilter(RatingWriter nextWriter, String targetUser, int minCommonRatings) {
+  public MinCommonRatingFilter(RatingWriter nextWriter, int targetUser, int minCommonRatings,
+      long memoryBudget) {
     checkNotNull(nextWriter);
-    checkNotNull(targetUser);
+    checkArgument(0 <= targetUser, "The index of the target user must be positive.");
     checkArgument(1 <= minCommonRatings, "The minimum number of ratings in common must be at"
         + " least 1.");
 
@@ -76,39 +73,38 @@ public class MinCommonRatingFilter implements RatingWriter {
     this.minCommonRatings = minCommonRatings;
     this.nextWriter = nextWriter;
 
-    allRatings = HashMultimap.create();
+    store = new UserGroupingStore(memoryBudget);
   }
 
   @Override
   public void close() throws IOException {
+    try {
+      // retrieve the movies of the target user
+      final Set<Long> targetUserMovies = new HashSet<>();
+      for (UserRatings ratings : store) {
+        if (ratings.getUser() == targetUser) {
+          for (int index = 0; index < ratings.size(); index++) {
+            targetUserMovies.add(ratings.getMovie(index));
+          }
+        }
+      }
 
-    final Collection<MynemoRating> targetUserRatings = allRatings.get(targetUser);
-
-    // write all writable ratings
-    for (String user : allRatings.keySet()) {
-      final Collection<MynemoRating> userRatings = allRatings.get(user);
-      if (minCommonRatings <= numCommonRatings(userRatings, targetUserRatings)) {
-        writeAll(userRatings);
+      // write all writable ratings
+      for (UserRatings ratings : store) {
+        if (minCommonRatings <= numCommonRatings(ratings, targetUserMovies)) {
+          ratings.writeTo(nextWriter);
+        }
       }
+    } finally {
+      store.close();
     }
 
-    allRatings.clear();
-
     nextWriter.close();
   }
 
   @Override
   public void write(MynemoRating rating) throws IOException {
     checkNotNull(rating);
-    allRatings.put(rating.getUser(), rating);
-  }
-
-  /**
-   * Writes the given ratings into the next writer.
-   */
-  private void writeAll(Collection<MynemoRating> ratings) throws IOException {
-    for (MynemoRating rating : ratings) {
-      nextWriter.write(rating);
-    }
+    store.add(rating);
   }
 }
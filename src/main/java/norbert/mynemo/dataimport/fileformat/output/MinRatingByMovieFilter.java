@@ -20,49 +20,39 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.IOException;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
 
 import norbert.mynemo.dataimport.fileformat.MynemoRating;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
-
 /**
  * This filter writes only the ratings of the movies that have at least a given number of ratings.
+ *
+ * <p>
+ * The number of ratings of the movies are known from statistics computed on all ratings before the
+ * first call to the {@link #write(MynemoRating) write} method. Thus no rating is kept in memory.
  */
 public class MinRatingByMovieFilter implements RatingWriter {
 
   private final int minRatingsByMovie;
   private final RatingWriter nextWriter;
-  /**
-   * Unwritten ratings by movie. Every rating given to the {@link #write(MynemoRating) write} method
-   * is kept in this map until the minimum number is reached.
-   */
-  private final Multimap<String, MynemoRating> unwrittenRatings;
-  /** A rating for a movie in this set can be written to the next writer. */
-  private final Set<String> writableMovies;
+  private final RatingStatistics statistics;
 
   /**
-   * Creates a writer that writes into the given writer. The given minimum must be at least 1.
+   * Creates a writer that writes into the given writer. The given minimum must be at least 1. The
+   * given statistics must have been computed on all ratings that will be given to this writer.
    */
-  public MinRatingByMovieFilter(RatingWriter nextWriter, int minRatingsByMovie) {
+  public MinRatingByMovieFilter(RatingWriter nextWriter, int minRatingsByMovie,
+      RatingStatistics statistics) {
     checkNotNull(nextWriter);
+    checkNotNull(statistics);
     checkArgument(1 <= minRatingsByMovie, "The minimum rating by movie must be at least 1.");
 
     this.minRatingsByMovie = minRatingsByMovie;
     this.nextWriter = nextWriter;
-
-    unwrittenRatings = HashMultimap.create();
-    writableMovies = new HashSet<>();
+    this.statistics = statistics;
   }
 
   @Override
   public void close() throws IOException {
-    unwrittenRatings.clear();
-    writableMovies.clear();
-
     nextWriter.close();
   }
 
@@ -70,30 +60,7 @@ public class MinRatingByMovieFilter implements RatingWriter {
   public void write(MynemoRating rating) throws IOException {
     checkNotNull(rating);
 
-    String movie = rating.getMovie();
-
-    // write and return if possible
-    if (writableMovies.contains(movie)) {
-      nextWriter.write(rating);
-      return;
-    }
-
-    unwrittenRatings.put(movie, rating);
-    final Collection<MynemoRating> movieRatings = unwrittenRatings.get(movie);
-
-    // check if the movie has become writable
-    if (minRatingsByMovie <= movieRatings.size()) {
-      writableMovies.add(movie);
-      writeAll(movieRatings);
-      unwrittenRatings.removeAll(movie);
-    }
-  }
-
-  /**
-   * Writes the given ratings into the next writer.
-   */
-  private void writeAll(Collection<MynemoRating> ratings) throws IOException {
-    for (MynemoRating rating : ratings) {
+    if (minRatingsByMovie <= statistics.getMovieRatingCount(rating.getMovie())) {
       nextWriter.write(rating);
     }
   }
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.dataimport.fileformat.output;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collection;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.AbstractDataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * This data model contains the preferences of a target user and of one neighbor at a time. The
+ * neighbor can be replaced, so that the similarity between the target user and every other user is
+ * computed without loading all preferences. The numbers of users and items are the ones of the
+ * whole data set, as the weighted similarities and the log-likelihood depend on them.
+ *
+ * <p>
+ * Only the user-oriented methods are supported.
+ */
+class NeighborDataModel extends AbstractDataModel {
+
+  private static final long serialVersionUID = 1L;
+
+  private PreferenceArray neighbor;
+  private final int numItems;
+  private final int numUsers;
+  private final PreferenceArray target;
+
+  /**
+   * Creates a data model containing the given preferences of the target user. The given numbers are
+   * the ones of the whole data set.
+   */
+  public NeighborDataModel(PreferenceArray target, int numUsers, int numItems) {
+    checkNotNull(target);
+    checkArgument(0 < target.length(), "The target user must have at least one preference.");
+
+    this.numItems = numItems;
+    this.numUsers = numUsers;
+    this.target = target;
+
+    neighbor = target;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws NoSuchUserException {
+    PreferenceArray preferences = getPreferencesFromUser(userID);
+
+    FastIDSet result = new FastIDSet(preferences.length());
+    for (int index = 0; index < preferences.length(); index++) {
+      result.add(preferences.getItemID(index));
+    }
+
+    return result;
+  }
+
+  @Override
+  public int getNumItems() {
+    return numItems;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return numUsers;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws NoSuchUserException {
+    if (userID == target.getUserID(0)) {
+      return target;
+    }
+    if (userID == neighbor.getUserID(0)) {
+      return neighbor;
+    }
+    throw new NoSuchUserException(userID);
+  }
+
+  /**
+   * Always returns <code>null</code>, this data model does not contain timestamps.
+   */
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) {
+    return null;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws NoSuchUserException {
+    PreferenceArray preferences = getPreferencesFromUser(userID);
+
+    for (int index = 0; index < preferences.length(); index++) {
+      if (preferences.getItemID(index) == itemID) {
+        return preferences.getValue(index);
+      }
+    }
+
+    return null;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    if (neighbor == target) {
+      return new LongPrimitiveArrayIterator(new long[] {target.getUserID(0)});
+    }
+    return new LongPrimitiveArrayIterator(new long[] {target.getUserID(0), neighbor.getUserID(0)});
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return true;
+  }
+
+  /**
+   * Does nothing, this data model is only changed by the {@link #setNeighbor(PreferenceArray)}
+   * method.
+   */
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // nothing to refresh
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Replaces the neighbor by the user of the given preferences. The preferences must be sorted by
+   * item.
+   */
+  public void setNeighbor(PreferenceArray neighbor) {
+    checkNotNull(neighbor);
+    checkArgument(0 < neighbor.length(), "The neighbor must have at least one preference.");
+
+    this.neighbor = neighbor;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+}
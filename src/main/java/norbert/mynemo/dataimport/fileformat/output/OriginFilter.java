@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.dataimport.fileformat.output;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+
+import norbert.mynemo.dataimport.fileformat.MynemoRating;
+
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+
+/**
+ * This filter writes all ratings except the ratings coming from the given origins. The ratings must
+ * have a known origin.
+ *
+ * <p>
+ * The origins are usually recorded by a {@link DuplicateRemover} during a previous reading of the
+ * same files. Thus, the same ratings are removed at each reading, whatever the order of the
+ * ratings.
+ */
+public class OriginFilter implements RatingWriter {
+
+  private final RatingWriter nextWriter;
+  private final FastIDSet unwritableOrigins;
+
+  /**
+   * Creates a writer that writes into the given writer the ratings whose origins are not in the
+   * given set.
+   */
+  public OriginFilter(final RatingWriter nextWriter, final FastIDSet unwritableOrigins) {
+    checkNotNull(nextWriter);
+    checkNotNull(unwritableOrigins);
+
+    this.nextWriter = nextWriter;
+    this.unwritableOrigins = unwritableOrigins;
+  }
+
+  @Override
+  public void close() throws IOException {
+    nextWriter.close();
+  }
+
+  @Override
+  public void write(final MynemoRating rating) throws IOException {
+    checkNotNull(rating);
+    checkArgument(rating.getOrigin() != MynemoRating.UNKNOWN_ORIGIN,
+        "The origin of the rating must be known.");
+
+    if (!unwritableOrigins.contains(rating.getOrigin())) {
+      nextWriter.write(rating);
+    }
+  }
+}
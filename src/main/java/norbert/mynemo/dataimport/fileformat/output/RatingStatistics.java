@@ -0,0 +1,171 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.dataimport.fileformat.output;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import norbert.mynemo.dataimport.fileformat.MynemoRating;
+
+/**
+ * This writer does not write the ratings, it computes statistics on them: the number of ratings
+ * and the maximum value of each user, if a user has rated with several values, and the number of
+ * ratings of each movie. The memory used is proportional to the number of users and movies, not to
+ * the number of ratings.
+ *
+ * <p>
+ * The statistics are used by the filters that need to know all ratings of a user or of a movie
+ * before writing the first one. A first pass fills the statistics, then a second pass writes every
+ * rating immediately.
+ */
+public class RatingStatistics implements RatingWriter {
+
+  private static final int INITIAL_CAPACITY = 1024;
+  /** Lower than any valid rating value. */
+  private static final float LOWER_THAN_MINIMUM_VALUE = MynemoRating.MINIMUM_RATING_VALUE - 1;
+
+  /** Value of the first rating of each user, by user index. */
+  private float[] firstValues;
+  /** Maximum value of each user, by user index. */
+  private float[] maxValues;
+  /** A key is a movie, its value is the number of ratings of the movie. */
+  private final Map<Long, Integer> movieRatingCounts;
+  /** Flags telling if a user has rated with several values, by user index. */
+  private boolean[] severalValues;
+  /** Number of ratings of each user, by user index. */
+  private int[] userRatingCounts;
+
+  public RatingStatistics() {
+    firstValues = new float[INITIAL_CAPACITY];
+    maxValues = new float[INITIAL_CAPACITY];
+    movieRatingCounts = new HashMap<>();
+    severalValues = new boolean[INITIAL_CAPACITY];
+    userRatingCounts = new int[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Does nothing, the statistics stay available.
+   */
+  @Override
+  public void close() {
+    // nothing to close
+  }
+
+  /**
+   * Ensures that the arrays can contain the given user index.
+   */
+  private void ensureCapacity(int user) {
+    if (user < userRatingCounts.length) {
+      return;
+    }
+
+    int newCapacity = Math.max(user + 1, userRatingCounts.length * 2);
+    firstValues = Arrays.copyOf(firstValues, newCapacity);
+    maxValues = Arrays.copyOf(maxValues, newCapacity);
+    severalValues = Arrays.copyOf(severalValues, newCapacity);
+    userRatingCounts = Arrays.copyOf(userRatingCounts, newCapacity);
+  }
+
+  /**
+   * Returns the maximum value of the ratings of the given user. If the user has no rating, returns
+   * a lower value than any possible real value.
+   */
+  public float getMaxValue(int user) {
+    if (getUserRatingCount(user) == 0) {
+      return LOWER_THAN_MINIMUM_VALUE;
+    }
+    return maxValues[user];
+  }
+
+  /**
+   * Returns the number of ratings of the given movie.
+   */
+  public int getMovieRatingCount(long movie) {
+    Integer result = movieRatingCounts.get(movie);
+    return result == null ? 0 : result;
+  }
+
+  /**
+   * Returns the number of ratings of the given user.
+   */
+  public int getUserRatingCount(int user) {
+    if (user < 0 || userRatingCounts.length <= user) {
+      return 0;
+    }
+    return userRatingCounts[user];
+  }
+
+  /**
+   * Returns <code>true</code> if at least two ratings of the given user have different values.
+   * Returns <code>false</code> otherwise.
+   */
+  public boolean hasSeveralValues(int user) {
+    return getUserRatingCount(user) != 0 && severalValues[user];
+  }
+
+  /**
+   * Moves the statistics of each user to its new index. The value at the index <code>i</code> of
+   * the given array is the new index of the user whose index was <code>i</code>.
+   */
+  public void renumberUsers(int[] newIndexes) {
+    checkNotNull(newIndexes);
+
+    int capacity = Math.max(userRatingCounts.length, newIndexes.length);
+    float[] newFirstValues = new float[capacity];
+    float[] newMaxValues = new float[capacity];
+    boolean[] newSeveralValues = new boolean[capacity];
+    int[] newUserRatingCounts = new int[capacity];
+    for (int user = 0; user < Math.min(userRatingCounts.length, newIndexes.length); user++) {
+      int newUser = newIndexes[user];
+      newFirstValues[newUser] = firstValues[user];
+      newMaxValues[newUser] = maxValues[user];
+      newSeveralValues[newUser] = severalValues[user];
+      newUserRatingCounts[newUser] = userRatingCounts[user];
+    }
+
+    firstValues = newFirstValues;
+    maxValues = newMaxValues;
+    severalValues = newSeveralValues;
+    userRatingCounts = newUserRatingCounts;
+  }
+
+  @Override
+  public void write(MynemoRating rating) {
+    checkNotNull(rating);
+
+    int user = rating.getUserIndex();
+    float value = rating.getValue();
+    ensureCapacity(user);
+
+    // user
+    if (userRatingCounts[user] == 0) {
+      firstValues[user] = value;
+      maxValues[user] = value;
+    } else {
+      maxValues[user] = Math.max(maxValues[user], value);
+      severalValues[user] |= firstValues[user] != value;
+    }
+    userRatingCounts[user]++;
+
+    // movie
+    long movie = rating.getMovie();
+    movieRatingCounts.put(movie, getMovieRatingCount(movie) + 1);
+  }
+}
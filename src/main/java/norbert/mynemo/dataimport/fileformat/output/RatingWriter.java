@@ -26,7 +26,8 @@ import norbert.mynemo.dataimport.fileformat.MynemoRating;
  */
 public interface RatingWriter extends Closeable {
   /**
-   * Writes the given rating.
+   * Writes the given rating. The caller may modify the rating after this method returns, thus a
+   * writer that keeps the rating must keep a copy.
    *
    * @throws IOException if the rating cannot be written
    */
@@ -19,39 +19,40 @@ package norbert.mynemo.dataimport.fileformat.output;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.IOException;
-import java.util.Collection;
 
 import norbert.mynemo.dataimport.fileformat.MynemoRating;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
-
 /**
  * This writer scales the value of a rating if necessary. The Mynemo scale goes from 0 to 100. If
  * the maximum value of the ratings of one user is lower than 50, then all its ratings are linearly
  * scaled such as the new maximum value is 100.
+ *
+ * <p>
+ * The maximum values of the users are known from statistics computed on all ratings before the
+ * first call to the {@link #write(MynemoRating) write} method. Thus no rating is kept in memory.
  */
 public class ScaleValueWriter implements RatingWriter {
 
   private final RatingWriter nextWriter;
   private final Scaler scaler;
-  private final Multimap<String, MynemoRating> unwrittenRatings;
+  /** Rating given to the next writer when a rating is scaled. Created with the first rating. */
+  private MynemoRating scaledRating;
 
-  public ScaleValueWriter(RatingWriter nextWriter) {
+  /**
+   * Creates a writer that writes into the given writer. The given statistics must have been
+   * computed on all ratings that will be given to this writer.
+   */
+  public ScaleValueWriter(RatingWriter nextWriter, RatingStatistics statistics) {
     checkNotNull(nextWriter);
+    checkNotNull(statistics);
 
     this.nextWriter = nextWriter;
 
-    scaler = new Scaler();
-    unwrittenRatings = HashMultimap.create();
+    scaler = new Scaler(statistics);
   }
 
   @Override
   public void close() throws IOException {
-    for (MynemoRating rating : unwrittenRatings.values()) {
-      nextWriter.write(scaler.scale(rating));
-    }
-    unwrittenRatings.clear();
     nextWriter.close();
   }
 
@@ -59,27 +60,17 @@ public class ScaleValueWriter implements RatingWriter {
   public void write(MynemoRating rating) throws IOException {
     checkNotNull(rating);
 
-    final String user = rating.getUser();
+    final int user = rating.getUserIndex();
 
     if (scaler.cantScaleRatingsOf(user)) {
       nextWriter.write(rating);
       return;
     }
 
-    unwrittenRatings.put(user, rating);
-
-    if (scaler.updateWith(rating).cantScaleRatingsOf(user)) {
-      writeAll(unwrittenRatings.get(user));
-      unwrittenRatings.removeAll(user);
-    }
-  }
-
-  /**
-   * Writes the given ratings into the next writer.
-   */
-  private void writeAll(Collection<MynemoRating> ratings) throws IOException {
-    for (MynemoRating rating : ratings) {
-      nextWriter.write(rating);
+    if (scaledRating == null) {
+      scaledRating = new MynemoRating(rating.getUserDictionary());
     }
+    scaledRating.set(user, rating.getMovie(), scaler.scale(rating));
+    nextWriter.write(scaledRating);
   }
 }
@@ -16,14 +16,9 @@
  */
 package norbert.mynemo.dataimport.fileformat.output;
 
-import static com.google.common.base.Optional.fromNullable;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-
 import norbert.mynemo.dataimport.fileformat.MynemoRating;
 
 /**
@@ -32,76 +27,50 @@ import norbert.mynemo.dataimport.fileformat.MynemoRating;
  * values are 40 and 100.
  *
  * <p>
- * The scaler is updated via the {@link #updateWith(MynemoRating)} method.
+ * The maximum values of the users are given by statistics.
  *
  * <p>
  * The scaler can't scale the ratings of a user if its maximum rating is greater than 50. See the
- * method {@link #cantScaleRatingsOf(String)}.
+ * method {@link #cantScaleRatingsOf(int)}.
  */
 class Scaler {
 
-  private static final float LOWER_THAN_MINIMUM_VALUE = MynemoRating.MINIMUM_RATING_VALUE - 1;
   /** Threshold that determines if the ratings of an user must be scaled. */
   private static final int MAX_VALUE_FOR_SCALING = 50;
 
   /**
    * Returns the scaled value, based on the given maximum value.
    */
-  private static String scale(final Float value, final Float maximumValue) {
-    final Float newValue = value * MynemoRating.MAXIMUM_RATING_VALUE / maximumValue;
-    return Long.toString(Math.round(newValue));
+  private static float scale(final float value, final float maximumValue) {
+    final float newValue = value * MynemoRating.MAXIMUM_RATING_VALUE / maximumValue;
+    return Math.round(newValue);
   }
 
-  /** A key is a user, the value is the maximum known value of its ratings. */
-  private final Map<String, Float> values;
+  /** Statistics providing the maximum value of each user. */
+  private final RatingStatistics statistics;
 
-  public Scaler() {
-    values = new HashMap<>();
-  }
+  public Scaler(RatingStatistics statistics) {
+    checkNotNull(statistics);
 
-  /**
-   * Returns <code>true</code> if the ratings of the given user are already scaled.
-   */
-  public boolean cantScaleRatingsOf(String user) {
-    checkNotNull(user);
-
-    return MAX_VALUE_FOR_SCALING < getMaxValueOf(user);
+    this.statistics = statistics;
   }
 
   /**
-   * Returns the maximum value of the given user. If the maximum value is unknown, returns a lower
-   * value than any possible real value.
+   * Returns <code>true</code> if the ratings of the given user are already scaled.
    */
-  private float getMaxValueOf(final String user) {
-    return fromNullable(values.get(user)).or(LOWER_THAN_MINIMUM_VALUE);
+  public boolean cantScaleRatingsOf(int user) {
+    return MAX_VALUE_FOR_SCALING < statistics.getMaxValue(user);
   }
 
   /**
-   * Returns a new rating identical to the given rating, except its value that is scaled.
+   * Returns the scaled value of the given rating.
    *
    * @throws IllegalArgumentException if the given rating can't be scaled
    */
-  public MynemoRating scale(final MynemoRating rating) {
-    checkArgument(!cantScaleRatingsOf(rating.getUser()), "The given rating can't be scaled.");
-
-    final String user = rating.getUser();
-    final String scaledValue = scale(rating.getFloatValue(), getMaxValueOf(user));
-    return new MynemoRating(user, rating.getMovie(), scaledValue);
-  }
-
-  /**
-   * Updates the internal state with the given rating. Returns itself.
-   */
-  public Scaler updateWith(final MynemoRating rating) throws IOException {
-    checkNotNull(rating);
-
-    final String user = rating.getUser();
-    final Float newValue = rating.getFloatValue();
-    final Float currentValue = getMaxValueOf(user);
-    final Float updatedValue = Math.max(newValue, currentValue);
-
-    values.put(user, updatedValue);
+  public float scale(final MynemoRating rating) {
+    final int user = rating.getUserIndex();
+    checkArgument(!cantScaleRatingsOf(user), "The given rating can't be scaled.");
 
-    return this;
+    return scale(rating.getValue(), statistics.getMaxValue(user));
   }
 }
@@ -19,58 +19,36 @@ package norbert.mynemo.dataimport.fileformat.output;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.IOException;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
 
 import norbert.mynemo.dataimport.fileformat.MynemoRating;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
-
 /**
  * This filter writes only the ratings of an user if at least two of its ratings have a different
  * values. In other words, it removes every user that rates with only one value.
+ *
+ * <p>
+ * The values of the users are known from statistics computed on all ratings before the first call
+ * to the {@link #write(MynemoRating) write} method. Thus no rating is kept in memory.
  */
 public class UnivalueRemover implements RatingWriter {
 
-  /**
-   * Returns <code>true</code> if the given ratings contains at least two different values. Returns
-   * <code>false</code> otherwise.
-   */
-  private static boolean containDifferentValues(final Collection<MynemoRating> ratings) {
-    final Set<String> set = new HashSet<String>();
-
-    for (MynemoRating rating : ratings) {
-      set.add(rating.getValue());
-    }
-
-    return 2 <= set.size();
-  }
-
   private final RatingWriter nextWriter;
+  private final RatingStatistics statistics;
+
   /**
-   * Unwritten ratings by user. Every rating given to the 'write' method is kept in this map until
-   * the ratings become writable.
+   * Creates a writer that writes into the given writer. The given statistics must have been
+   * computed on all ratings that will be given to this writer.
    */
-  private final Multimap<String, MynemoRating> unwrittenRatings;
-  /** A rating of a user in this set can be written to the next writer. */
-  private final Set<String> writableUsers;
-
-  public UnivalueRemover(final RatingWriter nextWriter) {
+  public UnivalueRemover(final RatingWriter nextWriter, final RatingStatistics statistics) {
     checkNotNull(nextWriter);
+    checkNotNull(statistics);
 
     this.nextWriter = nextWriter;
-
-    unwrittenRatings = HashMultimap.create();
-    writableUsers = new HashSet<>();
+    this.statistics = statistics;
   }
 
   @Override
   public void close() throws IOException {
-    unwrittenRatings.clear();
-    writableUsers.clear();
-
     nextWriter.close();
   }
 
@@ -78,30 +56,7 @@ public class UnivalueRemover implements RatingWriter {
   public void write(final MynemoRating rating) throws IOException {
     checkNotNull(rating);
 
-    final String user = rating.getUser();
-
-    // write and return if possible
-    if (writableUsers.contains(user)) {
-      nextWriter.write(rating);
-      return;
-    }
-
-    unwrittenRatings.put(user, rating);
-    final Collection<MynemoRating> userRatings = unwrittenRatings.get(user);
-
-    // check if the user has become writable
-    if (containDifferentValues(userRatings)) {
-      writableUsers.add(user);
-      writeAll(userRatings);
-      unwrittenRatings.removeAll(user);
-    }
-  }
-
-  /**
-   * Writes the given ratings into the next writer.
-   */
-  private void writeAll(Collection<MynemoRating> ratings) throws IOException {
-    for (MynemoRating rating : ratings) {
+    if (statistics.hasSeveralValues(rating.getUserIndex())) {
       nextWriter.write(rating);
     }
   }
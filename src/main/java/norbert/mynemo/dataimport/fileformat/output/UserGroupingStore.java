@@ -0,0 +1,445 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.dataimport.fileformat.output;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import norbert.mynemo.dataimport.fileformat.MynemoRating;
+import norbert.mynemo.dataimport.fileformat.UserDictionary;
+
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+import com.google.common.collect.UnmodifiableIterator;
+
+/**
+ * This store groups the ratings by user, under a memory budget. The ratings are added one by one,
+ * then the store is iterated user by user. It is meant for the filters that need to see all
+ * ratings of a user at once.
+ *
+ * <p>
+ * The added ratings are kept in primitive arrays. When the memory budget is reached, the ratings
+ * are sorted by user and written into a temporary file, called a run. An iteration merges the runs
+ * and the ratings still in memory. Thus, the memory used by an iteration is bounded by the budget
+ * and the ratings of one user.
+ *
+ * <p>
+ * The ratings of a user are returned in the order they were added. The users are returned in the
+ * increasing order of their indexes. The store can be iterated several times, but no rating can be
+ * added once an iteration is started. The temporary files are deleted when the store is closed.
+ */
+public class UserGroupingStore implements Iterable<UserGroupingStore.UserRatings>, Closeable {
+
+  /**
+   * This iterator merges the runs and the ratings in memory, and returns the ratings of one user
+   * at each call.
+   */
+  private class GroupIterator extends UnmodifiableIterator<UserRatings> {
+    /** Sources ordered by their current user, then by their order of creation. */
+    private final PriorityQueue<RunReader> queue;
+
+    public GroupIterator() {
+      queue = new PriorityQueue<>();
+      try {
+        for (int index = 0; index < runFiles.size(); index++) {
+          addIfNotEmpty(new FileRunReader(index, runFiles.get(index)));
+        }
+        addIfNotEmpty(new MemoryRunReader(runFiles.size()));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    private void addIfNotEmpty(RunReader reader) throws IOException {
+      if (reader.advance()) {
+        queue.add(reader);
+      } else {
+        reader.close();
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !queue.isEmpty();
+    }
+
+    @Override
+    public UserRatings next() {
+      if (queue.isEmpty()) {
+        throw new NoSuchElementException();
+      }
+
+      int user = queue.peek().user;
+      UserRatings result = new UserRatings(user);
+
+      try {
+        while (!queue.isEmpty() && queue.peek().user == user) {
+          RunReader reader = queue.poll();
+          result.add(reader.movie, reader.value);
+          addIfNotEmpty(reader);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+
+      return result;
+    }
+  }
+
+  /**
+   * This reader provides the ratings of a run file.
+   */
+  private class FileRunReader extends RunReader {
+    private final DataInputStream input;
+
+    public FileRunReader(int order, File file) throws IOException {
+      super(order);
+      input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+      openedStreams.add(input);
+    }
+
+    @Override
+    public boolean advance() throws IOException {
+      try {
+        user = input.readInt();
+      } catch (EOFException e) {
+        return false;
+      }
+      movie = input.readLong();
+      value = input.readFloat();
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      input.close();
+      openedStreams.remove(input);
+    }
+  }
+
+  /**
+   * This reader provides the ratings still in memory, in the sorted order.
+   */
+  private class MemoryRunReader extends RunReader {
+    private int position;
+
+    public MemoryRunReader(int order) {
+      super(order);
+      sortBuffer();
+      position = 0;
+    }
+
+    @Override
+    public boolean advance() {
+      if (position == size) {
+        return false;
+      }
+      int index = (int) sortedKeys[position++];
+      user = users[index];
+      movie = movies[index];
+      value = values[index];
+      return true;
+    }
+
+    @Override
+    public void close() {
+      // nothing to close
+    }
+  }
+
+  /**
+   * This reader provides the ratings of a run, one by one. The readers are ordered by their current
+   * user, then by the order of creation of their run. Thus, the ratings of a user are merged in the
+   * order they were added to the store.
+   */
+  private abstract static class RunReader implements Comparable<RunReader>, Closeable {
+    protected long movie;
+    private final int order;
+    protected int user;
+    protected float value;
+
+    public RunReader(int order) {
+      this.order = order;
+    }
+
+    /**
+     * Reads the next rating of the run. Returns <code>false</code> if the run is exhausted.
+     */
+    public abstract boolean advance() throws IOException;
+
+    @Override
+    public int compareTo(RunReader o) {
+      if (user != o.user) {
+        return user < o.user ? -1 : 1;
+      }
+      return Integer.compare(order, o.order);
+    }
+  }
+
+  /**
+   * This class contains all ratings of one user.
+   */
+  public class UserRatings {
+    private long[] movies;
+    private int size;
+    private final int user;
+    private float[] values;
+
+    private UserRatings(int user) {
+      this.user = user;
+      movies = new long[16];
+      values = new float[16];
+    }
+
+    private void add(long movie, float value) {
+      if (size == movies.length) {
+        movies = Arrays.copyOf(movies, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      movies[size] = movie;
+      values[size] = value;
+      size++;
+    }
+
+    /**
+     * Returns the movie of the rating at the given position.
+     */
+    public long getMovie(int index) {
+      checkArgument(0 <= index && index < size, "The index must be a valid position.");
+      return movies[index];
+    }
+
+    /**
+     * Returns the ratings as preferences sorted by item. The user index is used as user id.
+     */
+    public PreferenceArray getPreferences() {
+      PreferenceArray result = new GenericUserPreferenceArray(size);
+      result.setUserID(0, user);
+      for (int index = 0; index < size; index++) {
+        result.setItemID(index, movies[index]);
+        result.setValue(index, values[index]);
+      }
+      result.sortByItem();
+      return result;
+    }
+
+    /**
+     * Returns the index of the user in the user dictionary of the ratings.
+     */
+    public int getUser() {
+      return user;
+    }
+
+    /**
+     * Returns the value of the rating at the given position.
+     */
+    public float getValue(int index) {
+      checkArgument(0 <= index && index < size, "The index must be a valid position.");
+      return values[index];
+    }
+
+    /**
+     * Returns the number of ratings of the user.
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Writes the ratings into the given writer, in the order they were added to the store.
+     */
+    public void writeTo(RatingWriter writer) throws IOException {
+      checkNotNull(writer);
+
+      if (writtenRating == null) {
+        writtenRating = new MynemoRating(dictionary);
+      }
+      for (int index = 0; index < size; index++) {
+        writtenRating.set(user, movies[index], values[index]);
+        writer.write(writtenRating);
+      }
+    }
+  }
+
+  private static final int BUFFER_SIZE = 1 << 16;
+  /** Default memory budget: 64 MiB. */
+  public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+  /** Bytes used in memory by one rating: user, movie, value and sort key. */
+  private static final int RATING_SIZE = 24;
+  private static final String RUN_FILE_PREFIX = "mynemo-run-";
+  private static final String RUN_FILE_SUFFIX = ".tmp";
+
+  private final int capacity;
+  /** Dictionary of the users, retrieved from the first added rating. */
+  private UserDictionary dictionary;
+  private boolean iterated;
+  private long[] movies;
+  /** Streams of the iterations not finished yet, closed with the store. */
+  private final List<Closeable> openedStreams;
+  private final List<File> runFiles;
+  private int size;
+  /** Sort keys of the ratings in memory: the user in the high bits, the position in the low bits. */
+  private long[] sortedKeys;
+  private int[] users;
+  private float[] values;
+  /** Rating given to the writers by the {@link UserRatings#writeTo(RatingWriter)} method. */
+  private MynemoRating writtenRating;
+
+  /**
+   * Creates a store using the default memory budget.
+   */
+  public UserGroupingStore() {
+    this(DEFAULT_MEMORY_BUDGET);
+  }
+
+  /**
+   * Creates a store that keeps in memory at most the given number of bytes of ratings.
+   */
+  public UserGroupingStore(long memoryBudget) {
+    checkArgument(RATING_SIZE <= memoryBudget, "The memory budget must be at least "
+        + RATING_SIZE + " bytes.");
+
+    capacity = (int) Math.min(memoryBudget / RATING_SIZE, Integer.MAX_VALUE - 8);
+    movies = new long[Math.min(capacity, BUFFER_SIZE)];
+    openedStreams = new ArrayList<>();
+    runFiles = new ArrayList<>();
+    sortedKeys = new long[0];
+    users = new int[movies.length];
+    values = new float[movies.length];
+  }
+
+  /**
+   * Adds a copy of the given rating. If the memory budget is reached, the ratings in memory are
+   * written into a run file.
+   */
+  public void add(MynemoRating rating) throws IOException {
+    checkNotNull(rating);
+    checkState(!iterated, "No rating can be added once the store is iterated.");
+
+    if (dictionary == null) {
+      dictionary = rating.getUserDictionary();
+    }
+
+    if (size == capacity) {
+      spill();
+    }
+    if (size == users.length) {
+      int newCapacity = (int) Math.min(capacity, size * 2L);
+      movies = Arrays.copyOf(movies, newCapacity);
+      users = Arrays.copyOf(users, newCapacity);
+      values = Arrays.copyOf(values, newCapacity);
+    }
+
+    movies[size] = rating.getMovie();
+    users[size] = rating.getUserIndex();
+    values[size] = rating.getValue();
+    size++;
+  }
+
+  /**
+   * Closes the streams of the unfinished iterations, deletes the run files and releases the
+   * memory.
+   */
+  @Override
+  public void close() throws IOException {
+    for (Closeable stream : openedStreams) {
+      stream.close();
+    }
+    openedStreams.clear();
+
+    for (File file : runFiles) {
+      if (!file.delete()) {
+        file.deleteOnExit();
+      }
+    }
+    runFiles.clear();
+
+    movies = new long[0];
+    size = 0;
+    sortedKeys = new long[0];
+    users = new int[0];
+    values = new float[0];
+  }
+
+  /**
+   * Returns an iterator over the users. Each returned element contains all the ratings of one
+   * user.
+   */
+  @Override
+  public Iterator<UserRatings> iterator() {
+    iterated = true;
+    return new GroupIterator();
+  }
+
+  /**
+   * Sorts the ratings in memory by user. The ratings of a user stay in the order they were added.
+   */
+  private void sortBuffer() {
+    if (sortedKeys.length == size) {
+      return;
+    }
+
+    sortedKeys = new long[size];
+    for (int index = 0; index < size; index++) {
+      sortedKeys[index] = (long) users[index] << 32 | index;
+    }
+    Arrays.sort(sortedKeys);
+  }
+
+  /**
+   * Writes the ratings in memory, sorted by user, into a new run file. Then empties the memory.
+   */
+  private void spill() throws IOException {
+    sortBuffer();
+
+    File file = File.createTempFile(RUN_FILE_PREFIX, RUN_FILE_SUFFIX);
+    file.deleteOnExit();
+    runFiles.add(file);
+
+    try (DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE))) {
+      for (long key : sortedKeys) {
+        int index = (int) key;
+        output.writeInt(users[index]);
+        output.writeLong(movies[index]);
+        output.writeFloat(values[index]);
+      }
+    }
+
+    size = 0;
+    sortedKeys = new long[0];
+  }
+}
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.util.Arrays;
 
 import norbert.mynemo.dataimport.FileImporter;
+import norbert.mynemo.dataimport.fileformat.output.UserGroupingStore;
 import norbert.mynemo.dataimport.fileformat.output.UserSimilarityType;
 
 import org.apache.commons.cli.BasicParser;
@@ -43,7 +44,8 @@ public class ImportCommandParser {
 
   private static final String COMMAND_SYNTAX = "import  --out <file>  --in <file> [<file>…]"
       + "  [--movies <file> [<file>]]  [--user <id>]  [--max-users <number> [--similarity <type>]]"
-      + "  [--min-ratings-by-movie <number>]  [min-common-ratings <number>]";
+      + "  [--min-ratings-by-movie <number>]  [min-common-ratings <number>]  [--snapshot <file>]"
+      + "  [--sort-memory <megabytes>]  [--ordered]";
 
   // maximum number of users
   private static final String MAX_USERS_ARG_NAME = "number";
@@ -78,11 +80,19 @@ public class ImportCommandParser {
       + " scraping.";
   private static final String MOVIES_LONG_OPTION = "movies";
 
+  // ordered import
+  private static final String ORDERED_DESCRIPTION = "process the ratings in the order of the"
+      + " input files. Without this option, the input files are parsed at the same time and their"
+      + " ratings are interleaved. This option makes the output file reproducible, but the import"
+      + " is slower.";
+  private static final String ORDERED_LONG_OPTION = "ordered";
+
   // output file
   private static final String OUT_ARG_NAME = "file";
   private static final char OUT_CHAR_OPTION = 'o';
   private static final String OUT_DESCRIPTION = "output file where the converted ratings are"
-      + " written. If more than one input files is provided, they are merged.";
+      + " written. If more than one input files is provided, they are merged. An existing file is"
+      + " replaced once the import succeeded.";
   private static final String OUT_LONG_OPTION = "out";
 
   // rating file
@@ -99,6 +109,22 @@ public class ImportCommandParser {
       + "' and the 'user' options: only the nearest users will be retained.";
   private static final String SIMILARITY_LONG_OPTION = "similarity";
 
+  // snapshot
+  private static final String SNAPSHOT_ARG_NAME = "file";
+  private static final String SNAPSHOT_DESCRIPTION = "binary file where the imported ratings are"
+      + " also written. This file can be given as data model to the other commands, it is loaded"
+      + " much faster than the output file. An existing file is replaced once the import"
+      + " succeeded, a server watching this file then reloads it.";
+  private static final String SNAPSHOT_LONG_OPTION = "snapshot";
+
+  // memory used to group the ratings by user
+  private static final String SORT_MEMORY_ARG_NAME = "megabytes";
+  private static final String SORT_MEMORY_DESCRIPTION = "maximum memory used to group the ratings"
+      + " by user, in megabytes. The filters on the neighbors and on the common ratings write the"
+      + " other ratings in temporary files. The default value is "
+      + (UserGroupingStore.DEFAULT_MEMORY_BUDGET >> 20) + ".";
+  private static final String SORT_MEMORY_LONG_OPTION = "sort-memory";
+
   // user
   private static final String USER_ARG_NAME = "id";
   private static final char USER_CHAR_OPTION = 'u';
@@ -111,13 +137,25 @@ public class ImportCommandParser {
    */
   private static void check(String ouputFilepath, String[] ratingFilepaths,
       String[] mappingFilepaths, Optional<Integer> maxUsers, Optional<Integer> minCommonRatings,
-      Optional<String> user, Optional<UserSimilarityType> similarityType)
-      throws FileNotFoundException {
+      Optional<String> user, Optional<UserSimilarityType> similarityType,
+      Optional<String> snapshotFilepath) throws FileNotFoundException {
 
     // output filepath
-    if (new File(ouputFilepath).exists()) {
-      throw new IllegalArgumentException("Error: the output file " + ouputFilepath + " already"
-          + " exist.");
+    if (new File(ouputFilepath).isDirectory()) {
+      throw new IllegalArgumentException("Error: the output file " + ouputFilepath + " is a"
+          + " directory.");
+    }
+
+    // snapshot filepath
+    if (snapshotFilepath.isPresent() && new File(snapshotFilepath.get()).isDirectory()) {
+      throw new IllegalArgumentException("Error: the snapshot file " + snapshotFilepath.get()
+          + " is a directory.");
+    }
+    if (snapshotFilepath.isPresent()
+        && new File(snapshotFilepath.get()).getAbsoluteFile().equals(
+            new File(ouputFilepath).getAbsoluteFile())) {
+      throw new IllegalArgumentException("Error: the output file and the snapshot file must be"
+          + " different.");
     }
 
     // input filepaths
@@ -197,9 +235,26 @@ public class ImportCommandParser {
     OptionBuilder.withDescription(SIMILARITY_DESCRIPTION);
     Option similarity = OptionBuilder.create(SIMILARITY_CHAR_OPTION);
 
+    OptionBuilder.hasArg();
+    OptionBuilder.withArgName(SNAPSHOT_ARG_NAME);
+    OptionBuilder.withLongOpt(SNAPSHOT_LONG_OPTION);
+    OptionBuilder.withDescription(SNAPSHOT_DESCRIPTION);
+    Option snapshot = OptionBuilder.create();
+
+    OptionBuilder.hasArg();
+    OptionBuilder.withArgName(SORT_MEMORY_ARG_NAME);
+    OptionBuilder.withLongOpt(SORT_MEMORY_LONG_OPTION);
+    OptionBuilder.withDescription(SORT_MEMORY_DESCRIPTION);
+    Option sortMemory = OptionBuilder.create();
+
+    OptionBuilder.withLongOpt(ORDERED_LONG_OPTION);
+    OptionBuilder.withDescription(ORDERED_DESCRIPTION);
+    Option ordered = OptionBuilder.create();
+
     return new Options().addOption(out).addOption(ratings).addOption(movies).addOption(user)
         .addOption(maxUsers).addOption(minRatingsByMovie).addOption(minCommonRatings)
-        .addOption(similarity);
+        .addOption(similarity).addOption(snapshot).addOption(sortMemory)
+        .addOption(ordered);
   }
 
   public static void main(String[] args) {
@@ -215,9 +270,9 @@ public class ImportCommandParser {
   }
 
   /**
-   * Parses and checks the given arguments, then calls
-   * {@link FileImporter#convert(String, java.util.Collection, Optional, Optional, Optional, Optional)
-   * FileImporter.convert(…)}.
+   * Parses and checks the given arguments, then calls {@link FileImporter#convert
+   * FileImporter.convert(…)}. If a snapshot file is given, the imported ratings are also written
+   * as a snapshot.
    */
   public static void parse(String[] args) throws ParseException, IOException {
     CommandLineParser parser = new BasicParser();
@@ -238,13 +293,18 @@ public class ImportCommandParser {
         parseMinCommonRatings(commandLine.getOptionValue(MIN_COMMON_RATINGS_LONG_OPTION));
     Optional<UserSimilarityType> similarityType =
         parseSimilarityType(commandLine.getOptionValue(SIMILARITY_LONG_OPTION));
+    Optional<String> snapshotFilepath =
+        Optional.fromNullable(commandLine.getOptionValue(SNAPSHOT_LONG_OPTION));
+    Optional<Long> sortMemory =
+        parseSortMemory(commandLine.getOptionValue(SORT_MEMORY_LONG_OPTION));
+    boolean ordered = commandLine.hasOption(ORDERED_LONG_OPTION);
 
     check(outputFilepath, ratingsFilepaths, moviesFilepath, maxUsers, minCommonRatings, user,
-        similarityType);
+        similarityType, snapshotFilepath);
 
-    FileImporter.convert(outputFilepath, Arrays.asList(ratingsFilepaths),
+    FileImporter.convert(outputFilepath, snapshotFilepath, Arrays.asList(ratingsFilepaths),
         Arrays.asList(moviesFilepath), user, maxUsers, minRatingsByMovie, minCommonRatings,
-        similarityType);
+        similarityType, sortMemory, ordered);
   }
 
   /**
@@ -343,6 +403,32 @@ public class ImportCommandParser {
     return Optional.of(result);
   }
 
+  /**
+   * Parses and checks the "sort-memory" option. Returns the memory in bytes.
+   */
+  private static Optional<Long> parseSortMemory(String optionValue) {
+    if (optionValue == null) {
+      return Optional.absent();
+    }
+
+    Integer result;
+
+    try {
+      result = Integer.parseInt(optionValue);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Error: the memory to group the ratings is not a valid"
+          + " integer.", e);
+    }
+
+    // check
+    if (result <= 0) {
+      throw new IllegalArgumentException("Error: the memory to group the ratings must be greater"
+          + " than 0.");
+    }
+
+    return Optional.of((long) result << 20);
+  }
+
   public static void printUsage() {
     HelpFormatter formatter = new HelpFormatter();
     formatter.printHelp(COMMAND_SYNTAX, getOptions());
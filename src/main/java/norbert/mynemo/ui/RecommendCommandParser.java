@@ -58,14 +58,24 @@ public class RecommendCommandParser {
       + " items";
   public static final String ALGORITHM_LONG_OPTION = "algorithm";
 
+  // cache
+  private static final String CACHE_ARG_NAME = "directory";
+  private static final char CACHE_CHAR_OPTION = 'd';
+  private static final String CACHE_DESCRIPTION = "directory storing the factorizations of the SVD"
+      + " based algorithms between the runs. A factorization already stored for the same data model"
+      + " file, algorithm, features and iterations is not computed again. The directory is created"
+      + " if necessary.";
+  private static final String CACHE_LONG_OPTION = "cache";
+
   private static final String COMMAND_SYNTAX = "recommend  --algorithm <algo>"
       + "  --data-model <file>  --user <id>  [--recommendations <number>]  [--neighbors <number>]"
-      + "  [--features <number>  --iterations <number>]";
+      + "  [--features <number>  --iterations <number>]  [--cache <directory>]";
 
   // data model
   private static final String DATAMODEL_ARG_NAME = "file";
   private static final char DATAMODEL_CHAR_OPTION = 'm';
-  private static final String DATAMODEL_DESCRIPTION = "data model used by the recommender system";
+  private static final String DATAMODEL_DESCRIPTION = "data model used by the recommender"
+      + " system. It is either a rating file or a snapshot written by the import command.";
   public static final String DATAMODEL_LONG_OPTION = "data-model";
 
   private static final int DEFAULT_RECOMMENDATION_NUMBER = 10;
@@ -143,7 +153,8 @@ public class RecommendCommandParser {
 
   private static void execute(RecommenderType algorithm, DataModel dataModel, Long user,
       Integer maximumRecommendations, Optional<Integer> features, Optional<Integer> iterations,
-      Optional<Integer> neighbors) throws InterruptedException {
+      Optional<Integer> neighbors, Optional<File> cacheDirectory, File dataModelFile)
+      throws InterruptedException {
 
     RecommenderBuilder builder;
     switch (algorithm.getFamily()) {
@@ -156,9 +167,17 @@ public class RecommendCommandParser {
         break;
 
       case SVD_BASED:
-        builder =
-            new SvdBasedRecommender(new SvdBasedRecommenderConfiguration(algorithm, features.get(),
-                iterations.get(), dataModel, false));
+        SvdBasedRecommenderConfiguration configuration =
+            new SvdBasedRecommenderConfiguration(algorithm, features.get(), iterations.get(),
+                dataModel, user, false);
+        if (cacheDirectory.isPresent()) {
+          builder =
+              new SvdBasedRecommender(configuration,
+                  RecommenderOptions.createPersistenceStrategy(cacheDirectory.get(),
+                      dataModelFile, configuration));
+        } else {
+          builder = new SvdBasedRecommender(configuration);
+        }
         break;
 
       case USER_SIMILARITY_BASED:
@@ -249,8 +268,16 @@ public class RecommendCommandParser {
     OptionBuilder.withDescription(NEIGHBORS_DESCRIPTION);
     Option neighbors = OptionBuilder.create(NEIGHBORS_CHAR_OPTION);
 
+    // cache option
+    OptionBuilder.hasArg();
+    OptionBuilder.withArgName(CACHE_ARG_NAME);
+    OptionBuilder.withLongOpt(CACHE_LONG_OPTION);
+    OptionBuilder.withDescription(CACHE_DESCRIPTION);
+    Option cache = OptionBuilder.create(CACHE_CHAR_OPTION);
+
     return new Options().addOption(algorithm).addOption(dataModel).addOption(user)
-        .addOption(neighbors).addOption(recommendation).addOption(features).addOption(iterations);
+        .addOption(neighbors).addOption(recommendation).addOption(features).addOption(iterations)
+        .addOption(cache);
   }
 
   public static void main(String[] args) {
@@ -274,136 +301,28 @@ public class RecommendCommandParser {
     CommandLine commandLine = new BasicParser().parse(getOptions(), args);
 
     // parse the options and create the data types
-    RecommenderType algorithm = parseAlgorithm(commandLine.getOptionValue(ALGORITHM_CHAR_OPTION));
+    RecommenderType algorithm =
+        RecommenderOptions.parseAlgorithm(commandLine.getOptionValue(ALGORITHM_CHAR_OPTION));
     long user = parseUser(commandLine.getOptionValue(USER_CHAR_OPTION));
     Integer recommendations =
         parseRecommendations(Optional.fromNullable(commandLine
             .getOptionValue(RECOMMENDATIONS_CHAR_OPTION)));
-    Optional<Integer> features = parseFeatures(commandLine.getOptionValue(FEATURES_CHAR_OPTION));
+    Optional<Integer> features =
+        RecommenderOptions.parseFeatures(commandLine.getOptionValue(FEATURES_CHAR_OPTION));
     Optional<Integer> iterations =
-        parseIterations(commandLine.getOptionValue(ITERATIONS_CHAR_OPTION));
-    Optional<Integer> neighbors = parseNeighbors(commandLine.getOptionValue(NEIGHBORS_CHAR_OPTION));
+        RecommenderOptions.parseIterations(commandLine.getOptionValue(ITERATIONS_CHAR_OPTION));
+    Optional<Integer> neighbors =
+        RecommenderOptions.parseNeighbors(commandLine.getOptionValue(NEIGHBORS_CHAR_OPTION));
+    Optional<File> cacheDirectory =
+        RecommenderOptions.parseCache(commandLine.getOptionValue(CACHE_CHAR_OPTION));
     // loading the data model can be long, thus it is the last parsed option
-    DataModel dataModel = parseDataModel(commandLine.getOptionValue(DATAMODEL_CHAR_OPTION));
+    String dataModelValue = commandLine.getOptionValue(DATAMODEL_CHAR_OPTION);
+    DataModel dataModel = RecommenderOptions.parseDataModel(dataModelValue);
 
     check(algorithm, dataModel, user, features, iterations, neighbors);
 
-    execute(algorithm, dataModel, user, recommendations, features, iterations, neighbors);
-  }
-
-  private static RecommenderType parseAlgorithm(String algorithm) {
-    if (algorithm == null) {
-      return null;
-    }
-
-    RecommenderType result;
-
-    try {
-      result = RecommenderType.valueOf(algorithm.toUpperCase());
-    } catch (IllegalArgumentException e) {
-      throw new IllegalArgumentException("Error: unable to find the given algorithm.", e);
-    }
-
-    return result;
-  }
-
-  /**
-   * Parses and checks the "data-model" option.
-   */
-  private static DataModel parseDataModel(String dataModel) throws TasteException {
-    if (!new File(dataModel).exists()) {
-      throw new IllegalArgumentException("Error: unable to find the the data model file.");
-    }
-
-    DataModel result;
-
-    try {
-      result = new StringUserDataModel(new File(dataModel));
-    } catch (IOException e) {
-      throw new IllegalStateException("Error: unable to load the data model.", e);
-    }
-
-    // check
-    if (result.getNumUsers() == 0 || result.getNumItems() == 0) {
-      throw new IllegalArgumentException("Error: the data model doesn't contain any data.");
-    }
-
-    return result;
-  }
-
-  /**
-   * Parses and checks the "features" option.
-   */
-  private static Optional<Integer> parseFeatures(String featuresValue) {
-    if (featuresValue == null) {
-      return Optional.absent();
-    }
-
-    Integer result;
-
-    try {
-      result = Integer.parseInt(featuresValue);
-    } catch (NumberFormatException e) {
-      throw new IllegalArgumentException("Error: the provided feature number is not a valid"
-          + " integer.", e);
-    }
-
-    if (result <= 0) {
-      throw new IllegalArgumentException("Error: the number of features must be greater than 0.");
-    }
-
-    return Optional.of(result);
-  }
-
-  /**
-   * Parses and checks the "iterations" option.
-   */
-  private static Optional<Integer> parseIterations(String iterationsValue) {
-    if (iterationsValue == null) {
-      return Optional.absent();
-    }
-
-    Integer result;
-
-    try {
-      result = Integer.parseInt(iterationsValue);
-    } catch (NumberFormatException e) {
-      throw new IllegalArgumentException("Error: the provided iteration number is not a valid"
-          + " integer.", e);
-    }
-
-    // check
-    if (result <= 0) {
-      throw new IllegalArgumentException("Error: the number of iterations must be greater than"
-          + " 0.");
-    }
-
-    return Optional.of(result);
-  }
-
-  /**
-   * Parses and checks the "neighbors" option.
-   */
-  private static Optional<Integer> parseNeighbors(String neighborsValue) {
-    if (neighborsValue == null) {
-      return Optional.absent();
-    }
-
-    Integer result;
-
-    try {
-      result = Integer.parseInt(neighborsValue);
-    } catch (NumberFormatException e) {
-      throw new IllegalArgumentException("Error: the provided neighbors number is not a valid"
-          + " integer.", e);
-    }
-
-    // check
-    if (result <= 0) {
-      throw new IllegalArgumentException("Error: the number of neighbors must be greater than 0");
-    }
-
-    return Optional.of(result);
+    execute(algorithm, dataModel, user, recommendations, features, iterations, neighbors,
+        cacheDirectory, new File(dataModelValue));
   }
 
   /**
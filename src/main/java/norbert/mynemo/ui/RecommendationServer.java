@@ -0,0 +1,311 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.ui;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import norbert.mynemo.dataimport.StringUserDataModel;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class answers the requests of recommendations and of estimations over HTTP, from a
+ * recommender built once. The server only listens on the loopback interface. The requests are
+ * answered by a pool of threads. The answers are plain text:
+ * <ul>
+ * <li><code>/recommend?user=&lt;id&gt;[&amp;recommendations=&lt;number&gt;]</code> returns one line
+ * per recommended item, with the item id and the estimated preference separated by a tab,</li>
+ * <li><code>/estimate?user=&lt;id&gt;&amp;item=&lt;id&gt;</code> returns the estimated preference
+ * of the user for the item.</li>
+ * </ul>
+ * The user ids are converted like the user ids of the command line. The item ids are IMDb ids,
+ * like "tt0111161", as printed by the recommend command. A number of recommendations
+ * greater than the number of items is lowered to the number of items. An invalid request is
+ * answered with the status 400, an unknown user or item with the status 404. The other errors are
+ * logged, and answered with the status 500.
+ */
+public class RecommendationServer implements Closeable {
+
+  /**
+   * This exception represents a request that can't be answered, with the HTTP status to send.
+   */
+  private static class RequestException extends Exception {
+    private static final long serialVersionUID = 1L;
+    private final int status;
+
+    public RequestException(int status, String message) {
+      super(message);
+      this.status = status;
+    }
+  }
+
+  private static final int BAD_REQUEST = 400;
+  public static final int DEFAULT_RECOMMENDATION_NUMBER = 10;
+  private static final String ESTIMATE_PATH = "/estimate";
+  private static final String IMDB_ID_FORMAT = "tt%07d";
+  private static final String IMDB_ID_PREFIX = "tt";
+  private static final int INTERNAL_ERROR = 500;
+  private static final String ITEM_PARAMETER = "item";
+  private static final Logger LOGGER = LoggerFactory.getLogger(RecommendationServer.class);
+  private static final int METHOD_NOT_ALLOWED = 405;
+  private static final int NOT_FOUND = 404;
+  private static final int OK = 200;
+  private static final String RECOMMEND_PATH = "/recommend";
+  private static final String RECOMMENDATIONS_PARAMETER = "recommendations";
+  private static final String USER_PARAMETER = "user";
+
+  /**
+   * Returns the IMDb id of the given item, like the recommend command prints it.
+   */
+  private static String formatItem(long item) {
+    return String.format(IMDB_ID_FORMAT, item);
+  }
+
+  /**
+   * Returns the value of the given parameter.
+   *
+   * @throws RequestException if the parameter is missing
+   */
+  private static String getParameter(Map<String, String> parameters, String name)
+      throws RequestException {
+    String result = parameters.get(name);
+    if (result == null) {
+      throw new RequestException(BAD_REQUEST, "The " + name + " parameter is missing.");
+    }
+    return result;
+  }
+
+  /**
+   * Returns the item of the given IMDb id.
+   *
+   * @throws RequestException if the id is not an IMDb id
+   */
+  private static long parseItem(String item) throws RequestException {
+    if (!item.startsWith(IMDB_ID_PREFIX) || !item.substring(IMDB_ID_PREFIX.length()).matches(
+        "[0-9]+")) {
+      throw new RequestException(BAD_REQUEST, "The item is not a valid IMDb id.");
+    }
+    try {
+      return Long.parseLong(item.substring(IMDB_ID_PREFIX.length()));
+    } catch (NumberFormatException e) {
+      throw new RequestException(BAD_REQUEST, "The item is not a valid IMDb id.");
+    }
+  }
+
+  /**
+   * Returns the parameters of the query of the given request.
+   */
+  private static Map<String, String> parseQuery(HttpExchange exchange) throws RequestException {
+    Map<String, String> result = new HashMap<>();
+    String query = exchange.getRequestURI().getRawQuery();
+    if (query == null || query.isEmpty()) {
+      return result;
+    }
+
+    try {
+      for (String parameter : query.split("&")) {
+        int separator = parameter.indexOf('=');
+        if (separator < 0) {
+          result.put(URLDecoder.decode(parameter, Charsets.UTF_8.name()), "");
+        } else {
+          result.put(URLDecoder.decode(parameter.substring(0, separator), Charsets.UTF_8.name()),
+              URLDecoder.decode(parameter.substring(separator + 1), Charsets.UTF_8.name()));
+        }
+      }
+    } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+      throw new RequestException(BAD_REQUEST, "The query is malformed.");
+    }
+
+    return result;
+  }
+
+  /**
+   * Sends the given status and text as the answer of the given request.
+   */
+  private static void send(HttpExchange exchange, int status, String text) throws IOException {
+    byte[] body = text.getBytes(Charsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream output = exchange.getResponseBody()) {
+      output.write(body);
+    }
+  }
+
+  private final ExecutorService executor;
+  private final Recommender recommender;
+  private final HttpServer server;
+
+  /**
+   * Creates a server answering from the given recommender, on the given port of the loopback
+   * interface. The server must be started.
+   *
+   * @param recommender recommender answering the requests, must be thread-safe
+   * @param port port of the server
+   * @param threadNumber number of threads answering the requests
+   */
+  public RecommendationServer(Recommender recommender, int port, int threadNumber)
+      throws IOException {
+    checkNotNull(recommender);
+    checkArgument(0 < threadNumber, "The number of threads must be positive.");
+
+    this.recommender = recommender;
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    executor = Executors.newFixedThreadPool(threadNumber);
+    server.setExecutor(executor);
+
+    server.createContext(RECOMMEND_PATH, new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        handleRequest(exchange, true);
+      }
+    });
+    server.createContext(ESTIMATE_PATH, new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        handleRequest(exchange, false);
+      }
+    });
+  }
+
+  /**
+   * Stops the server. The requests being answered are abandoned.
+   */
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /**
+   * Returns the estimated preference of the user for the item given in the parameters.
+   */
+  private String estimate(Map<String, String> parameters) throws RequestException,
+      TasteException {
+    long user = parseUser(getParameter(parameters, USER_PARAMETER));
+    long item = parseItem(getParameter(parameters, ITEM_PARAMETER));
+
+    return recommender.estimatePreference(user, item) + "\n";
+  }
+
+  /**
+   * Returns the address the server listens on.
+   */
+  public InetSocketAddress getAddress() {
+    return server.getAddress();
+  }
+
+  /**
+   * Answers the given request. The request asks either for recommendations or for an estimation.
+   */
+  private void handleRequest(HttpExchange exchange, boolean recommendation) throws IOException {
+    int status;
+    String answer;
+
+    try {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        throw new RequestException(METHOD_NOT_ALLOWED, "Only the GET method is allowed.");
+      }
+      Map<String, String> parameters = parseQuery(exchange);
+      answer = recommendation ? recommend(parameters) : estimate(parameters);
+      status = OK;
+    } catch (RequestException e) {
+      status = e.status;
+      answer = e.getMessage() + "\n";
+    } catch (NoSuchUserException e) {
+      status = NOT_FOUND;
+      answer = "The user is not in the data model.\n";
+    } catch (NoSuchItemException e) {
+      status = NOT_FOUND;
+      answer = "The item is not in the data model.\n";
+    } catch (TasteException | RuntimeException e) {
+      LOGGER.error("Unable to answer the request " + exchange.getRequestURI() + ".", e);
+      status = INTERNAL_ERROR;
+      answer = "An unknown error occurs while the answer is computed.\n";
+    }
+
+    send(exchange, status, answer);
+  }
+
+  private long parseUser(String user) throws RequestException {
+    if (user.isEmpty()) {
+      throw new RequestException(BAD_REQUEST, "The user is not a valid id.");
+    }
+    return StringUserDataModel.convertUsername(user);
+  }
+
+  /**
+   * Returns the recommendations for the user given in the parameters.
+   */
+  private String recommend(Map<String, String> parameters) throws RequestException,
+      TasteException {
+    long user = parseUser(getParameter(parameters, USER_PARAMETER));
+
+    int recommendationNumber = DEFAULT_RECOMMENDATION_NUMBER;
+    if (parameters.containsKey(RECOMMENDATIONS_PARAMETER)) {
+      try {
+        recommendationNumber = Integer.parseInt(parameters.get(RECOMMENDATIONS_PARAMETER));
+      } catch (NumberFormatException e) {
+        throw new RequestException(BAD_REQUEST, "The number of recommendations is not a valid"
+            + " integer.");
+      }
+      if (recommendationNumber <= 0) {
+        throw new RequestException(BAD_REQUEST, "The number of recommendations must be greater"
+            + " than 0.");
+      }
+      // the size of the structures of the recommenders depends on the requested number
+      recommendationNumber =
+          Math.min(recommendationNumber, Math.max(1, recommender.getDataModel().getNumItems()));
+    }
+
+    StringBuilder result = new StringBuilder();
+    for (RecommendedItem item : recommender.recommend(user, recommendationNumber)) {
+      result.append(formatItem(item.getItemID())).append('\t').append(item.getValue()).append('\n');
+    }
+    return result.toString();
+  }
+
+  /**
+   * Starts to answer the requests.
+   */
+  public void start() {
+    server.start();
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.ui;
+
+import java.io.File;
+import java.io.IOException;
+
+import norbert.mynemo.core.recommendation.RecommenderType;
+import norbert.mynemo.core.recommendation.configuration.SvdBasedRecommenderConfiguration;
+import norbert.mynemo.core.recommendation.recommender.MappedFilePersistenceStrategy;
+import norbert.mynemo.dataimport.ParallelDataModelLoader;
+import norbert.mynemo.dataimport.SnapshotDataModel;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.recommender.svd.PersistenceStrategy;
+import org.apache.mahout.cf.taste.model.DataModel;
+
+import com.google.common.base.Optional;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * This class parses and checks the options shared by the commands that build or evaluate a
+ * recommender, i.e. the recommend, select and serve commands, and creates the persistence strategy
+ * of the factorization cache.
+ */
+final class RecommenderOptions {
+
+  /**
+   * Returns the persistence strategy storing the factorizations in the given directory. The
+   * factorizations are identified by the fingerprint of the content of the data model file, which
+   * is much faster to compute than the fingerprint of the preferences.
+   */
+  static PersistenceStrategy createPersistenceStrategy(File cacheDirectory,
+      File dataModelFile, SvdBasedRecommenderConfiguration configuration) {
+    try {
+      String fingerprint = Files.hash(dataModelFile, Hashing.murmur3_128()).toString();
+      return new MappedFilePersistenceStrategy(cacheDirectory, fingerprint, configuration);
+    } catch (IOException e) {
+      throw new IllegalStateException("Error: unable to use the cache directory.", e);
+    }
+  }
+
+  static RecommenderType parseAlgorithm(String algorithm) {
+    if (algorithm == null) {
+      return null;
+    }
+
+    RecommenderType result;
+
+    try {
+      result = RecommenderType.valueOf(algorithm.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Error: unable to find the given algorithm.", e);
+    }
+
+    return result;
+  }
+
+  /**
+   * Parses and checks the "cache" option.
+   */
+  static Optional<File> parseCache(String cacheValue) {
+    if (cacheValue == null) {
+      return Optional.absent();
+    }
+
+    File result = new File(cacheValue);
+
+    // check the value
+    if (result.exists() && !result.isDirectory()) {
+      throw new IllegalArgumentException("Error: the cache must be a directory.");
+    }
+
+    return Optional.of(result);
+  }
+
+  /**
+   * Parses and checks the "data-model" option. The data model file is either a snapshot or a
+   * Mynemo rating file.
+   */
+  static DataModel parseDataModel(String dataModel) throws TasteException {
+    if (!new File(dataModel).exists()) {
+      throw new IllegalArgumentException("Error: unable to find the the data model file.");
+    }
+
+    DataModel result;
+
+    try {
+      File file = new File(dataModel);
+      if (SnapshotDataModel.isSnapshot(file)) {
+        result = new SnapshotDataModel(file);
+      } else {
+        result = ParallelDataModelLoader.load(file);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Error: unable to load the data model.", e);
+    }
+
+    // check
+    if (result.getNumUsers() == 0 || result.getNumItems() == 0) {
+      throw new IllegalArgumentException("Error: the data model doesn't contain any data.");
+    }
+
+    return result;
+  }
+
+  /**
+   * Parses and checks the "features" option.
+   */
+  static Optional<Integer> parseFeatures(String featuresValue) {
+    if (featuresValue == null) {
+      return Optional.absent();
+    }
+
+    Integer result;
+
+    try {
+      result = Integer.parseInt(featuresValue);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Error: the provided feature number is not a valid"
+          + " integer.", e);
+    }
+
+    if (result <= 0) {
+      throw new IllegalArgumentException("Error: the number of features must be greater than 0.");
+    }
+
+    return Optional.of(result);
+  }
+
+  /**
+   * Parses and checks the "iterations" option.
+   */
+  static Optional<Integer> parseIterations(String iterationsValue) {
+    if (iterationsValue == null) {
+      return Optional.absent();
+    }
+
+    Integer result;
+
+    try {
+      result = Integer.parseInt(iterationsValue);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Error: the provided iteration number is not a valid"
+          + " integer.", e);
+    }
+
+    // check
+    if (result <= 0) {
+      throw new IllegalArgumentException("Error: the number of iterations must be greater than"
+          + " 0.");
+    }
+
+    return Optional.of(result);
+  }
+
+  /**
+   * Parses and checks the "neighbors" option.
+   */
+  static Optional<Integer> parseNeighbors(String neighborsValue) {
+    if (neighborsValue == null) {
+      return Optional.absent();
+    }
+
+    Integer result;
+
+    try {
+      result = Integer.parseInt(neighborsValue);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Error: the provided neighbors number is not a valid"
+          + " integer.", e);
+    }
+
+    // check
+    if (result <= 0) {
+      throw new IllegalArgumentException("Error: the number of neighbors must be greater than 0");
+    }
+
+    return Optional.of(result);
+  }
+
+  /**
+   * Parses and checks the "threads" option. The given default value is returned if the option is
+   * not given.
+   */
+  static int parseThreads(String threadsValue, int defaultValue) {
+    if (threadsValue == null) {
+      return defaultValue;
+    }
+
+    int result;
+
+    try {
+      result = Integer.parseInt(threadsValue);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Error: the provided number of threads is not a valid"
+          + " integer.", e);
+    }
+
+    // check the value
+    if (result < 1) {
+      throw new IllegalArgumentException("Error: the number of threads must be at least 1.");
+    }
+
+    return result;
+  }
+
+  /**
+   * Instantiates a new object. Private to prevents instantiation.
+   */
+  private RecommenderOptions() {
+    throw new AssertionError();
+  }
+}
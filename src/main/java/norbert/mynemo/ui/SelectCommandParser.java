@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import norbert.mynemo.core.evaluation.EvaluationCache;
 import norbert.mynemo.core.evaluation.MetricType;
 import norbert.mynemo.core.recommendation.RecommenderType;
 import norbert.mynemo.core.recommendation.configuration.SvdBasedRecommenderConfiguration;
@@ -58,9 +59,17 @@ public class SelectCommandParser {
       + " process. If no list is provided, the selection is done among some fast algorithms.";
   private static final String ALGORITHMS_LONG_OPTION = "algorithms";
 
+  // cache
+  private static final String CACHE_ARG_NAME = "directory";
+  private static final char CACHE_CHAR_OPTION = 'd';
+  private static final String CACHE_DESCRIPTION = "directory storing the evaluations between the"
+      + " runs. The evaluations already stored for the same data model, user and options are not"
+      + " done again. The directory is created if necessary.";
+  private static final String CACHE_LONG_OPTION = "cache";
+
   private static final String COMMAND_SYNTAX = "select  --data-model <file>  --user <id>"
       + "  [--algorithms <algo1> [<algo2>…]]  [--metric <metric>]  [--speed <speed>]"
-      + "  [--coverage <number>]";
+      + "  [--coverage <number>]  [--threads <number>]  [--cache <directory>]  [--seed <number>]";
 
   // coverage
   private static final String COVERAGE_ARG_NAME = "number";
@@ -75,9 +84,11 @@ public class SelectCommandParser {
   // data model
   private static final String DATAMODEL_ARG_NAME = "file";
   private static final char DATAMODEL_CHAR_OPTION = 'm';
-  private static final String DATAMODEL_DESCRIPTION = "data model used by the algorithms.";
+  private static final String DATAMODEL_DESCRIPTION = "data model used by the algorithms. It is"
+      + " either a rating file or a snapshot written by the import command.";
   private static final String DATAMODEL_LONG_OPTION = "data-model";
 
+  private static final long DEFAULT_CACHE_SEED = 0;
   private static final List<RecommenderType> DEFAULT_ALGORITHM_LIST = RecommenderType
       .getFastRecommenders();
   private static final MetricType DEFAULT_METRIC = RecommenderSelector.DEFAULT_METRIC;
@@ -91,6 +102,17 @@ public class SelectCommandParser {
       + " default value is \"" + DEFAULT_METRIC.toString().toLowerCase() + "\".";
   private static final String METRIC_LONG_OPTION = "metric";
 
+  // seed
+  private static final String SEED_ARG_NAME = "number";
+  private static final char SEED_CHAR_OPTION = 'e';
+  private static final String SEED_DESCRIPTION = "seed of the random choices of the selection:"
+      + " the test sets, the configurations explored by the optimizer and the initialization of the"
+      + " factorizers. The same seed provides the same selection, except for the SVD algorithms"
+      + " based on the Mahout SGD factorizers or on the Hogwild factorizer, whose trainings stay"
+      + " random. If a cache is used, the default value is " + DEFAULT_CACHE_SEED + ", otherwise"
+      + " the seed is random.";
+  private static final String SEED_LONG_OPTION = "seed";
+
   // speed
   private static final String SPEED_ARG_NAME = "speed";
   private static final char SPEED_CHAR_OPTION = 's';
@@ -98,6 +120,16 @@ public class SelectCommandParser {
       + " default value is \"" + DEFAULT_SPEED.toString().toLowerCase() + "\".";
   private static final String SPEED_LONG_OPTION = "speed";
 
+  // threads
+  private static final String THREADS_ARG_NAME = "number";
+  private static final char THREADS_CHAR_OPTION = 'r';
+  private static final String THREADS_DESCRIPTION = "maximum number of threads of each stage of"
+      + " the evaluations: algorithms, optimizer candidates, test sets and factorizations. About"
+      + " twice this number of threads may compute at the same time, more with the parallel SGD"
+      + " factorizer. The default value is the number of available processors ("
+      + RecommenderSelector.DEFAULT_THREAD_NUMBER + ").";
+  private static final String THREADS_LONG_OPTION = "threads";
+
   // user
   private static final String USER_ARG_NAME = "id";
   private static final char USER_CHAR_OPTION = 'u';
@@ -168,8 +200,27 @@ public class SelectCommandParser {
     OptionBuilder.withDescription(COVERAGE_DESCRIPTION);
     Option coverage = OptionBuilder.create(COVERAGE_CHAR_OPTION);
 
+    OptionBuilder.hasArg();
+    OptionBuilder.withArgName(THREADS_ARG_NAME);
+    OptionBuilder.withLongOpt(THREADS_LONG_OPTION);
+    OptionBuilder.withDescription(THREADS_DESCRIPTION);
+    Option threads = OptionBuilder.create(THREADS_CHAR_OPTION);
+
+    OptionBuilder.hasArg();
+    OptionBuilder.withArgName(CACHE_ARG_NAME);
+    OptionBuilder.withLongOpt(CACHE_LONG_OPTION);
+    OptionBuilder.withDescription(CACHE_DESCRIPTION);
+    Option cache = OptionBuilder.create(CACHE_CHAR_OPTION);
+
+    OptionBuilder.hasArg();
+    OptionBuilder.withArgName(SEED_ARG_NAME);
+    OptionBuilder.withLongOpt(SEED_LONG_OPTION);
+    OptionBuilder.withDescription(SEED_DESCRIPTION);
+    Option seed = OptionBuilder.create(SEED_CHAR_OPTION);
+
     return new Options().addOption(dataModel).addOption(user).addOption(algorithms)
-        .addOption(metric).addOption(speed).addOption(coverage);
+        .addOption(metric).addOption(speed).addOption(coverage).addOption(threads)
+        .addOption(cache).addOption(seed);
   }
 
   public static void main(String[] args) {
@@ -203,13 +254,21 @@ public class SelectCommandParser {
     MetricType metric = parseMetric(commandLine.getOptionValue(METRIC_LONG_OPTION));
     SpeedOption speed = parseSpeed(commandLine.getOptionValue(SPEED_LONG_OPTION));
     double coverage = parseCoverage(commandLine.getOptionValue(COVERAGE_LONG_OPTION));
+    int threads =
+        RecommenderOptions.parseThreads(commandLine.getOptionValue(THREADS_LONG_OPTION),
+            RecommenderSelector.DEFAULT_THREAD_NUMBER);
+    Optional<File> cacheDirectory =
+        RecommenderOptions.parseCache(commandLine.getOptionValue(CACHE_LONG_OPTION));
+    Optional<Long> seed =
+        parseSeed(commandLine.getOptionValue(SEED_LONG_OPTION), cacheDirectory.isPresent());
     // loading the data model can be long, thus it is the last parsed option
-    DataModel dataModel = parseDataModel(dataModelValue);
+    DataModel dataModel = RecommenderOptions.parseDataModel(dataModelValue);
 
     // the parsing is finished, execute
     check(dataModel, user);
     Optional<RecommenderEvaluation> selection =
-        select(dataModel, user, algorithms, metric, speed, coverage);
+        select(dataModel, user, algorithms, metric, speed, coverage, threads, cacheDirectory,
+            seed);
     printSelection(selection, dataModelValue, userValue);
   }
 
@@ -273,30 +332,6 @@ public class SelectCommandParser {
     return result;
   }
 
-  /**
-   * Parses and checks the "data-model" option.
-   */
-  private static DataModel parseDataModel(String dataModelValue) throws TasteException {
-    if (!new File(dataModelValue).exists()) {
-      throw new IllegalArgumentException("Error: unable to find the the data model file.");
-    }
-
-    DataModel result;
-
-    try {
-      result = new StringUserDataModel(new File(dataModelValue));
-    } catch (IOException e) {
-      throw new IllegalStateException("Error: unable to load the data model.", e);
-    }
-
-    // check
-    if (result.getNumUsers() == 0 || result.getNumItems() == 0) {
-      throw new IllegalArgumentException("Error: the data model doesn't contain any data.");
-    }
-
-    return result;
-  }
-
   private static MetricType parseMetric(String metricValue) {
     if (metricValue == null) {
       return DEFAULT_METRIC;
@@ -312,6 +347,25 @@ public class SelectCommandParser {
     return result;
   }
 
+  /**
+   * Parses and checks the "seed" option. If no seed is given, a cache needs the default seed.
+   */
+  private static Optional<Long> parseSeed(String seedValue, boolean cacheIsUsed) {
+    if (seedValue == null) {
+      return cacheIsUsed ? Optional.of(DEFAULT_CACHE_SEED) : Optional.<Long>absent();
+    }
+
+    long result;
+
+    try {
+      result = Long.parseLong(seedValue);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Error: the provided seed is not a valid integer.", e);
+    }
+
+    return Optional.of(result);
+  }
+
   private static SpeedOption parseSpeed(String speedValue) {
     if (speedValue == null) {
       return DEFAULT_SPEED;
@@ -423,10 +477,17 @@ public class SelectCommandParser {
   }
 
   private static Optional<RecommenderEvaluation> select(DataModel dataModel, Long user,
-      List<RecommenderType> algorithms, MetricType metric, SpeedOption speed, double coverage)
-      throws TasteException {
+      List<RecommenderType> algorithms, MetricType metric, SpeedOption speed, double coverage,
+      int threads, Optional<File> cacheDirectory, Optional<Long> seed) throws IOException,
+      TasteException {
+    Optional<EvaluationCache> cache = Optional.absent();
+    if (cacheDirectory.isPresent()) {
+      cache = Optional.of(new EvaluationCache(cacheDirectory.get(), dataModel));
+    }
+
     RecommenderSelector selection =
-        new RecommenderSelector(dataModel, user, metric, speed, FORCED_EVALUATION_PERCENTAGE);
+        new RecommenderSelector(dataModel, user, metric, speed, FORCED_EVALUATION_PERCENTAGE,
+            threads, cache, seed);
 
     return selection.selectAmong(algorithms, coverage);
   }
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.ui;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import norbert.mynemo.core.recommendation.RecommenderFamily;
+import norbert.mynemo.core.recommendation.RecommenderType;
+import norbert.mynemo.core.recommendation.configuration.BasicRecommenderConfiguration;
+import norbert.mynemo.core.recommendation.configuration.ItemBasedRecommenderConfiguration;
+import norbert.mynemo.core.recommendation.configuration.SvdBasedRecommenderConfiguration;
+import norbert.mynemo.core.recommendation.configuration.UserBasedRecommenderConfiguration;
+import norbert.mynemo.core.recommendation.recommender.BasicRecommender;
+import norbert.mynemo.core.recommendation.recommender.ItemSimilarityRecommender;
+import norbert.mynemo.core.recommendation.recommender.ReloadingRecommender;
+import norbert.mynemo.core.recommendation.recommender.SvdBasedRecommender;
+import norbert.mynemo.core.recommendation.recommender.UserSimilarityRecommender;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+
+import com.google.common.base.Optional;
+
+/**
+ * This parser handles a command line to start a daemon answering the recommendation requests of
+ * any user. The data model is loaded and the recommender is built once, then the requests are
+ * answered over HTTP by a {@link RecommendationServer}. Optionally, the data model file is
+ * watched: after a modification, a new data model and a new recommender are built in the
+ * background, then replace the previous ones, see {@link ReloadingRecommender}.
+ */
+public class ServeCommandParser {
+
+  // algorithm
+  private static final String ALGORITHM_ARG_NAME = "algo";
+  private static final char ALGORITHM_CHAR_OPTION = 'a';
+  private static final String ALGORITHM_DESCRIPTION = "algorithm used to find the recommended"
+      + " items";
+  private static final String ALGORITHM_LONG_OPTION = "algorithm";
+
+  // cache
+  private static final String CACHE_ARG_NAME = "directory";
+  private static final char CACHE_CHAR_OPTION = 'd';
+  private static final String CACHE_DESCRIPTION = "directory storing the factorizations of the SVD"
+      + " based algorithms between the runs. A factorization already stored for the same data model"
+      + " file, algorithm, features and iterations is not computed again. The directory is created"
+      + " if necessary.";
+  private static final String CACHE_LONG_OPTION = "cache";
+
+  private static final String COMMAND_SYNTAX = "serve  --algorithm <algo>  --data-model <file>"
+      + "  [--neighbors <number>]  [--features <number>  --iterations <number>]"
+      + "  [--cache <directory>]  [--port <number>]  [--threads <number>]  [--reload <seconds>]";
+
+  // data model
+  private static final String DATAMODEL_ARG_NAME = "file";
+  private static final char DATAMODEL_CHAR_OPTION = 'm';
+  private static final String DATAMODEL_DESCRIPTION = "data model used by the recommender"
+      + " system. It is either a rating file or a snapshot written by the import command.";
+  private static final String DATAMODEL_LONG_OPTION = "data-model";
+
+  private static final int DEFAULT_PORT = 8585;
+  private static final int DEFAULT_THREAD_NUMBER = Runtime.getRuntime().availableProcessors();
+
+  // features
+  private static final String FEATURES_ARG_NAME = "number";
+  private static final char FEATURES_CHAR_OPTION = 'f';
+  private static final String FEATURES_DESCRIPTION = "number of features for SVD algorithms";
+  private static final String FEATURES_LONG_OPTION = "features";
+
+  // iterations
+  private static final String ITERATIONS_ARG_NAME = "number";
+  private static final char ITERATIONS_CHAR_OPTION = 'i';
+  private static final String ITERATIONS_DESCRIPTION = "number of iterations for SVD algorithms";
+  private static final String ITERATIONS_LONG_OPTION = "iterations";
+
+  // neighbors
+  private static final String NEIGHBORS_ARG_NAME = "maximum";
+  private static final char NEIGHBORS_CHAR_OPTION = 'n';
+  private static final String NEIGHBORS_DESCRIPTION = "maximum allowed neighbors for user"
+      + " similarity based algorithms";
+  private static final String NEIGHBORS_LONG_OPTION = "neighbors";
+
+  // port
+  private static final String PORT_ARG_NAME = "number";
+  private static final char PORT_CHAR_OPTION = 'p';
+  private static final String PORT_DESCRIPTION = "port of the local HTTP endpoint, "
+      + DEFAULT_PORT + " by default";
+  private static final String PORT_LONG_OPTION = "port";
+
+  // reload
+  private static final String RELOAD_ARG_NAME = "seconds";
+  private static final char RELOAD_CHAR_OPTION = 'r';
+  private static final String RELOAD_DESCRIPTION = "period of the checks of the data model file."
+      + " After a modification of the file, the recommender is rebuilt in the background while the"
+      + " previous one keeps answering. By default, the file is not checked.";
+  private static final String RELOAD_LONG_OPTION = "reload";
+
+  // threads
+  private static final String THREADS_ARG_NAME = "number";
+  private static final char THREADS_CHAR_OPTION = 't';
+  private static final String THREADS_DESCRIPTION = "number of threads answering the requests, the"
+      + " number of processors by default";
+  private static final String THREADS_LONG_OPTION = "threads";
+
+  /**
+   * Performs various checks on the parameters that can't be done when parsing the values. Indeed,
+   * some checks need the value of more than one option to be performed.
+   */
+  private static void check(RecommenderType algorithm, Optional<Integer> features,
+      Optional<Integer> iterations, Optional<Integer> neighbors) {
+
+    // features and algorithm
+    if (algorithm.getFamily() == RecommenderFamily.SVD_BASED && !features.isPresent()) {
+      throw new IllegalArgumentException("Error: the " + FEATURES_LONG_OPTION + " option must"
+          + " be provided for a SVD based algorithm.");
+    }
+
+    // iterations and algorithm
+    if (algorithm.getFamily() == RecommenderFamily.SVD_BASED && !iterations.isPresent()) {
+      throw new IllegalArgumentException("Error: the " + ITERATIONS_LONG_OPTION + " option must"
+          + " be provided for a SVD based algorithm.");
+    }
+
+    // neighbors and algorithm
+    if (algorithm.getFamily() == RecommenderFamily.USER_SIMILARITY_BASED
+        && !neighbors.isPresent()) {
+      throw new IllegalArgumentException("Error: the " + NEIGHBORS_LONG_OPTION + " option must be"
+          + " provided for a user similarity based algorithm.");
+    }
+  }
+
+  /**
+   * Returns the builder of the recommenders of the given algorithm.
+   */
+  private static RecommenderBuilder createBuilder(RecommenderType algorithm,
+      Optional<Integer> features, Optional<Integer> iterations, Optional<Integer> neighbors,
+      Optional<File> cacheDirectory, File dataModelFile) {
+
+    RecommenderBuilder result;
+    switch (algorithm.getFamily()) {
+      case BASIC:
+        result = new BasicRecommender(new BasicRecommenderConfiguration(algorithm));
+        break;
+
+      case ITEM_SIMILARITY_BASED:
+        result = new ItemSimilarityRecommender(new ItemBasedRecommenderConfiguration(algorithm));
+        break;
+
+      case SVD_BASED:
+        // the recommender is built once, thus there is no factorization to reuse
+        SvdBasedRecommenderConfiguration configuration =
+            new SvdBasedRecommenderConfiguration(algorithm, features.get(), iterations.get(),
+                null, 0, false);
+        if (cacheDirectory.isPresent()) {
+          result =
+              new SvdBasedRecommender(configuration,
+                  RecommenderOptions.createPersistenceStrategy(cacheDirectory.get(),
+                      dataModelFile, configuration));
+        } else {
+          result = new SvdBasedRecommender(configuration);
+        }
+        break;
+
+      case USER_SIMILARITY_BASED:
+        result =
+            new UserSimilarityRecommender(new UserBasedRecommenderConfiguration(algorithm,
+                neighbors.get(), null, false));
+        break;
+
+      default:
+        throw new UnsupportedOperationException("Error: unable to handle the given algorithm."
+            + " The serve command parser must be updated.");
+    }
+
+    return result;
+  }
+
+  private static Options getOptions() {
+    // algorithm option
+    OptionBuilder.isRequired();
+    OptionBuilder.hasArg();
+    OptionBuilder.withArgName(ALGORITHM_ARG_NAME);
+    OptionBuilder.withLongOpt(ALGORITHM_LONG_OPTION);
+    OptionBuilder.withDescription(ALGORITHM_DESCRIPTION);
+    Option algorithm = OptionBuilder.create(ALGORITHM_CHAR_OPTION);
+
+    // data model option
+    OptionBuilder.isRequired();
+    OptionBuilder.hasArg();
+    OptionBuilder.withArgName(DATAMODEL_ARG_NAME);
+    OptionBuilder.withLongOpt(DATAMODEL_LONG_OPTION);
+    OptionBuilder.withDescription(DATAMODEL_DESCRIPTION);
+    Option dataModel = OptionBuilder.create(DATAMODEL_CHAR_OPTION);
+
+    // features option
+    OptionBuilder.hasArg();
+    OptionBuilder.withArgName(FEATURES_ARG_NAME);
+    OptionBuilder.withLongOpt(FEATURES_LONG_OPTION);
+    OptionBuilder.withDescription(FEATURES_DESCRIPTION);
+    Option features = OptionBuilder.create(FEATURES_CHAR_OPTION);
+
+    // iterations option
+    OptionBuilder.hasArg();
+    OptionBuilder.withArgName(ITERATIONS_ARG_NAME);
+    OptionBuilder.withLongOpt(ITERATIONS_LONG_OPTION);
+    OptionBuilder.withDescription(ITERATIONS_DESCRIPTION);
+    Option iterations = OptionBuilder.create(ITERATIONS_CHAR_OPTION);
+
+    // neighbors option
+    OptionBuilder.hasArg();
+    OptionBuilder.withArgName(NEIGHBORS_ARG_NAME);
+    OptionBuilder.withLongOpt(NEIGHBORS_LONG_OPTION);
+    OptionBuilder.withDescription(NEIGHBORS_DESCRIPTION);
+    Option neighbors = OptionBuilder.create(NEIGHBORS_CHAR_OPTION);
+
+    // cache option
+    OptionBuilder.hasArg();
+    OptionBuilder.withArgName(CACHE_ARG_NAME);
+    OptionBuilder.withLongOpt(CACHE_LONG_OPTION);
+    OptionBuilder.withDescription(CACHE_DESCRIPTION);
+    Option cache = OptionBuilder.create(CACHE_CHAR_OPTION);
+
+    // port option
+    OptionBuilder.hasArg();
+    OptionBuilder.withArgName(PORT_ARG_NAME);
+    OptionBuilder.withLongOpt(PORT_LONG_OPTION);
+    OptionBuilder.withDescription(PORT_DESCRIPTION);
+    Option port = OptionBuilder.create(PORT_CHAR_OPTION);
+
+    // reload option
+    OptionBuilder.hasArg();
+    OptionBuilder.withArgName(RELOAD_ARG_NAME);
+    OptionBuilder.withLongOpt(RELOAD_LONG_OPTION);
+    OptionBuilder.withDescription(RELOAD_DESCRIPTION);
+    Option reload = OptionBuilder.create(RELOAD_CHAR_OPTION);
+
+    // threads option
+    OptionBuilder.hasArg();
+    OptionBuilder.withArgName(THREADS_ARG_NAME);
+    OptionBuilder.withLongOpt(THREADS_LONG_OPTION);
+    OptionBuilder.withDescription(THREADS_DESCRIPTION);
+    Option threads = OptionBuilder.create(THREADS_CHAR_OPTION);
+
+    return new Options().addOption(algorithm).addOption(dataModel).addOption(neighbors)
+        .addOption(features).addOption(iterations).addOption(cache).addOption(port)
+        .addOption(threads).addOption(reload);
+  }
+
+  public static void main(String[] args) {
+    try {
+      ServeCommandParser.parse(args);
+    } catch (ParseException e) {
+      System.err.println(e.getMessage());
+      ServeCommandParser.printUsage();
+    } catch (Exception e) {
+      System.err.println(e.getMessage());
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Parses and checks the given arguments, then builds the recommender and starts the server. The
+   * server runs until the program is stopped.
+   */
+  public static void parse(String[] args) throws ParseException, IOException, TasteException {
+
+    CommandLine commandLine = new BasicParser().parse(getOptions(), args);
+
+    // parse the options and create the data types
+    final RecommenderType algorithm =
+        RecommenderOptions.parseAlgorithm(commandLine.getOptionValue(ALGORITHM_CHAR_OPTION));
+    final Optional<Integer> features =
+        RecommenderOptions.parseFeatures(commandLine.getOptionValue(FEATURES_CHAR_OPTION));
+    final Optional<Integer> iterations =
+        RecommenderOptions.parseIterations(commandLine.getOptionValue(ITERATIONS_CHAR_OPTION));
+    final Optional<Integer> neighbors =
+        RecommenderOptions.parseNeighbors(commandLine.getOptionValue(NEIGHBORS_CHAR_OPTION));
+    final Optional<File> cacheDirectory =
+        RecommenderOptions.parseCache(commandLine.getOptionValue(CACHE_CHAR_OPTION));
+    int port = parsePort(commandLine.getOptionValue(PORT_CHAR_OPTION));
+    int threads =
+        RecommenderOptions.parseThreads(commandLine.getOptionValue(THREADS_CHAR_OPTION),
+            DEFAULT_THREAD_NUMBER);
+    Optional<Integer> reload = parseReload(commandLine.getOptionValue(RELOAD_CHAR_OPTION));
+    final String dataModelValue = commandLine.getOptionValue(DATAMODEL_CHAR_OPTION);
+
+    check(algorithm, features, iterations, neighbors);
+
+    // each reload parses the data model file again, and builds a new recommender
+    Callable<Recommender> factory = new Callable<Recommender>() {
+      @Override
+      public Recommender call() throws TasteException {
+        DataModel dataModel = RecommenderOptions.parseDataModel(dataModelValue);
+        return createBuilder(algorithm, features, iterations, neighbors, cacheDirectory,
+            new File(dataModelValue)).buildRecommender(dataModel);
+      }
+    };
+
+    ReloadingRecommender recommender;
+    try {
+      recommender = new ReloadingRecommender(factory);
+    } catch (TasteException e) {
+      throw new IllegalStateException("Error: an unknown error occurs while the recommender is"
+          + " built.", e);
+    }
+    if (reload.isPresent()) {
+      recommender.reloadOnModification(new File(dataModelValue), reload.get(), TimeUnit.SECONDS);
+    }
+
+    serve(recommender, port, threads);
+  }
+
+  /**
+   * Parses and checks the "port" option.
+   */
+  private static int parsePort(String portValue) {
+    if (portValue == null) {
+      return DEFAULT_PORT;
+    }
+
+    int result;
+
+    try {
+      result = Integer.parseInt(portValue);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Error: the provided port is not a valid integer.", e);
+    }
+
+    // check the value
+    if (result < 0 || 65535 < result) {
+      throw new IllegalArgumentException("Error: the port must be between 0 and 65535.");
+    }
+
+    return result;
+  }
+
+  /**
+   * Parses and checks the "reload" option.
+   */
+  private static Optional<Integer> parseReload(String reloadValue) {
+    if (reloadValue == null) {
+      return Optional.absent();
+    }
+
+    Integer result;
+
+    try {
+      result = Integer.parseInt(reloadValue);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Error: the provided reload period is not a valid"
+          + " integer.", e);
+    }
+
+    // check the value
+    if (result <= 0) {
+      throw new IllegalArgumentException("Error: the reload period must be greater than 0.");
+    }
+
+    return Optional.of(result);
+  }
+
+  public static void printUsage() {
+    HelpFormatter formatter = new HelpFormatter();
+    formatter.printHelp(COMMAND_SYNTAX, getOptions());
+
+    System.out.print("Available algorithms: ");
+    for (RecommenderType current : RecommenderType.values()) {
+      System.out.print(current.name().toLowerCase() + "  ");
+    }
+    System.out.println();
+  }
+
+  /**
+   * Starts the server answering from the given recommender. The server is stopped when the program
+   * is shut down.
+   */
+  private static void serve(Recommender recommender, int port, int threads) {
+    final RecommendationServer server;
+    try {
+      server = new RecommendationServer(recommender, port, threads);
+    } catch (IOException e) {
+      throw new IllegalStateException("Error: unable to listen on the given port.", e);
+    }
+
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        server.close();
+      }
+    });
+    server.start();
+
+    System.out.println("Serving the recommendations on http://localhost:"
+        + server.getAddress().getPort() + "/recommend?user=<id>");
+  }
+
+  /**
+   * Instantiates a new object. Private to prevents instantiation.
+   */
+  private ServeCommandParser() {
+    throw new AssertionError();
+  }
+}
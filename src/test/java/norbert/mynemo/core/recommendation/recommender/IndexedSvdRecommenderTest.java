@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.recommender;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorization;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorizer;
+import org.apache.mahout.cf.taste.impl.recommender.svd.NoPersistenceStrategy;
+import org.apache.mahout.cf.taste.impl.recommender.svd.SVDRecommender;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Test;
+
+public class IndexedSvdRecommenderTest {
+
+  private static final int FEATURE_NUMBER = 6;
+  private static final int ITEM_NUMBER = 300;
+  private static final long SEED = 42;
+  private static final int USER_NUMBER = 30;
+
+  /**
+   * Asserts that the recommendations of the indexed recommender have the values of the
+   * recommendations of the Mahout recommender, rank by rank. The tied items may differ.
+   */
+  private static void assertSameRecommendations(Recommender expected, Recommender obtained,
+      long user, int howMany, boolean includeKnownItems) throws TasteException {
+    List<RecommendedItem> expectedItems = expected.recommend(user, howMany, includeKnownItems);
+    List<RecommendedItem> obtainedItems = obtained.recommend(user, howMany, includeKnownItems);
+    String message = "user=" + user + " howMany=" + howMany + " known=" + includeKnownItems;
+
+    assertEquals(message, expectedItems.size(), obtainedItems.size());
+    for (int rank = 0; rank < expectedItems.size(); rank++) {
+      assertEquals(message, expectedItems.get(rank).getValue(), obtainedItems.get(rank)
+          .getValue(), 0);
+    }
+  }
+
+  /**
+   * Returns a data model whose users rate random items. All users rate the first item, thus the
+   * Mahout candidates of a user are all the items of the data model, except the known ones.
+   */
+  private static DataModel createDataModel(Random random) {
+    FastByIDMap<PreferenceArray> preferences = new FastByIDMap<>();
+    for (long user = 1; user <= USER_NUMBER; user++) {
+      int ratingNumber = 1 + random.nextInt(ITEM_NUMBER / 3);
+      PreferenceArray array = new GenericUserPreferenceArray(ratingNumber);
+      array.setUserID(0, user);
+      for (int index = 0; index < ratingNumber; index++) {
+        // the items are rated in increasing order, with a random gap
+        array.setItemID(index, index == 0 ? 0 : array.getItemID(index - 1) + 1 + random.nextInt(2));
+        array.setValue(index, 1 + random.nextInt(5));
+      }
+      preferences.put(user, array);
+    }
+
+    return new GenericDataModel(preferences);
+  }
+
+  /**
+   * Returns a factorizer that always returns the same random factorization of the given data
+   * model. The factors may be negative.
+   */
+  private static Factorizer createFactorizer(DataModel dataModel, Random random)
+      throws TasteException {
+    FastByIDMap<Integer> userMapping = new FastByIDMap<>();
+    LongPrimitiveIterator users = dataModel.getUserIDs();
+    while (users.hasNext()) {
+      userMapping.put(users.nextLong(), userMapping.size());
+    }
+    FastByIDMap<Integer> itemMapping = new FastByIDMap<>();
+    LongPrimitiveIterator items = dataModel.getItemIDs();
+    while (items.hasNext()) {
+      itemMapping.put(items.nextLong(), itemMapping.size());
+    }
+
+    final Factorization factorization =
+        new Factorization(userMapping, itemMapping, createRandomVectors(random,
+            userMapping.size()), createRandomVectors(random, itemMapping.size()));
+    return new Factorizer() {
+      @Override
+      public Factorization factorize() {
+        return factorization;
+      }
+
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {}
+    };
+  }
+
+  private static double[][] createRandomVectors(Random random, int number) {
+    double[][] result = new double[number][FEATURE_NUMBER];
+    for (double[] vector : result) {
+      double scale = Math.exp(random.nextGaussian());
+      for (int feature = 0; feature < FEATURE_NUMBER; feature++) {
+        vector[feature] = random.nextGaussian() * scale;
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void recommendationsShouldBeTheMahoutOnes() throws TasteException {
+    Random random = new Random(SEED);
+    DataModel dataModel = createDataModel(random);
+    Factorizer factorizer = createFactorizer(dataModel, random);
+    Recommender expected = new SVDRecommender(dataModel, factorizer);
+
+    for (boolean quantized : new boolean[] {false, true}) {
+      Recommender obtained =
+          new IndexedSvdRecommender(dataModel, factorizer, new NoPersistenceStrategy(), quantized);
+
+      for (Entry<Long, Integer> user : factorizer.factorize().getUserIDMappings()) {
+        for (int howMany : new int[] {1, 10, 100, ITEM_NUMBER + 1}) {
+          assertSameRecommendations(expected, obtained, user.getKey(), howMany, false);
+          assertSameRecommendations(expected, obtained, user.getKey(), howMany, true);
+        }
+      }
+    }
+  }
+}
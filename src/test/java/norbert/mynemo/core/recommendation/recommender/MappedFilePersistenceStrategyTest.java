@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.recommender;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import norbert.mynemo.core.recommendation.RecommenderType;
+import norbert.mynemo.core.recommendation.configuration.SvdBasedRecommenderConfiguration;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorization;
+import org.junit.Test;
+
+public class MappedFilePersistenceStrategyTest {
+
+  private static final int FEATURE_NUMBER = 3;
+  /** Position of the length of the key in a factorization file. */
+  private static final int KEY_LENGTH_POSITION = 8 + 4;
+
+  /**
+   * Asserts that a file whose key length is the given value is ignored.
+   */
+  private static void assertKeyLengthIgnored(int keyLength) throws IOException {
+    File directory = Files.createTempDirectory("factorizations").toFile();
+    MappedFilePersistenceStrategy strategy = createStrategy(directory);
+    strategy.maybePersist(createFactorization());
+    File file = getFactorizationFile(directory);
+
+    byte[] content = Files.readAllBytes(file.toPath());
+    ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN).putInt(KEY_LENGTH_POSITION, keyLength);
+    replace(file, content);
+
+    assertNull(strategy.load());
+  }
+
+  private static Factorization createFactorization() {
+    FastByIDMap<Integer> users = new FastByIDMap<>();
+    users.put(7, 0);
+    users.put(-3, 1);
+    FastByIDMap<Integer> items = new FastByIDMap<>();
+    items.put(11, 0);
+    items.put(Long.MAX_VALUE, 1);
+    items.put(Long.MIN_VALUE, 2);
+    double[][] userFeatures = {{1, 2, 3}, {-1, -2, -3}};
+    double[][] itemFeatures = {{0.5, 0.25, 0.125}, {4, 5, 6}, {-7, 8, -9}};
+    return new Factorization(users, items, userFeatures, itemFeatures);
+  }
+
+  private static MappedFilePersistenceStrategy createStrategy(File directory) throws IOException {
+    return new MappedFilePersistenceStrategy(directory, "fingerprint",
+        new SvdBasedRecommenderConfiguration(RecommenderType.SVD_WITH_ALSWR_FACTORIZER,
+            FEATURE_NUMBER, 2, null, 0, false));
+  }
+
+  /**
+   * Returns the only factorization file of the given directory.
+   */
+  private static File getFactorizationFile(File directory) {
+    File[] files = directory.listFiles();
+    assertEquals(1, files.length);
+    return files[0];
+  }
+
+  /**
+   * Replaces the given file by a new file with the given content. The file is deleted first, so
+   * that the mappings of the previous loads are not modified.
+   */
+  private static void replace(File file, byte[] content) throws IOException {
+    assertEquals(true, file.delete());
+    Files.write(file.toPath(), content);
+  }
+
+  @Test
+  public void negativeKeyLengthShouldBeIgnored() throws IOException {
+    assertKeyLengthIgnored(-1);
+    assertKeyLengthIgnored(Integer.MIN_VALUE);
+  }
+
+  @Test
+  public void oversizedKeyLengthShouldBeIgnored() throws IOException {
+    assertKeyLengthIgnored(Integer.MAX_VALUE);
+    assertKeyLengthIgnored(1 << 20);
+  }
+
+  @Test
+  public void storedFactorizationShouldBeLoaded() throws IOException, TasteException {
+    File directory = Files.createTempDirectory("factorizations").toFile();
+    Factorization expected = createFactorization();
+    createStrategy(directory).maybePersist(expected);
+
+    Factorization obtained = createStrategy(directory).load();
+
+    assertNotNull(obtained);
+    for (long user : new long[] {7, -3}) {
+      assertArrayEquals(expected.getUserFeatures(user), obtained.getUserFeatures(user), 0);
+    }
+    for (long item : new long[] {11, Long.MAX_VALUE, Long.MIN_VALUE}) {
+      assertArrayEquals(expected.getItemFeatures(item), obtained.getItemFeatures(item), 0);
+    }
+  }
+
+  @Test
+  public void truncatedFileShouldBeIgnored() throws IOException {
+    File directory = Files.createTempDirectory("factorizations").toFile();
+    MappedFilePersistenceStrategy strategy = createStrategy(directory);
+    strategy.maybePersist(createFactorization());
+    File file = getFactorizationFile(directory);
+    byte[] content = Files.readAllBytes(file.toPath());
+
+    for (int length = 0; length < content.length; length++) {
+      replace(file, Arrays.copyOf(content, length));
+      assertNull("length=" + length, strategy.load());
+    }
+  }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.recommender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorization;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.junit.Test;
+
+public class TopItemsIndexTest {
+
+  private static final int FEATURE_NUMBER = 8;
+  /** Number of items, the index has several blocks. */
+  private static final int ITEM_NUMBER = 500;
+  /** Numbers of items requested by the tests, the last ones are greater than the item number. */
+  private static final int[] HOW_MANY = {1, 2, 10, 63, 64, 65, 200, ITEM_NUMBER, ITEM_NUMBER + 1,
+      Integer.MAX_VALUE};
+  private static final long SEED = 42;
+  private static final int USER_NUMBER = 20;
+
+  /**
+   * Asserts that the top items returned by the index for the given user vector are the ones of the
+   * exhaustive scoring of all items. Among tied items, any item is valid, thus only the scores are
+   * compared rank by rank. The returned items must be distinct, must not be excluded, and their
+   * values must be their scores.
+   */
+  private static void assertExhaustive(Factorization factorization, double[] userFeatures,
+      int howMany, FastIDSet excludedItems) throws TasteException {
+    float[] expected = getExhaustiveTopScores(factorization, userFeatures, howMany, excludedItems);
+
+    for (boolean quantized : new boolean[] {false, true}) {
+      List<RecommendedItem> obtained =
+          new TopItemsIndex(factorization, quantized).getTopItems(userFeatures, howMany,
+              excludedItems);
+      String message = "quantized=" + quantized + " howMany=" + howMany;
+
+      assertEquals(message, expected.length, obtained.size());
+      FastIDSet returnedItems = new FastIDSet();
+      for (int rank = 0; rank < expected.length; rank++) {
+        RecommendedItem item = obtained.get(rank);
+        assertFalse(message, excludedItems.contains(item.getItemID()));
+        assertTrue(message, returnedItems.add(item.getItemID()));
+        assertEquals(message, getScore(factorization, userFeatures, item.getItemID()),
+            item.getValue(), 0);
+        assertEquals(message, expected[rank], item.getValue(), 0);
+      }
+    }
+  }
+
+  /**
+   * Asserts that the index gives the exhaustive top items of the given factorization, for random
+   * users, random excluded items and all requested numbers of items.
+   */
+  private static void assertExhaustiveForRandomUsers(Factorization factorization,
+      double[][] userFeatures, Random random) throws TasteException {
+    for (double[] user : userFeatures) {
+      FastIDSet excludedItems = new FastIDSet();
+      for (Long item : toItemList(factorization)) {
+        if (random.nextInt(4) == 0) {
+          excludedItems.add(item);
+        }
+      }
+
+      for (int howMany : HOW_MANY) {
+        assertExhaustive(factorization, user, howMany, new FastIDSet());
+        assertExhaustive(factorization, user, howMany, excludedItems);
+      }
+    }
+  }
+
+  /**
+   * Returns a factorization of the given item vectors. The identifiers of the items are not
+   * contiguous. The factorization has a single user, because its number of features is the one of
+   * its user vectors.
+   */
+  private static Factorization createFactorization(double[][] itemFeatures) {
+    FastByIDMap<Integer> userMapping = new FastByIDMap<>();
+    userMapping.put(1, 0);
+    FastByIDMap<Integer> itemMapping = new FastByIDMap<>();
+    for (int index = 0; index < itemFeatures.length; index++) {
+      itemMapping.put(toItem(index), index);
+    }
+    return new Factorization(userMapping, itemMapping, new double[1][FEATURE_NUMBER],
+        itemFeatures);
+  }
+
+  /**
+   * Returns random vectors whose norms are spread over several orders of magnitude, so that the
+   * bounds of the blocks differ.
+   */
+  private static double[][] createRandomVectors(Random random, int number) {
+    double[][] result = new double[number][FEATURE_NUMBER];
+    for (double[] vector : result) {
+      double scale = Math.exp(random.nextGaussian());
+      for (int feature = 0; feature < FEATURE_NUMBER; feature++) {
+        vector[feature] = random.nextGaussian() * scale;
+      }
+    }
+    return result;
+  }
+
+  private static double dotProduct(double[] first, double[] second) {
+    double result = 0;
+    for (int index = 0; index < first.length; index++) {
+      result += first[index] * second[index];
+    }
+    return result;
+  }
+
+  /**
+   * Returns the scores of the best items for the given user vector, sorted by decreasing score, by
+   * scoring all items that are not excluded.
+   */
+  private static float[] getExhaustiveTopScores(Factorization factorization,
+      double[] userFeatures, int howMany, FastIDSet excludedItems) throws TasteException {
+    double[] scores = new double[factorization.numItems()];
+    int scoreNumber = 0;
+    for (Long item : toItemList(factorization)) {
+      if (!excludedItems.contains(item)) {
+        scores[scoreNumber++] = dotProduct(userFeatures, factorization.getItemFeatures(item));
+      }
+    }
+    Arrays.sort(scores, 0, scoreNumber);
+
+    float[] result = new float[Math.min(howMany, scoreNumber)];
+    for (int rank = 0; rank < result.length; rank++) {
+      result[rank] = (float) scores[scoreNumber - 1 - rank];
+    }
+    return result;
+  }
+
+  private static float getScore(Factorization factorization, double[] userFeatures, long item)
+      throws TasteException {
+    return (float) dotProduct(userFeatures, factorization.getItemFeatures(item));
+  }
+
+  private static long toItem(int index) {
+    return 1000 + 3L * index;
+  }
+
+  private static List<Long> toItemList(Factorization factorization) {
+    Long[] result = new Long[factorization.numItems()];
+    for (int index = 0; index < result.length; index++) {
+      result[index] = toItem(index);
+    }
+    return Arrays.asList(result);
+  }
+
+  @Test
+  public void alignedVectorsShouldGiveExhaustiveTopItems() throws TasteException {
+    Random random = new Random(SEED);
+
+    // the estimations are close to the bounds of the blocks, but their order is not the one of
+    // the norms
+    double[] direction = new double[FEATURE_NUMBER];
+    Arrays.fill(direction, 1);
+    double[][] items = new double[ITEM_NUMBER][FEATURE_NUMBER];
+    for (double[] item : items) {
+      double scale = 1 + random.nextDouble() * 0.1;
+      double noise = random.nextDouble() * 0.5;
+      for (int feature = 0; feature < FEATURE_NUMBER; feature++) {
+        item[feature] = (direction[feature] + random.nextGaussian() * noise) * scale;
+      }
+    }
+    double[][] users = new double[USER_NUMBER][];
+    for (int index = 0; index < USER_NUMBER; index++) {
+      users[index] = direction.clone();
+      users[index][random.nextInt(FEATURE_NUMBER)] += random.nextGaussian() * 0.5;
+    }
+
+    assertExhaustiveForRandomUsers(createFactorization(items), users, random);
+  }
+
+  @Test
+  public void emptyFactorizationShouldGiveNoItem() throws TasteException {
+    Factorization factorization = createFactorization(new double[0][]);
+    double[] user = new double[FEATURE_NUMBER];
+    Arrays.fill(user, 1);
+
+    for (int howMany : HOW_MANY) {
+      assertExhaustive(factorization, user, howMany, new FastIDSet());
+    }
+  }
+
+  @Test
+  public void negativeFactorsShouldGiveExhaustiveTopItems() throws TasteException {
+    Random random = new Random(SEED);
+
+    // all estimations are negative
+    double[][] items = createRandomVectors(random, ITEM_NUMBER);
+    for (double[] item : items) {
+      for (int feature = 0; feature < FEATURE_NUMBER; feature++) {
+        item[feature] = Math.abs(item[feature]);
+      }
+    }
+    double[][] users = createRandomVectors(random, USER_NUMBER);
+    for (double[] user : users) {
+      for (int feature = 0; feature < FEATURE_NUMBER; feature++) {
+        user[feature] = -Math.abs(user[feature]);
+      }
+    }
+    assertExhaustiveForRandomUsers(createFactorization(items), users, random);
+
+    // the signs of the factors are mixed, and the user vectors are negated
+    items = createRandomVectors(random, ITEM_NUMBER);
+    users = createRandomVectors(random, USER_NUMBER);
+    for (double[] user : users) {
+      for (int feature = 0; feature < FEATURE_NUMBER; feature++) {
+        user[feature] = -user[feature];
+      }
+    }
+    assertExhaustiveForRandomUsers(createFactorization(items), users, random);
+  }
+
+  @Test
+  public void randomFactorsShouldGiveExhaustiveTopItems() throws TasteException {
+    Random random = new Random(SEED);
+    assertExhaustiveForRandomUsers(createFactorization(createRandomVectors(random, ITEM_NUMBER)),
+        createRandomVectors(random, USER_NUMBER), random);
+  }
+
+  @Test
+  public void tiedItemsShouldGiveExhaustiveTopItems() throws TasteException {
+    Random random = new Random(SEED);
+
+    // few distinct vectors of small integers, each one shared by many items
+    double[][] distinctVectors = new double[7][FEATURE_NUMBER];
+    for (double[] vector : distinctVectors) {
+      for (int feature = 0; feature < FEATURE_NUMBER; feature++) {
+        vector[feature] = random.nextInt(5) - 2;
+      }
+    }
+    double[][] items = new double[ITEM_NUMBER][];
+    for (int index = 0; index < ITEM_NUMBER; index++) {
+      items[index] = distinctVectors[random.nextInt(distinctVectors.length)].clone();
+    }
+
+    double[][] users = new double[USER_NUMBER][FEATURE_NUMBER];
+    for (double[] user : users) {
+      for (int feature = 0; feature < FEATURE_NUMBER; feature++) {
+        user[feature] = random.nextInt(5) - 2;
+      }
+    }
+    // a null user vector ties all items
+    Arrays.fill(users[0], 0);
+
+    assertExhaustiveForRandomUsers(createFactorization(items), users, random);
+  }
+
+  @Test
+  public void zeroVectorsShouldGiveExhaustiveTopItems() throws TasteException {
+    Random random = new Random(SEED);
+    double[][] items = createRandomVectors(random, ITEM_NUMBER);
+    for (int index = 0; index < ITEM_NUMBER; index += 3) {
+      Arrays.fill(items[index], 0);
+    }
+    assertExhaustiveForRandomUsers(createFactorization(items),
+        createRandomVectors(random, USER_NUMBER), random);
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.recommender;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+public class UserMaskerDataModelTest {
+
+  private static final int ITEM_NUMBER = 40;
+  private static final long SEED = 42;
+  private static final long TARGET_USER = 1;
+  private static final int USER_NUMBER = 20;
+
+  /**
+   * Asserts that both models provide the same users, items and preferences.
+   */
+  private static void assertEqualModels(DataModel expected, DataModel obtained)
+      throws TasteException {
+    assertEquals(expected.getNumUsers(), obtained.getNumUsers());
+    assertEquals(expected.getNumItems(), obtained.getNumItems());
+    assertEquals(toSortedList(expected.getUserIDs()), toSortedList(obtained.getUserIDs()));
+    assertEquals(toSortedList(expected.getItemIDs()), toSortedList(obtained.getItemIDs()));
+
+    List<Long> items = toSortedList(expected.getItemIDs());
+    for (long item : items) {
+      assertEquals(expected.getNumUsersWithPreferenceFor(item),
+          obtained.getNumUsersWithPreferenceFor(item));
+      assertEquals(toSortedStrings(expected.getPreferencesForItem(item)),
+          toSortedStrings(obtained.getPreferencesForItem(item)));
+      for (long otherItem : items) {
+        assertEquals(expected.getNumUsersWithPreferenceFor(item, otherItem),
+            obtained.getNumUsersWithPreferenceFor(item, otherItem));
+      }
+    }
+
+    for (long user : toSortedList(expected.getUserIDs())) {
+      assertEquals(toSortedStrings(expected.getPreferencesFromUser(user)),
+          toSortedStrings(obtained.getPreferencesFromUser(user)));
+    }
+  }
+
+  /**
+   * Returns the preferences of random users. The target user rates some items alone, which must be
+   * masked with the user.
+   */
+  private static FastByIDMap<PreferenceArray> createPreferences(Random random) {
+    FastByIDMap<PreferenceArray> result = new FastByIDMap<>();
+    for (long user = TARGET_USER; user < TARGET_USER + USER_NUMBER; user++) {
+      List<Long> items = new ArrayList<>();
+      for (long item = 0; item < ITEM_NUMBER; item++) {
+        if (random.nextInt(3) == 0) {
+          items.add(item);
+        }
+      }
+      if (user == TARGET_USER) {
+        // items rated only by the target user
+        items.add((long) ITEM_NUMBER);
+        items.add((long) ITEM_NUMBER + 1);
+      }
+
+      PreferenceArray array = new GenericUserPreferenceArray(items.size());
+      array.setUserID(0, user);
+      for (int index = 0; index < items.size(); index++) {
+        array.setItemID(index, items.get(index));
+        array.setValue(index, 1 + random.nextInt(5));
+      }
+      result.put(user, array);
+    }
+    return result;
+  }
+
+  private static List<Long> toSortedList(LongPrimitiveIterator iterator) {
+    List<Long> result = new ArrayList<>();
+    while (iterator.hasNext()) {
+      result.add(iterator.nextLong());
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  private static List<String> toSortedStrings(PreferenceArray preferences) {
+    List<String> result = new ArrayList<>();
+    for (int index = 0; index < preferences.length(); index++) {
+      result.add(preferences.getUserID(index) + " " + preferences.getItemID(index) + " "
+          + preferences.getValue(index));
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  @Test
+  public void absentUserShouldMaskNothing() throws TasteException {
+    DataModel expected = new GenericDataModel(createPreferences(new Random(SEED)));
+
+    assertEqualModels(expected, new UserMaskerDataModel(expected, -1));
+  }
+
+  @Test
+  public void maskedModelShouldEqualModelWithoutUser() throws TasteException {
+    DataModel complete = new GenericDataModel(createPreferences(new Random(SEED)));
+    // the generic data model keeps the given map, thus the preferences are created again
+    FastByIDMap<PreferenceArray> preferences = createPreferences(new Random(SEED));
+    preferences.remove(TARGET_USER);
+    DataModel expected = new GenericDataModel(preferences);
+
+    assertEqualModels(expected, new UserMaskerDataModel(complete, TARGET_USER));
+  }
+
+  @Test(expected = NoSuchUserException.class)
+  public void maskedUserShouldBeUnknown() throws TasteException {
+    DataModel complete = new GenericDataModel(createPreferences(new Random(SEED)));
+
+    new UserMaskerDataModel(complete, TARGET_USER).getPreferencesFromUser(TARGET_USER);
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.similarity;
+
+import static norbert.mynemo.core.recommendation.similarity.SimilarityTestData.MASKED_USERS;
+import static norbert.mynemo.core.recommendation.similarity.SimilarityTestData.SINGLE_OVERLAP_ITEM_1;
+import static norbert.mynemo.core.recommendation.similarity.SimilarityTestData.SINGLE_OVERLAP_ITEM_2;
+import static norbert.mynemo.core.recommendation.similarity.SimilarityTestData.SINGLE_OVERLAP_USER_1;
+import static norbert.mynemo.core.recommendation.similarity.SimilarityTestData.ZERO_VARIANCE_ITEM;
+
+import norbert.mynemo.core.recommendation.RecommenderType;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.junit.Test;
+
+public class IncrementalItemSimilarityTest {
+
+  /**
+   * Asserts that the given similarity is the Mahout similarity of the given type on the given
+   * training model, for the given pair of items.
+   */
+  private static void assertMahoutSimilarity(RecommenderType type, ItemSimilarity expected,
+      ItemSimilarity obtained, long item1, long item2) throws TasteException {
+    SimilarityTestData.assertSimilar(type + " between " + item1 + " and " + item2,
+        expected.itemSimilarity(item1, item2), obtained.itemSimilarity(item1, item2));
+  }
+
+  /**
+   * Asserts that the incremental similarity of the given type on the given training model is the
+   * Mahout similarity, for every pair of items.
+   */
+  private static void assertMahoutSimilarities(RecommenderType type,
+      ItemPairStatistics pairStatistics, DataModel trainingModel) throws TasteException {
+    ItemSimilarity expected = createMahoutSimilarity(type, trainingModel);
+    ItemSimilarity obtained =
+        new IncrementalItemSimilarity(type, pairStatistics).forTrainingModel(trainingModel);
+
+    long[] items = SimilarityTestData.toArray(trainingModel.getItemIDs());
+    for (long item1 : items) {
+      for (long item2 : items) {
+        if (item1 != item2) {
+          assertMahoutSimilarity(type, expected, obtained, item1, item2);
+        }
+      }
+    }
+  }
+
+  private static ItemSimilarity createMahoutSimilarity(RecommenderType type, DataModel dataModel)
+      throws TasteException {
+    return (ItemSimilarity) SimilarityTestData.createMahoutSimilarity(type, dataModel);
+  }
+
+  @Test
+  public void oneMaskedUserShouldGiveMahoutSimilarities() throws TasteException {
+    DataModel completeModel = SimilarityTestData.createCompleteModel();
+    // the statistics are shared by all similarities and training models, like in an evaluation
+    ItemPairStatistics pairStatistics = new ItemPairStatistics(completeModel);
+
+    for (RecommenderType type : RecommenderType.values()) {
+      if (IncrementalItemSimilarity.supports(type)) {
+        for (long user : MASKED_USERS) {
+          assertMahoutSimilarities(type, pairStatistics,
+              SimilarityTestData.maskUser(completeModel, user));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void severalMaskedUsersShouldGiveMahoutSimilarities() throws TasteException {
+    DataModel completeModel = SimilarityTestData.createCompleteModel();
+    ItemPairStatistics pairStatistics = new ItemPairStatistics(completeModel);
+    DataModel trainingModel = SimilarityTestData.maskUsers(completeModel, MASKED_USERS);
+
+    for (RecommenderType type : RecommenderType.values()) {
+      if (IncrementalItemSimilarity.supports(type)) {
+        assertMahoutSimilarities(type, pairStatistics, trainingModel);
+      }
+    }
+  }
+
+  @Test
+  public void zeroVarianceAndSingleOverlapShouldGiveMahoutSimilarities() throws TasteException {
+    DataModel completeModel = SimilarityTestData.createCompleteModel();
+    ItemPairStatistics pairStatistics = new ItemPairStatistics(completeModel);
+
+    for (RecommenderType type : RecommenderType.values()) {
+      if (IncrementalItemSimilarity.supports(type)) {
+        // the masked user has rated the item without variance
+        DataModel trainingModel = SimilarityTestData.maskUser(completeModel, 1);
+        ItemSimilarity expected = createMahoutSimilarity(type, trainingModel);
+        ItemSimilarity obtained =
+            new IncrementalItemSimilarity(type, pairStatistics).forTrainingModel(trainingModel);
+        assertMahoutSimilarity(type, expected, obtained, ZERO_VARIANCE_ITEM, 1);
+        assertMahoutSimilarity(type, expected, obtained, 1, ZERO_VARIANCE_ITEM);
+
+        // the items share only one user, or only the masked preference
+        trainingModel = SimilarityTestData.maskUser(completeModel, SINGLE_OVERLAP_USER_1);
+        expected = createMahoutSimilarity(type, trainingModel);
+        obtained =
+            new IncrementalItemSimilarity(type, pairStatistics).forTrainingModel(trainingModel);
+        assertMahoutSimilarity(type, expected, obtained, SINGLE_OVERLAP_ITEM_1,
+            SINGLE_OVERLAP_ITEM_2);
+        assertMahoutSimilarity(type, expected, obtained, SINGLE_OVERLAP_ITEM_1, 2);
+        assertMahoutSimilarity(type, expected, obtained, 2, SINGLE_OVERLAP_ITEM_1);
+      }
+    }
+  }
+}
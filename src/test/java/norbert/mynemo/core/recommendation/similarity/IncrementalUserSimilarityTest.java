@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.similarity;
+
+import static norbert.mynemo.core.recommendation.similarity.SimilarityTestData.MASKED_USERS;
+import static norbert.mynemo.core.recommendation.similarity.SimilarityTestData.SINGLE_OVERLAP_USER_1;
+import static norbert.mynemo.core.recommendation.similarity.SimilarityTestData.SINGLE_OVERLAP_USER_2;
+import static norbert.mynemo.core.recommendation.similarity.SimilarityTestData.ZERO_VARIANCE_USER;
+
+import norbert.mynemo.core.recommendation.RecommenderType;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.junit.Test;
+
+public class IncrementalUserSimilarityTest {
+
+  /**
+   * Asserts that the given similarity is the Mahout similarity of the given type on the given
+   * training model, for the given pair of users.
+   */
+  private static void assertMahoutSimilarity(RecommenderType type, UserSimilarity expected,
+      UserSimilarity obtained, long user1, long user2) throws TasteException {
+    SimilarityTestData.assertSimilar(type + " between " + user1 + " and " + user2,
+        expected.userSimilarity(user1, user2), obtained.userSimilarity(user1, user2));
+  }
+
+  /**
+   * Asserts that the incremental similarity of the given type on the given training model is the
+   * Mahout similarity, for every pair of users.
+   */
+  private static void assertMahoutSimilarities(RecommenderType type, DataModel completeModel,
+      DataModel trainingModel) throws TasteException {
+    UserSimilarity expected = SimilarityTestData.createMahoutSimilarity(type, trainingModel);
+    UserSimilarity obtained = createSimilarity(type, completeModel).forTrainingModel(trainingModel);
+
+    long[] users = SimilarityTestData.toArray(trainingModel.getUserIDs());
+    for (long user1 : users) {
+      for (long user2 : users) {
+        if (user1 != user2) {
+          assertMahoutSimilarity(type, expected, obtained, user1, user2);
+        }
+      }
+    }
+  }
+
+  private static IncrementalUserSimilarity createSimilarity(RecommenderType type,
+      DataModel completeModel) throws TasteException {
+    return new IncrementalUserSimilarity(type, completeModel,
+        SimilarityTestData.createMahoutSimilarity(type, completeModel));
+  }
+
+  @Test
+  public void oneMaskedUserShouldGiveMahoutSimilarities() throws TasteException {
+    DataModel completeModel = SimilarityTestData.createCompleteModel();
+
+    for (RecommenderType type : RecommenderType.values()) {
+      if (IncrementalUserSimilarity.supports(type)) {
+        for (long user : MASKED_USERS) {
+          assertMahoutSimilarities(type, completeModel,
+              SimilarityTestData.maskUser(completeModel, user));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void severalMaskedUsersShouldGiveMahoutSimilarities() throws TasteException {
+    DataModel completeModel = SimilarityTestData.createCompleteModel();
+    DataModel trainingModel = SimilarityTestData.maskUsers(completeModel, MASKED_USERS);
+
+    for (RecommenderType type : RecommenderType.values()) {
+      if (IncrementalUserSimilarity.supports(type)) {
+        assertMahoutSimilarities(type, completeModel, trainingModel);
+      }
+    }
+  }
+
+  @Test
+  public void zeroVarianceAndSingleOverlapShouldGiveMahoutSimilarities() throws TasteException {
+    DataModel completeModel = SimilarityTestData.createCompleteModel();
+
+    for (RecommenderType type : RecommenderType.values()) {
+      if (IncrementalUserSimilarity.supports(type)) {
+        // the masked user has no variance
+        DataModel trainingModel = SimilarityTestData.maskUser(completeModel, ZERO_VARIANCE_USER);
+        UserSimilarity expected = SimilarityTestData.createMahoutSimilarity(type, trainingModel);
+        UserSimilarity obtained =
+            createSimilarity(type, completeModel).forTrainingModel(trainingModel);
+        assertMahoutSimilarity(type, expected, obtained, ZERO_VARIANCE_USER, 1);
+        assertMahoutSimilarity(type, expected, obtained, 1, ZERO_VARIANCE_USER);
+
+        // the masked user shares only one item with the other user
+        trainingModel = SimilarityTestData.maskUser(completeModel, SINGLE_OVERLAP_USER_1);
+        expected = SimilarityTestData.createMahoutSimilarity(type, trainingModel);
+        obtained = createSimilarity(type, completeModel).forTrainingModel(trainingModel);
+        assertMahoutSimilarity(type, expected, obtained, SINGLE_OVERLAP_USER_1,
+            SINGLE_OVERLAP_USER_2);
+        assertMahoutSimilarity(type, expected, obtained, SINGLE_OVERLAP_USER_2,
+            SINGLE_OVERLAP_USER_1);
+      }
+    }
+  }
+}
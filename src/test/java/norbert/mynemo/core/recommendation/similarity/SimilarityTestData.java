@@ -0,0 +1,251 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.core.recommendation.similarity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+
+import norbert.mynemo.core.evaluation.PreferenceMaskerModelBuilder;
+import norbert.mynemo.core.recommendation.RecommenderType;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericPreference;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.similarity.CityBlockSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.EuclideanDistanceSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.LogLikelihoodSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.UncenteredCosineSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+/**
+ * This class provides the data models used to compare the incremental similarities with the Mahout
+ * similarities. The values are multiples of 0.5, thus the sums of the statistics are exact, and
+ * the comparisons only suffer from the rounding of the final formulas.
+ */
+final class SimilarityTestData {
+  private static final double DENSITY = 0.4;
+  private static final int ITEM_COUNT = 20;
+  private static final long SEED = 42;
+  /** First item rated by both single overlap users. */
+  static final long SINGLE_OVERLAP_ITEM_1 = ITEM_COUNT + 1;
+  /** Second item sharing only one user with the first one. */
+  static final long SINGLE_OVERLAP_ITEM_2 = ITEM_COUNT + 2;
+  /** First user sharing only one item with the second one. */
+  static final long SINGLE_OVERLAP_USER_1 = 101;
+  /** Second user sharing only one item with the first one. */
+  static final long SINGLE_OVERLAP_USER_2 = 102;
+  private static final double TOLERANCE = 1e-9;
+  private static final int USER_COUNT = 30;
+  /** Item rated with the same value by all its users. */
+  static final long ZERO_VARIANCE_ITEM = ITEM_COUNT + 3;
+  /** User rating all its items with the same value. */
+  static final long ZERO_VARIANCE_USER = 100;
+  /** Users whose preferences are masked in the training models. */
+  static final long[] MASKED_USERS = {1, 2, 3, ZERO_VARIANCE_USER, SINGLE_OVERLAP_USER_1};
+
+  private static void add(Map<Long, List<Preference>> preferences, long user, long item,
+      float value) {
+    List<Preference> userPreferences = preferences.get(user);
+    if (userPreferences == null) {
+      userPreferences = new ArrayList<>();
+      preferences.put(user, userPreferences);
+    }
+    userPreferences.add(new GenericPreference(user, item, value));
+  }
+
+  /**
+   * Asserts that the given similarities are equal up to the rounding errors, or are both NaN.
+   */
+  static void assertSimilar(String message, double expected, double obtained) {
+    if (Double.isNaN(expected)) {
+      assertTrue(message + ": " + obtained, Double.isNaN(obtained));
+    } else {
+      assertEquals(message, expected, obtained, TOLERANCE);
+    }
+  }
+
+  /**
+   * Returns the data model containing random preferences, plus the zero variance and single
+   * overlap cases.
+   */
+  static DataModel createCompleteModel() {
+    Map<Long, List<Preference>> preferences = new TreeMap<>();
+    Random random = new Random(SEED);
+
+    for (long user = 1; user <= USER_COUNT; user++) {
+      for (long item = 1; item <= ITEM_COUNT; item++) {
+        if (random.nextDouble() < DENSITY) {
+          add(preferences, user, item, random.nextInt(11) / 2f);
+        }
+      }
+    }
+
+    // a user and an item without variance, sharing many preferences with the others
+    for (long item = 1; item <= ITEM_COUNT; item++) {
+      add(preferences, ZERO_VARIANCE_USER, item, 3);
+    }
+    for (long user = 1; user <= USER_COUNT; user++) {
+      add(preferences, user, ZERO_VARIANCE_ITEM, 2.5f);
+    }
+
+    // two users sharing only one item, two items sharing only one user
+    add(preferences, SINGLE_OVERLAP_USER_1, 1, 4.5f);
+    add(preferences, SINGLE_OVERLAP_USER_1, 2, 1);
+    add(preferences, SINGLE_OVERLAP_USER_1, SINGLE_OVERLAP_ITEM_1, 2);
+    add(preferences, SINGLE_OVERLAP_USER_2, SINGLE_OVERLAP_ITEM_1, 3.5f);
+    add(preferences, SINGLE_OVERLAP_USER_2, SINGLE_OVERLAP_ITEM_2, 1);
+
+    return toDataModel(preferences);
+  }
+
+  /**
+   * Returns the Mahout similarity of the given type on the given data model. The returned
+   * similarity is also an item similarity.
+   */
+  static UserSimilarity createMahoutSimilarity(RecommenderType type, DataModel dataModel)
+      throws TasteException {
+    UserSimilarity result;
+
+    switch (SimilarityFormula.of(type).get()) {
+      case CITY_BLOCK:
+        result = new CityBlockSimilarity(dataModel);
+        break;
+
+      case EUCLIDEAN:
+        result = new EuclideanDistanceSimilarity(dataModel, Weighting.UNWEIGHTED);
+        break;
+
+      case LOG_LIKELIHOOD:
+        result = new LogLikelihoodSimilarity(dataModel);
+        break;
+
+      case PEARSON:
+        result = new PearsonCorrelationSimilarity(dataModel, Weighting.UNWEIGHTED);
+        break;
+
+      case TANIMOTO:
+        result = new TanimotoCoefficientSimilarity(dataModel);
+        break;
+
+      case UNCENTERED_COSINE:
+        result = new UncenteredCosineSimilarity(dataModel, Weighting.UNWEIGHTED);
+        break;
+
+      case WEIGHTED_EUCLIDEAN:
+        result = new EuclideanDistanceSimilarity(dataModel, Weighting.WEIGHTED);
+        break;
+
+      case WEIGHTED_PEARSON:
+        result = new PearsonCorrelationSimilarity(dataModel, Weighting.WEIGHTED);
+        break;
+
+      case WEIGHTED_UNCENTERED_COSINE:
+        result = new UncenteredCosineSimilarity(dataModel, Weighting.WEIGHTED);
+        break;
+
+      default:
+        throw new IllegalStateException();
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the preferences at the even positions of the given preferences.
+   */
+  private static PreferenceArray keepEvenPreferences(PreferenceArray preferences) {
+    List<Preference> result = new ArrayList<>();
+    for (int index = 0; index < preferences.length(); index += 2) {
+      result.add(preferences.get(index));
+    }
+    return new GenericUserPreferenceArray(result);
+  }
+
+  /**
+   * Returns a training model of the complete data model, where every other preference of the given
+   * user is masked, like during an evaluation. The first preference is always kept.
+   */
+  static DataModel maskUser(DataModel completeModel, long user) throws TasteException {
+    FastByIDMap<PreferenceArray> trainingData = new FastByIDMap<>();
+    trainingData.put(user, keepEvenPreferences(completeModel.getPreferencesFromUser(user)));
+    return new PreferenceMaskerModelBuilder(completeModel, user).buildDataModel(trainingData);
+  }
+
+  /**
+   * Returns a copy of the complete data model, where every other preference of each given user is
+   * removed. The first preference of a user is always kept.
+   */
+  static DataModel maskUsers(DataModel completeModel, long[] users) throws TasteException {
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<>();
+    LongPrimitiveIterator iterator = completeModel.getUserIDs();
+    while (iterator.hasNext()) {
+      long user = iterator.nextLong();
+      userData.put(user, completeModel.getPreferencesFromUser(user));
+    }
+    for (long user : users) {
+      userData.put(user, keepEvenPreferences(completeModel.getPreferencesFromUser(user)));
+    }
+    return new GenericDataModel(userData);
+  }
+
+  /**
+   * Returns the ids of the given iterator.
+   */
+  static long[] toArray(LongPrimitiveIterator iterator) {
+    List<Long> ids = new ArrayList<>();
+    while (iterator.hasNext()) {
+      ids.add(iterator.nextLong());
+    }
+
+    long[] result = new long[ids.size()];
+    for (int index = 0; index < result.length; index++) {
+      result[index] = ids.get(index);
+    }
+    return result;
+  }
+
+  private static DataModel toDataModel(Map<Long, List<Preference>> preferences) {
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<>();
+    for (Entry<Long, List<Preference>> entry : preferences.entrySet()) {
+      userData.put(entry.getKey(), new GenericUserPreferenceArray(entry.getValue()));
+    }
+    return new GenericDataModel(userData);
+  }
+
+  /**
+   * Instantiates a new object. Private to prevents instantiation.
+   */
+  private SimilarityTestData() {
+    throw new AssertionError();
+  }
+}
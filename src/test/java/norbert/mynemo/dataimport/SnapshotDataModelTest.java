@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.dataimport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+public class SnapshotDataModelTest {
+  private static final int ITEM_COUNT = 50;
+  private static final int PREFERENCE_COUNT = 2000;
+  private static final long SEED = 42;
+  private static final int USER_COUNT = 100;
+
+  private static void assertEqualModels(DataModel expected, DataModel obtained)
+      throws TasteException {
+    assertEquals(expected.getNumUsers(), obtained.getNumUsers());
+    assertEquals(expected.getNumItems(), obtained.getNumItems());
+    assertEquals(expected.getMinPreference(), obtained.getMinPreference(), 0);
+    assertEquals(expected.getMaxPreference(), obtained.getMaxPreference(), 0);
+
+    LongPrimitiveIterator users = expected.getUserIDs();
+    LongPrimitiveIterator obtainedUsers = obtained.getUserIDs();
+    while (users.hasNext()) {
+      long user = users.nextLong();
+      assertEquals(user, obtainedUsers.nextLong());
+      assertEqualPreferences(expected.getPreferencesFromUser(user),
+          obtained.getPreferencesFromUser(user));
+    }
+
+    LongPrimitiveIterator items = expected.getItemIDs();
+    LongPrimitiveIterator obtainedItems = obtained.getItemIDs();
+    while (items.hasNext()) {
+      long item = items.nextLong();
+      assertEquals(item, obtainedItems.nextLong());
+      assertEqualPreferences(expected.getPreferencesForItem(item),
+          obtained.getPreferencesForItem(item));
+    }
+  }
+
+  private static void assertEqualPreferences(PreferenceArray expected, PreferenceArray obtained) {
+    assertEquals(expected.length(), obtained.length());
+    for (int index = 0; index < expected.length(); index++) {
+      assertEquals(expected.getUserID(index), obtained.getUserID(index));
+      assertEquals(expected.getItemID(index), obtained.getItemID(index));
+      assertEquals(expected.getValue(index), obtained.getValue(index), 0);
+    }
+  }
+
+  /**
+   * Returns a data model with random preferences drawn from the given seed. The ids are spread
+   * over the whole range of the longs, to check their encoding.
+   */
+  private static CompactDataModel createDataModel(long seed) {
+    Random random = new Random(seed);
+
+    long[] userIds = new long[USER_COUNT];
+    for (int index = 0; index < USER_COUNT; index++) {
+      userIds[index] = random.nextLong();
+    }
+    long[] itemIds = new long[ITEM_COUNT];
+    for (int index = 0; index < ITEM_COUNT; index++) {
+      itemIds[index] = random.nextInt(10000000);
+    }
+
+    long[] users = new long[PREFERENCE_COUNT];
+    long[] items = new long[PREFERENCE_COUNT];
+    float[] values = new float[PREFERENCE_COUNT];
+    for (int index = 0; index < PREFERENCE_COUNT; index++) {
+      users[index] = userIds[random.nextInt(USER_COUNT)];
+      items[index] = itemIds[random.nextInt(ITEM_COUNT)];
+      values[index] = random.nextInt(201) / 2f;
+    }
+
+    return new CompactDataModel(users, items, values, PREFERENCE_COUNT);
+  }
+
+  private static File createTemporaryFile() throws IOException {
+    File result = File.createTempFile("snapshot", ".bin");
+    result.deleteOnExit();
+    return result;
+  }
+
+  @Test
+  public void emptyDataModelShouldBeWritten() throws IOException, TasteException {
+    CompactDataModel expected = new CompactDataModel(new long[0], new long[0], new float[0], 0);
+    File file = createTemporaryFile();
+
+    SnapshotWriter.write(expected, file);
+    SnapshotDataModel obtained = new SnapshotDataModel(file);
+
+    assertEquals(0, obtained.getNumUsers());
+    assertEquals(0, obtained.getNumItems());
+  }
+
+  @Test
+  public void mappedSnapshotShouldBeReplaced() throws IOException, TasteException {
+    CompactDataModel first = createDataModel(SEED);
+    CompactDataModel second = createDataModel(SEED + 1);
+    File file = createTemporaryFile();
+
+    SnapshotWriter.write(first, file);
+    SnapshotDataModel firstObtained = new SnapshotDataModel(file);
+    SnapshotWriter.write(second, file);
+    SnapshotDataModel secondObtained = new SnapshotDataModel(file);
+
+    // the first model still reads the replaced file
+    assertEqualModels(first, firstObtained);
+    assertEqualModels(second, secondObtained);
+  }
+
+  @Test
+  public void writtenSnapshotShouldBeReadIdentically() throws IOException, TasteException {
+    CompactDataModel expected = createDataModel(SEED);
+    File file = createTemporaryFile();
+
+    SnapshotWriter.write(expected, file);
+    SnapshotDataModel obtained = new SnapshotDataModel(file);
+
+    assertEqualModels(expected, obtained);
+    assertEquals(SnapshotDataModel.HEADER_SIZE
+        + SnapshotDataModel.getSnapshotBodySize(expected.getNumUsers(), expected.getNumItems(),
+            expected.getNumPreferences()), file.length());
+  }
+
+  @Test
+  public void writtenSnapshotShouldFindPreferences() throws IOException, TasteException {
+    CompactDataModel expected = createDataModel(SEED);
+    File file = createTemporaryFile();
+
+    SnapshotWriter.write(expected, file);
+    SnapshotDataModel obtained = new SnapshotDataModel(file);
+
+    LongPrimitiveIterator users = expected.getUserIDs();
+    while (users.hasNext()) {
+      long user = users.nextLong();
+      LongPrimitiveIterator items = expected.getItemIDs();
+      while (items.hasNext()) {
+        long item = items.nextLong();
+        Float value = expected.getPreferenceValue(user, item);
+        if (value == null) {
+          assertNull(obtained.getPreferenceValue(user, item));
+        } else {
+          assertEquals(value, obtained.getPreferenceValue(user, item), 0);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Norbert
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package norbert.mynemo.dataimport.fileformat;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class ByteParserTest {
+  private static final String[] INVALID_NUMBERS = {"", ".", "..", "-", "1.2.3", "a", "1a", "e5"};
+  private static final int RANDOM_NUMBER_COUNT = 100000;
+  private static final long SEED = 42;
+  private static final String[] VALID_NUMBERS = {"0", "0.", ".0", ".5", "5.", "007", "100",
+      "4.5", "3.25", "0.1", "0.3", "1.0000001", "123456.789", "16777216", "16777217",
+      "167772161", "9999999999.5", "0.0000000001", "0.00000000001", "1e2", "-1.5", "+2"};
+
+  private static void assertParsedAsFloatParseFloat(String number) {
+    ByteBuffer buffer = toBuffer(number);
+    float expected = Float.parseFloat(number);
+    float obtained = ByteParser.parseFloat(buffer, 0, buffer.limit());
+    assertEquals(number, Float.floatToIntBits(expected), Float.floatToIntBits(obtained));
+  }
+
+  private static ByteBuffer toBuffer(String text) {
+    return ByteBuffer.wrap(text.getBytes(Charsets.UTF_8));
+  }
+
+  @Test
+  public void invalidNumbersShouldBeRejected() {
+    for (String number : INVALID_NUMBERS) {
+      ByteBuffer buffer = toBuffer(number);
+      try {
+        ByteParser.parseFloat(buffer, 0, buffer.limit());
+        throw new AssertionError("The number '" + number + "' should be rejected.");
+      } catch (NumberFormatException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void numberInsideBufferShouldBeParsed() {
+    ByteBuffer buffer = toBuffer("12\t4.5\t7");
+    assertEquals(4.5f, ByteParser.parseFloat(buffer, 3, 6), 0);
+    assertEquals(12, ByteParser.parseInt(buffer, 0, 2));
+    assertEquals(7, ByteParser.parseLong(buffer, 7, 8));
+  }
+
+  @Test
+  public void randomDecimalsShouldBeParsedAsFloatParseFloat() {
+    Random random = new Random(SEED);
+
+    for (int index = 0; index < RANDOM_NUMBER_COUNT; index++) {
+      // mostly rating values, sometimes large numbers
+      int integerPart = random.nextInt(4) == 0 ? random.nextInt(100000000) : random.nextInt(101);
+      StringBuilder number = new StringBuilder(Integer.toString(integerPart));
+      int decimals = random.nextInt(12);
+      if (decimals != 0) {
+        number.append('.');
+        for (int decimal = 1; decimal < decimals; decimal++) {
+          number.append((char) ('0' + random.nextInt(10)));
+        }
+      }
+      assertParsedAsFloatParseFloat(number.toString());
+    }
+  }
+
+  @Test
+  public void validNumbersShouldBeParsedAsFloatParseFloat() {
+    for (String number : VALID_NUMBERS) {
+      assertParsedAsFloatParseFloat(number);
+    }
+  }
+}